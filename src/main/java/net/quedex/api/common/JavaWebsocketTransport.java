@@ -0,0 +1,119 @@
+package net.quedex.api.common;
+
+import com.google.common.base.MoreObjects;
+import org.java_websocket.client.DefaultSSLWebSocketClientFactory;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_17;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link WebsocketTransport} based on the Java-WebSocket library. Every connection has its own client thread (and one
+ * more for SSL) and unbounded internal queues.
+ */
+public class JavaWebsocketTransport implements WebsocketTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JavaWebsocketTransport.class);
+
+    private final URI uri;
+    private final WebSocketClient webSocketClient;
+    private final ExecutorService webSocketClientFactoryExec;
+
+    public JavaWebsocketTransport(URI uri, Listener listener) {
+        this.uri = checkNotNull(uri, "null uri");
+        checkNotNull(listener, "null listener");
+        // TODO: Java-Websockets holds infinitely growing queues
+        webSocketClient = new WebSocketClient(uri, new Draft_17()) {
+            @Override
+            public void onOpen(ServerHandshake handshakedata) {
+                LOGGER.info(
+                        "Websocket opened with url={}, httpStatus={}, httpStatusMessage={}",
+                        uri, handshakedata.getHttpStatus(), handshakedata.getHttpStatusMessage()
+                );
+            }
+
+            @Override
+            public void onMessage(String message) {
+                listener.onMessage(message);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+                listener.onClose(code, reason, remote);
+            }
+
+            @Override
+            public void onError(Exception ex) {
+                listener.onError(ex);
+            }
+        };
+
+        webSocketClientFactoryExec = Executors.newSingleThreadExecutor();
+        if ("wss".equals(uri.getScheme())) {
+            initSsl();
+        }
+    }
+
+    private void initSsl() {
+        try {
+            SSLContext ssl = SSLContext.getInstance("TLS");
+            ssl.init(null, null, null);
+            DefaultSSLWebSocketClientFactory webSocketClientFactory =
+                    new DefaultSSLWebSocketClientFactory(ssl, webSocketClientFactoryExec);
+            webSocketClient.setWebSocketFactory(webSocketClientFactory);
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            throw new IllegalStateException("Error initialising SSL", e);
+        }
+    }
+
+    @Override
+    public void connect() throws CommunicationException {
+        try {
+            if (!webSocketClient.connectBlocking()) {
+                throw new CommunicationException("Error connecting to url=" + uri);
+            }
+        } catch (InterruptedException e) {
+            Thread.interrupted();
+        }
+    }
+
+    @Override
+    public void send(String message) throws CommunicationException {
+        try {
+            webSocketClient.send(message);
+        } catch (WebsocketNotConnectedException e) {
+            throw new DisconnectedException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        // has to be closed this way because of incompatibilities in WS protocol
+        webSocketClient.close();
+        webSocketClient.getConnection().closeConnection(1000, "");
+        try {
+            webSocketClient.closeBlocking();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        webSocketClientFactoryExec.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("uri", uri)
+                .toString();
+    }
+}
@@ -0,0 +1,136 @@
+package net.quedex.api.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Reads records written by {@link JournalRecorder}, segment after segment, in the order they were recorded. Not
+ * thread-safe. Typical usage:
+ * <pre>
+ *     try (JournalReader reader = new JournalReader(directory, name)) {
+ *         while (reader.next()) {
+ *             process(reader.getType(), reader.getContent());
+ *         }
+ *     }
+ * </pre>
+ */
+public class JournalReader implements Closeable {
+
+    private final List<Path> segments;
+
+    private int segmentIndex = -1;
+    private MappedByteBuffer segment;
+    private long segmentEpochNanos;
+    private long segmentNanoTime;
+
+    private byte type;
+    private long sequence;
+    private long nanoTime;
+    private byte[] content = new byte[1024];
+    private int contentLength;
+
+    /**
+     * @param directory directory containing the segment files
+     * @param name prefix of the segment file names given to the {@link JournalRecorder}
+     */
+    public JournalReader(Path directory, String name) throws IOException {
+        checkNotNull(directory, "null directory");
+        checkNotNull(name, "null name");
+        List<Path> segments = new ArrayList<>();
+        String glob = name + "-*" + JournalRecorder.SEGMENT_SUFFIX;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            stream.forEach(segments::add);
+        }
+        Collections.sort(segments);
+        this.segments = segments;
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return true if there was a next record, false if the end of the journal has been reached
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (segment != null && segment.remaining() >= JournalRecorder.RECORD_HEADER_LENGTH) {
+                int length = segment.getInt();
+                if (length > 0) {
+                    type = segment.get();
+                    sequence = segment.getLong();
+                    nanoTime = segment.getLong();
+                    if (content.length < length) {
+                        content = new byte[Math.max(length, content.length << 1)];
+                    }
+                    segment.get(content, 0, length);
+                    contentLength = length;
+                    return true;
+                }
+            }
+            if (segmentIndex + 1 >= segments.size()) {
+                segment = null;
+                return false;
+            }
+            openSegment(segments.get(++segmentIndex));
+        }
+    }
+
+    /**
+     * @return {@link JournalRecorder#RAW_FRAME} or {@link JournalRecorder#VERIFIED_PAYLOAD}
+     */
+    public byte getType() {
+        return type;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at the moment of reception of the current record
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    /**
+     * @return wall clock time of reception of the current record in nanoseconds since the epoch
+     */
+    public long getEpochNanos() {
+        return segmentEpochNanos + (nanoTime - segmentNanoTime);
+    }
+
+    public String getContent() {
+        return new String(content, 0, contentLength, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        segment = null;
+        segmentIndex = segments.size();
+    }
+
+    private void openSegment(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        checkState(segment.getInt() == JournalRecorder.MAGIC, "Not a journal segment file=%s", file);
+        int version = segment.getInt();
+        checkState(version == JournalRecorder.VERSION, "Unsupported version=%s of segment file=%s", version, file);
+        segmentEpochNanos = TimeUnit.MILLISECONDS.toNanos(segment.getLong());
+        segmentNanoTime = segment.getLong();
+    }
+}
@@ -0,0 +1,217 @@
+package net.quedex.api.common;
+
+import com.google.common.base.MoreObjects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Appends received messages to an append-only journal of memory-mapped segment files, to be read back with
+ * {@link JournalReader}. Every record carries a sequence number, the {@link System#nanoTime()} of its reception, its
+ * type ({@link #RAW_FRAME} or {@link #VERIFIED_PAYLOAD}) and the UTF-8 encoded content. Recording a message does not
+ * allocate - the content is encoded directly into the mapped segment. A new segment is started when the current one
+ * cannot fit the next record.
+ * <p>
+ * Segment file layout (big endian):
+ * <pre>
+ *     segment: magic(int) version(int) epochMillis(long) nanoTime(long) record*
+ *     record:  length(int) type(byte) sequence(long) nanoTime(long) content(byte[length])
+ * </pre>
+ * The (epochMillis, nanoTime) pair of the segment header anchors the record nano times to the wall clock. The length of
+ * a record is written last, so a record is visible to readers only once complete; a zero length marks the end of the
+ * segment, hence empty messages are dropped instead of being recorded.
+ * <p>
+ * Errors while recording are logged and cause the record to be dropped - they never propagate to the stream.
+ */
+public class JournalRecorder implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JournalRecorder.class);
+
+    public static final byte RAW_FRAME = 1;
+    public static final byte VERIFIED_PAYLOAD = 2;
+
+    static final int MAGIC = 0x51444A4C; // QDJL
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_LENGTH = 4 + 4 + 8 + 8;
+    static final int RECORD_HEADER_LENGTH = 4 + 1 + 8 + 8;
+    static final String SEGMENT_SUFFIX = ".journal";
+
+    private static final int MAX_BYTES_PER_CHAR = 3;
+    private static final int MIN_SEGMENT_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final String name;
+    private final int segmentSize;
+    private final boolean recordVerifiedPayloads;
+
+    private MappedByteBuffer segment;
+    private long sequence;
+    private long droppedCount;
+    private boolean closed;
+
+    /**
+     * @param directory directory to put the segment files in, created if absent
+     * @param name prefix of the segment file names
+     * @param segmentSize size of a single segment file in bytes, at least 64 KiB
+     * @param recordVerifiedPayloads whether verified payloads should be recorded in addition to the raw frames
+     */
+    public JournalRecorder(Path directory, String name, int segmentSize, boolean recordVerifiedPayloads)
+            throws IOException {
+        checkArgument(!name.isEmpty(), "Empty name");
+        checkArgument(segmentSize >= MIN_SEGMENT_SIZE, "segmentSize=%s < %s", segmentSize, MIN_SEGMENT_SIZE);
+        this.directory = checkNotNull(directory, "null directory");
+        this.name = name;
+        this.segmentSize = segmentSize;
+        this.recordVerifiedPayloads = recordVerifiedPayloads;
+
+        Files.createDirectories(directory);
+        roll();
+    }
+
+    public synchronized void recordRawFrame(String frame) {
+        record(RAW_FRAME, frame);
+    }
+
+    public synchronized void recordVerifiedPayload(String payload) {
+        if (recordVerifiedPayloads) {
+            record(VERIFIED_PAYLOAD, payload);
+        }
+    }
+
+    public boolean isRecordingVerifiedPayloads() {
+        return recordVerifiedPayloads;
+    }
+
+    /**
+     * @return sequence number of the last record written
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return number of records dropped due to errors, being empty or too big to fit a segment
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized void flush() {
+        if (!closed) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            segment.force();
+            closed = true;
+        }
+    }
+
+    private void record(byte type, String content) {
+        long nanoTime = System.nanoTime();
+        if (closed) {
+            droppedCount++;
+            return;
+        }
+
+        if (content.isEmpty()) {
+            LOGGER.debug("Dropping empty record, indistinguishable from the end of a segment");
+            droppedCount++;
+            return;
+        }
+        int maxLength = RECORD_HEADER_LENGTH + content.length() * MAX_BYTES_PER_CHAR;
+        if (maxLength > segmentSize - SEGMENT_HEADER_LENGTH) {
+            LOGGER.warn("Dropping record of length={} exceeding segmentSize={}", content.length(), segmentSize);
+            droppedCount++;
+            return;
+        }
+        if (segment.remaining() < maxLength) {
+            try {
+                roll();
+            } catch (IOException e) {
+                LOGGER.warn("Error rolling journal segment, dropping record", e);
+                droppedCount++;
+                return;
+            }
+        }
+
+        int start = segment.position();
+        segment.position(start + 4);
+        segment.put(type);
+        segment.putLong(++sequence);
+        segment.putLong(nanoTime);
+        int length = encodeUtf8(content, segment);
+        segment.putInt(start, length);
+    }
+
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        long epochMillis = System.currentTimeMillis();
+        Path file = directory.resolve(
+                String.format("%s-%013d-%019d%s", name, epochMillis, sequence + 1, SEGMENT_SUFFIX)
+        );
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            checkState(raf.length() == 0, "Segment file=%s already exists", file);
+            raf.setLength(segmentSize);
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+        segment.putLong(epochMillis);
+        segment.putLong(System.nanoTime());
+        LOGGER.debug("Started journal segment={}", file);
+    }
+
+    private static int encodeUtf8(String content, MappedByteBuffer buffer) {
+        int start = buffer.position();
+        int length = content.length();
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(content.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, content.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return buffer.position() - start;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("directory", directory)
+                .add("name", name)
+                .add("segmentSize", segmentSize)
+                .add("recordVerifiedPayloads", recordVerifiedPayloads)
+                .toString();
+    }
+}
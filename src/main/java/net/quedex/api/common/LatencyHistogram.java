@@ -0,0 +1,81 @@
+package net.quedex.api.common;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A histogram of latencies in nanoseconds with power-of-two buckets: bucket {@code i} counts values in
+ * {@code [2^(i-1), 2^i)}, so percentiles are accurate to within a factor of two. Recording does not allocate nor lock.
+ * Meant to be written by a single thread and read by any - readers may see a slightly out of date state.
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private volatile long count;
+    private volatile long sum;
+    private volatile long max;
+
+    /**
+     * Has to be called by a single thread at a time.
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        int bucket = BUCKETS - Long.numberOfLeadingZeros(value);
+        buckets.lazySet(bucket, buckets.get(bucket) + 1);
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        long count = this.count;
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket containing the given percentile (at most {@link #getMax}), 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        checkArgument(percentile >= 0 && percentile <= 100, "percentile=%s not in [0, 100]", percentile);
+        long count = this.count;
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return i == 0 ? 0 : i == BUCKETS - 1 ? max : Math.min((1L << i) - 1, max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("count", count)
+                .add("mean", getMean())
+                .add("p50", getPercentile(50))
+                .add("p99", getPercentile(99))
+                .add("max", max)
+                .toString();
+    }
+}
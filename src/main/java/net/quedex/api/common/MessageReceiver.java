@@ -18,6 +18,7 @@ public abstract class MessageReceiver {
     private final Logger logger;
 
     private volatile StreamFailureListener streamFailureListener;
+    private volatile JournalRecorder journalRecorder;
 
     protected MessageReceiver(Logger logger) {
         this.logger = checkNotNull(logger, "null logger");
@@ -25,8 +26,32 @@ public abstract class MessageReceiver {
 
     protected abstract void processData(String data) throws IOException, PGPExceptionBase;
 
-    public final void processMessage(String message) {
+    /**
+     * Processes the given frame; any error is reported to the registered {@link StreamFailureListener}.
+     *
+     * @return false if the frame could not be parsed or its signature is invalid, true otherwise - also if a listener
+     *         threw an exception, as the frame has been delivered then
+     */
+    public final boolean processMessage(String message) {
+        recordRawFrame(message);
+        return processRecordedMessage(message);
+    }
 
+    /**
+     * Appends the given frame to the registered {@link JournalRecorder}, if any - for frames which are not processed
+     * right away, or not at all.
+     */
+    public final void recordRawFrame(String message) {
+        JournalRecorder journalRecorder = this.journalRecorder;
+        if (journalRecorder != null) {
+            journalRecorder.recordRawFrame(message);
+        }
+    }
+
+    /**
+     * Processes the given frame, already passed to {@link #recordRawFrame}, as {@link #processMessage} does.
+     */
+    public final boolean processRecordedMessage(String message) {
         try {
             JsonNode metaJson = OBJECT_MAPPER.readTree(message);
 
@@ -44,12 +69,22 @@ public abstract class MessageReceiver {
                     // no-op
                     break;
             }
+            return true;
         } catch (IOException e) {
             onError(new CommunicationException("Error parsing json entity on message=" + message, e));
         } catch (PGPExceptionBase e) {
             onError(new CommunicationException("PGP error on message=" + message, e));
         } catch (RuntimeException e) {
             onError(new CommunicationException("Error processing message=" + message, e));
+            return true;
+        }
+        return false;
+    }
+
+    protected final void recordVerifiedPayload(String payload) {
+        JournalRecorder journalRecorder = this.journalRecorder;
+        if (journalRecorder != null) {
+            journalRecorder.recordVerifiedPayload(payload);
         }
     }
 
@@ -73,4 +108,8 @@ public abstract class MessageReceiver {
     public final void registerStreamFailureListener(StreamFailureListener streamFailureListener) {
         this.streamFailureListener = streamFailureListener;
     }
+
+    public final void registerJournalRecorder(JournalRecorder journalRecorder) {
+        this.journalRecorder = journalRecorder;
+    }
 }
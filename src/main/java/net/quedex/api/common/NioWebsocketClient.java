@@ -0,0 +1,185 @@
+package net.quedex.api.common;
+
+import com.google.common.base.MoreObjects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A {@link WebsocketTransport.Factory} creating non-blocking WebSocket connections (RFC 6455, text messages only), all
+ * of them served by a single selector-driven I/O thread - one instance may be shared by many streams. Compared to
+ * {@link JavaWebsocketTransport}:
+ * <ul>
+ *     <li> no per-connection threads, </li>
+ *     <li> reads go through preallocated direct buffers, </li>
+ *     <li> the queue of outgoing messages of a connection is bounded - sending fails instead of growing it, </li>
+ *     <li> received messages larger than the given maximum fail the connection instead of being buffered. </li>
+ * </ul>
+ * Received messages are delivered on the I/O thread, so listeners should not block it for long - any heavy processing
+ * delays all the connections of the client (see e.g. {@code WebsocketMarketStream.enableBacklogConflation}).
+ * <p>
+ * {@link #close} closes all the connections still open.
+ */
+public class NioWebsocketClient implements WebsocketTransport.Factory, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioWebsocketClient.class);
+
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 16 << 20;
+    public static final int DEFAULT_MAX_OUTBOUND_BYTES = 4 << 20;
+    public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
+
+    private final int maxMessageSize;
+    private final int maxOutboundBytes;
+    private final long connectTimeoutMillis;
+    private final Selector selector;
+    private final Thread ioThread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private SSLContext sslContext; // lazily, by the I/O thread
+    private volatile boolean running = true;
+
+    public NioWebsocketClient() {
+        this(DEFAULT_MAX_MESSAGE_SIZE, DEFAULT_MAX_OUTBOUND_BYTES, DEFAULT_CONNECT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param maxMessageSize maximum size of a received message in bytes
+     * @param maxOutboundBytes maximum number of bytes of messages queued for sending, per connection
+     * @param connectTimeoutMillis maximum time of opening a connection, including TLS and WebSocket handshakes
+     */
+    public NioWebsocketClient(int maxMessageSize, int maxOutboundBytes, long connectTimeoutMillis) {
+        checkArgument(maxMessageSize > 0, "maxMessageSize=%s <= 0", maxMessageSize);
+        checkArgument(maxOutboundBytes > 0, "maxOutboundBytes=%s <= 0", maxOutboundBytes);
+        checkArgument(connectTimeoutMillis > 0, "connectTimeoutMillis=%s <= 0", connectTimeoutMillis);
+        this.maxMessageSize = maxMessageSize;
+        this.maxOutboundBytes = maxOutboundBytes;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        try {
+            this.selector = Selector.open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Error opening selector", e);
+        }
+        this.ioThread = new Thread(this::run, "websocket-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    @Override
+    public WebsocketTransport create(URI uri, WebsocketTransport.Listener listener) {
+        checkState(running, "Closed");
+        return new NioWebsocketTransport(this, uri, listener);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        if (Thread.currentThread() != ioThread) {
+            try {
+                ioThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    int getMaxOutboundBytes() {
+        return maxOutboundBytes;
+    }
+
+    long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    boolean isIoThread() {
+        return Thread.currentThread() == ioThread;
+    }
+
+    SSLContext getSslContext() {
+        if (sslContext == null) {
+            try {
+                SSLContext ssl = SSLContext.getInstance("TLS");
+                ssl.init(null, null, null);
+                sslContext = ssl;
+            } catch (NoSuchAlgorithmException | KeyManagementException e) {
+                throw new IllegalStateException("Error initialising SSL", e);
+            }
+        }
+        return sslContext;
+    }
+
+    /**
+     * Runs the given task on the I/O thread.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void run() {
+        LOGGER.debug("I/O thread started");
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                LOGGER.error("Error selecting, closing", e);
+                break;
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Error running task", e);
+                }
+            }
+            Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+            while (selected.hasNext()) {
+                SelectionKey key = selected.next();
+                selected.remove();
+                ((NioWebsocketTransport) key.attachment()).onSelected(key);
+            }
+        }
+        running = false;
+        for (SelectionKey key : selector.keys()) {
+            ((NioWebsocketTransport) key.attachment()).fail(new DisconnectedException("Websocket client closed"));
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.warn("Error closing selector", e);
+        }
+        LOGGER.debug("I/O thread stopped");
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("maxMessageSize", maxMessageSize)
+                .add("maxOutboundBytes", maxOutboundBytes)
+                .add("connectTimeoutMillis", connectTimeoutMillis)
+                .toString();
+    }
+}
@@ -0,0 +1,697 @@
+package net.quedex.api.common;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A connection of {@link NioWebsocketClient}. All the socket, TLS and framing work happens on the I/O thread of the
+ * client; callers only encode (and mask) outgoing frames and put them on the bounded outbound queue.
+ */
+final class NioWebsocketTransport implements WebsocketTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioWebsocketTransport.class);
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int READ_BUFFER_SIZE = 64 << 10;
+    private static final int WRITE_BUFFER_SIZE = 64 << 10;
+    private static final int INITIAL_MESSAGE_BUFFER_SIZE = 4 << 10;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5_000;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    private static final int CLOSE_NORMAL = 1000;
+    private static final int CLOSE_NO_STATUS = 1005;
+    private static final int CLOSE_ABNORMAL = 1006;
+
+    private enum State { NEW, CONNECTING, HANDSHAKING, OPEN, CLOSING, CLOSED }
+
+    private final NioWebsocketClient client;
+    private final URI uri;
+    private final Listener listener;
+    private final String host;
+    private final int port;
+    private final boolean secure;
+    private final CompletableFuture<Void> opened = new CompletableFuture<>();
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private int outboundBytes; // guarded by outbound
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile State state = State.NEW;
+
+    // accessed only by the I/O thread
+    private SocketChannel channel;
+    private SelectionKey key;
+    private SSLEngine sslEngine;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private ByteBuffer writing;
+    private String handshakeKey;
+    private boolean closeWhenFlushed;
+    private int closeCode = CLOSE_ABNORMAL;
+    private String closeReason = "";
+    private boolean closedRemotely;
+
+    // frame decoding, accessed only by the I/O thread
+    private long payloadRemaining = -1;
+    private int frameOpcode;
+    private boolean frameFin;
+    private int frameMask;
+    private long framePayloadOffset;
+    private int messageOpcode = -1;
+    private byte[] message = new byte[INITIAL_MESSAGE_BUFFER_SIZE];
+    private int messageLength;
+    private final byte[] control = new byte[125];
+    private int controlLength;
+
+    NioWebsocketTransport(NioWebsocketClient client, URI uri, Listener listener) {
+        this.client = checkNotNull(client, "null client");
+        this.uri = checkNotNull(uri, "null uri");
+        this.listener = checkNotNull(listener, "null listener");
+        String scheme = uri.getScheme();
+        checkArgument("ws".equals(scheme) || "wss".equals(scheme), "Unsupported scheme=%s", scheme);
+        this.host = checkNotNull(uri.getHost(), "null host");
+        this.secure = "wss".equals(scheme);
+        this.port = uri.getPort() != -1 ? uri.getPort() : secure ? 443 : 80;
+    }
+
+    @Override
+    public void connect() throws CommunicationException {
+        checkState(!client.isIoThread(), "Cannot connect from the I/O thread");
+        synchronized (this) {
+            checkState(state == State.NEW, "Already connected");
+            state = State.CONNECTING;
+        }
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        client.execute(() -> open(address));
+        try {
+            opened.get(client.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            client.execute(() -> fail(e));
+            throw new CommunicationException("Timeout connecting to url=" + uri, e);
+        } catch (ExecutionException e) {
+            throw new CommunicationException("Error connecting to url=" + uri, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            client.execute(() -> fail(e));
+            throw new CommunicationException("Interrupted connecting to url=" + uri, e);
+        }
+        LOGGER.info("Websocket opened with url={}", uri);
+    }
+
+    @Override
+    public void send(String message) throws CommunicationException {
+        State state = this.state;
+        if (state != State.OPEN) {
+            throw new DisconnectedException("Websocket not open, state=" + state);
+        }
+        enqueue(encodeFrame(OPCODE_TEXT, message.getBytes(StandardCharsets.UTF_8)), true);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            switch (state) {
+                case NEW:
+                    state = State.CLOSED;
+                    closed.complete(null);
+                    return;
+                case OPEN:
+                    state = State.CLOSING;
+                    try {
+                        enqueue(encodeFrame(OPCODE_CLOSE, new byte[]{CLOSE_NORMAL >> 8, (byte) CLOSE_NORMAL}), false);
+                    } catch (CommunicationException e) {
+                        throw new IllegalStateException(e); // unbounded enqueue never fails
+                    }
+                    break;
+                case CONNECTING:
+                case HANDSHAKING:
+                    client.execute(() -> fail(new DisconnectedException("Closed while connecting")));
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (client.isIoThread()) {
+            return;
+        }
+        try {
+            closed.get(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOGGER.warn("Timeout waiting for close handshake with url={}", uri);
+            client.execute(() -> closeChannel(CLOSE_ABNORMAL, "Close timeout", false));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e); // never completed exceptionally
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param bounded whether the frame is subject to the limit of outbound bytes (control frames are not)
+     */
+    private void enqueue(ByteBuffer frame, boolean bounded) throws CommunicationException {
+        synchronized (outbound) {
+            if (bounded && outboundBytes + frame.remaining() > client.getMaxOutboundBytes()) {
+                throw new CommunicationException(
+                        "Outbound queue full with outboundBytes=" + outboundBytes + " for url=" + uri
+                );
+            }
+            outbound.add(frame);
+            outboundBytes += frame.remaining();
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            client.execute(() -> {
+                flushScheduled.set(false);
+                if (channel != null && channel.isOpen()) {
+                    try {
+                        flush();
+                    } catch (IOException | RuntimeException e) {
+                        fail(e);
+                    }
+                }
+            });
+        }
+    }
+
+    private ByteBuffer pollOutbound() {
+        synchronized (outbound) {
+            ByteBuffer frame = outbound.poll();
+            if (frame != null) {
+                outboundBytes -= frame.remaining();
+            }
+            return frame;
+        }
+    }
+
+    private boolean hasOutbound() {
+        synchronized (outbound) {
+            return !outbound.isEmpty();
+        }
+    }
+
+    private static ByteBuffer encodeFrame(int opcode, byte[] payload) {
+        int length = payload.length;
+        int extendedLength = length <= 125 ? 0 : length <= 0xFFFF ? 2 : 8;
+        ByteBuffer frame = ByteBuffer.allocate(2 + extendedLength + 4 + length);
+        frame.put((byte) (0x80 | opcode));
+        if (extendedLength == 0) {
+            frame.put((byte) (0x80 | length));
+        } else if (extendedLength == 2) {
+            frame.put((byte) (0x80 | 126));
+            frame.putShort((short) length);
+        } else {
+            frame.put((byte) (0x80 | 127));
+            frame.putLong(length);
+        }
+        int mask = ThreadLocalRandom.current().nextInt();
+        frame.putInt(mask);
+        for (int i = 0; i < length; i++) {
+            frame.put((byte) (payload[i] ^ (mask >>> (24 - ((i & 3) << 3)))));
+        }
+        frame.flip();
+        return frame;
+    }
+
+    // ---- I/O thread ----
+
+    private void open(InetSocketAddress address) {
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            key = channel.register(client.getSelector(), 0, this);
+            if (channel.connect(address)) {
+                onConnected();
+            } else {
+                key.interestOps(SelectionKey.OP_CONNECT);
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    void onSelected(SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                channel.finishConnect();
+                onConnected();
+            }
+            if (key.isValid() && key.isReadable()) {
+                read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void onConnected() throws IOException {
+        if (secure) {
+            sslEngine = client.getSslContext().createSSLEngine(host, port);
+            sslEngine.setUseClientMode(true);
+            SSLParameters sslParameters = sslEngine.getSSLParameters();
+            sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+            sslEngine.setSSLParameters(sslParameters);
+            sslEngine.beginHandshake();
+            int packetSize = sslEngine.getSession().getPacketBufferSize();
+            netIn = ByteBuffer.allocateDirect(Math.max(packetSize, READ_BUFFER_SIZE));
+            netOut = ByteBuffer.allocateDirect(Math.max(packetSize, WRITE_BUFFER_SIZE));
+            appIn = ByteBuffer.allocateDirect(
+                    Math.max(sslEngine.getSession().getApplicationBufferSize(), READ_BUFFER_SIZE)
+            );
+        } else {
+            netOut = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            appIn = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        }
+        state = State.HANDSHAKING;
+        key.interestOps(SelectionKey.OP_READ);
+        writing = ByteBuffer.wrap(handshakeRequest().getBytes(StandardCharsets.ISO_8859_1));
+        flush();
+    }
+
+    private String handshakeRequest() {
+        byte[] nonce = new byte[16];
+        ThreadLocalRandom.current().nextBytes(nonce);
+        handshakeKey = BaseEncoding.base64().encode(nonce);
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        boolean defaultPort = port == (secure ? 443 : 80);
+        return "GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + host + (defaultPort ? "" : ":" + port) + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + handshakeKey + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n"
+                + "\r\n";
+    }
+
+    private void read() throws IOException {
+        int read = channel.read(secure ? netIn : appIn);
+        if (read < 0) {
+            closeChannel(closeCode, closeReason, state != State.CLOSING || closedRemotely);
+            return;
+        }
+        if (secure) {
+            unwrap();
+        } else {
+            processAppIn();
+        }
+        if (channel.isOpen()) {
+            flush();
+        }
+    }
+
+    private void unwrap() throws IOException {
+        netIn.flip();
+        try {
+            while (channel.isOpen() && !closeWhenFlushed) {
+                SSLEngineResult.HandshakeStatus handshakeStatus = sslEngine.getHandshakeStatus();
+                if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                    continue;
+                }
+                if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    flush();
+                    if (sslEngine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                        return; // waiting for the socket to become writable
+                    }
+                    continue;
+                }
+                if (!netIn.hasRemaining()) {
+                    return;
+                }
+                SSLEngineResult result = sslEngine.unwrap(netIn, appIn);
+                switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        return;
+                    case BUFFER_OVERFLOW:
+                        processAppIn();
+                        break;
+                    case CLOSED:
+                        throw new DisconnectedException("TLS session closed");
+                    default:
+                        if (result.bytesProduced() > 0) {
+                            processAppIn();
+                        }
+                        if (result.bytesConsumed() == 0 && result.bytesProduced() == 0
+                                && sslEngine.getHandshakeStatus() == handshakeStatus) {
+                            return;
+                        }
+                        break;
+                }
+            }
+        } finally {
+            netIn.compact();
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = sslEngine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Moves as many outbound bytes as possible to the socket; registers interest in writability if they do not fit.
+     */
+    private void flush() throws IOException {
+        while (true) {
+            if (writing == null && (state == State.OPEN || state == State.CLOSING)) {
+                writing = pollOutbound();
+            }
+            boolean produced = false;
+            if (secure) {
+                SSLEngineResult.HandshakeStatus handshakeStatus = sslEngine.getHandshakeStatus();
+                if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                    continue;
+                }
+                if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP
+                        || writing != null && handshakeStatus == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                    SSLEngineResult result = sslEngine.wrap(writing != null ? writing : EMPTY, netOut);
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new DisconnectedException("TLS session closed");
+                    }
+                    produced = result.bytesProduced() > 0;
+                }
+            } else if (writing != null && netOut.hasRemaining()) {
+                int length = Math.min(writing.remaining(), netOut.remaining());
+                ByteBuffer chunk = writing.duplicate();
+                chunk.limit(chunk.position() + length);
+                netOut.put(chunk);
+                writing.position(writing.position() + length);
+                produced = true;
+            }
+            if (writing != null && !writing.hasRemaining()) {
+                writing = null;
+            }
+
+            int written = 0;
+            if (netOut.position() > 0) {
+                netOut.flip();
+                written = channel.write(netOut);
+                boolean drained = !netOut.hasRemaining();
+                netOut.compact();
+                if (!drained) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            if (!produced && written == 0) {
+                key.interestOps(SelectionKey.OP_READ);
+                if (closeWhenFlushed && writing == null && !hasOutbound()) {
+                    closeChannel(closeCode, closeReason, closedRemotely);
+                }
+                return;
+            }
+        }
+    }
+
+    private void processAppIn() throws IOException {
+        appIn.flip();
+        try {
+            if (state == State.HANDSHAKING && !processHandshakeResponse()) {
+                return;
+            }
+            while ((state == State.OPEN || state == State.CLOSING) && !closeWhenFlushed && decodeFrame()) {
+                // decoding frame by frame
+            }
+        } finally {
+            appIn.compact();
+        }
+    }
+
+    private boolean processHandshakeResponse() throws CommunicationException {
+        int end = -1;
+        for (int i = appIn.position(); i + 3 < appIn.limit(); i++) {
+            if (appIn.get(i) == '\r' && appIn.get(i + 1) == '\n'
+                    && appIn.get(i + 2) == '\r' && appIn.get(i + 3) == '\n') {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (appIn.limit() == appIn.capacity()) {
+                throw new CommunicationException("Handshake response too long");
+            }
+            return false;
+        }
+        byte[] headerBytes = new byte[end - appIn.position()];
+        appIn.get(headerBytes);
+        appIn.position(end + 4);
+
+        String[] lines = new String(headerBytes, StandardCharsets.ISO_8859_1).split("\r\n");
+        if (!lines[0].startsWith("HTTP/1.1 101")) {
+            throw new CommunicationException("Unexpected handshake response=" + lines[0]);
+        }
+        String expectedAccept = BaseEncoding.base64().encode(
+                Hashing.sha1().hashString(handshakeKey + ACCEPT_GUID, StandardCharsets.ISO_8859_1).asBytes()
+        );
+        String accept = null;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            String name = colon > 0 ? lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT) : "";
+            if ("sec-websocket-accept".equals(name)) {
+                accept = lines[i].substring(colon + 1).trim();
+            }
+        }
+        if (!expectedAccept.equals(accept)) {
+            throw new CommunicationException("Invalid Sec-WebSocket-Accept=" + accept);
+        }
+
+        synchronized (this) {
+            if (state != State.HANDSHAKING) {
+                return false;
+            }
+            state = State.OPEN;
+        }
+        opened.complete(null);
+        return true;
+    }
+
+    /**
+     * Decodes (a part of) a frame from appIn.
+     *
+     * @return true if a whole frame has been decoded, false if more data is needed
+     */
+    private boolean decodeFrame() throws CommunicationException {
+        if (payloadRemaining < 0 && !decodeFrameHeader()) {
+            return false;
+        }
+
+        boolean isControl = frameOpcode >= OPCODE_CLOSE;
+        int length = (int) Math.min(payloadRemaining, appIn.remaining());
+        byte[] target = isControl ? control : message;
+        int offset = isControl ? controlLength : messageLength;
+        appIn.get(target, offset, length);
+        if (frameMask != 0) {
+            for (int i = 0; i < length; i++) {
+                target[offset + i] ^= (byte) (frameMask >>> (24 - (((framePayloadOffset + i) & 3) << 3)));
+            }
+        }
+        framePayloadOffset += length;
+        payloadRemaining -= length;
+        if (isControl) {
+            controlLength += length;
+        } else {
+            messageLength += length;
+        }
+        if (payloadRemaining > 0) {
+            return false;
+        }
+
+        payloadRemaining = -1;
+        if (isControl) {
+            onControlFrame();
+            controlLength = 0;
+        } else if (frameFin) {
+            if (messageOpcode == OPCODE_TEXT) {
+                listener.onMessage(new String(message, 0, messageLength, StandardCharsets.UTF_8));
+            } else {
+                LOGGER.debug("Ignoring message with opcode={}", messageOpcode);
+            }
+            messageOpcode = -1;
+            messageLength = 0;
+        }
+        return true;
+    }
+
+    private boolean decodeFrameHeader() throws CommunicationException {
+        if (appIn.remaining() < 2) {
+            return false;
+        }
+        int start = appIn.position();
+        int b0 = appIn.get(start) & 0xFF;
+        int b1 = appIn.get(start + 1) & 0xFF;
+        boolean masked = (b1 & 0x80) != 0;
+        int length7 = b1 & 0x7F;
+        int headerLength = 2 + (length7 == 126 ? 2 : length7 == 127 ? 8 : 0) + (masked ? 4 : 0);
+        if (appIn.remaining() < headerLength) {
+            return false;
+        }
+        appIn.position(start + 2);
+        long length = length7 == 126 ? appIn.getShort() & 0xFFFF : length7 == 127 ? appIn.getLong() : length7;
+        frameMask = masked ? appIn.getInt() : 0;
+        frameFin = (b0 & 0x80) != 0;
+        frameOpcode = b0 & 0x0F;
+        framePayloadOffset = 0;
+
+        if (frameOpcode >= OPCODE_CLOSE) {
+            if (length > 125 || !frameFin) {
+                throw new CommunicationException("Invalid control frame with opcode=" + frameOpcode);
+            }
+        } else {
+            if (frameOpcode == OPCODE_CONTINUATION) {
+                if (messageOpcode < 0) {
+                    throw new CommunicationException("Unexpected continuation frame");
+                }
+            } else if (messageOpcode >= 0) {
+                throw new CommunicationException("Expected continuation frame, got opcode=" + frameOpcode);
+            } else {
+                messageOpcode = frameOpcode;
+            }
+            if (length < 0 || messageLength + length > client.getMaxMessageSize()) {
+                throw new CommunicationException(
+                        "Message exceeds maxMessageSize=" + client.getMaxMessageSize() + " for url=" + uri
+                );
+            }
+            int required = (int) (messageLength + length);
+            if (required > message.length) {
+                byte[] grown = new byte[Math.min(Math.max(required, message.length << 1), client.getMaxMessageSize())];
+                System.arraycopy(message, 0, grown, 0, messageLength);
+                message = grown;
+            }
+        }
+        payloadRemaining = length;
+        return true;
+    }
+
+    private void onControlFrame() throws CommunicationException {
+        switch (frameOpcode) {
+            case OPCODE_PING:
+                enqueue(encodeFrame(OPCODE_PONG, Arrays.copyOf(control, controlLength)), false);
+                break;
+            case OPCODE_PONG:
+                break;
+            case OPCODE_CLOSE:
+                int code = controlLength >= 2 ? (control[0] & 0xFF) << 8 | control[1] & 0xFF : CLOSE_NO_STATUS;
+                String reason = controlLength > 2
+                        ? new String(control, 2, controlLength - 2, StandardCharsets.UTF_8)
+                        : "";
+                boolean remote;
+                synchronized (this) {
+                    remote = state != State.CLOSING;
+                    state = State.CLOSING;
+                }
+                closeCode = code;
+                closeReason = reason;
+                closedRemotely = remote;
+                if (remote) {
+                    // echo the close frame, then close the connection
+                    byte[] echo = Arrays.copyOf(control, Math.min(controlLength, 2));
+                    enqueue(encodeFrame(OPCODE_CLOSE, echo), false);
+                }
+                closeWhenFlushed = true;
+                break;
+            default:
+                throw new CommunicationException("Unknown control frame with opcode=" + frameOpcode);
+        }
+    }
+
+    /**
+     * Fails the connection: closes it and reports the error unless it was not open yet (in which case the error goes
+     * to the caller of {@link #connect}).
+     */
+    void fail(Exception e) {
+        State state = this.state;
+        if (state == State.CLOSED) {
+            return;
+        }
+        if (!opened.completeExceptionally(e)) {
+            if (state == State.CLOSING) {
+                LOGGER.debug("Error while closing url={}", uri, e);
+            } else {
+                listener.onError(e);
+            }
+        }
+        closeChannel(CLOSE_ABNORMAL, String.valueOf(e.getMessage()), false, false);
+    }
+
+    private void closeChannel(int code, String reason, boolean remote) {
+        closeChannel(code, reason, remote, true);
+    }
+
+    private void closeChannel(int code, String reason, boolean remote, boolean notify) {
+        boolean wasOpen;
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return;
+            }
+            wasOpen = state == State.OPEN || state == State.CLOSING;
+            state = State.CLOSED;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.debug("Error closing channel", e);
+            }
+        }
+        opened.completeExceptionally(new DisconnectedException("Websocket closed"));
+        closed.complete(null);
+        if (notify && wasOpen) {
+            listener.onClose(code, reason, remote);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("uri", uri)
+                .add("state", state)
+                .toString();
+    }
+}
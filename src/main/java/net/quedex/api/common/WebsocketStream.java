@@ -1,19 +1,9 @@
 package net.quedex.api.common;
 
-import org.java_websocket.client.DefaultSSLWebSocketClientFactory;
-import org.java_websocket.client.WebSocketClient;
-import org.java_websocket.drafts.Draft_17;
-import org.java_websocket.handshake.ServerHandshake;
 import org.slf4j.Logger;
 
-import javax.net.ssl.SSLContext;
-
 import java.io.IOException;
 import java.net.URI;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -21,8 +11,7 @@ public class WebsocketStream<T extends MessageReceiver> {
 
     private final Logger logger;
 
-    protected final WebSocketClient webSocketClient;
-    private final ExecutorService webSocketClientFactoryExec;
+    protected final WebsocketTransport transport;
     protected final T messageReceiver;
 
     private volatile StreamFailureListener streamFailureListener;
@@ -32,16 +21,18 @@ public class WebsocketStream<T extends MessageReceiver> {
             String streamUrl,
             T messageReceiver
     ) {
-        // TODO: Java-Websockets holds infinitely growing queues
-        webSocketClient = new WebSocketClient(URI.create(streamUrl), new Draft_17()) {
-            @Override
-            public void onOpen(ServerHandshake handshakedata) {
-                logger.info(
-                        "Websocket opened with url={}, httpStatus={}, httpStatusMessage={}",
-                        streamUrl, handshakedata.getHttpStatus(), handshakedata.getHttpStatusMessage()
-                );
-            }
+        this(logger, streamUrl, messageReceiver, JavaWebsocketTransport::new);
+    }
 
+    protected WebsocketStream(
+            Logger logger,
+            String streamUrl,
+            T messageReceiver,
+            WebsocketTransport.Factory transportFactory
+    ) {
+        this.messageReceiver = checkNotNull(messageReceiver, "null messageReceiver");
+        this.logger = checkNotNull(logger, "null logger");
+        this.transport = transportFactory.create(URI.create(streamUrl), new WebsocketTransport.Listener() {
             @Override
             public void onMessage(String message) {
                 WebsocketStream.this.processMessage(message);
@@ -67,27 +58,7 @@ public class WebsocketStream<T extends MessageReceiver> {
                     WebsocketStream.this.onError(new CommunicationException("Websocket error", ex));
                 }
             }
-        };
-
-        webSocketClientFactoryExec = Executors.newSingleThreadExecutor();
-        if (streamUrl.startsWith("wss")) {
-            initSsl();
-        }
-
-        this.messageReceiver = checkNotNull(messageReceiver, "null messageReceiver");
-        this.logger = checkNotNull(logger, "null logger");
-    }
-
-    private void initSsl() {
-        try {
-            SSLContext ssl = SSLContext.getInstance("TLS");
-            ssl.init(null, null, null);
-            DefaultSSLWebSocketClientFactory webSocketClientFactory =
-                    new DefaultSSLWebSocketClientFactory(ssl, webSocketClientFactoryExec);
-            webSocketClient.setWebSocketFactory(webSocketClientFactory);
-        } catch (NoSuchAlgorithmException | KeyManagementException e) {
-            throw new IllegalStateException("Error initialising SSL", e);
-        }
+        });
     }
 
     public void registerStreamFailureListener(StreamFailureListener streamFailureListener) {
@@ -97,29 +68,17 @@ public class WebsocketStream<T extends MessageReceiver> {
 
     public void start() throws CommunicationException {
         logger.trace("Starting");
-        try {
-            webSocketClient.connectBlocking();
-        } catch (InterruptedException e) {
-            Thread.interrupted();
-        }
+        transport.connect();
         logger.info("Started");
     }
 
     public void stop() throws CommunicationException {
         logger.trace("Stopping");
-        // has to be closed this way because of incompatibilities in WS protocol
-        webSocketClient.close();
-        webSocketClient.getConnection().closeConnection(1000, "");
-        try {
-            webSocketClient.closeBlocking();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        webSocketClientFactoryExec.shutdown();
+        transport.close();
         logger.info("Stopped");
     }
 
-    private void processMessage(String message) {
+    protected void processMessage(String message) {
         messageReceiver.processMessage(message);
     }
 
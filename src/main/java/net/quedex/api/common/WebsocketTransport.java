@@ -0,0 +1,53 @@
+package net.quedex.api.common;
+
+import java.net.URI;
+
+/**
+ * A single client WebSocket connection used by {@link WebsocketStream} to exchange text messages with the exchange.
+ * Implementations are created by a {@link Factory} given to the stream, e.g. {@code JavaWebsocketTransport::new} (the
+ * default) or a shared {@link NioWebsocketClient}.
+ */
+public interface WebsocketTransport {
+
+    /**
+     * Opens the connection, waiting until the WebSocket handshake completes.
+     *
+     * @throws CommunicationException if the connection could not be opened
+     */
+    void connect() throws CommunicationException;
+
+    /**
+     * Sends the given text message; may return before the message is actually written.
+     *
+     * @throws DisconnectedException if the connection is not open
+     * @throws CommunicationException if the message could not be queued for sending
+     */
+    void send(String message) throws CommunicationException;
+
+    /**
+     * Closes the connection, waiting (for a limited time) until it is closed.
+     */
+    void close();
+
+    /**
+     * Receives the events of a {@link WebsocketTransport}. Calls are made by a single thread at a time, in order.
+     */
+    interface Listener {
+
+        void onMessage(String message);
+
+        /**
+         * @param remote true if the connection was closed by the remote side or lost, false if closed by
+         *               {@link WebsocketTransport#close}
+         */
+        void onClose(int code, String reason, boolean remote);
+
+        void onError(Exception e);
+    }
+
+    @FunctionalInterface
+    interface Factory {
+
+        WebsocketTransport create(URI uri, Listener listener);
+    }
+}
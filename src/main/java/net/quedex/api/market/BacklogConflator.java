@@ -0,0 +1,226 @@
+package net.quedex.api.market;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import net.quedex.api.common.MessageReceiver;
+import net.quedex.api.pgp.BcSignatureVerifier;
+import net.quedex.api.pgp.PGPExceptionBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Decouples reception of frames from their processing with a bounded queue and, while the queue holds more than the
+ * given threshold of frames (i.e. processing has fallen behind, e.g. after a GC pause), drops {@code order_book} and
+ * {@code quotes} frames superseded by a newer queued frame of the same type for the same instrument - before their
+ * signatures are verified. Both are full snapshots, so only the newest one matters. Any other frames (trades, session
+ * state, instrument data, errors) are never dropped.
+ * <p>
+ * The type and instrument id are peeked from the clear text of the signed message when a frame is queued, but only
+ * while the queue holds at least the threshold of frames, so that frames are not parsed twice when processing keeps
+ * up. A frame with a tampered clear text may only cause a genuine frame to be dropped in favour of itself, after which
+ * it fails verification - something requiring control over the (TLS protected) connection in the first place.
+ * <p>
+ * Every frame is recorded to the {@link net.quedex.api.common.JournalRecorder} of the receiver, if any, when queued -
+ * including the frames dropped later. When the queue is full, {@link #offer} blocks the receiving thread, pushing back
+ * on the connection.
+ */
+final class BacklogConflator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BacklogConflator.class);
+
+    private static final JsonFactory JSON_FACTORY = MessageReceiver.OBJECT_MAPPER.getFactory();
+
+    private static final long NOT_CONFLATABLE = -1;
+    private static final long ORDER_BOOK_KEY = 1L << 32;
+    private static final long QUOTES_KEY = 2L << 32;
+
+    private final MessageReceiver messageReceiver;
+    private final int conflationThreshold;
+    private final BlockingQueue<Frame> queue;
+    private final Map<Long, Long> latestSequences = new ConcurrentHashMap<>(128, 0.75f);
+    private final AtomicLong conflatedCount = new AtomicLong();
+
+    private long sequence; // accessed only by the receiving thread
+    private volatile boolean running;
+    private Thread processingThread;
+
+    /**
+     * @param capacity maximum number of queued frames
+     * @param conflationThreshold number of queued frames above which superseded frames are dropped
+     */
+    BacklogConflator(MessageReceiver messageReceiver, int capacity, int conflationThreshold) {
+        checkArgument(capacity > 0, "capacity=%s <= 0", capacity);
+        checkArgument(conflationThreshold >= 0, "conflationThreshold=%s < 0", conflationThreshold);
+        checkArgument(conflationThreshold < capacity, "conflationThreshold=%s >= capacity", conflationThreshold);
+        this.messageReceiver = checkNotNull(messageReceiver, "null messageReceiver");
+        this.conflationThreshold = conflationThreshold;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    synchronized void start(String name) {
+        checkState(processingThread == null, "Already started");
+        running = true;
+        processingThread = new Thread(this::process, name);
+        processingThread.setDaemon(true);
+        processingThread.start();
+    }
+
+    /**
+     * Stops processing, discarding the frames still queued.
+     */
+    synchronized void stop() {
+        running = false;
+        Thread processingThread = this.processingThread;
+        if (processingThread != null) {
+            processingThread.interrupt();
+            try {
+                processingThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.processingThread = null;
+        }
+        queue.clear();
+        latestSequences.clear();
+    }
+
+    /**
+     * Queues the frame for processing, waiting for space if the queue is full. Has to be called by a single thread.
+     */
+    void offer(String message) {
+        messageReceiver.recordRawFrame(message);
+        long key = queue.size() >= conflationThreshold ? peekConflationKey(message) : NOT_CONFLATABLE;
+        long seq = ++sequence;
+        if (key != NOT_CONFLATABLE) {
+            latestSequences.put(key, seq);
+        }
+        try {
+            queue.put(new Frame(message, key, seq));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return number of frames dropped as superseded
+     */
+    long getConflatedCount() {
+        return conflatedCount.get();
+    }
+
+    int getQueueSize() {
+        return queue.size();
+    }
+
+    private void process() {
+        while (running) {
+            Frame frame;
+            try {
+                frame = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (frame.key != NOT_CONFLATABLE && queue.size() >= conflationThreshold && isSuperseded(frame)) {
+                conflatedCount.incrementAndGet();
+                LOGGER.trace("Dropping superseded frame with sequence={}", frame.sequence);
+                continue;
+            }
+            messageReceiver.processRecordedMessage(frame.message);
+        }
+        LOGGER.debug("Processing stopped");
+    }
+
+    private boolean isSuperseded(Frame frame) {
+        Long latestSequence = latestSequences.get(frame.key);
+        return latestSequence != null && latestSequence != frame.sequence;
+    }
+
+    /**
+     * @return key identifying the type and instrument of an {@code order_book} or {@code quotes} frame,
+     *         {@link #NOT_CONFLATABLE} for any other (or unparseable) frame
+     */
+    static long peekConflationKey(String message) {
+        try {
+            String data = peekData(message);
+            if (data == null) {
+                return NOT_CONFLATABLE;
+            }
+            String type = null;
+            int instrumentId = -1;
+            try (JsonParser parser = JSON_FACTORY.createParser(BcSignatureVerifier.extractContent(data))) {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return NOT_CONFLATABLE;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if ("type".equals(field) && value == JsonToken.VALUE_STRING) {
+                        type = parser.getText();
+                    } else if ("instrument_id".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                        instrumentId = parser.getIntValue();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+            if (instrumentId < 0) {
+                return NOT_CONFLATABLE;
+            } else if ("order_book".equals(type)) {
+                return ORDER_BOOK_KEY | instrumentId;
+            } else if ("quotes".equals(type)) {
+                return QUOTES_KEY | instrumentId;
+            }
+            return NOT_CONFLATABLE;
+        } catch (IOException | PGPExceptionBase | RuntimeException e) {
+            // left for the regular processing to report
+            return NOT_CONFLATABLE;
+        }
+    }
+
+    private static String peekData(String message) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(message)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            String type = null;
+            String data = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("type".equals(field) && value == JsonToken.VALUE_STRING) {
+                    type = parser.getText();
+                } else if ("data".equals(field) && value == JsonToken.VALUE_STRING) {
+                    data = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return "data".equals(type) ? data : null;
+        }
+    }
+
+    private static final class Frame {
+
+        final String message;
+        final long key;
+        final long sequence;
+
+        Frame(String message, long key, long sequence) {
+            this.message = message;
+            this.key = key;
+            this.sequence = sequence;
+        }
+    }
+}
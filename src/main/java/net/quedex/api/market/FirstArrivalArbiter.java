@@ -0,0 +1,196 @@
+package net.quedex.api.market;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import net.quedex.api.common.MessageReceiver;
+import net.quedex.api.pgp.BcSignatureVerifier;
+import net.quedex.api.pgp.PGPExceptionBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Feeds the frames received by several redundant connections to a single {@link MessageReceiver}, passing on only the
+ * copy of each event which arrived first. Events are identified before their signatures are verified: trades by the
+ * trade id and any other data (order books, quotes, session state, instrument data) by the hash of the clear text of
+ * the signed message; error frames by the hash of the whole frame. Keepalives are always passed on.
+ * <p>
+ * As the same data may legitimately be sent more than once (e.g. an order book returning to a previous state), the
+ * n-th copy of an event received by a connection is passed on only if fewer than n copies have been passed on. A copy
+ * does not count as passed on if it could not be parsed or failed verification, so a tampered copy does not suppress
+ * the genuine copy received by another connection; it does count if a listener threw while it was delivered.
+ * <p>
+ * Events are forgotten once received by all the connections (but the lost ones), or when more than the given number
+ * of events is tracked, e.g. when a connection lags far behind.
+ */
+final class FirstArrivalArbiter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FirstArrivalArbiter.class);
+
+    private static final JsonFactory JSON_FACTORY = MessageReceiver.OBJECT_MAPPER.getFactory();
+    private static final HashFunction HASH_FUNCTION = Hashing.sha256();
+
+    private final MessageReceiver messageReceiver;
+    private final int connections;
+    private final Map<Object, int[]> counts; // received by each connection, then passed on
+    private final long[] firstArrivals;
+    private final boolean[] removed;
+    private long duplicateCount;
+
+    /**
+     * @param connections number of connections receiving the same frames
+     * @param maxTrackedEvents maximum number of events whose copies are counted
+     */
+    FirstArrivalArbiter(MessageReceiver messageReceiver, int connections, int maxTrackedEvents) {
+        checkArgument(connections > 0, "connections=%s <= 0", connections);
+        checkArgument(maxTrackedEvents > 0, "maxTrackedEvents=%s <= 0", maxTrackedEvents);
+        this.messageReceiver = checkNotNull(messageReceiver, "null messageReceiver");
+        this.connections = connections;
+        this.counts = new LinkedHashMap<Object, int[]>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, int[]> eldest) {
+                return size() > maxTrackedEvents;
+            }
+        };
+        this.firstArrivals = new long[connections];
+        this.removed = new boolean[connections];
+    }
+
+    /**
+     * Passes the frame received by the given connection on to the message receiver, unless it is a copy of an event
+     * already passed on. Frames are processed one at a time.
+     */
+    synchronized void process(int connection, String message) {
+        checkElementIndex(connection, connections, "connection");
+        Object event = peekEventKey(message);
+        if (event == null) {
+            messageReceiver.processMessage(message);
+            return;
+        }
+        int[] eventCounts = counts.get(event);
+        if (eventCounts == null) {
+            eventCounts = new int[connections + 1];
+            counts.put(event, eventCounts);
+        }
+        int received = ++eventCounts[connection];
+        if (received <= eventCounts[connections]) {
+            duplicateCount++;
+            LOGGER.trace("Dropping duplicate received by connection={}", connection);
+            if (allReceived(eventCounts)) {
+                counts.remove(event);
+            }
+            return;
+        }
+        if (messageReceiver.processMessage(message)) {
+            eventCounts[connections] = received;
+            firstArrivals[connection]++;
+            if (allReceived(eventCounts)) {
+                counts.remove(event);
+            }
+        }
+    }
+
+    /**
+     * Stops waiting for the copies of events from the given (lost) connection before forgetting the events.
+     */
+    synchronized void removeConnection(int connection) {
+        checkElementIndex(connection, connections, "connection");
+        removed[connection] = true;
+    }
+
+    /**
+     * @return number of events passed on as first received by each connection
+     */
+    synchronized long[] getFirstArrivalCounts() {
+        return firstArrivals.clone();
+    }
+
+    /**
+     * @return number of frames dropped as duplicates
+     */
+    synchronized long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    synchronized int getTrackedEventCount() {
+        return counts.size();
+    }
+
+    private boolean allReceived(int[] eventCounts) {
+        for (int i = 0; i < connections; i++) {
+            if (!removed[i] && eventCounts[i] != eventCounts[connections]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the trade id (a {@link Long}) of a trade, the hash of the content of any other data frame or of the
+     *         whole error frame, null for any other (or unparseable) frame
+     */
+    static Object peekEventKey(String message) {
+        try (JsonParser parser = JSON_FACTORY.createParser(message)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            String type = null;
+            String data = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("type".equals(field) && value == JsonToken.VALUE_STRING) {
+                    type = parser.getText();
+                } else if ("data".equals(field) && value == JsonToken.VALUE_STRING) {
+                    data = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if ("error".equals(type)) {
+                return HASH_FUNCTION.hashString(message, StandardCharsets.UTF_8);
+            } else if (!"data".equals(type) || data == null) {
+                return null;
+            }
+            String content = BcSignatureVerifier.extractContent(data);
+            Long tradeId = peekTradeId(content);
+            return tradeId != null ? tradeId : HASH_FUNCTION.hashString(content, StandardCharsets.UTF_8);
+        } catch (IOException | PGPExceptionBase | RuntimeException e) {
+            // left for the regular processing to report
+            return null;
+        }
+    }
+
+    private static Long peekTradeId(String content) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            String type = null;
+            Long tradeId = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("type".equals(field) && value == JsonToken.VALUE_STRING) {
+                    type = parser.getText();
+                } else if ("trade_id".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                    tradeId = parser.getLongValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return "trade".equals(type) ? tradeId : null;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package net.quedex.api.market;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable, indexed view of the tradable instruments, built once per received instruments map. Allows looking up
+ * instruments by id, symbol, underlying, expiration date and (for options) by option type and strike without scanning
+ * the whole map. All the lookups are O(1) or O(log n) and, since the catalogue is immutable, may be performed from any
+ * thread without locking.
+ */
+public final class InstrumentCatalogue {
+
+    private static final InstrumentCatalogue EMPTY = of(ImmutableMap.of());
+
+    private final ImmutableMap<Integer, Instrument> byId;
+    private final ImmutableMap<String, Instrument> bySymbol;
+    private final ImmutableMap<String, ImmutableList<Instrument>> byUnderlying;
+    private final ImmutableMap<String, ImmutableSortedMap<Long, Expiry>> expirationsByUnderlying;
+
+    private InstrumentCatalogue(Collection<Instrument> instruments) {
+        ImmutableMap.Builder<Integer, Instrument> byIdBuilder = ImmutableMap.builder();
+        ImmutableMap.Builder<String, Instrument> bySymbolBuilder = ImmutableMap.builder();
+        Map<String, ImmutableList.Builder<Instrument>> byUnderlyingBuilders = new HashMap<>();
+        Map<String, Map<Long, ExpiryBuilder>> expiryBuilders = new HashMap<>();
+
+        for (Instrument instrument : instruments) {
+            byIdBuilder.put(instrument.getInstrumentId(), instrument);
+            bySymbolBuilder.put(instrument.getSymbol(), instrument);
+            byUnderlyingBuilders
+                    .computeIfAbsent(instrument.getUnderlyingSymbol(), u -> ImmutableList.builder())
+                    .add(instrument);
+            expiryBuilders
+                    .computeIfAbsent(instrument.getUnderlyingSymbol(), u -> new HashMap<>())
+                    .computeIfAbsent(instrument.getExpirationDate(), ExpiryBuilder::new)
+                    .add(instrument);
+        }
+
+        ImmutableMap.Builder<String, ImmutableList<Instrument>> byUnderlyingBuilder = ImmutableMap.builder();
+        byUnderlyingBuilders.forEach((underlying, builder) -> byUnderlyingBuilder.put(underlying, builder.build()));
+
+        ImmutableMap.Builder<String, ImmutableSortedMap<Long, Expiry>> expirationsBuilder = ImmutableMap.builder();
+        expiryBuilders.forEach((underlying, builders) -> {
+            ImmutableSortedMap.Builder<Long, Expiry> expirations = ImmutableSortedMap.naturalOrder();
+            builders.forEach((expirationDate, builder) -> expirations.put(expirationDate, builder.build()));
+            expirationsBuilder.put(underlying, expirations.build());
+        });
+
+        this.byId = byIdBuilder.build();
+        this.bySymbol = bySymbolBuilder.build();
+        this.byUnderlying = byUnderlyingBuilder.build();
+        this.expirationsByUnderlying = expirationsBuilder.build();
+    }
+
+    public static InstrumentCatalogue of(Map<Integer, Instrument> instruments) {
+        return new InstrumentCatalogue(checkNotNull(instruments, "null instruments").values());
+    }
+
+    public static InstrumentCatalogue empty() {
+        return EMPTY;
+    }
+
+    public Map<Integer, Instrument> getInstruments() {
+        return byId;
+    }
+
+    /**
+     * @return instrument with the given id if present, null otherwise
+     */
+    public Instrument getInstrument(int instrumentId) {
+        return byId.get(instrumentId);
+    }
+
+    /**
+     * @return instrument with the given symbol if present, null otherwise
+     */
+    public Instrument getInstrument(String symbol) {
+        return bySymbol.get(symbol);
+    }
+
+    public Set<String> getUnderlyingSymbols() {
+        return byUnderlying.keySet();
+    }
+
+    /**
+     * @return all the instruments with the given underlying, empty list if there are none
+     */
+    public List<Instrument> getInstruments(String underlyingSymbol) {
+        return MoreObjects.firstNonNull(byUnderlying.get(underlyingSymbol), ImmutableList.of());
+    }
+
+    /**
+     * @return {@link Expiry}s of the instruments with the given underlying keyed and sorted by expiration date, empty
+     *         map if there are none
+     */
+    public NavigableMap<Long, Expiry> getExpirations(String underlyingSymbol) {
+        return MoreObjects.firstNonNull(expirationsByUnderlying.get(underlyingSymbol), ImmutableSortedMap.of());
+    }
+
+    /**
+     * @return {@link Expiry} of the instruments with the given underlying and expiration date if present, null
+     *         otherwise
+     */
+    public Expiry getExpiry(String underlyingSymbol, long expirationDate) {
+        return getExpirations(underlyingSymbol).get(expirationDate);
+    }
+
+    /**
+     * @return the first {@link Expiry} of the instruments with the given underlying expiring not earlier than the given
+     *         timestamp if present, null otherwise
+     */
+    public Expiry getNextExpiry(String underlyingSymbol, long timestamp) {
+        Map.Entry<Long, Expiry> entry = getExpirations(underlyingSymbol).ceilingEntry(timestamp);
+        return entry == null ? null : entry.getValue();
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("size", byId.size())
+                .add("underlyingSymbols", byUnderlying.keySet())
+                .toString();
+    }
+
+    /**
+     * Instruments with a common underlying and expiration date: the futures and the options indexed by option type and
+     * strike.
+     */
+    public static final class Expiry {
+
+        private final long expirationDate;
+        private final ImmutableList<Instrument> futures;
+        private final ImmutableSortedMap<BigDecimal, Instrument> calls;
+        private final ImmutableSortedMap<BigDecimal, Instrument> puts;
+
+        private Expiry(
+                long expirationDate,
+                ImmutableList<Instrument> futures,
+                ImmutableSortedMap<BigDecimal, Instrument> calls,
+                ImmutableSortedMap<BigDecimal, Instrument> puts
+        ) {
+            this.expirationDate = expirationDate;
+            this.futures = futures;
+            this.calls = calls;
+            this.puts = puts;
+        }
+
+        public long getExpirationDate() {
+            return expirationDate;
+        }
+
+        public List<Instrument> getFutures() {
+            return futures;
+        }
+
+        /**
+         * @return the futures expiring at this expiration date if present, null otherwise
+         */
+        public Instrument getFuture() {
+            return futures.isEmpty() ? null : futures.get(0);
+        }
+
+        /**
+         * @return options of the given type keyed and sorted by strike
+         */
+        public NavigableMap<BigDecimal, Instrument> getOptions(Instrument.OptionType optionType) {
+            return optionType == Instrument.OptionType.CALL_EUROPEAN ? calls : puts;
+        }
+
+        /**
+         * @return option of the given type with exactly the given strike if present, null otherwise
+         */
+        public Instrument getOption(Instrument.OptionType optionType, BigDecimal strike) {
+            return getOptions(optionType).get(strike);
+        }
+
+        /**
+         * @return option of the given type with the greatest strike less than or equal to the given one if present,
+         *         null otherwise
+         */
+        public Instrument getOptionAtOrBelow(Instrument.OptionType optionType, BigDecimal strike) {
+            Map.Entry<BigDecimal, Instrument> entry = getOptions(optionType).floorEntry(strike);
+            return entry == null ? null : entry.getValue();
+        }
+
+        /**
+         * @return option of the given type with the least strike greater than or equal to the given one if present,
+         *         null otherwise
+         */
+        public Instrument getOptionAtOrAbove(Instrument.OptionType optionType, BigDecimal strike) {
+            Map.Entry<BigDecimal, Instrument> entry = getOptions(optionType).ceilingEntry(strike);
+            return entry == null ? null : entry.getValue();
+        }
+
+        /**
+         * @return option of the given type with the strike nearest to the given one (the lower one in case of a tie)
+         *         if present, null otherwise
+         */
+        public Instrument getNearestOption(Instrument.OptionType optionType, BigDecimal strike) {
+            Instrument below = getOptionAtOrBelow(optionType, strike);
+            Instrument above = getOptionAtOrAbove(optionType, strike);
+            if (below == null || above == null) {
+                return below == null ? above : below;
+            }
+            BigDecimal distanceBelow = strike.subtract(below.getStrike());
+            BigDecimal distanceAbove = above.getStrike().subtract(strike);
+            return distanceAbove.compareTo(distanceBelow) < 0 ? above : below;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("expirationDate", expirationDate)
+                    .add("futures", futures.size())
+                    .add("calls", calls.size())
+                    .add("puts", puts.size())
+                    .toString();
+        }
+    }
+
+    private static final class ExpiryBuilder {
+
+        private final long expirationDate;
+        private final List<Instrument> futures = new ArrayList<>(1);
+        private final NavigableMap<BigDecimal, Instrument> calls = new TreeMap<>();
+        private final NavigableMap<BigDecimal, Instrument> puts = new TreeMap<>();
+
+        ExpiryBuilder(long expirationDate) {
+            this.expirationDate = expirationDate;
+        }
+
+        void add(Instrument instrument) {
+            if (instrument.isFutures()) {
+                futures.add(instrument);
+            } else if (instrument.getOptionType() == Instrument.OptionType.CALL_EUROPEAN) {
+                calls.put(instrument.getStrike(), instrument);
+            } else {
+                puts.put(instrument.getStrike(), instrument);
+            }
+        }
+
+        Expiry build() {
+            futures.sort(Comparator.comparingInt(Instrument::getInstrumentId));
+            return new Expiry(
+                    expirationDate,
+                    ImmutableList.copyOf(futures),
+                    ImmutableSortedMap.copyOfSorted(calls),
+                    ImmutableSortedMap.copyOfSorted(puts)
+            );
+        }
+    }
+}
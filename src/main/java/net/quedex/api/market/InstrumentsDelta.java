@@ -0,0 +1,73 @@
+package net.quedex.api.market;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Difference between two consecutive versions of the tradable instruments map. The first version received after
+ * connecting is reported as a delta in which all the instruments are added.
+ */
+public final class InstrumentsDelta {
+
+    private final Map<Integer, Instrument> instruments;
+    private final ImmutableMap<Integer, Instrument> added;
+    private final ImmutableMap<Integer, Instrument> removed;
+    private final ImmutableMap<Integer, Instrument> changed;
+
+    InstrumentsDelta(
+            Map<Integer, Instrument> instruments,
+            Map<Integer, Instrument> added,
+            Map<Integer, Instrument> removed,
+            Map<Integer, Instrument> changed
+    ) {
+        this.instruments = checkNotNull(instruments, "null instruments");
+        this.added = ImmutableMap.copyOf(added);
+        this.removed = ImmutableMap.copyOf(removed);
+        this.changed = ImmutableMap.copyOf(changed);
+    }
+
+    /**
+     * @return the full map of instruments after applying this delta
+     */
+    public Map<Integer, Instrument> getInstruments() {
+        return instruments;
+    }
+
+    /**
+     * @return instruments not present in the previous version
+     */
+    public Map<Integer, Instrument> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return instruments present in the previous version but not in the current one (the previous versions of them)
+     */
+    public Map<Integer, Instrument> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return instruments present in both versions but with different data (the current versions of them)
+     */
+    public Map<Integer, Instrument> getChanged() {
+        return changed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("added", added.keySet())
+                .add("removed", removed.keySet())
+                .add("changed", changed.keySet())
+                .toString();
+    }
+}
@@ -0,0 +1,7 @@
+package net.quedex.api.market;
+
+@FunctionalInterface
+public interface InstrumentsDeltaListener {
+
+    void onInstrumentsDelta(InstrumentsDelta instrumentsDelta);
+}
@@ -1,6 +1,8 @@
 package net.quedex.api.market;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.hash.HashCode;
 import net.quedex.api.common.MessageReceiver;
 import net.quedex.api.pgp.BcPublicKey;
 import net.quedex.api.pgp.BcSignatureVerifier;
@@ -10,22 +12,34 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 class MarketMessageReceiver extends MessageReceiver {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MarketMessageReceiver.class);
 
+    static final int DEFAULT_VERIFICATION_CACHE_SIZE = 1024;
+
     private final BcSignatureVerifier bcSignatureVerifier;
+    private final boolean verifySignatures;
+    private final VerifiedPayloadCache verifiedPayloadCache; // null if disabled
 
     private volatile InstrumentsListener instrumentsListener;
+    private volatile InstrumentCatalogueListener instrumentCatalogueListener;
+    private volatile InstrumentsDeltaListener instrumentsDeltaListener;
     private final Object instrumentsMonitor = new Object();
     private Map<Integer, Instrument> instrumentsCached;
+    private InstrumentCatalogue instrumentCatalogueCached;
+    private String instrumentDataPayloadCached;
+    private JsonNode instrumentsJsonCached;
 
     private volatile OrderBookListener orderBookListener;
     private final Set<Integer> orderBookSubscriptions = new HashSet<>(64, 0.75f);
@@ -43,9 +57,33 @@ class MarketMessageReceiver extends MessageReceiver {
     private final Object sessionStateMonitor = new Object();
     private SessionState sessionStateCached;
 
+    private volatile MarketSnapshot snapshot;
+    private volatile boolean instrumentDataStale;
+    private volatile boolean sessionStateStale;
+
     MarketMessageReceiver(BcPublicKey qdxPublicKey) {
+        this(qdxPublicKey, true);
+    }
+
+    /**
+     * @param verifySignatures whether signatures of the received messages should be verified; should be false only
+     *                         for messages from trusted sources, e.g. recordings
+     */
+    MarketMessageReceiver(BcPublicKey qdxPublicKey, boolean verifySignatures) {
+        this(qdxPublicKey, verifySignatures, verifySignatures ? DEFAULT_VERIFICATION_CACHE_SIZE : 0);
+    }
+
+    /**
+     * @param verificationCacheSize maximum number of verified order book and quotes frames cached, so that a frame
+     *                              identical to a recently verified one is not verified and deserialized again; 0
+     *                              disables the cache
+     */
+    MarketMessageReceiver(BcPublicKey qdxPublicKey, boolean verifySignatures, int verificationCacheSize) {
         super(LOGGER);
+        checkArgument(verificationCacheSize >= 0, "verificationCacheSize=%s < 0", verificationCacheSize);
         this.bcSignatureVerifier = new BcSignatureVerifier(qdxPublicKey);
+        this.verifySignatures = verifySignatures;
+        this.verifiedPayloadCache = verificationCacheSize > 0 ? new VerifiedPayloadCache(verificationCacheSize) : null;
     }
 
     void registerInstrumentsListener(InstrumentsListener instrumentsListener) {
@@ -58,6 +96,31 @@ class MarketMessageReceiver extends MessageReceiver {
         }
     }
 
+    void registerInstrumentCatalogueListener(InstrumentCatalogueListener instrumentCatalogueListener) {
+        this.instrumentCatalogueListener = instrumentCatalogueListener;
+        synchronized (instrumentsMonitor) {
+            InstrumentCatalogue instrumentCatalogueCached = this.instrumentCatalogueCached;
+            if (instrumentCatalogueListener != null && instrumentCatalogueCached != null) {
+                instrumentCatalogueListener.onInstrumentCatalogue(instrumentCatalogueCached);
+            }
+        }
+    }
+
+    void registerInstrumentsDeltaListener(InstrumentsDeltaListener instrumentsDeltaListener) {
+        this.instrumentsDeltaListener = instrumentsDeltaListener;
+        synchronized (instrumentsMonitor) {
+            Map<Integer, Instrument> instrumentsCached = this.instrumentsCached;
+            if (instrumentsDeltaListener != null && instrumentsCached != null) {
+                instrumentsDeltaListener.onInstrumentsDelta(new InstrumentsDelta(
+                        instrumentsCached,
+                        instrumentsCached,
+                        Collections.emptyMap(),
+                        Collections.emptyMap()
+                ));
+            }
+        }
+    }
+
     Registration registerOrderBookListener(OrderBookListener orderBookListener) {
         this.orderBookListener = orderBookListener;
         return new CachedRegistration<OrderBook>(orderBookSubscriptions, orderBookCache) {
@@ -104,41 +167,238 @@ class MarketMessageReceiver extends MessageReceiver {
         }
     }
 
+    /**
+     * Restores the caches from the given snapshot (marking the restored data as stale) and starts keeping it up to date
+     * with the received data. Should be called before any listener is registered. If restoring fails, the caches (and
+     * the snapshot) are left empty, but the snapshot is kept up to date anyway - so that a corrupt file gets replaced.
+     */
+    void enableSnapshot(MarketSnapshot snapshot) throws IOException {
+        this.snapshot = snapshot;
+        try {
+            for (String payload : snapshot.load()) {
+                processVerified(payload, true, snapshot);
+            }
+        } catch (IOException | RuntimeException e) {
+            clearCaches();
+            snapshot.clear();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the cached instrument data has been restored from a warm-start snapshot and has not been
+     *         received live
+     */
+    boolean isInstrumentDataStale() {
+        return instrumentDataStale;
+    }
+
+    /**
+     * @return true if the cached session state has been restored from a warm-start snapshot and has not been received
+     *         live
+     */
+    boolean isSessionStateStale() {
+        return sessionStateStale;
+    }
+
+    private void clearCaches() {
+        synchronized (instrumentsMonitor) {
+            instrumentsCached = null;
+            instrumentCatalogueCached = null;
+            instrumentDataPayloadCached = null;
+            instrumentsJsonCached = null;
+            instrumentDataStale = false;
+        }
+        synchronized (orderBookCache) {
+            orderBookCache.clear();
+        }
+        synchronized (quotesCache) {
+            quotesCache.clear();
+        }
+        synchronized (tradeCache) {
+            tradeCache.clear();
+        }
+        synchronized (sessionStateMonitor) {
+            sessionStateCached = null;
+            sessionStateStale = false;
+        }
+    }
+
+    /**
+     * @return the snapshot kept up to date by this receiver, null if snapshots are not enabled
+     */
+    MarketSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the cache of verified frames, null if disabled
+     */
+    VerifiedPayloadCache getVerifiedPayloadCache() {
+        return verifiedPayloadCache;
+    }
+
     @Override
     protected void processData(String data) throws IOException, PGPExceptionBase {
         LOGGER.trace("processData({})", data);
 
-        String verified = bcSignatureVerifier.verifySignature(data);
+        HashCode frameHash = null;
+        if (verifiedPayloadCache != null && VerifiedPayloadCache.isCacheable(data)) {
+            frameHash = VerifiedPayloadCache.hash(data);
+            VerifiedPayloadCache.CachedPayload cached = verifiedPayloadCache.get(frameHash);
+            if (cached != null) {
+                recordVerifiedPayload(cached.verified);
+                processCached(cached, snapshot);
+                return;
+            }
+        }
+
+        String verified = verifySignatures
+                ? bcSignatureVerifier.verifySignature(data)
+                : BcSignatureVerifier.extractContent(data);
+        recordVerifiedPayload(verified);
+        Object parsed = processVerified(verified, false, snapshot);
+
+        if (frameHash != null && (parsed instanceof OrderBook || parsed instanceof Quotes)) {
+            verifiedPayloadCache.put(frameHash, verified, parsed);
+        }
+    }
+
+    private void processCached(VerifiedPayloadCache.CachedPayload cached, MarketSnapshot snapshot) {
+        if (cached.parsed instanceof OrderBook) {
+            OrderBook orderBook = (OrderBook) cached.parsed;
+            if (snapshot != null) {
+                snapshot.onOrderBook(orderBook.getInstrumentId(), cached.verified);
+            }
+            onOrderBook(orderBook);
+        } else if (cached.parsed instanceof Quotes) {
+            Quotes quotes = (Quotes) cached.parsed;
+            if (snapshot != null) {
+                snapshot.onQuotes(quotes.getInstrumentId(), cached.verified);
+            }
+            onQuotes(quotes);
+        }
+    }
+
+    /**
+     * @return the deserialized order book, quotes or trade, null for other types of data
+     */
+    private Object processVerified(String verified, boolean stale, MarketSnapshot snapshot) throws IOException {
+        if (verified.equals(instrumentDataPayloadCached)) {
+            if (!stale) {
+                instrumentDataStale = false;
+            }
+            LOGGER.trace("Skipping unchanged instrument_data");
+            return null;
+        }
         JsonNode dataJson = OBJECT_MAPPER.readTree(verified);
 
         switch (dataJson.get("type").asText()) {
             case "order_book":
-                onOrderBook(OBJECT_MAPPER.treeToValue(dataJson, OrderBook.class));
-                break;
+                OrderBook orderBook = OBJECT_MAPPER.treeToValue(dataJson, OrderBook.class);
+                if (snapshot != null) {
+                    snapshot.onOrderBook(orderBook.getInstrumentId(), verified);
+                }
+                onOrderBook(stale ? orderBook.asStale() : orderBook);
+                return orderBook;
             case "quotes":
-                onQuotes(OBJECT_MAPPER.treeToValue(dataJson, Quotes.class));
-                break;
+                Quotes quotes = OBJECT_MAPPER.treeToValue(dataJson, Quotes.class);
+                if (snapshot != null) {
+                    snapshot.onQuotes(quotes.getInstrumentId(), verified);
+                }
+                onQuotes(stale ? quotes.asStale() : quotes);
+                return quotes;
             case "trade":
-                onTrade(OBJECT_MAPPER.treeToValue(dataJson, Trade.class));
-                break;
+                Trade trade = OBJECT_MAPPER.treeToValue(dataJson, Trade.class);
+                if (snapshot != null) {
+                    snapshot.onTrade(trade.getInstrumentId(), verified);
+                }
+                onTrade(stale ? trade.asStale() : trade);
+                return trade;
             case "session_state":
+                if (snapshot != null) {
+                    snapshot.onSessionState(verified);
+                }
+                sessionStateStale = stale;
                 onSessionState(SessionState.valueOf(dataJson.get("state").textValue().toUpperCase()));
                 break;
             case "instrument_data":
-                onInstrumentData(OBJECT_MAPPER.treeToValue(dataJson.get("data"), InstrumentsMap.class));
+                if (snapshot != null) {
+                    snapshot.onInstrumentData(verified);
+                }
+                instrumentDataStale = stale;
+                onInstrumentData(verified, dataJson.get("data"), snapshot);
+                break;
             default:
                 // no-op
                 break;
         }
+        return null;
     }
 
-    private void onInstrumentData(Map<Integer, Instrument> instruments) {
+    /**
+     * Deserializes only the instruments whose JSON differs from the previously received version; unchanged instruments
+     * are reused. Listeners are not called if nothing changed. The snapshot, if any, forgets the data of the
+     * instruments no longer listed.
+     */
+    private void onInstrumentData(String payload, JsonNode instrumentsJson, MarketSnapshot snapshot)
+            throws JsonProcessingException {
         synchronized (instrumentsMonitor) {
+            instrumentDataPayloadCached = payload;
+
+            JsonNode previousJson = instrumentsJsonCached;
+            Map<Integer, Instrument> previous = instrumentsCached == null ? Collections.emptyMap() : instrumentsCached;
+            InstrumentsMap instruments = new InstrumentsMap();
+            Map<Integer, Instrument> added = new HashMap<>();
+            Map<Integer, Instrument> changed = new HashMap<>();
+
+            Iterator<Map.Entry<String, JsonNode>> fields = instrumentsJson.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                int instrumentId = Integer.parseInt(field.getKey());
+                JsonNode previousInstrumentJson = previousJson == null ? null : previousJson.get(field.getKey());
+                Instrument previousInstrument = previous.get(instrumentId);
+
+                if (previousInstrument != null && field.getValue().equals(previousInstrumentJson)) {
+                    instruments.put(instrumentId, previousInstrument);
+                } else {
+                    Instrument instrument = OBJECT_MAPPER.treeToValue(field.getValue(), Instrument.class);
+                    instruments.put(instrumentId, instrument);
+                    (previousInstrument == null ? added : changed).put(instrumentId, instrument);
+                }
+            }
+
+            Map<Integer, Instrument> removed = new HashMap<>();
+            previous.forEach((instrumentId, instrument) -> {
+                if (!instruments.containsKey(instrumentId)) {
+                    removed.put(instrumentId, instrument);
+                }
+            });
+            if (snapshot != null) {
+                snapshot.retainInstruments(instruments.keySet());
+            }
+
+            instrumentsJsonCached = instrumentsJson;
+            InstrumentsDelta delta = new InstrumentsDelta(instruments, added, removed, changed);
+            if (instrumentsCached != null && delta.isEmpty()) {
+                LOGGER.trace("No changes in instrument_data");
+                return;
+            }
             instrumentsCached = instruments;
+            instrumentCatalogueCached = InstrumentCatalogue.of(instruments);
+
             InstrumentsListener instrumentsListener = this.instrumentsListener;
             if (instrumentsListener != null) {
                 instrumentsListener.onInstruments(instruments);
             }
+            InstrumentCatalogueListener instrumentCatalogueListener = this.instrumentCatalogueListener;
+            if (instrumentCatalogueListener != null) {
+                instrumentCatalogueListener.onInstrumentCatalogue(instrumentCatalogueCached);
+            }
+            InstrumentsDeltaListener instrumentsDeltaListener = this.instrumentsDeltaListener;
+            if (instrumentsDeltaListener != null) {
+                instrumentsDeltaListener.onInstrumentsDelta(delta);
+            }
         }
     }
 
@@ -0,0 +1,154 @@
+package net.quedex.api.market;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps the latest verified payloads of the cached market data (instrument data, session state and, per instrument,
+ * order book, quotes and trade) and persists them in a gzipped file, so that the caches of
+ * {@link MarketMessageReceiver} may be restored after a restart. Storing the verified payloads rather than the
+ * deserialized objects means restoring goes through the very same deserialization as live data.
+ * <p>
+ * File layout (big endian, gzipped): magic(int) version(int) epochMillis(long) count(int) (length(int) utf8(byte[]))*
+ */
+final class MarketSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MarketSnapshot.class);
+
+    private static final int MAGIC = 0x51444D53; // QDMS
+    private static final int VERSION = 1;
+
+    private final Path file;
+
+    private volatile String instrumentData;
+    private volatile String sessionState;
+    private final Map<Integer, String> orderBooks = new ConcurrentHashMap<>(64, 0.75f);
+    private final Map<Integer, String> quotes = new ConcurrentHashMap<>(64, 0.75f);
+    private final Map<Integer, String> trades = new ConcurrentHashMap<>(64, 0.75f);
+
+    MarketSnapshot(Path file) {
+        this.file = checkNotNull(file, "null file");
+    }
+
+    void onInstrumentData(String payload) {
+        instrumentData = payload;
+    }
+
+    void onSessionState(String payload) {
+        sessionState = payload;
+    }
+
+    void onOrderBook(int instrumentId, String payload) {
+        orderBooks.put(instrumentId, payload);
+    }
+
+    void onQuotes(int instrumentId, String payload) {
+        quotes.put(instrumentId, payload);
+    }
+
+    void onTrade(int instrumentId, String payload) {
+        trades.put(instrumentId, payload);
+    }
+
+    /**
+     * Forgets the payloads of the instruments other than the given ones, e.g. the ones no longer listed in instrument
+     * data.
+     */
+    void retainInstruments(Set<Integer> instrumentIds) {
+        orderBooks.keySet().retainAll(instrumentIds);
+        quotes.keySet().retainAll(instrumentIds);
+        trades.keySet().retainAll(instrumentIds);
+    }
+
+    /**
+     * Forgets all the payloads, e.g. the ones of a snapshot which could not be fully restored.
+     */
+    void clear() {
+        instrumentData = null;
+        sessionState = null;
+        orderBooks.clear();
+        quotes.clear();
+        trades.clear();
+    }
+
+    /**
+     * @return payloads stored in the snapshot file, instrument data first; empty list if the file does not exist
+     */
+    List<String> load() throws IOException {
+        if (!Files.exists(file)) {
+            return Collections.emptyList();
+        }
+        try (DataInputStream in = new DataInputStream(
+                new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file)))
+        )) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a market snapshot file=" + file);
+            }
+            long epochMillis = in.readLong();
+            int count = in.readInt();
+            List<String> payloads = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                payloads.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            LOGGER.info("Loaded snapshot of {} payloads taken at epochMillis={}", count, epochMillis);
+            return payloads;
+        }
+    }
+
+    /**
+     * Atomically replaces the snapshot file with the current payloads.
+     */
+    synchronized void write() throws IOException {
+        List<String> payloads = new ArrayList<>(orderBooks.size() + quotes.size() + trades.size() + 2);
+        String instrumentData = this.instrumentData;
+        if (instrumentData != null) {
+            payloads.add(instrumentData);
+        }
+        String sessionState = this.sessionState;
+        if (sessionState != null) {
+            payloads.add(sessionState);
+        }
+        payloads.addAll(orderBooks.values());
+        payloads.addAll(quotes.values());
+        payloads.addAll(trades.values());
+
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))
+        )) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(payloads.size());
+            for (String payload : payloads) {
+                byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.debug("Written snapshot of {} payloads to file={}", payloads.size(), file);
+    }
+}
@@ -7,7 +7,8 @@ import net.quedex.api.common.StreamFailureListener;
  * Represents the stream of realtime public trade data streamed from Quedex and allows registering and subscribing for
  * particular data types. The registered listeners will be called (in a single thread) for every event that arrives. The
  * data come in form of PGP-clearsigned JSON messages - all the verification and deserialization is handled by the
- * implementations and the listeners receive Java objects.
+ * implementations and the listeners receive Java objects. Instrument data identical to the previously received one is
+ * not delivered again.
  * <p>
  * The stream gives the following guarantees useful for state initialisation:
  * <ul>
@@ -30,6 +31,31 @@ public interface MarketStream {
 
     void registerInstrumentsListener(InstrumentsListener instrumentsListener);
 
+    /**
+     * Registers a listener receiving an indexed {@link InstrumentCatalogue} of the tradable instruments, built once per
+     * instrument data update. The listener is called right after {@link InstrumentsListener}.
+     *
+     * @throws UnsupportedOperationException if the implementation does not build catalogues, by default
+     */
+    default void registerInstrumentCatalogueListener(InstrumentCatalogueListener instrumentCatalogueListener) {
+        throw new UnsupportedOperationException(
+                "registerInstrumentCatalogueListener not supported by " + getClass().getName()
+        );
+    }
+
+    /**
+     * Registers a listener receiving the {@link InstrumentsDelta} between consecutive versions of the tradable
+     * instruments. If instruments have already been received, the listener is immediately called with a delta in which
+     * all of them are added.
+     *
+     * @throws UnsupportedOperationException if the implementation does not compute deltas, by default
+     */
+    default void registerInstrumentsDeltaListener(InstrumentsDeltaListener instrumentsDeltaListener) {
+        throw new UnsupportedOperationException(
+                "registerInstrumentsDeltaListener not supported by " + getClass().getName()
+        );
+    }
+
     Registration registerOrderBookListener(OrderBookListener orderBookListener);
 
     Registration registerTradeListener(TradeListener tradeListener);
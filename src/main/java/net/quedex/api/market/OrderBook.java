@@ -14,6 +14,7 @@ public class OrderBook {
     private final int instrumentId;
     private final List<PriceQuantity> bids;
     private final List<PriceQuantity> asks;
+    private final boolean stale;
 
     @JsonCreator
     public OrderBook(
@@ -21,9 +22,18 @@ public class OrderBook {
             @JsonProperty("bids") List<PriceQuantity> bids,
             @JsonProperty("asks") List<PriceQuantity> asks
     ) {
+        this(instrumentId, bids, asks, false);
+    }
+
+    private OrderBook(int instrumentId, List<PriceQuantity> bids, List<PriceQuantity> asks, boolean stale) {
         this.instrumentId = instrumentId;
         this.bids = checkNotNull(bids, "null bids");
         this.asks = checkNotNull(asks, "null asks");
+        this.stale = stale;
+    }
+
+    OrderBook asStale() {
+        return new OrderBook(instrumentId, bids, asks, true);
     }
 
     public int getInstrumentId() {
@@ -38,6 +48,13 @@ public class OrderBook {
         return asks;
     }
 
+    /**
+     * @return true if this order book has been restored from a warm-start snapshot and has not been received live
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -59,6 +76,7 @@ public class OrderBook {
                 .add("instrumentId", instrumentId)
                 .add("bids", bids)
                 .add("asks", asks)
+                .add("stale", stale)
                 .toString();
     }
 
@@ -20,6 +20,7 @@ public class Quotes {
     private final Integer askQuantity;
     private final int volume;
     private final int openInterest;
+    private final boolean stale;
 
     @JsonCreator
     public Quotes(
@@ -32,6 +33,21 @@ public class Quotes {
             @JsonProperty("ask_quantity") Integer askQuantity,
             @JsonProperty("volume") int volume,
             @JsonProperty("open_interest") int openInterest
+    ) {
+        this(instrumentId, last, lastQuantity, bid, bidQuantity, ask, askQuantity, volume, openInterest, false);
+    }
+
+    private Quotes(
+            int instrumentId,
+            BigDecimal last,
+            int lastQuantity,
+            BigDecimal bid,
+            Integer bidQuantity,
+            BigDecimal ask,
+            Integer askQuantity,
+            int volume,
+            int openInterest,
+            boolean stale
     ) {
         checkArgument(last.compareTo(BigDecimal.ZERO) > 0, "last=%s <= 0", last);
         checkArgument(lastQuantity >= 0, "lastQuantity=%s < 0", lastQuantity); // may be 0 when reference trade
@@ -50,6 +66,13 @@ public class Quotes {
         this.askQuantity = askQuantity;
         this.volume = volume;
         this.openInterest = openInterest;
+        this.stale = stale;
+    }
+
+    Quotes asStale() {
+        return new Quotes(
+                instrumentId, last, lastQuantity, bid, bidQuantity, ask, askQuantity, volume, openInterest, true
+        );
     }
 
     public int getInstrumentId() {
@@ -86,6 +109,13 @@ public class Quotes {
         return openInterest;
     }
 
+    /**
+     * @return true if these quotes have been restored from a warm-start snapshot and have not been received live
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -119,6 +149,7 @@ public class Quotes {
                 .add("askQuantity", askQuantity)
                 .add("volume", volume)
                 .add("openInterest", openInterest)
+                .add("stale", stale)
                 .toString();
     }
 }
@@ -0,0 +1,258 @@
+package net.quedex.api.market;
+
+import com.google.common.collect.ImmutableList;
+import net.quedex.api.common.CommunicationException;
+import net.quedex.api.common.Config;
+import net.quedex.api.common.DisconnectedException;
+import net.quedex.api.common.JavaWebsocketTransport;
+import net.quedex.api.common.NioWebsocketClient;
+import net.quedex.api.common.StreamFailureListener;
+import net.quedex.api.common.WebsocketTransport;
+import net.quedex.api.pgp.BcPublicKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link MarketStream} receiving the same data over several connections at once and passing on whichever copy of
+ * each event arrives first; the later copies are dropped before their signatures are verified. A connection which
+ * stalls or is lost does not delay the data, as long as any other connection keeps delivering it.
+ * <p>
+ * The loss of a connection is only logged while any other connection remains open;
+ * {@link StreamFailureListener#onStreamFailure} is called when the last one is lost. A lost connection is not
+ * reopened - {@link #getOpenConnectionCount} may be used to restart the stream before the last one is lost.
+ */
+public class RedundantMarketStream implements MarketStream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedundantMarketStream.class);
+
+    static final int MAX_TRACKED_EVENTS = 1 << 16;
+
+    private final MarketMessageReceiver messageReceiver;
+    private final FirstArrivalArbiter arbiter;
+    private final List<WebsocketTransport> transports;
+    private final boolean[] open; // guarded by this
+
+    private volatile StreamFailureListener streamFailureListener;
+
+    /**
+     * @param connections number of connections to the market stream of the given {@link Config}, at least 2
+     */
+    public RedundantMarketStream(Config config, int connections) {
+        this(config, connections, JavaWebsocketTransport::new);
+    }
+
+    /**
+     * @param connections number of connections to the market stream of the given {@link Config}, at least 2
+     * @param transportFactory creates the connections of the stream, e.g. a shared {@link NioWebsocketClient}
+     */
+    public RedundantMarketStream(Config config, int connections, WebsocketTransport.Factory transportFactory) {
+        this(
+                Collections.nCopies(checkConnections(connections), config.getMarketStreamUrl()),
+                config.getQdxPublicKey(),
+                transportFactory
+        );
+    }
+
+    /**
+     * @param marketStreamUrls urls of the connections, e.g. of different endpoints of the market stream, at least 2
+     * @param transportFactory creates the connections of the stream, e.g. a shared {@link NioWebsocketClient}
+     */
+    public RedundantMarketStream(
+            List<String> marketStreamUrls,
+            BcPublicKey qdxPublicKey,
+            WebsocketTransport.Factory transportFactory
+    ) {
+        this(marketStreamUrls, new MarketMessageReceiver(qdxPublicKey), transportFactory);
+    }
+
+    RedundantMarketStream(
+            List<String> marketStreamUrls,
+            MarketMessageReceiver messageReceiver,
+            WebsocketTransport.Factory transportFactory
+    ) {
+        checkConnections(marketStreamUrls.size());
+        checkNotNull(transportFactory, "null transportFactory");
+        this.messageReceiver = checkNotNull(messageReceiver, "null messageReceiver");
+        this.arbiter = new FirstArrivalArbiter(messageReceiver, marketStreamUrls.size(), MAX_TRACKED_EVENTS);
+        List<WebsocketTransport> transports = new ArrayList<>(marketStreamUrls.size());
+        for (int i = 0; i < marketStreamUrls.size(); i++) {
+            transports.add(transportFactory.create(URI.create(marketStreamUrls.get(i)), new ConnectionListener(i)));
+        }
+        this.transports = ImmutableList.copyOf(transports);
+        this.open = new boolean[transports.size()];
+    }
+
+    private static int checkConnections(int connections) {
+        checkArgument(connections >= 2, "connections=%s < 2", connections);
+        return connections;
+    }
+
+    @Override
+    public void registerStreamFailureListener(StreamFailureListener streamFailureListener) {
+        this.streamFailureListener = streamFailureListener;
+        messageReceiver.registerStreamFailureListener(streamFailureListener);
+    }
+
+    /**
+     * Opens all the connections. Succeeds if at least one of them could be opened.
+     *
+     * @throws CommunicationException if none of the connections could be opened
+     */
+    @Override
+    public void start() throws CommunicationException {
+        LOGGER.trace("Starting");
+        CommunicationException lastError = null;
+        for (int i = 0; i < transports.size(); i++) {
+            try {
+                transports.get(i).connect();
+                synchronized (this) {
+                    open[i] = true;
+                }
+            } catch (CommunicationException e) {
+                LOGGER.warn("Error opening connection={}", i, e);
+                lastError = e;
+            }
+        }
+        if (getOpenConnectionCount() == 0) {
+            throw lastError;
+        }
+        LOGGER.info("Started with {} of {} connections", getOpenConnectionCount(), transports.size());
+    }
+
+    @Override
+    public void stop() throws CommunicationException {
+        LOGGER.trace("Stopping");
+        synchronized (this) {
+            for (int i = 0; i < open.length; i++) {
+                open[i] = false;
+            }
+        }
+        transports.forEach(WebsocketTransport::close);
+        LOGGER.info("Stopped");
+    }
+
+    /**
+     * @return number of connections currently open
+     */
+    public synchronized int getOpenConnectionCount() {
+        int count = 0;
+        for (boolean connectionOpen : open) {
+            if (connectionOpen) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of events passed on as first received by each connection, indexed as the connections were given
+     */
+    public long[] getFirstArrivalCounts() {
+        return arbiter.getFirstArrivalCounts();
+    }
+
+    /**
+     * @return number of received copies of already passed on events, dropped without verification
+     */
+    public long getDuplicateCount() {
+        return arbiter.getDuplicateCount();
+    }
+
+    void processMessage(int connection, String message) {
+        arbiter.process(connection, message);
+    }
+
+    private void onConnectionLost(int connection, Exception e) {
+        int openConnections;
+        synchronized (this) {
+            if (!open[connection]) {
+                return;
+            }
+            open[connection] = false;
+            openConnections = getOpenConnectionCount();
+        }
+        arbiter.removeConnection(connection);
+        if (openConnections > 0) {
+            LOGGER.warn("Lost connection={}, {} remain open", connection, openConnections, e);
+            return;
+        }
+        StreamFailureListener streamFailureListener = this.streamFailureListener;
+        if (streamFailureListener != null) {
+            streamFailureListener.onStreamFailure(e);
+        }
+    }
+
+    @Override
+    public void registerInstrumentsListener(InstrumentsListener instrumentsListener) {
+        messageReceiver.registerInstrumentsListener(instrumentsListener);
+    }
+
+    @Override
+    public void registerInstrumentCatalogueListener(InstrumentCatalogueListener instrumentCatalogueListener) {
+        messageReceiver.registerInstrumentCatalogueListener(instrumentCatalogueListener);
+    }
+
+    @Override
+    public void registerInstrumentsDeltaListener(InstrumentsDeltaListener instrumentsDeltaListener) {
+        messageReceiver.registerInstrumentsDeltaListener(instrumentsDeltaListener);
+    }
+
+    @Override
+    public Registration registerOrderBookListener(OrderBookListener orderBookListener) {
+        return messageReceiver.registerOrderBookListener(orderBookListener);
+    }
+
+    @Override
+    public Registration registerTradeListener(TradeListener tradeListener) {
+        return messageReceiver.registerTradeListener(tradeListener);
+    }
+
+    @Override
+    public Registration registerQuotesListener(QuotesListener quotesListener) {
+        return messageReceiver.registerQuotesListener(quotesListener);
+    }
+
+    @Override
+    public void registerAndSubscribeSessionStateListener(SessionStateListener sessionStateListener) {
+        messageReceiver.registerAndSubscribeSessionStateListener(sessionStateListener);
+    }
+
+    private final class ConnectionListener implements WebsocketTransport.Listener {
+
+        private final int connection;
+
+        ConnectionListener(int connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void onMessage(String message) {
+            processMessage(connection, message);
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            if (remote) {
+                onConnectionLost(
+                        connection,
+                        new DisconnectedException("Websocket closed with code=" + code + ", reason=" + reason)
+                );
+            } else {
+                LOGGER.info("Websocket connection={} closed with code={}, reason={}", connection, code, reason);
+            }
+        }
+
+        @Override
+        public void onError(Exception e) {
+            onConnectionLost(connection, new DisconnectedException("Websocket error", e));
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package net.quedex.api.market;
+
+import net.quedex.api.common.CommunicationException;
+import net.quedex.api.common.JournalReader;
+import net.quedex.api.common.JournalRecorder;
+import net.quedex.api.common.StreamFailureListener;
+import net.quedex.api.pgp.BcPublicKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A {@link MarketStream} replaying raw frames recorded by a {@link JournalRecorder} (see
+ * {@link WebsocketMarketStream#registerJournalRecorder}). The frames go through the same processing as on a live
+ * stream, so listeners and {@link Registration}s behave exactly the same. The replay runs in its own thread, started
+ * by {@link #start}, and may be paced:
+ * <ul>
+ *     <li> {@link #MAX_SPEED} - as fast as possible </li>
+ *     <li> {@link #REAL_TIME} - with the same delays between frames as when they were received </li>
+ *     <li> any other positive value {@code N} - {@code N} times faster than real time </li>
+ * </ul>
+ * Replay of trusted recordings may skip signature verification, which is by far the most expensive part of processing
+ * a frame.
+ */
+public class ReplayMarketStream implements MarketStream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplayMarketStream.class);
+
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+    public static final double REAL_TIME = 1;
+
+    private final Path directory;
+    private final String name;
+    private final double speed;
+    private final MarketMessageReceiver messageReceiver;
+    private final CountDownLatch completed = new CountDownLatch(1);
+
+    private volatile StreamFailureListener streamFailureListener;
+    private volatile long seekEpochNanos = Long.MIN_VALUE;
+    private volatile boolean running;
+    private Thread replayThread;
+
+    /**
+     * @param directory directory containing the recorded journal
+     * @param name name of the recorded journal
+     * @param speed replay speed, has to be positive
+     * @param verifySignatures whether signatures of the recorded frames should be verified
+     */
+    public ReplayMarketStream(
+            Path directory,
+            String name,
+            BcPublicKey qdxPublicKey,
+            double speed,
+            boolean verifySignatures
+    ) {
+        checkArgument(speed > 0, "speed=%s <= 0", speed);
+        this.directory = checkNotNull(directory, "null directory");
+        this.name = checkNotNull(name, "null name");
+        this.speed = speed;
+        this.messageReceiver = new MarketMessageReceiver(qdxPublicKey, verifySignatures);
+    }
+
+    /**
+     * Sets the point in time (of reception of the recorded frames) from which the replay is paced. Frames received
+     * earlier are processed as fast as possible, so that the state of the stream (and the listeners) at the given time
+     * is the same as it was live. Has to be called before {@link #start}.
+     */
+    public ReplayMarketStream seek(long epochMillis) {
+        checkState(replayThread == null, "Already started");
+        seekEpochNanos = TimeUnit.MILLISECONDS.toNanos(epochMillis);
+        return this;
+    }
+
+    @Override
+    public void registerStreamFailureListener(StreamFailureListener streamFailureListener) {
+        this.streamFailureListener = streamFailureListener;
+        messageReceiver.registerStreamFailureListener(streamFailureListener);
+    }
+
+    @Override
+    public synchronized void start() throws CommunicationException {
+        checkState(replayThread == null, "Already started");
+        LOGGER.trace("Starting");
+        JournalReader reader;
+        try {
+            reader = new JournalReader(directory, name);
+        } catch (IOException e) {
+            throw new CommunicationException("Error opening journal=" + name + " in " + directory, e);
+        }
+        running = true;
+        replayThread = new Thread(() -> replay(reader), "replay-" + name);
+        replayThread.setDaemon(true);
+        replayThread.start();
+        LOGGER.info("Started");
+    }
+
+    /**
+     * Waits until all the recorded frames are replayed or the stream is stopped.
+     */
+    public void awaitCompletion() throws InterruptedException {
+        completed.await();
+    }
+
+    /**
+     * Waits until all the recorded frames are replayed or the stream is stopped.
+     *
+     * @return true if the replay completed, false if the timeout elapsed
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return completed.await(timeout, unit);
+    }
+
+    @Override
+    public void registerInstrumentsListener(InstrumentsListener instrumentsListener) {
+        messageReceiver.registerInstrumentsListener(instrumentsListener);
+    }
+
+    @Override
+    public void registerInstrumentCatalogueListener(InstrumentCatalogueListener instrumentCatalogueListener) {
+        messageReceiver.registerInstrumentCatalogueListener(instrumentCatalogueListener);
+    }
+
+    @Override
+    public void registerInstrumentsDeltaListener(InstrumentsDeltaListener instrumentsDeltaListener) {
+        messageReceiver.registerInstrumentsDeltaListener(instrumentsDeltaListener);
+    }
+
+    @Override
+    public Registration registerOrderBookListener(OrderBookListener orderBookListener) {
+        return messageReceiver.registerOrderBookListener(orderBookListener);
+    }
+
+    @Override
+    public Registration registerTradeListener(TradeListener tradeListener) {
+        return messageReceiver.registerTradeListener(tradeListener);
+    }
+
+    @Override
+    public Registration registerQuotesListener(QuotesListener quotesListener) {
+        return messageReceiver.registerQuotesListener(quotesListener);
+    }
+
+    @Override
+    public void registerAndSubscribeSessionStateListener(SessionStateListener sessionStateListener) {
+        messageReceiver.registerAndSubscribeSessionStateListener(sessionStateListener);
+    }
+
+    @Override
+    public synchronized void stop() throws CommunicationException {
+        LOGGER.trace("Stopping");
+        running = false;
+        Thread replayThread = this.replayThread;
+        if (replayThread != null && replayThread != Thread.currentThread()) {
+            LockSupport.unpark(replayThread);
+            try {
+                replayThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        LOGGER.info("Stopped");
+    }
+
+    private void replay(JournalReader reader) {
+        long pacingStartEpochNanos = Long.MIN_VALUE;
+        long pacingStartNanoTime = 0;
+        long frames = 0;
+
+        try {
+            while (running && reader.next()) {
+                if (reader.getType() != JournalRecorder.RAW_FRAME) {
+                    continue;
+                }
+                long epochNanos = reader.getEpochNanos();
+                if (speed != MAX_SPEED && epochNanos >= seekEpochNanos) {
+                    if (pacingStartEpochNanos == Long.MIN_VALUE) {
+                        pacingStartEpochNanos = epochNanos;
+                        pacingStartNanoTime = System.nanoTime();
+                    } else {
+                        long target = pacingStartNanoTime + (long) ((epochNanos - pacingStartEpochNanos) / speed);
+                        long wait;
+                        while (running && (wait = target - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                }
+                messageReceiver.processMessage(reader.getContent());
+                frames++;
+            }
+            LOGGER.info("Replayed {} frames", frames);
+        } catch (IOException | RuntimeException e) {
+            onError(new CommunicationException("Error replaying journal=" + name, e));
+        } finally {
+            reader.close();
+            completed.countDown();
+        }
+    }
+
+    private void onError(Exception e) {
+        LOGGER.warn("onError({})", e);
+        StreamFailureListener streamFailureListener = this.streamFailureListener;
+        if (streamFailureListener != null) {
+            streamFailureListener.onStreamFailure(e);
+        }
+    }
+}
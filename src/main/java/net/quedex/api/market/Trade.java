@@ -28,6 +28,7 @@ public final class Trade {
     private final int quantity;
 
     private final LiquidityProvider liquidityProvider;
+    private final boolean stale;
 
     @JsonCreator
     public Trade(
@@ -37,6 +38,18 @@ public final class Trade {
             @JsonProperty("price") BigDecimal price,
             @JsonProperty("quantity") int quantity,
             @JsonProperty("liquidity_provider") LiquidityProvider liquidityProvider
+    ) {
+        this(instrumentId, tradeId, timestamp, price, quantity, liquidityProvider, false);
+    }
+
+    private Trade(
+            int instrumentId,
+            long tradeId,
+            long timestamp,
+            BigDecimal price,
+            int quantity,
+            LiquidityProvider liquidityProvider,
+            boolean stale
     ) {
         checkArgument(quantity >= 0, "quantity=%s < 0", quantity);
         this.instrumentId = instrumentId;
@@ -45,6 +58,11 @@ public final class Trade {
         this.price = checkNotNull(price, "null price");
         this.quantity = quantity;
         this.liquidityProvider = checkNotNull(liquidityProvider, "null liquidityProvider");
+        this.stale = stale;
+    }
+
+    Trade asStale() {
+        return new Trade(instrumentId, tradeId, timestamp, price, quantity, liquidityProvider, true);
     }
 
     public int getInstrumentId() {
@@ -71,6 +89,13 @@ public final class Trade {
         return liquidityProvider;
     }
 
+    /**
+     * @return true if this trade has been restored from a warm-start snapshot and has not been received live
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -104,6 +129,7 @@ public final class Trade {
                 .add("price", price)
                 .add("quantity", quantity)
                 .add("liquidityProvider", liquidityProvider)
+                .add("stale", stale)
                 .toString();
     }
 }
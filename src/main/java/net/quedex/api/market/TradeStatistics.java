@@ -0,0 +1,336 @@
+package net.quedex.api.market;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link TradeListener} maintaining per-instrument statistics of the trade stream: VWAP, realised volatility (square
+ * root of the sum of squared log returns between consecutive trades), trade count, volume and signed volume imbalance.
+ * Every statistic is available in two variants:
+ * <ul>
+ *     <li>
+ *         over a sliding time window of the given length ending at the timestamp of the latest trade of the
+ *         instrument
+ *     </li>
+ *     <li>
+ *         exponentially decayed with the given time constant, i.e. a trade {@code dt} milliseconds older than the
+ *         latest one has weight {@code exp(-dt / decayMillis)}
+ *     </li>
+ * </ul>
+ * Every trade is processed in amortised O(1) time - the window is kept as a ring buffer of primitives with running
+ * sums, so the history is never recomputed.
+ * <p>
+ * The volume imbalance is signed by the aggressor side: a trade where {@link Trade.LiquidityProvider#SELLER} provided
+ * liquidity was initiated by a buyer and counts as positive, {@link Trade.LiquidityProvider#BUYER} as negative. Auction,
+ * reference and settlement trades do not contribute to the imbalance.
+ * <p>
+ * Time is measured with {@link Trade#getTimestamp()}, so the statistics behave the same on live and recorded data. A
+ * trade older than the latest one of its instrument is weighted by its age and kept in the window in timestamp order,
+ * but contributes no return. {@link Trade#isStale() Stale} trades, restored from a snapshot, are ignored. The getters
+ * may be called from any thread; they return {@link Double#NaN} (or {@code 0} for counts) for instruments without any
+ * trades.
+ */
+public class TradeStatistics implements TradeListener {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final long windowMillis;
+    private final double decayMillis;
+    private final Map<Integer, InstrumentStatistics> statistics = new ConcurrentHashMap<>(64, 0.75f);
+
+    /**
+     * @param windowMillis length of the sliding window in milliseconds, has to be positive
+     * @param decayMillis time constant of the exponentially decayed statistics in milliseconds, has to be positive
+     */
+    public TradeStatistics(long windowMillis, long decayMillis) {
+        checkArgument(windowMillis > 0, "windowMillis=%s <= 0", windowMillis);
+        checkArgument(decayMillis > 0, "decayMillis=%s <= 0", decayMillis);
+        this.windowMillis = windowMillis;
+        this.decayMillis = decayMillis;
+    }
+
+    @Override
+    public void onTrade(Trade trade) {
+        if (trade.isStale()) {
+            return;
+        }
+        InstrumentStatistics instrumentStatistics = statistics.get(trade.getInstrumentId());
+        if (instrumentStatistics == null) {
+            instrumentStatistics = statistics.computeIfAbsent(trade.getInstrumentId(), id -> new InstrumentStatistics());
+        }
+        instrumentStatistics.onTrade(
+                trade.getTimestamp(),
+                trade.getPrice().doubleValue(),
+                trade.getQuantity(),
+                sign(trade.getLiquidityProvider())
+        );
+    }
+
+    public double getVwap(int instrumentId) {
+        InstrumentStatistics instrumentStatistics = statistics.get(instrumentId);
+        return instrumentStatistics == null ? Double.NaN : instrumentStatistics.getVwap();
+    }
+
+    public double getVolatility(int instrumentId) {
+        InstrumentStatistics instrumentStatistics = statistics.get(instrumentId);
+        return instrumentStatistics == null ? Double.NaN : instrumentStatistics.getVolatility();
+    }
+
+    public int getTradeCount(int instrumentId) {
+        InstrumentStatistics instrumentStatistics = statistics.get(instrumentId);
+        return instrumentStatistics == null ? 0 : instrumentStatistics.getTradeCount();
+    }
+
+    public long getVolume(int instrumentId) {
+        InstrumentStatistics instrumentStatistics = statistics.get(instrumentId);
+        return instrumentStatistics == null ? 0 : instrumentStatistics.getVolume();
+    }
+
+    /**
+     * @return buyer-initiated minus seller-initiated volume in the window
+     */
+    public long getSignedVolume(int instrumentId) {
+        InstrumentStatistics instrumentStatistics = statistics.get(instrumentId);
+        return instrumentStatistics == null ? 0 : instrumentStatistics.getSignedVolume();
+    }
+
+    /**
+     * @return signed volume divided by volume in the window, a value between -1 and 1
+     */
+    public double getVolumeImbalance(int instrumentId) {
+        InstrumentStatistics instrumentStatistics = statistics.get(instrumentId);
+        return instrumentStatistics == null ? Double.NaN : instrumentStatistics.getVolumeImbalance();
+    }
+
+    public double getDecayedVwap(int instrumentId) {
+        InstrumentStatistics instrumentStatistics = statistics.get(instrumentId);
+        return instrumentStatistics == null ? Double.NaN : instrumentStatistics.getDecayedVwap();
+    }
+
+    public double getDecayedVolatility(int instrumentId) {
+        InstrumentStatistics instrumentStatistics = statistics.get(instrumentId);
+        return instrumentStatistics == null ? Double.NaN : instrumentStatistics.getDecayedVolatility();
+    }
+
+    public double getDecayedTradeCount(int instrumentId) {
+        InstrumentStatistics instrumentStatistics = statistics.get(instrumentId);
+        return instrumentStatistics == null ? 0 : instrumentStatistics.getDecayedTradeCount();
+    }
+
+    public double getDecayedVolumeImbalance(int instrumentId) {
+        InstrumentStatistics instrumentStatistics = statistics.get(instrumentId);
+        return instrumentStatistics == null ? Double.NaN : instrumentStatistics.getDecayedVolumeImbalance();
+    }
+
+    public void reset() {
+        statistics.clear();
+    }
+
+    private static int sign(Trade.LiquidityProvider liquidityProvider) {
+        switch (liquidityProvider) {
+            case SELLER:
+                return 1;
+            case BUYER:
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    private final class InstrumentStatistics {
+
+        // ring buffer of trades in the window
+        private long[] timestamps = new long[INITIAL_CAPACITY];
+        private double[] notionals = new double[INITIAL_CAPACITY];
+        private int[] quantities = new int[INITIAL_CAPACITY];
+        private int[] signedQuantities = new int[INITIAL_CAPACITY];
+        private double[] squaredReturns = new double[INITIAL_CAPACITY];
+        private int head;
+        private int size;
+
+        private double notionalSum;
+        private long quantitySum;
+        private long signedQuantitySum;
+        private double squaredReturnSum;
+
+        private double decayedNotionalSum;
+        private double decayedQuantitySum;
+        private double decayedSignedQuantitySum;
+        private double decayedSquaredReturnSum;
+        private double decayedCount;
+
+        private long lastTimestamp = Long.MIN_VALUE;
+        private double lastPrice = Double.NaN;
+
+        synchronized void onTrade(long timestamp, double price, int quantity, int sign) {
+            if (timestamp < lastTimestamp) {
+                onLateTrade(timestamp, price * quantity, quantity, sign * quantity);
+                return;
+            }
+            double squaredReturn = 0;
+            if (lastPrice > 0 && price > 0) {
+                double logReturn = Math.log(price / lastPrice);
+                squaredReturn = logReturn * logReturn;
+            }
+
+            if (lastTimestamp != Long.MIN_VALUE && timestamp > lastTimestamp) {
+                double decay = Math.exp(-(timestamp - lastTimestamp) / decayMillis);
+                decayedNotionalSum *= decay;
+                decayedQuantitySum *= decay;
+                decayedSignedQuantitySum *= decay;
+                decayedSquaredReturnSum *= decay;
+                decayedCount *= decay;
+            }
+            double notional = price * quantity;
+            int signedQuantity = sign * quantity;
+            decayedNotionalSum += notional;
+            decayedQuantitySum += quantity;
+            decayedSignedQuantitySum += signedQuantity;
+            decayedSquaredReturnSum += squaredReturn;
+            decayedCount += 1;
+
+            lastTimestamp = timestamp;
+            lastPrice = price;
+
+            append(timestamp, notional, quantity, signedQuantity, squaredReturn);
+            evictOlderThan(lastTimestamp - windowMillis);
+        }
+
+        /**
+         * Accounts for a trade older than the latest one: weighted by its age in the decayed statistics and inserted in
+         * timestamp order into the window, unless already outside of it. The trade contributes no return, as the
+         * return to the trade after it has already been counted.
+         */
+        private void onLateTrade(long timestamp, double notional, int quantity, int signedQuantity) {
+            double weight = Math.exp(-(lastTimestamp - timestamp) / decayMillis);
+            decayedNotionalSum += weight * notional;
+            decayedQuantitySum += weight * quantity;
+            decayedSignedQuantitySum += weight * signedQuantity;
+            decayedCount += weight;
+
+            if (timestamp > lastTimestamp - windowMillis) {
+                append(timestamp, notional, quantity, signedQuantity, 0);
+                int mask = timestamps.length - 1;
+                for (int i = size - 1; i > 0; i--) {
+                    int current = (head + i) & mask;
+                    int previous = (head + i - 1) & mask;
+                    if (timestamps[previous] <= timestamps[current]) {
+                        break;
+                    }
+                    swap(previous, current);
+                }
+            }
+        }
+
+        private void swap(int i, int j) {
+            long timestamp = timestamps[i];
+            timestamps[i] = timestamps[j];
+            timestamps[j] = timestamp;
+            double notional = notionals[i];
+            notionals[i] = notionals[j];
+            notionals[j] = notional;
+            int quantity = quantities[i];
+            quantities[i] = quantities[j];
+            quantities[j] = quantity;
+            int signedQuantity = signedQuantities[i];
+            signedQuantities[i] = signedQuantities[j];
+            signedQuantities[j] = signedQuantity;
+            double squaredReturn = squaredReturns[i];
+            squaredReturns[i] = squaredReturns[j];
+            squaredReturns[j] = squaredReturn;
+        }
+
+        private void append(long timestamp, double notional, int quantity, int signedQuantity, double squaredReturn) {
+            if (size == timestamps.length) {
+                grow();
+            }
+            int tail = (head + size) & (timestamps.length - 1);
+            timestamps[tail] = timestamp;
+            notionals[tail] = notional;
+            quantities[tail] = quantity;
+            signedQuantities[tail] = signedQuantity;
+            squaredReturns[tail] = squaredReturn;
+            size++;
+
+            notionalSum += notional;
+            quantitySum += quantity;
+            signedQuantitySum += signedQuantity;
+            squaredReturnSum += squaredReturn;
+        }
+
+        private void evictOlderThan(long minTimestamp) {
+            while (size > 0 && timestamps[head] <= minTimestamp) {
+                notionalSum -= notionals[head];
+                quantitySum -= quantities[head];
+                signedQuantitySum -= signedQuantities[head];
+                squaredReturnSum -= squaredReturns[head];
+                head = (head + 1) & (timestamps.length - 1);
+                size--;
+            }
+            if (size == 1) {
+                // limits accumulation of floating point errors
+                notionalSum = notionals[head];
+                squaredReturnSum = squaredReturns[head];
+            }
+        }
+
+        private void grow() {
+            int capacity = timestamps.length;
+            timestamps = unwrap(timestamps, new long[capacity << 1], capacity);
+            notionals = unwrap(notionals, new double[capacity << 1], capacity);
+            quantities = unwrap(quantities, new int[capacity << 1], capacity);
+            signedQuantities = unwrap(signedQuantities, new int[capacity << 1], capacity);
+            squaredReturns = unwrap(squaredReturns, new double[capacity << 1], capacity);
+            head = 0;
+        }
+
+        private <T> T unwrap(T source, T target, int capacity) {
+            int firstPart = capacity - head;
+            System.arraycopy(source, head, target, 0, firstPart);
+            System.arraycopy(source, 0, target, firstPart, head);
+            return target;
+        }
+
+        synchronized double getVwap() {
+            return quantitySum == 0 ? Double.NaN : notionalSum / quantitySum;
+        }
+
+        synchronized double getVolatility() {
+            return Math.sqrt(Math.max(squaredReturnSum, 0));
+        }
+
+        synchronized int getTradeCount() {
+            return size;
+        }
+
+        synchronized long getVolume() {
+            return quantitySum;
+        }
+
+        synchronized long getSignedVolume() {
+            return signedQuantitySum;
+        }
+
+        synchronized double getVolumeImbalance() {
+            return quantitySum == 0 ? Double.NaN : (double) signedQuantitySum / quantitySum;
+        }
+
+        synchronized double getDecayedVwap() {
+            return decayedQuantitySum == 0 ? Double.NaN : decayedNotionalSum / decayedQuantitySum;
+        }
+
+        synchronized double getDecayedVolatility() {
+            return Math.sqrt(decayedSquaredReturnSum);
+        }
+
+        synchronized double getDecayedTradeCount() {
+            return decayedCount;
+        }
+
+        synchronized double getDecayedVolumeImbalance() {
+            return decayedQuantitySum == 0 ? Double.NaN : decayedSignedQuantitySum / decayedQuantitySum;
+        }
+    }
+}
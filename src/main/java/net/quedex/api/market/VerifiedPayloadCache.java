@@ -0,0 +1,87 @@
+package net.quedex.api.market;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Bounded LRU cache of the results of signature verification and deserialization, keyed by SHA-256 of the exact signed
+ * frame. A frame identical to an already verified one costs a hash and a lookup instead of a public key signature
+ * verification. Only {@code order_book} and {@code quotes} frames are cached, so the frames which cannot be one of
+ * them, as told by {@link #isCacheable}, are not even hashed. Not thread-safe - meant to be used by the single thread
+ * processing a stream.
+ */
+final class VerifiedPayloadCache {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.sha256();
+
+    private final Map<HashCode, CachedPayload> entries;
+    private long hitCount;
+    private long missCount;
+
+    VerifiedPayloadCache(int maxSize) {
+        checkArgument(maxSize > 0, "maxSize=%s <= 0", maxSize);
+        this.entries = new LinkedHashMap<HashCode, CachedPayload>(maxSize * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<HashCode, CachedPayload> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return false if the given signed frame is certainly neither an {@code order_book} nor a {@code quotes}, as its
+     *         clear text does not contain any of the type names - checked by a plain text search, way cheaper than
+     *         hashing e.g. a large {@code instrument_data} frame
+     */
+    static boolean isCacheable(String frame) {
+        return frame.contains("\"order_book\"") || frame.contains("\"quotes\"");
+    }
+
+    static HashCode hash(String frame) {
+        return HASH_FUNCTION.hashString(frame, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return cached entry for the frame with the given hash if present, null otherwise
+     */
+    CachedPayload get(HashCode frameHash) {
+        CachedPayload entry = entries.get(frameHash);
+        if (entry == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return entry;
+    }
+
+    void put(HashCode frameHash, String verified, Object parsed) {
+        entries.put(frameHash, new CachedPayload(verified, parsed));
+    }
+
+    long getHitCount() {
+        return hitCount;
+    }
+
+    long getMissCount() {
+        return missCount;
+    }
+
+    static final class CachedPayload {
+
+        final String verified;
+        final Object parsed;
+
+        private CachedPayload(String verified, Object parsed) {
+            this.verified = checkNotNull(verified, "null verified");
+            this.parsed = checkNotNull(parsed, "null parsed");
+        }
+    }
+}
@@ -1,11 +1,26 @@
 package net.quedex.api.market;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.quedex.api.common.CommunicationException;
 import net.quedex.api.common.Config;
+import net.quedex.api.common.JavaWebsocketTransport;
+import net.quedex.api.common.JournalRecorder;
+import net.quedex.api.common.NioWebsocketClient;
 import net.quedex.api.common.WebsocketStream;
+import net.quedex.api.common.WebsocketTransport;
 import net.quedex.api.pgp.BcPublicKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
 /**
  *
  */
@@ -13,19 +28,174 @@ public class WebsocketMarketStream extends WebsocketStream<MarketMessageReceiver
 
     private static final Logger LOGGER = LoggerFactory.getLogger(WebsocketMarketStream.class);
 
+    private final long snapshotPeriodMillis;
+    private ScheduledExecutorService snapshotExecutor;
+    private volatile BacklogConflator backlogConflator;
+
     public WebsocketMarketStream(String marketStreamUrl, BcPublicKey qdxPublicKey) {
-        super(LOGGER, marketStreamUrl, new MarketMessageReceiver(qdxPublicKey));
+        this(marketStreamUrl, qdxPublicKey, JavaWebsocketTransport::new);
+    }
+
+    /**
+     * @param transportFactory creates the connection of the stream, e.g. a shared {@link NioWebsocketClient}
+     */
+    public WebsocketMarketStream(
+            String marketStreamUrl,
+            BcPublicKey qdxPublicKey,
+            WebsocketTransport.Factory transportFactory
+    ) {
+        super(LOGGER, marketStreamUrl, new MarketMessageReceiver(qdxPublicKey), transportFactory);
+        this.snapshotPeriodMillis = 0;
     }
 
     public WebsocketMarketStream(Config config) {
         this(config.getMarketStreamUrl(), config.getQdxPublicKey());
     }
 
+    /**
+     * @param transportFactory creates the connection of the stream, e.g. a shared {@link NioWebsocketClient}
+     */
+    public WebsocketMarketStream(Config config, WebsocketTransport.Factory transportFactory) {
+        this(config.getMarketStreamUrl(), config.getQdxPublicKey(), transportFactory);
+    }
+
+    /**
+     * Creates a stream with warm start enabled. The cached market data (instruments, session state and the latest order
+     * books, quotes and trades) is restored from the given snapshot file, if it exists, so that it may be served to
+     * listeners right after they are registered and subscribed - before any data is received. Restored
+     * {@link OrderBook}s, {@link Quotes} and {@link Trade}s are marked {@link OrderBook#isStale() stale} until
+     * overwritten by live data; see {@link #isInstrumentDataStale} and {@link #isSessionStateStale} for instruments and
+     * session state. If the file cannot be restored (e.g. is corrupt), the stream starts cold and the file is replaced
+     * by the first snapshot written. While started, the stream periodically writes the current data to the snapshot
+     * file; the last snapshot is written on {@link #stop}.
+     *
+     * @param snapshotFile file to restore the snapshot from and write it to
+     * @param snapshotPeriodMillis how often the snapshot should be written, has to be positive
+     */
+    public WebsocketMarketStream(Config config, Path snapshotFile, long snapshotPeriodMillis) {
+        super(LOGGER, config.getMarketStreamUrl(), new MarketMessageReceiver(config.getQdxPublicKey()));
+        checkArgument(snapshotPeriodMillis > 0, "snapshotPeriodMillis=%s <= 0", snapshotPeriodMillis);
+        this.snapshotPeriodMillis = snapshotPeriodMillis;
+
+        MarketSnapshot snapshot = new MarketSnapshot(snapshotFile);
+        try {
+            messageReceiver.enableSnapshot(snapshot);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Error restoring snapshot from file={}, starting cold", snapshotFile, e);
+        }
+    }
+
+    /**
+     * @return true if the instruments have been restored from a warm-start snapshot and not yet received live
+     */
+    public boolean isInstrumentDataStale() {
+        return messageReceiver.isInstrumentDataStale();
+    }
+
+    /**
+     * @return true if the session state has been restored from a warm-start snapshot and not yet received live
+     */
+    public boolean isSessionStateStale() {
+        return messageReceiver.isSessionStateStale();
+    }
+
+    /**
+     * Moves processing of the received frames off the websocket thread, onto a dedicated one fed by a bounded queue.
+     * While more than {@code conflationThreshold} frames are queued, i.e. processing has fallen behind, order book and
+     * quotes frames superseded by a newer queued frame for the same instrument are dropped before their signatures are
+     * verified. Trades, session state and instrument data are never dropped. Has to be called before {@link #start}.
+     *
+     * @param queueCapacity maximum number of queued frames; the websocket thread waits when the queue is full
+     * @param conflationThreshold number of queued frames above which superseded frames are dropped, less than
+     *                            {@code queueCapacity}
+     */
+    public void enableBacklogConflation(int queueCapacity, int conflationThreshold) {
+        checkState(backlogConflator == null, "Backlog conflation already enabled");
+        backlogConflator = new BacklogConflator(messageReceiver, queueCapacity, conflationThreshold);
+    }
+
+    /**
+     * @return number of frames dropped as superseded, 0 if backlog conflation is not enabled
+     */
+    public long getConflatedCount() {
+        BacklogConflator backlogConflator = this.backlogConflator;
+        return backlogConflator == null ? 0 : backlogConflator.getConflatedCount();
+    }
+
+    @Override
+    public void start() throws CommunicationException {
+        BacklogConflator backlogConflator = this.backlogConflator;
+        if (backlogConflator != null) {
+            backlogConflator.start("market-processing");
+        }
+        super.start();
+        if (messageReceiver.getSnapshot() != null) {
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("market-snapshot-%d").setDaemon(true).build()
+            );
+            snapshotExecutor.scheduleWithFixedDelay(
+                    this::writeSnapshot,
+                    snapshotPeriodMillis,
+                    snapshotPeriodMillis,
+                    TimeUnit.MILLISECONDS
+            );
+        }
+    }
+
+    @Override
+    public void stop() throws CommunicationException {
+        super.stop();
+        BacklogConflator backlogConflator = this.backlogConflator;
+        if (backlogConflator != null) {
+            backlogConflator.stop();
+        }
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * Registers a {@link JournalRecorder} to which every received frame (and, if enabled, every verified payload) will
+     * be appended. The recorder is not closed when the stream stops.
+     */
+    public void registerJournalRecorder(JournalRecorder journalRecorder) {
+        messageReceiver.registerJournalRecorder(journalRecorder);
+    }
+
+    @Override
+    protected void processMessage(String message) {
+        BacklogConflator backlogConflator = this.backlogConflator;
+        if (backlogConflator != null) {
+            backlogConflator.offer(message);
+        } else {
+            super.processMessage(message);
+        }
+    }
+
+    private void writeSnapshot() {
+        try {
+            messageReceiver.getSnapshot().write();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Error writing snapshot", e);
+        }
+    }
+
     @Override
     public void registerInstrumentsListener(final InstrumentsListener instrumentsListener) {
         messageReceiver.registerInstrumentsListener(instrumentsListener);
     }
 
+    @Override
+    public void registerInstrumentCatalogueListener(InstrumentCatalogueListener instrumentCatalogueListener) {
+        messageReceiver.registerInstrumentCatalogueListener(instrumentCatalogueListener);
+    }
+
+    @Override
+    public void registerInstrumentsDeltaListener(InstrumentsDeltaListener instrumentsDeltaListener) {
+        messageReceiver.registerInstrumentsDeltaListener(instrumentsDeltaListener);
+    }
+
     @Override
     public Registration registerOrderBookListener(OrderBookListener orderBookListener) {
         return messageReceiver.registerOrderBookListener(orderBookListener);
@@ -20,6 +20,7 @@ import java.util.Date;
 import java.util.Hashtable;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 
 public class BcEncryptor {
 
@@ -41,13 +42,22 @@ public class BcEncryptor {
     }
 
     public String encrypt(String message, boolean sign) throws PGPEncryptionException, PGPKeyNotFoundException {
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        return encrypt(messageBytes, 0, messageBytes.length, sign);
+    }
+
+    /**
+     * Encrypts (and signs if requested) the given UTF-8 encoded message, read from {@code length} bytes of the array
+     * starting at {@code offset}. The array is not retained.
+     */
+    public String encrypt(byte[] message, int offset, int length, boolean sign)
+            throws PGPEncryptionException, PGPKeyNotFoundException {
+        checkPositionIndexes(offset, offset + length, message.length);
 
         try {
             PGPSecretKey secretKey = ourKey.getSecretKey();
             PGPPrivateKey privateKey = ourKey.getPrivateKey();
 
-            byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
-
             PGPLiteralDataGenerator literalDataGenerator = new PGPLiteralDataGenerator();
             PGPEncryptedDataGenerator encryptedDataGenerator = new PGPEncryptedDataGenerator(dataEncryptor);
             encryptedDataGenerator.addMethod(new BcPublicKeyKeyEncryptionMethodGenerator(publicKey.getEncryptionKey()));
@@ -62,7 +72,7 @@ public class BcEncryptor {
             spGen.setSignerUserID(false, (String) secretKey.getPublicKey().getUserIDs().next());
             signatureGenerator.setHashedSubpackets(spGen.generate());
             if (sign) {
-                signatureGenerator.update(messageBytes);
+                signatureGenerator.update(message, offset, length);
             }
 
             ByteArrayOutputStream bOut = new ByteArrayOutputStream();
@@ -79,10 +89,10 @@ public class BcEncryptor {
                     compressedOut,
                     PGPLiteralData.UTF8,
                     PGPLiteralData.CONSOLE,
-                    messageBytes.length,
+                    length,
                     new Date()
             );
-            literalOut.write(messageBytes);
+            literalOut.write(message, offset, length);
             literalDataGenerator.close();
 
             if (sign) {
@@ -18,6 +18,9 @@ import static com.google.common.base.Preconditions.checkState;
 
 public final class BcSignatureVerifier {
 
+    private static final String SIGNED_MESSAGE_HEADER = "-----BEGIN PGP SIGNED MESSAGE-----";
+    private static final String SIGNATURE_HEADER = "-----BEGIN PGP SIGNATURE-----";
+
     private final BcPublicKey publicKey;
 
     public BcSignatureVerifier(BcPublicKey publicKey) {
@@ -70,11 +73,43 @@ public final class BcSignatureVerifier {
                     "Invalid signature, received keyId=" + Long.toHexString(sig.getKeyID()).toUpperCase()
             );
 
-        } catch (IOException | PGPException e) {
+        } catch (IOException | PGPException | RuntimeException e) { // e.g. malformed signature block
             throw new PGPSignatureVerificationException("Error verifying message", e);
         }
     }
 
+    /**
+     * Extracts the signed content of a clearsigned message <b>without verifying the signature</b>. Meant only for
+     * messages from trusted sources, e.g. recordings of already verified messages, or for peeking at the content of a
+     * message before deciding whether it is worth verifying. The result is the same as of
+     * {@link #verifySignature} for a validly signed message.
+     *
+     * @throws PGPSignatureVerificationException if the message is not a clearsigned message
+     */
+    public static String extractContent(String message) throws PGPSignatureVerificationException {
+        if (!message.startsWith(SIGNED_MESSAGE_HEADER)) {
+            throw new PGPSignatureVerificationException("Not a clearsigned message");
+        }
+        int start = message.indexOf("\n\n");
+        int crlfStart = message.indexOf("\r\n\r\n");
+        if (crlfStart >= 0 && (start < 0 || crlfStart < start)) {
+            start = crlfStart + 4;
+        } else if (start >= 0) {
+            start += 2;
+        }
+        int end = message.indexOf(SIGNATURE_HEADER, Math.max(start, 0));
+        if (start < 0 || end < 0) {
+            throw new PGPSignatureVerificationException("Malformed clearsigned message");
+        }
+
+        String content = message.substring(start, end);
+        if (content.startsWith("- ") || content.contains("\n- ")) {
+            // dash-escaped lines
+            content = (content.startsWith("- ") ? content.substring(2) : content).replace("\n- ", "\n");
+        }
+        return content;
+    }
+
     private static void processLine(PGPSignature sig, byte[] line) throws IOException {
         int length = getLengthWithoutWhiteSpace(line);
         if (length > 0) {
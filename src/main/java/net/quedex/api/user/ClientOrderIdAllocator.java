@@ -0,0 +1,99 @@
+package net.quedex.api.user;
+
+import net.quedex.api.common.Config;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Allocates unique client order ids, for {@link LimitOrderSpec}s (or as the supplier of a {@link QuoteManager}).
+ * <p>
+ * An id is a positive long composed of the nonce group (see {@link Config#getNonceGroup}) in the 4 bits below the sign
+ * bit and a sequence number in the remaining 59 bits. The sequence starts at the current time in milliseconds times
+ * {@value #IDS_PER_MILLISECOND}, so ids allocated by processes using different nonce groups never collide, and ids
+ * allocated after a restart do not collide with the ones allocated before, as long as fewer than
+ * {@value #IDS_PER_MILLISECOND} ids per millisecond were allocated on average since the previous start.
+ * <p>
+ * Each thread takes blocks of consecutive sequence numbers from a shared counter and allocates ids from its block
+ * without any synchronization - the shared counter is touched once per block. Ids are therefore unique, but increase
+ * only within a thread (and only within a block between threads). Ids skipped in blocks of threads which stopped
+ * allocating are never reused.
+ */
+public final class ClientOrderIdAllocator implements LongSupplier {
+
+    static final int IDS_PER_MILLISECOND = 1 << 16;
+    static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    private static final int SEQUENCE_BITS = 59;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+    private static final int MAX_NONCE_GROUP = 15;
+
+    private final long nonceGroupBits;
+    private final int blockSize;
+    private final AtomicLong nextBlock;
+    private final ThreadLocal<Block> block = ThreadLocal.withInitial(Block::new);
+
+    /**
+     * Creates an allocator for the nonce group of the given {@link Config}, with the default block size.
+     */
+    public ClientOrderIdAllocator(Config config) {
+        this(config.getNonceGroup(), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param nonceGroup nonce group of the process, between 0 and 15
+     * @param blockSize number of ids taken by a thread at once, has to be positive
+     */
+    public ClientOrderIdAllocator(int nonceGroup, int blockSize) {
+        this(nonceGroup, blockSize, System.currentTimeMillis());
+    }
+
+    ClientOrderIdAllocator(int nonceGroup, int blockSize, long currentTimeMillis) {
+        checkArgument(
+                nonceGroup >= 0 && nonceGroup <= MAX_NONCE_GROUP,
+                "nonceGroup=%s not in [0, %s]",
+                nonceGroup,
+                MAX_NONCE_GROUP
+        );
+        checkArgument(blockSize > 0, "blockSize=%s <= 0", blockSize);
+        checkArgument(currentTimeMillis >= 0, "currentTimeMillis=%s < 0", currentTimeMillis);
+        this.nonceGroupBits = (long) nonceGroup << SEQUENCE_BITS;
+        this.blockSize = blockSize;
+        this.nextBlock = new AtomicLong(currentTimeMillis * IDS_PER_MILLISECOND);
+    }
+
+    /**
+     * @return a client order id never returned before by this allocator (nor by allocators of other nonce groups)
+     * @throws IllegalStateException if the sequence is exhausted
+     */
+    public long nextClientOrderId() {
+        Block block = this.block.get();
+        if (block.next == block.end) {
+            long start = nextBlock.getAndAdd(blockSize);
+            checkState(start <= MAX_SEQUENCE - blockSize, "Client order id sequence exhausted");
+            block.next = start;
+            block.end = start + blockSize;
+        }
+        return nonceGroupBits | block.next++;
+    }
+
+    /**
+     * Same as {@link #nextClientOrderId}.
+     */
+    @Override
+    public long getAsLong() {
+        return nextClientOrderId();
+    }
+
+    /**
+     * Sequence numbers owned by a single thread.
+     */
+    private static final class Block {
+
+        long next;
+        long end;
+    }
+}
@@ -0,0 +1,165 @@
+package net.quedex.api.user;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.quedex.api.common.MessageReceiver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Writes commands sent by {@link UserMessageSender} as UTF-8 JSON directly with a {@link JsonGenerator} into a reusable
+ * buffer, with the account and nonce fields written inline - no intermediate trees nor Strings are created. Each
+ * message is written between {@link #reset} and {@link #finish} and is available via {@link #array} until the next
+ * {@link #reset}. Not thread-safe.
+ */
+final class CommandWriter {
+
+    private static final ObjectMapper OBJECT_MAPPER = MessageReceiver.OBJECT_MAPPER;
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final Buffer buffer = new Buffer(INITIAL_CAPACITY);
+    private final long accountId;
+    private final int nonceGroup;
+
+    private JsonGenerator generator;
+
+    CommandWriter(long accountId, int nonceGroup) {
+        this.accountId = accountId;
+        this.nonceGroup = nonceGroup;
+        this.generator = createGenerator();
+    }
+
+    /**
+     * Discards the previous message, starting a new one.
+     */
+    void reset() {
+        if (!generator.getOutputContext().inRoot()) { // previous message interrupted by an exception
+            generator = createGenerator();
+        }
+        buffer.reset();
+    }
+
+    /**
+     * @return length of the message written since the last {@link #reset}
+     */
+    int finish() throws IOException {
+        checkState(generator.getOutputContext().inRoot(), "Unfinished message");
+        generator.flush();
+        return buffer.size();
+    }
+
+    /**
+     * @return the buffer holding the message, valid up to the length returned by {@link #finish}
+     */
+    byte[] array() {
+        return buffer.array();
+    }
+
+    void writeSubscribe(long nonce) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", "subscribe");
+        writeNonceAccountId(nonce);
+        generator.writeEndObject();
+    }
+
+    void writeInternalTransfer(InternalTransfer internalTransfer, long nonce) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("destination_account_id", internalTransfer.getDestinationAccountId());
+        generator.writeNumberField("amount", internalTransfer.getAmount());
+        generator.writeStringField("type", "internal_transfer");
+        writeNonceAccountId(nonce);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Starts a batch message, to be followed by {@link #writeOrderSpec}s and {@link #endBatch}.
+     */
+    void startBatch() throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("type", "batch");
+        generator.writeNumberField("account_id", accountId);
+        generator.writeArrayFieldStart("batch");
+    }
+
+    void endBatch() throws IOException {
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    void writeOrderSpec(OrderSpec orderSpec, long nonce) throws IOException {
+        generator.writeStartObject();
+        if (orderSpec instanceof LimitOrderSpec) {
+            LimitOrderSpec limitOrderSpec = (LimitOrderSpec) orderSpec;
+            generator.writeNumberField("client_order_id", limitOrderSpec.getClientOrderId());
+            generator.writeNumberField("instrument_id", limitOrderSpec.getInstrumentId());
+            generator.writeStringField("side", limitOrderSpec.getSide().name());
+            generator.writeNumberField("quantity", limitOrderSpec.getQuantity());
+            generator.writeNumberField("limit_price", limitOrderSpec.getLimitPrice());
+            generator.writeStringField("order_type", limitOrderSpec.getOrderType().name());
+            generator.writeStringField("type", "place_order");
+        } else if (orderSpec instanceof OrderCancelSpec) {
+            generator.writeNumberField("client_order_id", orderSpec.getClientOrderId());
+            generator.writeStringField("type", "cancel_order");
+        } else if (orderSpec instanceof OrderModificationSpec) {
+            OrderModificationSpec modificationSpec = (OrderModificationSpec) orderSpec;
+            generator.writeNumberField("client_order_id", modificationSpec.getClientOrderId());
+            Integer newQuantity = modificationSpec.getNewQuantity();
+            if (newQuantity == null) {
+                generator.writeNullField("new_quantity");
+            } else {
+                generator.writeNumberField("new_quantity", newQuantity);
+            }
+            BigDecimal newLimitPrice = modificationSpec.getNewLimitPrice();
+            if (newLimitPrice == null) {
+                generator.writeNullField("new_limit_price");
+            } else {
+                generator.writeNumberField("new_limit_price", newLimitPrice);
+            }
+            generator.writeStringField("type", "modify_order");
+        } else { // unknown implementation, fall back to data binding
+            JsonNode json = OBJECT_MAPPER.valueToTree(orderSpec);
+            checkState(json.isObject(), "Expected object, got=%s", json.getNodeType());
+            for (Iterator<Map.Entry<String, JsonNode>> fields = json.fields(); fields.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                generator.writeFieldName(field.getKey());
+                generator.writeTree(field.getValue());
+            }
+        }
+        writeNonceAccountId(nonce);
+        generator.writeEndObject();
+    }
+
+    private void writeNonceAccountId(long nonce) throws IOException {
+        generator.writeNumberField("account_id", accountId);
+        generator.writeNumberField("nonce", nonce);
+        generator.writeNumberField("nonce_group", nonceGroup);
+    }
+
+    private JsonGenerator createGenerator() {
+        try {
+            JsonGenerator generator = OBJECT_MAPPER.getFactory().createGenerator(buffer);
+            generator.setRootValueSeparator(null);
+            return generator;
+        } catch (IOException e) {
+            throw new IllegalStateException("Error creating JsonGenerator", e); // never thrown for in-memory output
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
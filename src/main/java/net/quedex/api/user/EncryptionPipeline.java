@@ -0,0 +1,143 @@
+package net.quedex.api.user;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.quedex.api.common.CommunicationException;
+import net.quedex.api.common.LatencyHistogram;
+import net.quedex.api.common.WebsocketTransport;
+import net.quedex.api.pgp.BcEncryptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Encrypts and signs messages of {@link UserMessageSender} on a pool of worker threads and writes them to the
+ * connection, on a single sequencer thread, in the order they were {@link #submit}ted - that is in nonce order,
+ * regardless of the order in which encryption completes. At most {@code maxInFlight} messages are being encrypted or
+ * waiting to be written at a time, {@link #submit} waits when the limit is reached.
+ */
+final class EncryptionPipeline {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EncryptionPipeline.class);
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+    private final BcEncryptor encryptor;
+    private final WebsocketTransport transport;
+    private final LatencyHistogram sendLatency;
+    private final Consumer<Exception> errorHandler;
+    private final ExecutorService workers;
+    private final BlockingQueue<Frame> inFlight; // in submission order
+    private final Thread sequencer;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param sendLatency written by the sequencer thread only
+     * @param errorHandler called on the sequencer thread with errors of encrypting or writing messages
+     */
+    EncryptionPipeline(
+            BcEncryptor encryptor,
+            WebsocketTransport transport,
+            int threads,
+            int maxInFlight,
+            LatencyHistogram sendLatency,
+            Consumer<Exception> errorHandler
+    ) {
+        checkArgument(threads > 0, "threads=%s <= 0", threads);
+        checkArgument(maxInFlight > 0, "maxInFlight=%s <= 0", maxInFlight);
+        this.encryptor = checkNotNull(encryptor, "null encryptor");
+        this.transport = checkNotNull(transport, "null transport");
+        this.sendLatency = checkNotNull(sendLatency, "null sendLatency");
+        this.errorHandler = checkNotNull(errorHandler, "null errorHandler");
+        this.workers = Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder().setNameFormat("user-encryptor-%d").setDaemon(true).build()
+        );
+        this.inFlight = new ArrayBlockingQueue<>(maxInFlight);
+        this.sequencer = new Thread(this::run, "user-sequencer");
+        sequencer.setDaemon(true);
+        sequencer.start();
+    }
+
+    /**
+     * Has to be called by a single thread at a time, the one assigning nonces.
+     *
+     * @param message UTF-8 encoded message, must not be modified afterwards
+     * @param enqueueNanoTimes times at which commands contained in the message were queued
+     */
+    void submit(byte[] message, long[] enqueueNanoTimes) throws InterruptedException {
+        Frame frame = new Frame(message, enqueueNanoTimes);
+        inFlight.put(frame); // before encryption starts, so that the sequencer sees frames in submission order
+        workers.execute(frame);
+    }
+
+    /**
+     * @return number of messages being encrypted or waiting to be written
+     */
+    int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Stops the pipeline, waiting (for a bounded time) until the messages already submitted are written.
+     */
+    void stop() {
+        running = false;
+        try {
+            sequencer.join(STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+    }
+
+    private void run() {
+        while (true) {
+            Frame frame;
+            try {
+                frame = inFlight.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    if (running) {
+                        continue;
+                    }
+                    break;
+                }
+                transport.send(frame.get());
+                long now = System.nanoTime();
+                for (long enqueueNanoTime : frame.enqueueNanoTimes) {
+                    sendLatency.record(now - enqueueNanoTime);
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (ExecutionException e) {
+                errorHandler.accept(new CommunicationException("Error encrypting message", e.getCause()));
+            } catch (CommunicationException e) {
+                errorHandler.accept(e);
+            } catch (RuntimeException e) {
+                errorHandler.accept(new CommunicationException("Error sending message", e));
+            }
+        }
+        LOGGER.debug("Sequencer stopped");
+    }
+
+    private final class Frame extends FutureTask<String> {
+
+        final long[] enqueueNanoTimes;
+
+        Frame(byte[] message, long[] enqueueNanoTimes) {
+            super(() -> encryptor.encrypt(message, 0, message.length, true));
+            this.enqueueNanoTimes = enqueueNanoTimes;
+        }
+    }
+}
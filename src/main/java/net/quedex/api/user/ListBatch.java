@@ -0,0 +1,69 @@
+package net.quedex.api.user;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A {@link UserStream.Batch} collecting {@link OrderSpec}s into a list, sent with {@link UserStream#batch(List)}.
+ */
+final class ListBatch implements UserStream.Batch {
+
+    private final UserStream userStream;
+    private final List<OrderSpec> batch = new ArrayList<>();
+    private boolean sent;
+
+    ListBatch(UserStream userStream) {
+        this.userStream = userStream;
+    }
+
+    @Override
+    public UserStream.Batch placeOrder(LimitOrderSpec limitOrderSpec) {
+        checkState(!sent, "Batch already sent");
+        batch.add(limitOrderSpec);
+        return this;
+    }
+
+    @Override
+    public UserStream.Batch placeOrders(List<LimitOrderSpec> limitOrderSpecs) {
+        checkState(!sent, "Batch already sent");
+        batch.addAll(limitOrderSpecs);
+        return this;
+    }
+
+    @Override
+    public UserStream.Batch cancelOrder(OrderCancelSpec orderCancelSpec) {
+        checkState(!sent, "Batch already sent");
+        batch.add(orderCancelSpec);
+        return this;
+    }
+
+    @Override
+    public UserStream.Batch cancelOrders(List<OrderCancelSpec> orderCancelSpecs) {
+        checkState(!sent, "Batch already sent");
+        batch.addAll(orderCancelSpecs);
+        return this;
+    }
+
+    @Override
+    public UserStream.Batch modifyOrder(OrderModificationSpec orderModificationSpec) {
+        checkState(!sent, "Batch already sent");
+        batch.add(orderModificationSpec);
+        return this;
+    }
+
+    @Override
+    public UserStream.Batch modifyOrders(List<OrderModificationSpec> orderModificationSpec) {
+        checkState(!sent, "Batch already sent");
+        batch.addAll(orderModificationSpec);
+        return this;
+    }
+
+    @Override
+    public void send() {
+        checkState(!sent, "Batch already sent");
+        sent = true;
+        userStream.batch(batch);
+    }
+}
@@ -0,0 +1,170 @@
+package net.quedex.api.user;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An open addressing hash map from primitive {@code long} keys (e.g. client order ids) to non-null values, avoiding the
+ * boxing and per-entry allocation of {@link java.util.HashMap}{@code <Long, V>}. Uses linear probing with backward
+ * shift deletion, so removals leave no tombstones. Not thread-safe.
+ */
+final class LongHashMap<V> {
+
+    private static final int MIN_CAPACITY = 8;
+    private static final long PHI = 0x9E3779B97F4A7C15L;
+
+    private long[] keys;
+    private Object[] values; // null for free slots
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    LongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of entries the map should hold without resizing
+     */
+    LongHashMap(int expectedSize) {
+        checkArgument(expectedSize >= 0, "expectedSize=%s < 0", expectedSize);
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        for (int i = index(key); ; i = (i + 1) & mask) {
+            Object value = values[i];
+            if (value == null) {
+                return null;
+            }
+            if (keys[i] == key) {
+                return (V) value;
+            }
+        }
+    }
+
+    boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the previous value for the key, null if none
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        checkNotNull(value, "null value");
+        int i = index(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeThreshold) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed value, null if none
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        for (int i = index(key); ; i = (i + 1) & mask) {
+            Object value = values[i];
+            if (value == null) {
+                return null;
+            }
+            if (keys[i] == key) {
+                shiftBack(i);
+                size--;
+                return (V) value;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(values, null);
+            size = 0;
+        }
+    }
+
+    /**
+     * Calls the given action for each value, in no particular order. The map must not be modified by the action.
+     */
+    @SuppressWarnings("unchecked")
+    void forEachValue(Consumer<? super V> action) {
+        for (Object value : values) {
+            if (value != null) {
+                action.accept((V) value);
+            }
+        }
+    }
+
+    /**
+     * Closes the gap at the given slot by moving back the following entries of the probe sequence that may fill it.
+     */
+    private void shiftBack(int gap) {
+        for (int i = (gap + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            int home = index(keys[i]);
+            if (((i - home) & mask) >= ((i - gap) & mask)) { // home not in (gap, i], the entry may move to the gap
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = null;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != null) {
+                int i = index(oldKeys[j]);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeThreshold = capacity / 2;
+    }
+
+    private int index(long key) {
+        return (int) ((key * PHI) >>> 32) & mask;
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity / 2 < expectedSize) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+}
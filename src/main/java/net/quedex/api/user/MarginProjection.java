@@ -0,0 +1,185 @@
+package net.quedex.api.user;
+
+import net.quedex.api.market.Instrument;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Projects the impact of order commands on the free balance of the account before they are sent, from the margin
+ * parameters of {@link Instrument}s, the working orders kept by an {@link OrderTracker} and the latest
+ * {@link AccountState} kept by a {@link PortfolioState}.
+ * <p>
+ * The margin locked for a single contract is estimated as:
+ * <ul>
+ *     <li> for futures, {@link Instrument#getNotionalAmount} times {@link Instrument#getInitialMarginFraction} divided
+ *          by the limit price (the value of an inverse contract in the settlement currency) </li>
+ *     <li> for bought options, the limit price (the premium) </li>
+ *     <li> for sold options, the limit price plus the initial margin of a futures contract at the strike price </li>
+ * </ul>
+ * Working orders are not offset against the positions they would reduce, so the projection is conservative. Values
+ * are computed in floating point, as estimates in the settlement currency.
+ * <p>
+ * The margin locked for working orders is maintained incrementally, by the thread delivering events of the tracker,
+ * from {@link OrderTracker.ChangeListener} notifications - each placement, fill, cancellation or price change of an
+ * order costs a constant amount of work regardless of the size of the portfolio. Methods of this class may be called
+ * by any thread and run in time proportional to the number of the given commands only.
+ */
+public class MarginProjection implements OrderTracker.ChangeListener {
+
+    private final LongHashMap<InstrumentMargin> instruments; // not modified after construction
+    private final OrderTracker orderTracker;
+    private final PortfolioState portfolioState;
+
+    // written only by the thread delivering events of the tracker
+    private volatile double lockedForOrders;
+    private int orderCount;
+
+    /**
+     * Registers the created projection as the {@link OrderTracker.ChangeListener} of the given tracker, which has to
+     * be done before any orders are tracked.
+     *
+     * @param instruments instruments which may be traded, orders for other instruments are assumed to lock no margin
+     */
+    public MarginProjection(
+            Collection<Instrument> instruments,
+            OrderTracker orderTracker,
+            PortfolioState portfolioState
+    ) {
+        this.instruments = new LongHashMap<>(instruments.size());
+        for (Instrument instrument : instruments) {
+            this.instruments.put(instrument.getInstrumentId(), new InstrumentMargin(instrument));
+        }
+        this.orderTracker = checkNotNull(orderTracker, "null orderTracker");
+        this.portfolioState = checkNotNull(portfolioState, "null portfolioState");
+        orderTracker.registerChangeListener(this);
+    }
+
+    /**
+     * @return estimated margin locked for the working orders of the account
+     */
+    public double getLockedForOrders() {
+        return lockedForOrders;
+    }
+
+    /**
+     * @return estimated free balance of the account, taking into account the working orders known to the tracker
+     *         rather than the ones known when the latest {@link AccountState} was sent
+     * @throws IllegalStateException if no {@link AccountState} has been received yet
+     */
+    public double getFreeBalance() {
+        AccountState accountState = portfolioState.getAccountState();
+        checkState(accountState != null, "No account state received");
+        return accountState.getFreeBalance().doubleValue()
+                + accountState.getTotalLockedForOrders().doubleValue()
+                - lockedForOrders;
+    }
+
+    /**
+     * @return estimated free balance of the account after executing the given commands
+     * @throws IllegalStateException if no {@link AccountState} has been received yet
+     */
+    public double getProjectedFreeBalance(List<? extends OrderSpec> orderSpecs) {
+        return getFreeBalance() + getFreeBalanceImpact(orderSpecs);
+    }
+
+    /**
+     * @return estimated change of the free balance of the account caused by executing the given commands - negative
+     *         when more margin would be locked for orders
+     */
+    public double getFreeBalanceImpact(List<? extends OrderSpec> orderSpecs) {
+        OrderTracker.Snapshot snapshot = orderTracker.getSnapshot();
+        double impact = 0;
+        for (int i = 0; i < orderSpecs.size(); i++) {
+            impact += getFreeBalanceImpact(snapshot, orderSpecs.get(i));
+        }
+        return impact;
+    }
+
+    /**
+     * @return estimated change of the free balance of the account caused by executing the given command
+     */
+    public double getFreeBalanceImpact(OrderSpec orderSpec) {
+        return getFreeBalanceImpact(orderTracker.getSnapshot(), orderSpec);
+    }
+
+    @Override
+    public void onOrderChanged(TrackedOrder previous, TrackedOrder current) {
+        double locked = lockedForOrders;
+        if (previous != null) {
+            locked -= margin(previous);
+            orderCount--;
+        }
+        if (current != null) {
+            locked += margin(current);
+            orderCount++;
+        }
+        lockedForOrders = orderCount == 0 ? 0 : locked; // no rounding errors accumulated over time
+    }
+
+    private double getFreeBalanceImpact(OrderTracker.Snapshot snapshot, OrderSpec orderSpec) {
+        if (orderSpec instanceof LimitOrderSpec) {
+            LimitOrderSpec limitOrderSpec = (LimitOrderSpec) orderSpec;
+            InstrumentMargin instrument = instruments.get(limitOrderSpec.getInstrumentId());
+            return instrument == null
+                    ? 0
+                    : -limitOrderSpec.getQuantity()
+                            * instrument.perContract(limitOrderSpec.getSide(), limitOrderSpec.getLimitPrice());
+        }
+        TrackedOrder order = snapshot.getOrder(orderSpec.getClientOrderId());
+        if (order == null) {
+            return 0;
+        }
+        if (orderSpec instanceof OrderCancelSpec) {
+            return margin(order);
+        }
+        if (orderSpec instanceof OrderModificationSpec) {
+            OrderModificationSpec modification = (OrderModificationSpec) orderSpec;
+            TrackedOrder modified = order;
+            if (modification.getNewQuantity() != null) {
+                modified = modified.withQuantity(modification.getNewQuantity());
+            }
+            if (modification.getNewLimitPrice() != null) {
+                modified = modified.withLimitPrice(modification.getNewLimitPrice());
+            }
+            return margin(order) - margin(modified);
+        }
+        return 0;
+    }
+
+    private double margin(TrackedOrder order) {
+        if (order.isLiquidation()) {
+            return 0; // margin of the liquidated position, already accounted for
+        }
+        InstrumentMargin instrument = instruments.get(order.getInstrumentId());
+        return instrument == null
+                ? 0
+                : order.getQuantity() * instrument.perContract(order.getSide(), order.getLimitPrice());
+    }
+
+    private static final class InstrumentMargin {
+
+        final boolean futures;
+        final double notionalInitialMargin; // notional amount times initial margin fraction
+        final double strike; // options only
+
+        InstrumentMargin(Instrument instrument) {
+            this.futures = instrument.isFutures();
+            this.notionalInitialMargin =
+                    instrument.getNotionalAmount() * instrument.getInitialMarginFraction().doubleValue();
+            this.strike = futures ? Double.NaN : instrument.getStrike().doubleValue();
+        }
+
+        double perContract(OrderSide side, BigDecimal limitPrice) {
+            double price = limitPrice.doubleValue();
+            if (futures) {
+                return notionalInitialMargin / price;
+            }
+            return side == OrderSide.BUY ? price : price + notionalInitialMargin / strike;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package net.quedex.api.user;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Completes futures returned by asynchronous order commands of {@link UserStream} when the exchange rejects the
+ * command. {@link #getRejection} returns the received {@link OrderPlaceFailed}, {@link OrderCancelFailed} or
+ * {@link OrderModificationFailed} - or {@link OrderForcefullyCancelled} for cancellations and modifications of an order
+ * forcefully cancelled before they were answered.
+ */
+public class OrderCommandRejectedException extends Exception {
+
+    private final Object rejection;
+
+    public OrderCommandRejectedException(Object rejection) {
+        super(String.valueOf(rejection));
+        this.rejection = checkNotNull(rejection, "null rejection");
+    }
+
+    public Object getRejection() {
+        return rejection;
+    }
+}
@@ -0,0 +1,541 @@
+package net.quedex.api.user;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps the set of working orders of the account, maintained from the {@link OrderListener} events of a
+ * {@link UserStream} - including the welcome package and liquidation orders. Register it via
+ * {@link UserStream#registerOrderTracker} before {@link UserStream#subscribeListeners subscribing}.
+ * <p>
+ * Events are processed by the single thread of the stream, which keeps the orders indexed by client order id (in a
+ * primitive long map) and by instrument and price level, and after each event publishes an immutable
+ * {@link Snapshot}. {@link #getSnapshot} may be called by any thread, never blocks and returns a consistent state -
+ * only the per-instrument part of the snapshot touched by an event is rebuilt.
+ * <p>
+ * Since {@link OrderModified} does not carry the new quantity nor price, modifications are learned from
+ * {@link OrderModificationSpec}s passed to {@link #onModificationSent} (done by the stream the tracker is registered
+ * with) and applied, oldest first, when confirmed. The new quantity of a modification is taken as the new remaining
+ * quantity of the order.
+ */
+public class OrderTracker implements OrderListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrderTracker.class);
+
+    // accessed only by the thread delivering events
+    private final LongHashMap<TrackedOrder> orders = new LongHashMap<>();
+    private final LongHashMap<TrackedOrder> liquidationOrders = new LongHashMap<>();
+    private final Map<Integer, InstrumentOrders> instruments = new HashMap<>();
+
+    private final LongHashMap<ArrayDeque<OrderModificationSpec>> sentModifications = new LongHashMap<>(); // guarded
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private volatile ChangeListener changeListener;
+
+    /**
+     * @return the current state of working orders, never null
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Registers the given {@link ChangeListener}, replacing the previous one. Has to be called before events which
+     * should be reported arrive.
+     */
+    public void registerChangeListener(ChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * Informs the tracker that the given modification is about to be sent, may be called by any thread.
+     */
+    public void onModificationSent(OrderModificationSpec orderModificationSpec) {
+        checkNotNull(orderModificationSpec, "null orderModificationSpec");
+        synchronized (sentModifications) {
+            ArrayDeque<OrderModificationSpec> queue = sentModifications.get(orderModificationSpec.getClientOrderId());
+            if (queue == null) {
+                queue = new ArrayDeque<>(2);
+                sentModifications.put(orderModificationSpec.getClientOrderId(), queue);
+            }
+            queue.add(orderModificationSpec);
+        }
+    }
+
+    /**
+     * Informs the tracker that the given modification, previously passed to {@link #onModificationSent}, was replaced
+     * by a newer one before being sent (see {@link OutboundQueuePolicy#DROP_SUPERSEDED_MODIFY}) or could not be sent at
+     * all.
+     */
+    public void onModificationSuperseded(OrderModificationSpec orderModificationSpec) {
+        synchronized (sentModifications) {
+            ArrayDeque<OrderModificationSpec> queue = sentModifications.get(orderModificationSpec.getClientOrderId());
+            if (queue != null) {
+                for (Iterator<OrderModificationSpec> iterator = queue.iterator(); iterator.hasNext(); ) {
+                    if (iterator.next() == orderModificationSpec) {
+                        iterator.remove();
+                        break;
+                    }
+                }
+                if (queue.isEmpty()) {
+                    sentModifications.remove(orderModificationSpec.getClientOrderId());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onOrderPlaced(OrderPlaced orderPlaced) {
+        add(orders, new TrackedOrder(
+                orderPlaced.getClientOrderId(),
+                false,
+                orderPlaced.getInstrumentId(),
+                orderPlaced.getSide(),
+                orderPlaced.getPrice(),
+                orderPlaced.getQuantity(),
+                orderPlaced.getInitialQuantity()
+        ));
+    }
+
+    @Override
+    public void onOrderPlaceFailed(OrderPlaceFailed orderPlaceFailed) {
+        // never tracked
+    }
+
+    @Override
+    public void onOrderCancelled(OrderCancelled orderCancelled) {
+        remove(orders, orderCancelled.getClientOrderId());
+    }
+
+    @Override
+    public void onOrderForcefullyCancelled(OrderForcefullyCancelled orderForcefullyCancelled) {
+        remove(orders, orderForcefullyCancelled.getClientOrderId());
+    }
+
+    @Override
+    public void onOrderCancelFailed(OrderCancelFailed orderCancelFailed) {
+        // no change
+    }
+
+    @Override
+    public void onOrderModified(OrderModified orderModified) {
+        long clientOrderId = orderModified.getClientOrderId();
+        OrderModificationSpec modification = pollSentModification(clientOrderId);
+        TrackedOrder order = orders.get(clientOrderId);
+        if (order == null) {
+            return;
+        }
+        if (modification == null) {
+            LOGGER.debug("Modification of clientOrderId={} not sent via the tracked stream", clientOrderId);
+            return;
+        }
+        TrackedOrder modified = order;
+        if (modification.getNewQuantity() != null) {
+            modified = modified.withQuantity(modification.getNewQuantity());
+        }
+        if (modification.getNewLimitPrice() != null) {
+            modified = modified.withLimitPrice(modification.getNewLimitPrice());
+        }
+        replace(orders, order, modified);
+    }
+
+    @Override
+    public void onOrderModificationFailed(OrderModificationFailed orderModificationFailed) {
+        pollSentModification(orderModificationFailed.getClientOrderId());
+    }
+
+    @Override
+    public void onOrderFilled(OrderFilled orderFilled) {
+        updateQuantity(orders, orderFilled.getClientOrderId(), orderFilled.getLeavesOrderQuantity());
+    }
+
+    @Override
+    public void onLiquidationOrderPlaced(LiquidationOrderPlaced liquidationOrderPlaced) {
+        add(liquidationOrders, new TrackedOrder(
+                liquidationOrderPlaced.getSystemOrderId(),
+                true,
+                liquidationOrderPlaced.getInstrumentId(),
+                liquidationOrderPlaced.getSide(),
+                null,
+                liquidationOrderPlaced.getQuantity(),
+                liquidationOrderPlaced.getInitialQuantity()
+        ));
+    }
+
+    @Override
+    public void onLiquidationOrderCancelled(LiquidationOrderCancelled liquidationOrderCancelled) {
+        remove(liquidationOrders, liquidationOrderCancelled.getSystemOrderId());
+    }
+
+    @Override
+    public void onLiquidationOrderFilled(LiquidationOrderFilled liquidationOrderFilled) {
+        updateQuantity(
+                liquidationOrders,
+                liquidationOrderFilled.getSystemOrderId(),
+                liquidationOrderFilled.getLeavesOrderQuantity()
+        );
+    }
+
+    private OrderModificationSpec pollSentModification(long clientOrderId) {
+        synchronized (sentModifications) {
+            ArrayDeque<OrderModificationSpec> queue = sentModifications.get(clientOrderId);
+            if (queue == null) {
+                return null;
+            }
+            OrderModificationSpec modification = queue.poll();
+            if (queue.isEmpty()) {
+                sentModifications.remove(clientOrderId);
+            }
+            return modification;
+        }
+    }
+
+    private void add(LongHashMap<TrackedOrder> byId, TrackedOrder order) {
+        TrackedOrder previous = byId.put(order.getOrderId(), order);
+        InstrumentOrders instrumentOrders = instruments.get(order.getInstrumentId());
+        if (instrumentOrders == null) {
+            instrumentOrders = new InstrumentOrders(order.getInstrumentId());
+            instruments.put(order.getInstrumentId(), instrumentOrders);
+        }
+        if (previous != null) { // e.g. repeated welcome package
+            instruments.get(previous.getInstrumentId()).remove(previous);
+        }
+        instrumentOrders.add(order);
+        publish(order.getInstrumentId(), previous);
+        notifyChanged(previous, order);
+    }
+
+    private void remove(LongHashMap<TrackedOrder> byId, long orderId) {
+        TrackedOrder order = byId.remove(orderId);
+        if (byId == orders) {
+            synchronized (sentModifications) { // any still sent are answered with failures
+                sentModifications.remove(orderId);
+            }
+        }
+        if (order != null) {
+            instruments.get(order.getInstrumentId()).remove(order);
+            publish(order.getInstrumentId(), null);
+            notifyChanged(order, null);
+        }
+    }
+
+    private void updateQuantity(LongHashMap<TrackedOrder> byId, long orderId, int quantity) {
+        TrackedOrder order = byId.get(orderId);
+        if (order == null) {
+            return;
+        }
+        if (quantity <= 0) {
+            remove(byId, orderId);
+        } else {
+            replace(byId, order, order.withQuantity(quantity));
+        }
+    }
+
+    private void replace(LongHashMap<TrackedOrder> byId, TrackedOrder order, TrackedOrder replacement) {
+        byId.put(order.getOrderId(), replacement);
+        instruments.get(order.getInstrumentId()).replace(order, replacement);
+        publish(order.getInstrumentId(), null);
+        notifyChanged(order, replacement);
+    }
+
+    private void notifyChanged(TrackedOrder previous, TrackedOrder current) {
+        ChangeListener changeListener = this.changeListener;
+        if (changeListener != null) {
+            changeListener.onOrderChanged(previous, current);
+        }
+    }
+
+    private void publish(int instrumentId, TrackedOrder previous) {
+        Snapshot current = snapshot;
+        Map<Integer, InstrumentSnapshot> changed = new HashMap<>(current.instruments);
+        republish(changed, instrumentId);
+        if (previous != null && previous.getInstrumentId() != instrumentId) {
+            republish(changed, previous.getInstrumentId());
+        }
+        snapshot = new Snapshot(ImmutableMap.copyOf(changed), current.version + 1);
+    }
+
+    private void republish(Map<Integer, InstrumentSnapshot> snapshots, int instrumentId) {
+        InstrumentOrders instrumentOrders = instruments.get(instrumentId);
+        if (instrumentOrders.isEmpty()) {
+            instruments.remove(instrumentId);
+            snapshots.remove(instrumentId);
+        } else {
+            snapshots.put(instrumentId, instrumentOrders.snapshot());
+        }
+    }
+
+    /**
+     * Mutable orders of a single instrument, indexed by price level, accessed only by the thread delivering events.
+     */
+    private static final class InstrumentOrders {
+
+        final int instrumentId;
+        final TreeMap<BigDecimal, List<TrackedOrder>> bids = new TreeMap<>(Collections.reverseOrder());
+        final TreeMap<BigDecimal, List<TrackedOrder>> asks = new TreeMap<>();
+        final List<TrackedOrder> liquidationOrders = new ArrayList<>();
+
+        InstrumentOrders(int instrumentId) {
+            this.instrumentId = instrumentId;
+        }
+
+        void add(TrackedOrder order) {
+            if (order.isLiquidation()) {
+                liquidationOrders.add(order);
+            } else {
+                side(order).computeIfAbsent(order.getLimitPrice(), price -> new ArrayList<>(2)).add(order);
+            }
+        }
+
+        void remove(TrackedOrder order) {
+            if (order.isLiquidation()) {
+                liquidationOrders.remove(order);
+                return;
+            }
+            TreeMap<BigDecimal, List<TrackedOrder>> side = side(order);
+            List<TrackedOrder> level = side.get(order.getLimitPrice());
+            level.remove(order);
+            if (level.isEmpty()) {
+                side.remove(order.getLimitPrice());
+            }
+        }
+
+        void replace(TrackedOrder order, TrackedOrder replacement) {
+            if (order.isLiquidation()) {
+                liquidationOrders.set(liquidationOrders.indexOf(order), replacement);
+            } else if (order.getLimitPrice().compareTo(replacement.getLimitPrice()) == 0) {
+                List<TrackedOrder> level = side(order).get(order.getLimitPrice());
+                level.set(level.indexOf(order), replacement); // keeps priority
+            } else {
+                remove(order);
+                add(replacement);
+            }
+        }
+
+        boolean isEmpty() {
+            return bids.isEmpty() && asks.isEmpty() && liquidationOrders.isEmpty();
+        }
+
+        InstrumentSnapshot snapshot() {
+            return new InstrumentSnapshot(levels(bids), levels(asks), ImmutableList.copyOf(liquidationOrders));
+        }
+
+        private TreeMap<BigDecimal, List<TrackedOrder>> side(TrackedOrder order) {
+            return order.getSide() == OrderSide.BUY ? bids : asks;
+        }
+
+        private static ImmutableList<PriceLevel> levels(TreeMap<BigDecimal, List<TrackedOrder>> side) {
+            ImmutableList.Builder<PriceLevel> levels = ImmutableList.builder();
+            for (Map.Entry<BigDecimal, List<TrackedOrder>> level : side.entrySet()) {
+                levels.add(new PriceLevel(level.getKey(), ImmutableList.copyOf(level.getValue())));
+            }
+            return levels.build();
+        }
+    }
+
+    /**
+     * Orders at a single price on one side of an instrument, in the order they were placed at the price.
+     */
+    public static final class PriceLevel {
+
+        private final BigDecimal price;
+        private final List<TrackedOrder> orders;
+        private final int quantity;
+
+        PriceLevel(BigDecimal price, List<TrackedOrder> orders) {
+            this.price = price;
+            this.orders = orders;
+            int quantity = 0;
+            for (TrackedOrder order : orders) {
+                quantity += order.getQuantity();
+            }
+            this.quantity = quantity;
+        }
+
+        public BigDecimal getPrice() {
+            return price;
+        }
+
+        /**
+         * @return total remaining quantity of the orders at the price
+         */
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public List<TrackedOrder> getOrders() {
+            return orders;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("price", price)
+                    .add("quantity", quantity)
+                    .add("orders", orders)
+                    .toString();
+        }
+    }
+
+    private static final class InstrumentSnapshot {
+
+        final List<PriceLevel> bids;
+        final List<PriceLevel> asks;
+        final List<TrackedOrder> liquidationOrders;
+        final List<TrackedOrder> orders;
+        final long[] sortedOrderIds;
+        final TrackedOrder[] ordersById; // in the order of sortedOrderIds
+
+        InstrumentSnapshot(List<PriceLevel> bids, List<PriceLevel> asks, List<TrackedOrder> liquidationOrders) {
+            this.bids = bids;
+            this.asks = asks;
+            this.liquidationOrders = liquidationOrders;
+            ImmutableList.Builder<TrackedOrder> orders = ImmutableList.builder();
+            for (PriceLevel level : bids) {
+                orders.addAll(level.getOrders());
+            }
+            for (PriceLevel level : asks) {
+                orders.addAll(level.getOrders());
+            }
+            this.orders = orders.build();
+            this.ordersById = this.orders.toArray(new TrackedOrder[0]);
+            Arrays.sort(ordersById, Comparator.comparingLong(TrackedOrder::getOrderId));
+            this.sortedOrderIds = new long[ordersById.length];
+            for (int i = 0; i < ordersById.length; i++) {
+                sortedOrderIds[i] = ordersById[i].getOrderId();
+            }
+        }
+
+        TrackedOrder getOrder(long clientOrderId) {
+            int index = Arrays.binarySearch(sortedOrderIds, clientOrderId);
+            return index < 0 ? null : ordersById[index];
+        }
+    }
+
+    /**
+     * Notified, by the thread delivering events, of each change of a working order (including liquidation orders),
+     * after the new {@link Snapshot} is published. Allows maintaining aggregates of the orders incrementally.
+     */
+    @FunctionalInterface
+    public interface ChangeListener {
+
+        /**
+         * @param previous state of the order before the change, null if the order has been added
+         * @param current state of the order after the change, null if the order has been removed
+         */
+        void onOrderChanged(TrackedOrder previous, TrackedOrder current);
+    }
+
+    /**
+     * An immutable, consistent state of working orders at some point in time.
+     */
+    public static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(ImmutableMap.of(), 0);
+
+        private final ImmutableMap<Integer, InstrumentSnapshot> instruments;
+        private final long version;
+
+        private Snapshot(ImmutableMap<Integer, InstrumentSnapshot> instruments, long version) {
+            this.instruments = instruments;
+            this.version = version;
+        }
+
+        /**
+         * @return number of events applied before taking the snapshot
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return ids of the instruments with working orders (including liquidation orders)
+         */
+        public Set<Integer> getInstrumentIds() {
+            return instruments.keySet();
+        }
+
+        /**
+         * @return the working order with the given client order id, null if none
+         */
+        public TrackedOrder getOrder(long clientOrderId) {
+            for (InstrumentSnapshot instrument : instruments.values()) {
+                TrackedOrder order = instrument.getOrder(clientOrderId);
+                if (order != null) {
+                    return order;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return all working orders placed by the account (excluding liquidation orders)
+         */
+        public List<TrackedOrder> getOrders() {
+            List<TrackedOrder> orders = new ArrayList<>();
+            for (InstrumentSnapshot instrument : instruments.values()) {
+                orders.addAll(instrument.orders);
+            }
+            return orders;
+        }
+
+        /**
+         * @return working orders placed by the account for the given instrument, bids from the best price first, then
+         *         asks from the best price first
+         */
+        public List<TrackedOrder> getOrders(int instrumentId) {
+            InstrumentSnapshot instrument = instruments.get(instrumentId);
+            return instrument == null ? ImmutableList.of() : instrument.orders;
+        }
+
+        /**
+         * @return buy price levels of the given instrument, from the highest price
+         */
+        public List<PriceLevel> getBids(int instrumentId) {
+            InstrumentSnapshot instrument = instruments.get(instrumentId);
+            return instrument == null ? ImmutableList.of() : instrument.bids;
+        }
+
+        /**
+         * @return sell price levels of the given instrument, from the lowest price
+         */
+        public List<PriceLevel> getAsks(int instrumentId) {
+            InstrumentSnapshot instrument = instruments.get(instrumentId);
+            return instrument == null ? ImmutableList.of() : instrument.asks;
+        }
+
+        /**
+         * @return working liquidation orders of the given instrument
+         */
+        public List<TrackedOrder> getLiquidationOrders(int instrumentId) {
+            InstrumentSnapshot instrument = instruments.get(instrumentId);
+            return instrument == null ? ImmutableList.of() : instrument.liquidationOrders;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("version", version)
+                    .add("instrumentIds", instruments.keySet())
+                    .toString();
+        }
+    }
+}
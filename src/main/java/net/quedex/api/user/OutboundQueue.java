@@ -0,0 +1,506 @@
+package net.quedex.api.user;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Bounded FIFO queue of commands waiting to be sent by {@link UserMessageSender}, backed by rings of preallocated
+ * {@link Slot}s - queueing a command does not allocate. Full queue is handled according to the given
+ * {@link OutboundQueuePolicy}. Many producers, single consumer.
+ * <p>
+ * Single {@link OrderCancelSpec}s are queued in a separate priority lane, taken before all the other commands, so that
+ * cancellations do not wait behind queued placements and modifications. A cancellation of an order whose placement is
+ * still queued, or taken but not yet {@link #release released} by the sender, is queued in order after the placement
+ * instead, not to overtake it. Batches of cancellations of working orders ({@link Kind#CANCEL_BATCH}) always go to the
+ * priority lane.
+ * <p>
+ * With {@link #enableCoalescing coalescing} (or under {@link OutboundQueuePolicy#DROP_SUPERSEDED_MODIFY}, for
+ * modifications only), commands made obsolete by newer ones are dropped before being sent:
+ * <ul>
+ *     <li> an {@link OrderModificationSpec} replaces a queued modification of the same order in place, provided it
+ *          sets every field (quantity, price) the queued one sets - otherwise both are sent </li>
+ *     <li> an {@link OrderCancelSpec} of an order whose (single) placement is still queued removes the placement and
+ *          is dropped itself, unless a modification of the order is queued too </li>
+ * </ul>
+ */
+final class OutboundQueue {
+
+    enum Kind { SUBSCRIBE, ORDER_SPEC, BATCH, CANCEL_BATCH, INTERNAL_TRANSFER }
+
+    static final class Slot {
+
+        Kind kind;
+        Object payload;
+        long enqueueNanoTime;
+
+        void copyFrom(Slot other) {
+            kind = other.kind;
+            payload = other.payload;
+            enqueueNanoTime = other.enqueueNanoTime;
+        }
+
+        void clear() {
+            kind = null;
+            payload = null;
+        }
+    }
+
+    private static final Slot TAKEN = new Slot(); // marks placements taken, but not released yet
+
+    private final OutboundQueuePolicy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Ring ring;
+    private final Ring priorityRing;
+    private final LongHashMap<Slot> queuedModifications = new LongHashMap<>(); // by client order id, if coalescing
+    private final LongHashMap<Slot> queuedPlacements = new LongHashMap<>(); // by client order id, incl. TAKEN ones
+
+    private boolean closed;
+    private boolean coalescingModifications;
+    private boolean coalescingPlacements;
+    private int removedSlots; // left in the ring, skipped when polled
+    private long droppedCount;
+    private long eliminatedCount;
+    private long rejectedCount;
+
+    OutboundQueue(int capacity, OutboundQueuePolicy policy) {
+        checkArgument(capacity > 0, "capacity=%s <= 0", capacity);
+        this.policy = checkNotNull(policy, "null policy");
+        this.ring = new Ring(capacity, lock.newCondition());
+        this.priorityRing = new Ring(capacity, lock.newCondition());
+        this.coalescingModifications = policy == OutboundQueuePolicy.DROP_SUPERSEDED_MODIFY;
+    }
+
+    /**
+     * Makes the queue drop commands made obsolete by newer ones, as described in the class documentation.
+     */
+    void enableCoalescing() {
+        lock.lock();
+        try {
+            coalescingModifications = true;
+            coalescingPlacements = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes the queue reject any further commands, including the ones waiting for space. The commands already queued
+     * may still be taken.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            ring.notFull.signalAll();
+            priorityRing.notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the queued command dropped because of the given one (which is not queued then, if a cancellation) -
+     *         a modification replaced by the given one or a placement cancelled by the given one, null if none
+     * @throws RejectedExecutionException if the queue is full and the policy is {@link OutboundQueuePolicy#REJECT}
+     * @throws IllegalStateException if the queue is {@link #close closed}
+     */
+    Object put(Kind kind, Object payload) throws InterruptedException {
+        long now = System.nanoTime();
+        lock.lockInterruptibly();
+        try {
+            checkState(!closed, "Outbound queue closed");
+            if (coalescingModifications && payload instanceof OrderModificationSpec) {
+                Slot queued = queuedModifications.get(((OrderModificationSpec) payload).getClientOrderId());
+                if (queued != null && supersedes((OrderModificationSpec) payload, queued.payload)) {
+                    Object superseded = queued.payload;
+                    queued.payload = payload;
+                    queued.enqueueNanoTime = now;
+                    droppedCount++;
+                    return superseded;
+                }
+            }
+            if (coalescingPlacements && kind == Kind.ORDER_SPEC && payload instanceof OrderCancelSpec) {
+                Object eliminated = eliminatePlacement(((OrderCancelSpec) payload).getClientOrderId());
+                if (eliminated != null) {
+                    return eliminated;
+                }
+            }
+            Ring target = isPriority(kind, payload) ? priorityRing : ring;
+            while (target.size == target.slots.length) {
+                if (policy == OutboundQueuePolicy.REJECT) {
+                    rejectedCount++;
+                    throw new RejectedExecutionException("Outbound queue full with capacity=" + target.slots.length);
+                }
+                target.notFull.await();
+                checkState(!closed, "Outbound queue closed");
+            }
+            Slot slot = target.tail();
+            slot.kind = kind;
+            slot.payload = payload;
+            slot.enqueueNanoTime = now;
+            if (coalescingModifications && payload instanceof OrderModificationSpec) {
+                queuedModifications.put(((OrderModificationSpec) payload).getClientOrderId(), slot);
+            }
+            trackPlacements(slot, null, slot);
+            target.size++;
+            notEmpty.signal();
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the head of the queue to the given slot, waiting at most the given time for one to be queued.
+     *
+     * @return true if a command was taken, false if timed out
+     */
+    boolean poll(Slot target, long timeout, TimeUnit unit) throws InterruptedException {
+        return pollIf(null, target, timeout, unit);
+    }
+
+    /**
+     * Moves the head of the queue to the given slot if the head is of one of the given kinds, waiting at most the
+     * given time for a command to be queued.
+     *
+     * @param kinds kinds of commands to take, null for any
+     * @return true if a command was taken, false if timed out or the head is of a different kind
+     */
+    boolean pollIf(Set<Kind> kinds, Slot target, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (skipRemoved() == 0 && priorityRing.size == 0) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            Ring source = priorityRing.size > 0 ? priorityRing : ring;
+            if (kinds != null && !kinds.contains(source.head().kind)) {
+                return false;
+            }
+            take(source, target);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the head of the priority lane to the given slot, waiting at most the given time for a command to be queued
+     * there.
+     *
+     * @return true if a command was taken, false if timed out
+     */
+    boolean pollPriority(Slot target, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (priorityRing.size == 0) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            take(priorityRing, target);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the placements of the given slot, taken off the queue before, as sent (or failed to be sent) - from now on
+     * cancellations of them go to the priority lane. Has to be called before the slot is cleared.
+     */
+    void release(Slot slot) {
+        lock.lock();
+        try {
+            trackPlacements(slot, TAKEN, null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the queued (not yet taken) placements accepted by the given filter, together with the queued
+     * modifications and cancellations of the orders they place, and the queued modifications of the given orders -
+     * e.g. when all the orders are being cancelled. Such commands contained in batches are removed from the batches,
+     * which are replaced with copies; batches left empty are removed entirely.
+     *
+     * @param orderIds client order ids of the (working) orders whose queued modifications are to be removed
+     * @return the removed commands, in the order they were queued
+     */
+    List<OrderSpec> removeOrderCommands(Predicate<? super LimitOrderSpec> placementFilter, Set<Long> orderIds) {
+        checkNotNull(placementFilter, "null placementFilter");
+        checkNotNull(orderIds, "null orderIds");
+        List<OrderSpec> removed = new ArrayList<>();
+        lock.lock();
+        try {
+            Set<Long> removedPlacements = new HashSet<>();
+            for (int i = 0; i < ring.size; i++) {
+                Slot slot = ring.slots[ring.index(i)];
+                if (slot.kind == Kind.ORDER_SPEC) {
+                    OrderSpec orderSpec = (OrderSpec) slot.payload;
+                    if (isRemoved(orderSpec, placementFilter, orderIds, removedPlacements)) {
+                        untrack(slot, orderSpec);
+                        removed.add(orderSpec);
+                        slot.clear(); // skipped when reaching the head of the ring
+                        removedSlots++;
+                    }
+                } else if (slot.kind == Kind.BATCH) {
+                    List<?> batch = (List<?>) slot.payload;
+                    List<OrderSpec> remaining = new ArrayList<>(batch.size());
+                    for (int j = 0; j < batch.size(); j++) {
+                        OrderSpec orderSpec = (OrderSpec) batch.get(j);
+                        if (isRemoved(orderSpec, placementFilter, orderIds, removedPlacements)) {
+                            untrack(slot, orderSpec);
+                            removed.add(orderSpec);
+                        } else {
+                            remaining.add(orderSpec);
+                        }
+                    }
+                    if (remaining.isEmpty()) {
+                        slot.clear();
+                        removedSlots++;
+                    } else if (remaining.size() < batch.size()) {
+                        slot.payload = remaining;
+                    }
+                }
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return ring.size - removedSlots + priorityRing.size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of commands queued in the priority lane
+     */
+    int prioritySize() {
+        lock.lock();
+        try {
+            return priorityRing.size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int capacity() {
+        return ring.slots.length;
+    }
+
+    /**
+     * @return number of modifications replaced by newer ones while queued
+     */
+    long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of placements removed together with their cancellations
+     */
+    long getEliminatedCount() {
+        lock.lock();
+        try {
+            return eliminatedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getRejectedCount() {
+        lock.lock();
+        try {
+            return rejectedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean supersedes(OrderModificationSpec modification, Object queued) {
+        OrderModificationSpec queuedModification = (OrderModificationSpec) queued;
+        return (modification.getNewQuantity() != null || queuedModification.getNewQuantity() == null)
+                && (modification.getNewLimitPrice() != null || queuedModification.getNewLimitPrice() == null);
+    }
+
+    private boolean isPriority(Kind kind, Object payload) {
+        return kind == Kind.CANCEL_BATCH
+                || kind == Kind.ORDER_SPEC
+                && payload instanceof OrderCancelSpec
+                && !queuedPlacements.containsKey(((OrderCancelSpec) payload).getClientOrderId());
+    }
+
+    /**
+     * Removes the queued single placement of the given order, if there is one and no modification of the order is
+     * queued.
+     *
+     * @return the removed placement, null if none
+     */
+    private Object eliminatePlacement(long clientOrderId) {
+        Slot placement = queuedPlacements.get(clientOrderId);
+        if (placement == null
+                || placement == TAKEN
+                || placement.kind != Kind.ORDER_SPEC
+                || queuedModifications.containsKey(clientOrderId)) {
+            return null;
+        }
+        Object eliminated = placement.payload;
+        queuedPlacements.remove(clientOrderId);
+        placement.clear(); // skipped when reaching the head of the ring
+        removedSlots++;
+        eliminatedCount++;
+        return eliminated;
+    }
+
+    /**
+     * @param removedPlacements client order ids of the placements removed so far, updated if the given command is a
+     *                          removed placement
+     */
+    private static boolean isRemoved(
+            OrderSpec orderSpec,
+            Predicate<? super LimitOrderSpec> placementFilter,
+            Set<Long> orderIds,
+            Set<Long> removedPlacements
+    ) {
+        if (orderSpec instanceof LimitOrderSpec) {
+            return placementFilter.test((LimitOrderSpec) orderSpec)
+                    && removedPlacements.add(orderSpec.getClientOrderId());
+        } else if (orderSpec instanceof OrderModificationSpec) {
+            return orderIds.contains(orderSpec.getClientOrderId())
+                    || removedPlacements.contains(orderSpec.getClientOrderId());
+        } else {
+            return removedPlacements.contains(orderSpec.getClientOrderId());
+        }
+    }
+
+    /**
+     * Removes the given command, queued in the given slot, from {@link #queuedPlacements} and
+     * {@link #queuedModifications}.
+     */
+    private void untrack(Slot slot, OrderSpec orderSpec) {
+        long clientOrderId = orderSpec.getClientOrderId();
+        if (orderSpec instanceof LimitOrderSpec && queuedPlacements.get(clientOrderId) == slot) {
+            queuedPlacements.remove(clientOrderId);
+        } else if (orderSpec instanceof OrderModificationSpec && queuedModifications.get(clientOrderId) == slot) {
+            queuedModifications.remove(clientOrderId);
+        }
+    }
+
+    /**
+     * Removes the slots at the head of the (non-priority) ring left after eliminated placements.
+     *
+     * @return number of commands remaining in the ring
+     */
+    private int skipRemoved() {
+        while (removedSlots > 0 && ring.size > 0 && ring.head().kind == null) {
+            ring.removeHead();
+            removedSlots--;
+        }
+        return ring.size - removedSlots;
+    }
+
+    private void take(Ring source, Slot target) {
+        Slot slot = source.head();
+        target.copyFrom(slot);
+        if (slot.payload instanceof OrderModificationSpec) {
+            long clientOrderId = ((OrderModificationSpec) slot.payload).getClientOrderId();
+            if (queuedModifications.get(clientOrderId) == slot) {
+                queuedModifications.remove(clientOrderId);
+            }
+        }
+        trackPlacements(slot, slot, TAKEN);
+        slot.clear();
+        source.removeHead();
+    }
+
+    /**
+     * Maps the placements contained in the given slot to {@code to} (or removes them, if null) in
+     * {@link #queuedPlacements}, provided they are mapped to {@code from} (unconditionally, if null).
+     */
+    private void trackPlacements(Slot slot, Slot from, Slot to) {
+        if (slot.payload instanceof LimitOrderSpec) {
+            trackPlacement(((LimitOrderSpec) slot.payload).getClientOrderId(), from, to);
+        } else if (slot.kind == Kind.BATCH) {
+            List<?> batch = (List<?>) slot.payload;
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i) instanceof LimitOrderSpec) {
+                    trackPlacement(((LimitOrderSpec) batch.get(i)).getClientOrderId(), from, to);
+                }
+            }
+        }
+    }
+
+    private void trackPlacement(long clientOrderId, Slot from, Slot to) {
+        if (from != null && queuedPlacements.get(clientOrderId) != from) {
+            return;
+        }
+        if (to == null) {
+            queuedPlacements.remove(clientOrderId);
+        } else {
+            queuedPlacements.put(clientOrderId, to);
+        }
+    }
+
+    private static final class Ring {
+
+        final Slot[] slots;
+        final Condition notFull;
+        int head;
+        int size;
+
+        Ring(int capacity, Condition notFull) {
+            this.slots = new Slot[capacity];
+            for (int i = 0; i < capacity; i++) {
+                slots[i] = new Slot();
+            }
+            this.notFull = notFull;
+        }
+
+        Slot head() {
+            return slots[head];
+        }
+
+        Slot tail() {
+            return slots[index(size)];
+        }
+
+        void removeHead() {
+            head = index(1);
+            size--;
+            notFull.signal();
+        }
+
+        private int index(int offset) {
+            int index = head + offset;
+            return index >= slots.length ? index - slots.length : index;
+        }
+    }
+}
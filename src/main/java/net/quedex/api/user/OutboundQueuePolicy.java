@@ -0,0 +1,27 @@
+package net.quedex.api.user;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * What {@link UserStream} does with a command when its queue of commands waiting to be sent is full.
+ */
+public enum OutboundQueuePolicy {
+
+    /**
+     * The calling thread waits until there is space in the queue.
+     */
+    BLOCK,
+
+    /**
+     * The command is rejected with a {@link RejectedExecutionException}.
+     */
+    REJECT,
+
+    /**
+     * An {@link OrderModificationSpec} replaces a still queued modification of the same order instead of taking a new
+     * place in the queue (regardless of whether the queue is full), as only the latest one matters - unless the queued
+     * one changes a field (quantity or price) the new one leaves unchanged; when the queue is full and there is
+     * nothing to replace, the calling thread waits as with {@link #BLOCK}.
+     */
+    DROP_SUPERSEDED_MODIFY
+}
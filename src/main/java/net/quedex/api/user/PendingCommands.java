@@ -0,0 +1,365 @@
+package net.quedex.api.user;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.quedex.api.common.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Order commands sent via the asynchronous methods of {@link UserStream} and awaiting a response of the exchange, kept
+ * in a {@link LongHashMap} by client order id for each kind of command. Commands of the same kind for the same order
+ * (e.g. subsequent modifications) are answered by the exchange in order, hence they are chained and completed oldest
+ * first. A command not answered within its timeout is completed exceptionally with a {@link TimeoutException}, but
+ * stays in its chain until its (late) response arrives, which is then discarded - not to be taken for the response to
+ * the next command of the chain. As the response may never arrive, such a command is dropped from its chain after a
+ * grace period at the latest. The same applies to the commands {@link #abandon abandoned} as their order is gone.
+ * <p>
+ * Responses have to be delivered by a single thread (the one receiving messages) - it records round-trip latencies.
+ */
+final class PendingCommands {
+
+    enum Kind { PLACE, CANCEL, MODIFY }
+
+    static final long DEFAULT_ABANDONED_GRACE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final LongHashMap<Pending> placements = new LongHashMap<>();
+    private final LongHashMap<Pending> cancellations = new LongHashMap<>();
+    private final LongHashMap<Pending> modifications = new LongHashMap<>();
+    private final LatencyHistogram roundTripLatency = new LatencyHistogram();
+    private final long abandonedGraceNanos;
+    private final ScheduledThreadPoolExecutor timeoutScheduler;
+
+    PendingCommands() {
+        this(DEFAULT_ABANDONED_GRACE_NANOS);
+    }
+
+    /**
+     * @param abandonedGraceNanos time for which a timed out or abandoned command awaits its response
+     */
+    PendingCommands(long abandonedGraceNanos) {
+        checkArgument(abandonedGraceNanos > 0, "abandonedGraceNanos=%s <= 0", abandonedGraceNanos);
+        this.abandonedGraceNanos = abandonedGraceNanos;
+        this.timeoutScheduler = new ScheduledThreadPoolExecutor(
+                1,
+                new ThreadFactoryBuilder().setNameFormat("user-command-timeouts-%d").setDaemon(true).build()
+        );
+        timeoutScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    <T> CompletableFuture<T> register(Kind kind, long clientOrderId, long timeoutNanos) {
+        return register(kind, clientOrderId, null, timeoutNanos);
+    }
+
+    /**
+     * Registers a command before it is sent, so that a response cannot arrive earlier.
+     *
+     * @param command the sent command, allows to {@link #supersede} it
+     */
+    <T> CompletableFuture<T> register(Kind kind, long clientOrderId, Object command, long timeoutNanos) {
+        checkArgument(timeoutNanos > 0, "timeoutNanos=%s <= 0", timeoutNanos);
+        Pending pending = new Pending(kind, clientOrderId, command);
+        synchronized (this) {
+            LongHashMap<Pending> table = table(kind);
+            Pending head = table.get(clientOrderId);
+            if (head == null) {
+                table.put(clientOrderId, pending);
+            } else {
+                while (head.next != null) {
+                    head = head.next;
+                }
+                head.next = pending;
+            }
+            pending.timeout = timeoutScheduler.schedule(() -> onTimeout(pending), timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        @SuppressWarnings("unchecked")
+        CompletableFuture<T> future = (CompletableFuture<T>) pending.future;
+        return future;
+    }
+
+    /**
+     * Completes the oldest pending command of the given kind for the given order with the given response, if any.
+     */
+    void complete(Kind kind, long clientOrderId, Object response) {
+        Pending pending = removeOldest(kind, clientOrderId);
+        if (pending != null && !pending.abandoned) {
+            roundTripLatency.record(System.nanoTime() - pending.sentNanoTime);
+            pending.future.complete(response);
+        }
+    }
+
+    /**
+     * Completes exceptionally the oldest pending command of the given kind for the given order with an
+     * {@link OrderCommandRejectedException}, if any.
+     */
+    void reject(Kind kind, long clientOrderId, Object rejection) {
+        Pending pending = removeOldest(kind, clientOrderId);
+        if (pending != null && !pending.abandoned) {
+            roundTripLatency.record(System.nanoTime() - pending.sentNanoTime);
+            pending.future.completeExceptionally(new OrderCommandRejectedException(rejection));
+        }
+    }
+
+    /**
+     * Completes exceptionally all the pending commands of the given kind for the given order, e.g. when the order is
+     * gone before they were answered. They stay in their chain to discard their responses, as timed out commands do.
+     */
+    void abandon(Kind kind, long clientOrderId, Throwable cause) {
+        checkNotNull(cause, "null cause");
+        List<Pending> abandoned = new ArrayList<>();
+        synchronized (this) {
+            for (Pending pending = table(kind).get(clientOrderId); pending != null; pending = pending.next) {
+                if (!pending.abandoned) {
+                    pending.timeout.cancel(false);
+                    markAbandoned(pending);
+                    abandoned.add(pending);
+                }
+            }
+        }
+        for (Pending pending : abandoned) {
+            pending.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Completes exceptionally the command registered with the given future, e.g. when it could not be sent.
+     */
+    void fail(Kind kind, long clientOrderId, CompletableFuture<?> future, Throwable cause) {
+        checkNotNull(cause, "null cause");
+        synchronized (this) {
+            for (Pending pending = table(kind).get(clientOrderId); pending != null; pending = pending.next) {
+                if (pending.future == future) {
+                    pending.timeout.cancel(false);
+                    remove(pending);
+                    break;
+                }
+            }
+        }
+        future.completeExceptionally(cause);
+    }
+
+    /**
+     * Handles a command replaced by another one before being sent (see
+     * {@link OutboundQueuePolicy#DROP_SUPERSEDED_MODIFY}): it no longer awaits its own response and is completed
+     * as the given successor is, if it was registered.
+     *
+     * @param successor future of the replacing command, null if it was not registered
+     */
+    void supersede(Kind kind, long clientOrderId, Object command, CompletableFuture<?> successor) {
+        Pending superseded;
+        synchronized (this) {
+            superseded = find(kind, clientOrderId, command);
+            if (superseded == null || successor == null) { // unregistered successor's response completes superseded
+                return;
+            }
+            superseded.timeout.cancel(false);
+            remove(superseded);
+        }
+        CompletableFuture<Object> future = superseded.future;
+        successor.whenComplete((response, e) -> {
+            if (e == null) {
+                future.complete(response);
+            } else {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Completes the given command, if registered, with the given response not coming from the exchange (e.g. when the
+     * command was dropped before being sent, see {@link OutboundQueue}).
+     */
+    void completeCommand(Kind kind, long clientOrderId, Object command, Object response) {
+        Pending pending = removeCommand(kind, clientOrderId, command);
+        if (pending != null) {
+            pending.future.complete(response);
+        }
+    }
+
+    /**
+     * Completes exceptionally the given command, if registered, e.g. when it was dropped before being sent.
+     */
+    void failCommand(Kind kind, long clientOrderId, Object command, Throwable cause) {
+        checkNotNull(cause, "null cause");
+        Pending pending = removeCommand(kind, clientOrderId, command);
+        if (pending != null) {
+            pending.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Completes exceptionally all the pending commands, e.g. when the stream is stopped.
+     */
+    void failAll(Throwable cause) {
+        List<Pending> failed = new ArrayList<>();
+        synchronized (this) {
+            for (Kind kind : Kind.values()) {
+                LongHashMap<Pending> table = table(kind);
+                table.forEachValue(head -> {
+                    for (Pending pending = head; pending != null; pending = pending.next) {
+                        pending.timeout.cancel(false);
+                        failed.add(pending);
+                    }
+                });
+                table.clear();
+            }
+        }
+        for (Pending pending : failed) {
+            pending.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * @return number of commands awaiting a response, not counting the timed out or abandoned ones
+     */
+    synchronized int size() {
+        int[] size = {0};
+        for (Kind kind : Kind.values()) {
+            table(kind).forEachValue(head -> {
+                for (Pending pending = head; pending != null; pending = pending.next) {
+                    if (!pending.abandoned) {
+                        size[0]++;
+                    }
+                }
+            });
+        }
+        return size[0];
+    }
+
+    LatencyHistogram getRoundTripLatency() {
+        return roundTripLatency;
+    }
+
+    void shutdown() {
+        timeoutScheduler.shutdownNow();
+    }
+
+    private void onTimeout(Pending pending) {
+        synchronized (this) {
+            if (pending.abandoned || !contains(pending)) {
+                return;
+            }
+            markAbandoned(pending);
+        }
+        pending.future.completeExceptionally(new TimeoutException(
+                String.format("No response to %s of clientOrderId=%s", pending.kind, pending.clientOrderId)
+        ));
+    }
+
+    /**
+     * Leaves the given command in its chain to consume its response, until the grace period elapses.
+     */
+    private synchronized void markAbandoned(Pending pending) {
+        pending.abandoned = true;
+        try {
+            pending.timeout =
+                    timeoutScheduler.schedule(() -> remove(pending), abandonedGraceNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // shut down, failAll clears the chains
+        }
+    }
+
+    private synchronized Pending find(Kind kind, long clientOrderId, Object command) {
+        for (Pending pending = table(kind).get(clientOrderId); pending != null; pending = pending.next) {
+            if (pending.command == command) {
+                return pending;
+            }
+        }
+        return null;
+    }
+
+    private synchronized boolean contains(Pending pending) {
+        Pending chained = table(pending.kind).get(pending.clientOrderId);
+        while (chained != null && chained != pending) {
+            chained = chained.next;
+        }
+        return chained != null;
+    }
+
+    private synchronized Pending removeCommand(Kind kind, long clientOrderId, Object command) {
+        Pending pending = find(kind, clientOrderId, command);
+        if (pending != null) {
+            pending.timeout.cancel(false);
+            remove(pending);
+        }
+        return pending;
+    }
+
+    private synchronized Pending removeOldest(Kind kind, long clientOrderId) {
+        LongHashMap<Pending> table = table(kind);
+        Pending head = table.get(clientOrderId);
+        if (head == null) {
+            return null;
+        }
+        if (head.next == null) {
+            table.remove(clientOrderId);
+        } else {
+            table.put(clientOrderId, head.next);
+        }
+        head.timeout.cancel(false);
+        return head;
+    }
+
+    /**
+     * @return true if the given command was pending
+     */
+    private synchronized boolean remove(Pending pending) {
+        LongHashMap<Pending> table = table(pending.kind);
+        Pending head = table.get(pending.clientOrderId);
+        if (head == pending) {
+            if (pending.next == null) {
+                table.remove(pending.clientOrderId);
+            } else {
+                table.put(pending.clientOrderId, pending.next);
+            }
+            return true;
+        }
+        for (Pending previous = head; previous != null; previous = previous.next) {
+            if (previous.next == pending) {
+                previous.next = pending.next;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private LongHashMap<Pending> table(Kind kind) {
+        switch (kind) {
+            case PLACE:
+                return placements;
+            case CANCEL:
+                return cancellations;
+            case MODIFY:
+                return modifications;
+            default:
+                throw new IllegalStateException("Unexpected kind=" + kind);
+        }
+    }
+
+    private static final class Pending {
+
+        final Kind kind;
+        final long clientOrderId;
+        final Object command;
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        final long sentNanoTime = System.nanoTime();
+        ScheduledFuture<?> timeout; // guarded by PendingCommands.this
+        boolean abandoned; // future completed, awaits its response only to discard it; guarded by PendingCommands.this
+        Pending next; // guarded by PendingCommands.this
+
+        Pending(Kind kind, long clientOrderId, Object command) {
+            this.kind = kind;
+            this.clientOrderId = clientOrderId;
+            this.command = command;
+        }
+    }
+}
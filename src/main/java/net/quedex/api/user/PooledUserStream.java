@@ -0,0 +1,643 @@
+package net.quedex.api.user;
+
+import com.google.common.collect.ImmutableList;
+import net.quedex.api.common.CommunicationException;
+import net.quedex.api.common.Config;
+import net.quedex.api.common.JavaWebsocketTransport;
+import net.quedex.api.common.StreamFailureListener;
+import net.quedex.api.common.WebsocketTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A {@link UserStream} spreading trading commands over several {@link WebsocketUserStream}s of the same account, each
+ * using a different nonce group (see {@link Config#getNonceGroup}), so that commands are encrypted, sequenced and sent
+ * in parallel.
+ * <p>
+ * Commands are routed sticky per instrument - placements of an instrument always go through the same connection and
+ * cancellations and modifications go through the connection the order was placed through (or, for orders not placed
+ * via this stream, the connection of the order's instrument if known to the registered {@link OrderTracker}). Thus
+ * commands concerning a single order are processed in the order they were sent. A {@link #batch} spanning instruments
+ * of different connections is split into one batch per connection, so it is not processed atomically.
+ * <p>
+ * The events received by all the connections are merged into a single feed - an event received by several connections
+ * is passed to the registered listeners once, when its first copy arrives. Equal events (e.g. {@link OrderModified}s
+ * of two modifications of an order) are told apart by the number of copies received by each connection. Listeners
+ * are called by the threads of the connections, but never concurrently.
+ * <p>
+ * {@link #cancelAll} requires an {@link OrderTracker} registered with this stream, which is fed with the merged
+ * events. Other features of the connections (e.g. {@link WebsocketUserStream#enableAutoBatching}) may be configured
+ * on the connections before passing them to this stream.
+ */
+public class PooledUserStream implements UserStream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PooledUserStream.class);
+
+    static final int MAX_TRACKED_EVENTS = 65536;
+
+    private final List<WebsocketUserStream> connections;
+    private final LongHashMap<WebsocketUserStream> orderConnections = new LongHashMap<>(); // guarded
+    private final EventDeduplicator deduplicator;
+
+    private volatile OrderListener orderListener;
+    private volatile OrderTracker orderTracker;
+    private volatile OpenPositionListener openPositionListener;
+    private volatile AccountStateListener accountStateListener;
+    private volatile InternalTransferListener internalTransferListener;
+
+    /**
+     * Opens the given number of connections, using consecutive nonce groups starting from the one of the given
+     * {@link Config}.
+     */
+    public PooledUserStream(Config config, int connections) {
+        this(config, connections, JavaWebsocketTransport::new);
+    }
+
+    /**
+     * Opens the given number of connections, using consecutive nonce groups starting from the one of the given
+     * {@link Config}.
+     *
+     * @param transportFactory creates the connections, e.g. a shared {@link net.quedex.api.common.NioWebsocketClient}
+     * @throws IllegalArgumentException if the nonce groups would exceed 9
+     */
+    public PooledUserStream(Config config, int connections, WebsocketTransport.Factory transportFactory) {
+        this(createConnections(config, connections, transportFactory));
+    }
+
+    /**
+     * @param connections streams of the same account with distinct nonce groups, not started, with no listeners
+     *                    registered
+     */
+    public PooledUserStream(List<WebsocketUserStream> connections) {
+        checkArgument(!connections.isEmpty(), "No connections");
+        this.connections = ImmutableList.copyOf(connections);
+        this.deduplicator = new EventDeduplicator(connections.size(), MAX_TRACKED_EVENTS);
+        for (int i = 0; i < connections.size(); i++) {
+            ConnectionListener listener = new ConnectionListener(i);
+            WebsocketUserStream connection = connections.get(i);
+            connection.registerOrderListener(listener);
+            connection.registerOpenPositionListener(listener);
+            connection.registerAccountStateListener(listener);
+            connection.registerInternalTransferListener(listener);
+        }
+    }
+
+    /**
+     * @return number of events which arrived first on each connection
+     */
+    public long[] getFirstArrivalCounts() {
+        synchronized (deduplicator) {
+            return deduplicator.firstArrivals.clone();
+        }
+    }
+
+    @Override
+    public void registerStreamFailureListener(StreamFailureListener streamFailureListener) {
+        for (WebsocketUserStream connection : connections) {
+            connection.registerStreamFailureListener(streamFailureListener);
+        }
+    }
+
+    /**
+     * Starts all the connections, stopping the started ones if any fails to start.
+     */
+    @Override
+    public void start() throws CommunicationException {
+        for (int i = 0; i < connections.size(); i++) {
+            try {
+                connections.get(i).start();
+            } catch (CommunicationException | RuntimeException e) {
+                for (int j = 0; j < i; j++) {
+                    try {
+                        connections.get(j).stop();
+                    } catch (CommunicationException | RuntimeException stopException) {
+                        LOGGER.warn("Error stopping connection", stopException);
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void registerOrderListener(OrderListener orderListener) {
+        this.orderListener = orderListener;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The tracker is fed with the merged events of all the connections.
+     */
+    @Override
+    public void registerOrderTracker(OrderTracker orderTracker) {
+        this.orderTracker = orderTracker;
+    }
+
+    @Override
+    public void registerOpenPositionListener(OpenPositionListener openPositionListener) {
+        this.openPositionListener = openPositionListener;
+    }
+
+    @Override
+    public void registerAccountStateListener(AccountStateListener accountStateListener) {
+        this.accountStateListener = accountStateListener;
+    }
+
+    @Override
+    public void registerInternalTransferListener(InternalTransferListener listener) {
+        this.internalTransferListener = listener;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Each connection receives its own welcome package, merged as any other events.
+     */
+    @Override
+    public void subscribeListeners() {
+        for (WebsocketUserStream connection : connections) {
+            connection.subscribeListeners();
+        }
+    }
+
+    @Override
+    public void placeOrder(LimitOrderSpec limitOrderSpec) {
+        send(limitOrderSpec, connection -> connection.placeOrder(limitOrderSpec));
+    }
+
+    @Override
+    public void cancelOrder(OrderCancelSpec orderCancelSpec) {
+        route(orderCancelSpec).cancelOrder(orderCancelSpec);
+    }
+
+    @Override
+    public void modifyOrder(OrderModificationSpec orderModificationSpec) {
+        send(orderModificationSpec, connection -> connection.modifyOrder(orderModificationSpec));
+    }
+
+    @Override
+    public CompletableFuture<OrderPlaced> placeOrderAsync(LimitOrderSpec limitOrderSpec) {
+        return sendAsync(limitOrderSpec, connection -> connection.placeOrderAsync(limitOrderSpec));
+    }
+
+    @Override
+    public CompletableFuture<OrderCancelled> cancelOrderAsync(OrderCancelSpec orderCancelSpec) {
+        return route(orderCancelSpec).cancelOrderAsync(orderCancelSpec);
+    }
+
+    @Override
+    public CompletableFuture<OrderModified> modifyOrderAsync(OrderModificationSpec orderModificationSpec) {
+        return sendAsync(orderModificationSpec, connection -> connection.modifyOrderAsync(orderModificationSpec));
+    }
+
+    @Override
+    public Batch batch() {
+        return new ListBatch(this);
+    }
+
+    @Override
+    public void batch(List<? extends OrderSpec> batch) {
+        Map<WebsocketUserStream, List<OrderSpec>> batches = new IdentityHashMap<>(connections.size());
+        for (OrderSpec orderSpec : batch) {
+            onSending(orderSpec);
+            batches.computeIfAbsent(route(orderSpec), connection -> new ArrayList<>()).add(orderSpec);
+        }
+        if (batches.size() == 1) {
+            try {
+                batches.keySet().iterator().next().batch(batch);
+            } catch (RuntimeException e) {
+                batch.forEach(this::onNotSent);
+                throw e;
+            }
+            return;
+        }
+        List<WebsocketUserStream> targets = new ArrayList<>(batches.keySet());
+        for (int i = 0; i < targets.size(); i++) {
+            try {
+                targets.get(i).batch(batches.get(targets.get(i)));
+            } catch (RuntimeException e) {
+                for (int j = i; j < targets.size(); j++) {
+                    batches.get(targets.get(j)).forEach(this::onNotSent);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The cancellations of each instrument are sent via the connection of the instrument, and the queued commands of
+     * each connection are removed from its own queue.
+     */
+    @Override
+    public int cancelAll() {
+        OrderTracker.Snapshot snapshot = getTrackedOrders();
+        Map<WebsocketUserStream, List<TrackedOrder>> ordersByConnection = new IdentityHashMap<>();
+        for (WebsocketUserStream connection : connections) {
+            ordersByConnection.put(connection, new ArrayList<>());
+        }
+        for (int instrumentId : snapshot.getInstrumentIds()) {
+            ordersByConnection.get(connection(instrumentId)).addAll(snapshot.getOrders(instrumentId));
+        }
+        int cancelled = 0;
+        for (WebsocketUserStream connection : connections) {
+            cancelled += connection.cancelOrders(ordersByConnection.get(connection), null, null, this::onNotSent);
+        }
+        return cancelled;
+    }
+
+    @Override
+    public int cancelAll(int instrumentId) {
+        return connection(instrumentId)
+                .cancelOrders(getTrackedOrders().getOrders(instrumentId), instrumentId, null, this::onNotSent);
+    }
+
+    @Override
+    public int cancelAll(int instrumentId, OrderSide side) {
+        checkNotNull(side, "null side");
+        return connection(instrumentId)
+                .cancelOrders(getTrackedOrders().getOrders(instrumentId), instrumentId, side, this::onNotSent);
+    }
+
+    /**
+     * Executes the given transfer via the first connection.
+     */
+    @Override
+    public void executeInternalTransfer(InternalTransfer internalTransfer) {
+        connections.get(0).executeInternalTransfer(internalTransfer);
+    }
+
+    /**
+     * Stops all the connections, throwing the first exception thrown, if any, after trying to stop all of them.
+     */
+    @Override
+    public void stop() throws CommunicationException {
+        CommunicationException exception = null;
+        for (WebsocketUserStream connection : connections) {
+            try {
+                connection.stop();
+            } catch (CommunicationException e) {
+                if (exception == null) {
+                    exception = e;
+                } else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private WebsocketUserStream route(OrderSpec orderSpec) {
+        if (orderSpec instanceof LimitOrderSpec) {
+            WebsocketUserStream connection = connection(((LimitOrderSpec) orderSpec).getInstrumentId());
+            synchronized (orderConnections) {
+                orderConnections.put(orderSpec.getClientOrderId(), connection);
+            }
+            return connection;
+        }
+        WebsocketUserStream connection;
+        synchronized (orderConnections) {
+            connection = orderConnections.get(orderSpec.getClientOrderId());
+        }
+        if (connection != null) {
+            return connection;
+        }
+        OrderTracker orderTracker = this.orderTracker;
+        TrackedOrder order = orderTracker == null
+                ? null
+                : orderTracker.getSnapshot().getOrder(orderSpec.getClientOrderId());
+        return order == null ? connections.get(0) : connection(order.getInstrumentId());
+    }
+
+    private WebsocketUserStream connection(int instrumentId) {
+        return connections.get(Math.floorMod(instrumentId, connections.size()));
+    }
+
+    private void forget(long clientOrderId) {
+        synchronized (orderConnections) {
+            orderConnections.remove(clientOrderId);
+        }
+    }
+
+    /**
+     * Sends the given placement or modification via its connection, undoing {@link #onSending} if the connection does
+     * not accept it.
+     */
+    private void send(OrderSpec orderSpec, Consumer<WebsocketUserStream> command) {
+        onSending(orderSpec);
+        try {
+            command.accept(route(orderSpec));
+        } catch (RuntimeException e) {
+            onNotSent(orderSpec);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the given placement or modification via its connection, undoing {@link #onSending} if the connection does
+     * not accept it or the returned future fails as the command was not sent.
+     */
+    private <T> CompletableFuture<T> sendAsync(
+            OrderSpec orderSpec,
+            Function<WebsocketUserStream, CompletableFuture<T>> command
+    ) {
+        onSending(orderSpec);
+        CompletableFuture<T> future;
+        try {
+            future = command.apply(route(orderSpec));
+        } catch (RuntimeException e) {
+            onNotSent(orderSpec);
+            throw e;
+        }
+        future.whenComplete((result, e) -> {
+            if (e instanceof PreTradeRiskException
+                    || e instanceof CommunicationException
+                    || e instanceof CancellationException) {
+                onNotSent(orderSpec);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Registers a modification about to be sent with the tracker - before it is queued by the connection, as it may be
+     * confirmed before the connection returns.
+     */
+    private void onSending(OrderSpec orderSpec) {
+        OrderTracker orderTracker = this.orderTracker;
+        if (orderTracker != null && orderSpec instanceof OrderModificationSpec) {
+            orderTracker.onModificationSent((OrderModificationSpec) orderSpec);
+        }
+    }
+
+    /**
+     * Undoes {@link #onSending} and the routing of a placement for a command which was not sent.
+     */
+    private void onNotSent(OrderSpec orderSpec) {
+        if (orderSpec instanceof LimitOrderSpec) {
+            forget(orderSpec.getClientOrderId());
+        } else if (orderSpec instanceof OrderModificationSpec) {
+            OrderTracker orderTracker = this.orderTracker;
+            if (orderTracker != null) {
+                orderTracker.onModificationSuperseded((OrderModificationSpec) orderSpec);
+            }
+        }
+    }
+
+    private OrderTracker.Snapshot getTrackedOrders() {
+        OrderTracker orderTracker = this.orderTracker;
+        checkState(orderTracker != null, "No OrderTracker registered");
+        return orderTracker.getSnapshot();
+    }
+
+    /**
+     * Passes the given order event to the tracker and the listener if it is the first copy of the event.
+     *
+     * @return true if the event was passed on
+     */
+    private <T> boolean deliverOrderEvent(int connection, T event, BiConsumer<OrderListener, T> method) {
+        synchronized (deduplicator) {
+            if (!deduplicator.isFirst(connection, event)) {
+                return false;
+            }
+            OrderTracker orderTracker = this.orderTracker;
+            if (orderTracker != null) {
+                method.accept(orderTracker, event);
+            }
+            OrderListener orderListener = this.orderListener;
+            if (orderListener != null) {
+                method.accept(orderListener, event);
+            }
+            return true;
+        }
+    }
+
+    private <L, T> void deliver(int connection, T event, L listener, BiConsumer<L, T> method) {
+        synchronized (deduplicator) {
+            if (deduplicator.isFirst(connection, event) && listener != null) {
+                method.accept(listener, event);
+            }
+        }
+    }
+
+    private static List<WebsocketUserStream> createConnections(
+            Config config,
+            int connections,
+            WebsocketTransport.Factory transportFactory
+    ) {
+        checkArgument(connections > 0, "connections=%s <= 0", connections);
+        checkArgument(
+                config.getNonceGroup() + connections <= 10,
+                "nonceGroup=%s + connections=%s > 10",
+                config.getNonceGroup(),
+                connections
+        );
+        List<WebsocketUserStream> streams = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            streams.add(new WebsocketUserStream(
+                    config.getUserStreamUrl(),
+                    config.getAccountId(),
+                    config.getNonceGroup() + i,
+                    config.getQdxPublicKey(),
+                    config.getUserPrivateKey(),
+                    transportFactory
+            ));
+        }
+        return streams;
+    }
+
+    /**
+     * Receives the events of a single connection.
+     */
+    private final class ConnectionListener
+            implements OrderListener, OpenPositionListener, AccountStateListener, InternalTransferListener {
+
+        private final int connection;
+
+        ConnectionListener(int connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void onOrderPlaced(OrderPlaced orderPlaced) {
+            deliverOrderEvent(connection, orderPlaced, OrderListener::onOrderPlaced);
+        }
+
+        @Override
+        public void onOrderPlaceFailed(OrderPlaceFailed orderPlaceFailed) {
+            if (deliverOrderEvent(connection, orderPlaceFailed, OrderListener::onOrderPlaceFailed)) {
+                forget(orderPlaceFailed.getClientOrderId());
+            }
+        }
+
+        @Override
+        public void onOrderCancelled(OrderCancelled orderCancelled) {
+            if (deliverOrderEvent(connection, orderCancelled, OrderListener::onOrderCancelled)) {
+                forget(orderCancelled.getClientOrderId());
+            }
+        }
+
+        @Override
+        public void onOrderForcefullyCancelled(OrderForcefullyCancelled orderForcefullyCancelled) {
+            if (deliverOrderEvent(connection, orderForcefullyCancelled, OrderListener::onOrderForcefullyCancelled)) {
+                forget(orderForcefullyCancelled.getClientOrderId());
+            }
+        }
+
+        @Override
+        public void onOrderCancelFailed(OrderCancelFailed orderCancelFailed) {
+            deliverOrderEvent(connection, orderCancelFailed, OrderListener::onOrderCancelFailed);
+        }
+
+        @Override
+        public void onOrderModified(OrderModified orderModified) {
+            deliverOrderEvent(connection, orderModified, OrderListener::onOrderModified);
+        }
+
+        @Override
+        public void onOrderModificationFailed(OrderModificationFailed orderModificationFailed) {
+            deliverOrderEvent(connection, orderModificationFailed, OrderListener::onOrderModificationFailed);
+        }
+
+        @Override
+        public void onOrderFilled(OrderFilled orderFilled) {
+            if (deliverOrderEvent(connection, orderFilled, OrderListener::onOrderFilled)
+                    && orderFilled.getLeavesOrderQuantity() == 0) {
+                forget(orderFilled.getClientOrderId());
+            }
+        }
+
+        @Override
+        public void onLiquidationOrderPlaced(LiquidationOrderPlaced liquidationOrderPlaced) {
+            deliverOrderEvent(connection, liquidationOrderPlaced, OrderListener::onLiquidationOrderPlaced);
+        }
+
+        @Override
+        public void onLiquidationOrderCancelled(LiquidationOrderCancelled liquidationOrderCancelled) {
+            deliverOrderEvent(connection, liquidationOrderCancelled, OrderListener::onLiquidationOrderCancelled);
+        }
+
+        @Override
+        public void onLiquidationOrderFilled(LiquidationOrderFilled liquidationOrderFilled) {
+            deliverOrderEvent(connection, liquidationOrderFilled, OrderListener::onLiquidationOrderFilled);
+        }
+
+        @Override
+        public void onOpenPosition(OpenPosition openPosition) {
+            deliver(connection, openPosition, openPositionListener, OpenPositionListener::onOpenPosition);
+        }
+
+        @Override
+        public void onAccountState(AccountState accountState) {
+            deliver(connection, accountState, accountStateListener, AccountStateListener::onAccountState);
+        }
+
+        @Override
+        public void onInternalTransferExecuted(InternalTransferExecuted internalTransferExecuted) {
+            deliver(
+                    connection,
+                    internalTransferExecuted,
+                    internalTransferListener,
+                    InternalTransferListener::onInternalTransferExecuted
+            );
+        }
+
+        @Override
+        public void onInternalTransferRejected(InternalTransferRejected internalTransferRejected) {
+            deliver(
+                    connection,
+                    internalTransferRejected,
+                    internalTransferListener,
+                    InternalTransferListener::onInternalTransferRejected
+            );
+        }
+
+        @Override
+        public void onInternalTransferReceived(InternalTransferReceived internalTransferReceived) {
+            deliver(
+                    connection,
+                    internalTransferReceived,
+                    internalTransferListener,
+                    InternalTransferListener::onInternalTransferReceived
+            );
+        }
+    }
+
+    /**
+     * Tells the first copies of events received by several connections, by counting the copies of each (equal) event
+     * received by each connection - the n-th copy received by a connection is the first one if no other connection
+     * received n copies before. An event is forgotten when all the connections have received the same number of its
+     * copies or, if some connection lags behind (e.g. disconnected), when the given number of more recent events is
+     * tracked. Not thread-safe.
+     */
+    static final class EventDeduplicator {
+
+        private final int connections;
+        private final Map<Object, int[]> counts; // received by each connection, then passed on
+        final long[] firstArrivals;
+
+        EventDeduplicator(int connections, int maxTrackedEvents) {
+            this.connections = connections;
+            this.counts = new LinkedHashMap<Object, int[]>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, int[]> eldest) {
+                    return size() > maxTrackedEvents;
+                }
+            };
+            this.firstArrivals = new long[connections];
+        }
+
+        boolean isFirst(int connection, Object event) {
+            if (connections == 1) {
+                firstArrivals[0]++;
+                return true;
+            }
+            int[] eventCounts = counts.get(event);
+            if (eventCounts == null) {
+                eventCounts = new int[connections + 1];
+                counts.put(event, eventCounts);
+            }
+            int received = ++eventCounts[connection];
+            boolean first = received > eventCounts[connections];
+            if (first) {
+                eventCounts[connections] = received;
+                firstArrivals[connection]++;
+            } else if (allReceived(eventCounts)) {
+                counts.remove(event);
+            }
+            return first;
+        }
+
+        int trackedEvents() {
+            return counts.size();
+        }
+
+        private boolean allReceived(int[] eventCounts) {
+            for (int i = 0; i < connections; i++) {
+                if (eventCounts[i] != eventCounts[connections]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
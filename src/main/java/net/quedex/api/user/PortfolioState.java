@@ -0,0 +1,133 @@
+package net.quedex.api.user;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps the latest {@link AccountState} and {@link OpenPosition} of each instrument received by a
+ * {@link WebsocketUserStream}, so that they need not be collected by the user from the listeners' events.
+ * <p>
+ * Events are applied by the single thread of the stream, which after each event publishes a new immutable
+ * {@link Snapshot} by a single volatile write. Getters may be called by any thread, never block and run in constant
+ * time. The {@link #getVersion version} is incremented with each event, so that readers may cheaply detect a change.
+ */
+public final class PortfolioState {
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    PortfolioState() {
+    }
+
+    /**
+     * @return the current, consistent state of the account and its positions, never null
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return number of events applied so far
+     */
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    /**
+     * @return the latest account state, null if none received yet
+     */
+    public AccountState getAccountState() {
+        return snapshot.accountState;
+    }
+
+    /**
+     * @return the latest position on the given instrument (with zero quantity if closed), null if none received
+     */
+    public OpenPosition getPosition(int instrumentId) {
+        return snapshot.positions.get(instrumentId);
+    }
+
+    /**
+     * @return the latest positions by instrument id
+     */
+    public Map<Integer, OpenPosition> getPositions() {
+        return snapshot.positions;
+    }
+
+    void onAccountState(AccountState accountState) {
+        checkNotNull(accountState, "null accountState");
+        Snapshot current = snapshot;
+        snapshot = new Snapshot(accountState, current.positions, current.version + 1);
+    }
+
+    void onOpenPosition(OpenPosition openPosition) {
+        checkNotNull(openPosition, "null openPosition");
+        Snapshot current = snapshot;
+        ImmutableMap.Builder<Integer, OpenPosition> positions = ImmutableMap.builder();
+        for (Map.Entry<Integer, OpenPosition> entry : current.positions.entrySet()) {
+            if (entry.getKey() != openPosition.getInstrumentId()) {
+                positions.put(entry);
+            }
+        }
+        positions.put(openPosition.getInstrumentId(), openPosition);
+        snapshot = new Snapshot(current.accountState, positions.build(), current.version + 1);
+    }
+
+    /**
+     * An immutable state of the account and its positions at some point in time.
+     */
+    public static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(null, ImmutableMap.of(), 0);
+
+        private final AccountState accountState;
+        private final ImmutableMap<Integer, OpenPosition> positions;
+        private final long version;
+
+        private Snapshot(AccountState accountState, ImmutableMap<Integer, OpenPosition> positions, long version) {
+            this.accountState = accountState;
+            this.positions = positions;
+            this.version = version;
+        }
+
+        /**
+         * @return number of events applied before taking the snapshot
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return the account state, null if none received yet
+         */
+        public AccountState getAccountState() {
+            return accountState;
+        }
+
+        /**
+         * @return the position on the given instrument (with zero quantity if closed), null if none received
+         */
+        public OpenPosition getPosition(int instrumentId) {
+            return positions.get(instrumentId);
+        }
+
+        /**
+         * @return positions by instrument id
+         */
+        public Map<Integer, OpenPosition> getPositions() {
+            return positions;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("version", version)
+                    .add("accountState", accountState)
+                    .add("positions", positions.values())
+                    .toString();
+        }
+    }
+}
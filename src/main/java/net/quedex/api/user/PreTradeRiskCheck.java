@@ -0,0 +1,23 @@
+package net.quedex.api.user;
+
+/**
+ * A check of order commands performed synchronously, by the calling thread, before they are queued for sending by
+ * {@link WebsocketUserStream}, so that commands certain to be rejected by the exchange do not pay for encryption and a
+ * round-trip. Implementations have to be thread-safe and should be cheap - they are on the path of every command.
+ *
+ * @see PreTradeRiskChecker
+ */
+public interface PreTradeRiskCheck {
+
+    /**
+     * @return null if the given command may be sent, the reason of rejection otherwise
+     */
+    RiskRejectReason check(OrderSpec orderSpec);
+
+    /**
+     * Called when a command accepted by {@link #check} could not be sent (e.g. another command of the same batch was
+     * rejected or the outbound queue was full), so that the state reserved for it may be released.
+     */
+    default void onNotSent(OrderSpec orderSpec) {
+    }
+}
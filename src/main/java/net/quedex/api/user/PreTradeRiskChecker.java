@@ -0,0 +1,275 @@
+package net.quedex.api.user;
+
+import net.quedex.api.market.Instrument;
+import net.quedex.api.market.PriceQuantity;
+import net.quedex.api.market.Quotes;
+import net.quedex.api.market.QuotesListener;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Collection;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link PreTradeRiskCheck} of order placements and modifications against limits of:
+ * <ul>
+ *     <li> order quantity </li>
+ *     <li> order notional, that is quantity times {@link Instrument#getNotionalAmount} </li>
+ *     <li> distance of the limit price from the reference price - the middle of the top of the book or, if either
+ *          side is empty, the last trade price - as a fraction of the reference price </li>
+ *     <li> position per instrument, that is the absolute value of the position after filling the placed order
+ *          (orders reducing the position are always allowed; working orders are not taken into account) </li>
+ *     <li> number of open orders, including the ones sent but not yet placed </li>
+ * </ul>
+ * Use {@link Integer#MAX_VALUE} (or {@link Long#MAX_VALUE}) to disable a limit, null to disable the price band.
+ * Modifications are checked against the quantity, notional and price band limits only, cancellations are not checked.
+ * <p>
+ * The checker has to be registered via {@link WebsocketUserStream#registerPreTradeRiskCheck}, which feeds it with
+ * order and position events, and as a {@link QuotesListener} of a {@link net.quedex.api.market.MarketStream}. The
+ * state needed by checks is precomputed when events arrive, so that {@link #check} runs in constant time, without
+ * allocation, on primitives and already computed price bounds.
+ */
+public class PreTradeRiskChecker implements PreTradeRiskCheck, OrderListener, OpenPositionListener, QuotesListener {
+
+    private static final InstrumentRisk UNKNOWN_INSTRUMENT = new InstrumentRisk(0);
+
+    private final int maxOrderQuantity;
+    private final long maxOrderNotional;
+    private final BigDecimal priceBandFraction;
+    private final int maxPosition;
+    private final int maxOpenOrders;
+
+    private final LongHashMap<InstrumentRisk> instruments; // not modified after construction
+    private final LongHashMap<InstrumentRisk> openOrders = new LongHashMap<>(); // by client order id, guarded
+
+    /**
+     * @param instruments the instruments which may be traded, orders for other instruments are rejected
+     * @param priceBandFraction maximum distance of the limit price from the reference price as a fraction of the
+     *                          reference price, null for no limit
+     */
+    public PreTradeRiskChecker(
+            Collection<Instrument> instruments,
+            int maxOrderQuantity,
+            long maxOrderNotional,
+            BigDecimal priceBandFraction,
+            int maxPosition,
+            int maxOpenOrders
+    ) {
+        checkArgument(maxOrderQuantity > 0, "maxOrderQuantity=%s <= 0", maxOrderQuantity);
+        checkArgument(maxOrderNotional > 0, "maxOrderNotional=%s <= 0", maxOrderNotional);
+        checkArgument(
+                priceBandFraction == null || priceBandFraction.signum() > 0,
+                "priceBandFraction=%s <= 0",
+                priceBandFraction
+        );
+        checkArgument(maxPosition > 0, "maxPosition=%s <= 0", maxPosition);
+        checkArgument(maxOpenOrders > 0, "maxOpenOrders=%s <= 0", maxOpenOrders);
+        this.maxOrderQuantity = maxOrderQuantity;
+        this.maxOrderNotional = maxOrderNotional;
+        this.priceBandFraction = priceBandFraction;
+        this.maxPosition = maxPosition;
+        this.maxOpenOrders = maxOpenOrders;
+        this.instruments = new LongHashMap<>(instruments.size());
+        for (Instrument instrument : instruments) {
+            this.instruments.put(instrument.getInstrumentId(), new InstrumentRisk(instrument.getNotionalAmount()));
+        }
+    }
+
+    @Override
+    public RiskRejectReason check(OrderSpec orderSpec) {
+        if (orderSpec instanceof LimitOrderSpec) {
+            return checkPlacement((LimitOrderSpec) orderSpec);
+        } else if (orderSpec instanceof OrderModificationSpec) {
+            return checkModification((OrderModificationSpec) orderSpec);
+        }
+        return null;
+    }
+
+    @Override
+    public void onNotSent(OrderSpec orderSpec) {
+        if (orderSpec instanceof LimitOrderSpec) {
+            removeOpenOrder(orderSpec.getClientOrderId());
+        }
+    }
+
+    /**
+     * @return number of open orders, including the ones sent but not yet placed
+     */
+    public int getOpenOrderCount() {
+        synchronized (openOrders) {
+            return openOrders.size();
+        }
+    }
+
+    @Override
+    public void onQuotes(Quotes quotes) {
+        InstrumentRisk instrument = instruments.get(quotes.getInstrumentId());
+        if (instrument == null || priceBandFraction == null) {
+            return;
+        }
+        PriceQuantity bid = quotes.getBid();
+        PriceQuantity ask = quotes.getAsk();
+        BigDecimal reference = bid != null && ask != null
+                ? bid.getPrice().add(ask.getPrice()).divide(BigDecimal.valueOf(2), MathContext.DECIMAL64)
+                : quotes.getLast();
+        BigDecimal band = reference.multiply(priceBandFraction);
+        instrument.priceBand = new PriceBand(reference.subtract(band), reference.add(band));
+    }
+
+    @Override
+    public void onOpenPosition(OpenPosition openPosition) {
+        InstrumentRisk instrument = instruments.get(openPosition.getInstrumentId());
+        if (instrument != null) {
+            instrument.position = openPosition.getQuantitySigned();
+        }
+    }
+
+    @Override
+    public void onOrderPlaced(OrderPlaced orderPlaced) {
+        synchronized (openOrders) {
+            if (!openOrders.containsKey(orderPlaced.getClientOrderId())) { // placed before, e.g. in welcome package
+                InstrumentRisk instrument = instruments.get(orderPlaced.getInstrumentId());
+                openOrders.put(orderPlaced.getClientOrderId(), instrument == null ? UNKNOWN_INSTRUMENT : instrument);
+            }
+        }
+    }
+
+    @Override
+    public void onOrderPlaceFailed(OrderPlaceFailed orderPlaceFailed) {
+        removeOpenOrder(orderPlaceFailed.getClientOrderId());
+    }
+
+    @Override
+    public void onOrderCancelled(OrderCancelled orderCancelled) {
+        removeOpenOrder(orderCancelled.getClientOrderId());
+    }
+
+    @Override
+    public void onOrderForcefullyCancelled(OrderForcefullyCancelled orderForcefullyCancelled) {
+        removeOpenOrder(orderForcefullyCancelled.getClientOrderId());
+    }
+
+    @Override
+    public void onOrderCancelFailed(OrderCancelFailed orderCancelFailed) {
+        // no-op
+    }
+
+    @Override
+    public void onOrderModified(OrderModified orderModified) {
+        // no-op
+    }
+
+    @Override
+    public void onOrderModificationFailed(OrderModificationFailed orderModificationFailed) {
+        // no-op
+    }
+
+    @Override
+    public void onOrderFilled(OrderFilled orderFilled) {
+        if (orderFilled.getLeavesOrderQuantity() == 0) {
+            removeOpenOrder(orderFilled.getClientOrderId());
+        }
+    }
+
+    @Override
+    public void onLiquidationOrderPlaced(LiquidationOrderPlaced liquidationOrderPlaced) {
+        // no-op
+    }
+
+    @Override
+    public void onLiquidationOrderCancelled(LiquidationOrderCancelled liquidationOrderCancelled) {
+        // no-op
+    }
+
+    @Override
+    public void onLiquidationOrderFilled(LiquidationOrderFilled liquidationOrderFilled) {
+        // no-op
+    }
+
+    private RiskRejectReason checkPlacement(LimitOrderSpec limitOrderSpec) {
+        InstrumentRisk instrument = instruments.get(limitOrderSpec.getInstrumentId());
+        if (instrument == null) {
+            return RiskRejectReason.UNKNOWN_INSTRUMENT;
+        }
+        int quantity = limitOrderSpec.getQuantity();
+        RiskRejectReason rejectReason = checkOrder(instrument, quantity, limitOrderSpec.getLimitPrice());
+        if (rejectReason != null) {
+            return rejectReason;
+        }
+        long position = instrument.position;
+        long newPosition = limitOrderSpec.getSide() == OrderSide.BUY ? position + quantity : position - quantity;
+        if (Math.abs(newPosition) > maxPosition && Math.abs(newPosition) > Math.abs(position)) {
+            return RiskRejectReason.POSITION;
+        }
+        synchronized (openOrders) {
+            if (openOrders.size() >= maxOpenOrders) {
+                return RiskRejectReason.OPEN_ORDERS;
+            }
+            openOrders.put(limitOrderSpec.getClientOrderId(), instrument);
+        }
+        return null;
+    }
+
+    private RiskRejectReason checkModification(OrderModificationSpec orderModificationSpec) {
+        InstrumentRisk instrument;
+        synchronized (openOrders) {
+            instrument = openOrders.get(orderModificationSpec.getClientOrderId());
+        }
+        Integer newQuantity = orderModificationSpec.getNewQuantity();
+        if (instrument == null || instrument == UNKNOWN_INSTRUMENT) { // not sent via this stream, check what we can
+            return newQuantity != null && newQuantity > maxOrderQuantity ? RiskRejectReason.ORDER_QUANTITY : null;
+        }
+        return checkOrder(instrument, newQuantity == null ? 0 : newQuantity, orderModificationSpec.getNewLimitPrice());
+    }
+
+    /**
+     * @param limitPrice null if not to be checked
+     */
+    private RiskRejectReason checkOrder(InstrumentRisk instrument, int quantity, BigDecimal limitPrice) {
+        if (quantity > maxOrderQuantity) {
+            return RiskRejectReason.ORDER_QUANTITY;
+        }
+        if ((long) quantity * instrument.notionalAmount > maxOrderNotional) {
+            return RiskRejectReason.ORDER_NOTIONAL;
+        }
+        if (priceBandFraction != null && limitPrice != null) {
+            PriceBand priceBand = instrument.priceBand;
+            if (priceBand == null) {
+                return RiskRejectReason.NO_REFERENCE_PRICE;
+            }
+            if (limitPrice.compareTo(priceBand.low) < 0 || limitPrice.compareTo(priceBand.high) > 0) {
+                return RiskRejectReason.PRICE_BAND;
+            }
+        }
+        return null;
+    }
+
+    private void removeOpenOrder(long clientOrderId) {
+        synchronized (openOrders) {
+            openOrders.remove(clientOrderId);
+        }
+    }
+
+    private static final class InstrumentRisk {
+
+        final int notionalAmount;
+        volatile PriceBand priceBand; // null until the first quotes
+        volatile int position; // signed
+
+        InstrumentRisk(int notionalAmount) {
+            this.notionalAmount = notionalAmount;
+        }
+    }
+
+    private static final class PriceBand {
+
+        final BigDecimal low;
+        final BigDecimal high;
+
+        PriceBand(BigDecimal low, BigDecimal high) {
+            this.low = low;
+            this.high = high;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package net.quedex.api.user;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Thrown by (or completing futures returned by) order commands of {@link WebsocketUserStream} rejected by its
+ * {@link PreTradeRiskCheck}. The rejected command is not sent.
+ */
+public class PreTradeRiskException extends RuntimeException {
+
+    private final RiskRejectReason reason;
+    private final OrderSpec orderSpec;
+
+    public PreTradeRiskException(RiskRejectReason reason, OrderSpec orderSpec) {
+        super(reason + ": " + orderSpec);
+        this.reason = checkNotNull(reason, "null reason");
+        this.orderSpec = checkNotNull(orderSpec, "null orderSpec");
+    }
+
+    public RiskRejectReason getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the rejected command
+     */
+    public OrderSpec getOrderSpec() {
+        return orderSpec;
+    }
+}
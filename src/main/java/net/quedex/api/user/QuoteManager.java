@@ -0,0 +1,394 @@
+package net.quedex.api.user;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Maintains two-sided quotes - a ladder of orders on each side of an instrument - on top of a {@link UserStream}.
+ * The caller declares the target ladder via {@link #updateQuotes} and the manager sends, in a single
+ * {@link UserStream#batch batch}, the minimal commands turning the orders it manages into the target:
+ * <ul>
+ *     <li> orders already at a target price are kept, or have their quantity modified </li>
+ *     <li> remaining orders are moved to remaining target prices with a single {@link OrderModificationSpec} </li>
+ *     <li> orders left over are cancelled and prices left over get new orders placed </li>
+ * </ul>
+ * Cancellations are sent first, then modifications, then placements, so that margin is released before it is needed.
+ * <p>
+ * The diff is made against the expected state of the orders, that is after all the commands already sent are
+ * processed - the exchange processes commands of a stream in order, so orders whose placement or modification has
+ * not been confirmed yet may be modified or cancelled, while orders being cancelled are no longer taken into account.
+ * The manager has to receive the order events of the stream, so register it as the {@link OrderListener} of the stream
+ * or forward to it the events received by the registered one. Orders whose modification fails are cancelled by the
+ * next update, as their state is no longer known; orders not placed by the manager are never touched.
+ * <p>
+ * The manager is thread-safe - updates and events are serialized by the manager's lock, which is held while the batch
+ * is passed to the stream, so that batches of consecutive updates are sent in order. The expected state is updated only
+ * once the batch is accepted by the stream - if sending it fails, the managed orders are left as they were.
+ */
+public class QuoteManager implements OrderListener {
+
+    private final UserStream userStream;
+    private final LongSupplier clientOrderIdSupplier;
+
+    // guarded by this
+    private final LongHashMap<QuoteOrder> orders = new LongHashMap<>();
+    private final Map<Integer, InstrumentQuotes> instruments = new HashMap<>();
+
+    /**
+     * @param clientOrderIdSupplier supplies client order ids for placed orders, unique among all the orders of the
+     *                              account
+     */
+    public QuoteManager(UserStream userStream, LongSupplier clientOrderIdSupplier) {
+        this.userStream = checkNotNull(userStream, "null userStream");
+        this.clientOrderIdSupplier = checkNotNull(clientOrderIdSupplier, "null clientOrderIdSupplier");
+    }
+
+    /**
+     * Sends the commands turning the quotes of the given instrument into the given ladders.
+     *
+     * @param bids target buy levels, at distinct prices
+     * @param asks target sell levels, at distinct prices
+     * @return the commands sent, empty if the quotes are already as requested
+     * @throws IllegalArgumentException if a side has more than one level at the same price
+     * @throws RuntimeException thrown by {@link UserStream#batch(List)}, in which case the managed orders are unchanged
+     */
+    public synchronized List<OrderSpec> updateQuotes(int instrumentId, List<Level> bids, List<Level> asks) {
+        checkDistinctPrices(bids);
+        checkDistinctPrices(asks);
+        InstrumentQuotes instrument = instruments.get(instrumentId);
+        if (instrument == null) {
+            if (bids.isEmpty() && asks.isEmpty()) {
+                return ImmutableList.of();
+            }
+            instrument = new InstrumentQuotes();
+        }
+        Diff diff = new Diff();
+        diff(instrumentId, OrderSide.BUY, instrument.bids, bids, diff);
+        diff(instrumentId, OrderSide.SELL, instrument.asks, asks, diff);
+        List<OrderSpec> batch = diff.toBatch();
+        if (!batch.isEmpty()) {
+            userStream.batch(batch);
+        }
+        diff.apply();
+        if (instrument.isEmpty()) {
+            instruments.remove(instrumentId);
+        } else {
+            instruments.put(instrumentId, instrument);
+        }
+        return batch;
+    }
+
+    /**
+     * Cancels all the quotes of the given instrument, equivalent to {@link #updateQuotes} with empty ladders.
+     *
+     * @return the cancellations sent
+     */
+    public List<OrderSpec> cancelQuotes(int instrumentId) {
+        return updateQuotes(instrumentId, ImmutableList.of(), ImmutableList.of());
+    }
+
+    /**
+     * @return number of orders managed, including the ones being placed and excluding the ones being cancelled
+     */
+    public synchronized int getQuoteOrderCount() {
+        int count = 0;
+        for (InstrumentQuotes instrument : instruments.values()) {
+            count += instrument.bids.size() + instrument.asks.size();
+        }
+        return count;
+    }
+
+    @Override
+    public void onOrderPlaced(OrderPlaced orderPlaced) {
+        // already expected
+    }
+
+    @Override
+    public synchronized void onOrderPlaceFailed(OrderPlaceFailed orderPlaceFailed) {
+        remove(orderPlaceFailed.getClientOrderId());
+    }
+
+    @Override
+    public synchronized void onOrderCancelled(OrderCancelled orderCancelled) {
+        remove(orderCancelled.getClientOrderId());
+    }
+
+    @Override
+    public synchronized void onOrderForcefullyCancelled(OrderForcefullyCancelled orderForcefullyCancelled) {
+        remove(orderForcefullyCancelled.getClientOrderId());
+    }
+
+    @Override
+    public synchronized void onOrderCancelFailed(OrderCancelFailed orderCancelFailed) {
+        if (orderCancelFailed.getCause() == OrderCancelFailed.Cause.NOT_FOUND) {
+            remove(orderCancelFailed.getClientOrderId());
+            return;
+        }
+        QuoteOrder order = orders.get(orderCancelFailed.getClientOrderId());
+        if (order != null && order.cancelling) { // still working, cancelled again by the next update
+            order.cancelling = false;
+            order.stale = true;
+            quotes(order).add(order);
+        }
+    }
+
+    @Override
+    public synchronized void onOrderModified(OrderModified orderModified) {
+        QuoteOrder order = orders.get(orderModified.getClientOrderId());
+        if (order != null) {
+            order.pendingModifications--;
+        }
+    }
+
+    @Override
+    public synchronized void onOrderModificationFailed(OrderModificationFailed orderModificationFailed) {
+        QuoteOrder order = orders.get(orderModificationFailed.getClientOrderId());
+        if (order != null) {
+            order.pendingModifications--;
+            order.stale = true;
+        }
+    }
+
+    @Override
+    public synchronized void onOrderFilled(OrderFilled orderFilled) {
+        QuoteOrder order = orders.get(orderFilled.getClientOrderId());
+        if (order == null) {
+            return;
+        }
+        if (orderFilled.getLeavesOrderQuantity() == 0) {
+            remove(order.clientOrderId);
+        } else if (order.pendingModifications == 0) { // otherwise the modification sets the remaining quantity
+            order.quantity = orderFilled.getLeavesOrderQuantity();
+        }
+    }
+
+    @Override
+    public void onLiquidationOrderPlaced(LiquidationOrderPlaced liquidationOrderPlaced) {
+        // not managed
+    }
+
+    @Override
+    public void onLiquidationOrderCancelled(LiquidationOrderCancelled liquidationOrderCancelled) {
+        // not managed
+    }
+
+    @Override
+    public void onLiquidationOrderFilled(LiquidationOrderFilled liquidationOrderFilled) {
+        // not managed
+    }
+
+    private void diff(int instrumentId, OrderSide side, List<QuoteOrder> current, List<Level> target, Diff diff) {
+        List<QuoteOrder> unmatchedOrders = new ArrayList<>(current.size());
+        boolean[] matched = new boolean[target.size()];
+        for (QuoteOrder order : current) {
+            int index = order.stale ? -1 : indexOfPrice(target, order.limitPrice);
+            if (index < 0 || matched[index]) {
+                unmatchedOrders.add(order);
+                continue;
+            }
+            matched[index] = true;
+            int quantity = target.get(index).quantity;
+            if (order.quantity != quantity) {
+                diff.updates.add(() -> {
+                    order.quantity = quantity;
+                    order.pendingModifications++;
+                });
+                diff.modifications.add(new OrderModificationSpec(order.clientOrderId, quantity));
+            }
+        }
+        int unmatchedOrder = 0;
+        for (int i = 0; i < target.size(); i++) {
+            if (matched[i]) {
+                continue;
+            }
+            Level level = target.get(i);
+            while (unmatchedOrder < unmatchedOrders.size() && unmatchedOrders.get(unmatchedOrder).stale) {
+                unmatchedOrder++;
+            }
+            if (unmatchedOrder < unmatchedOrders.size()) {
+                QuoteOrder order = unmatchedOrders.get(unmatchedOrder);
+                unmatchedOrders.remove(unmatchedOrder);
+                diff.updates.add(() -> {
+                    order.limitPrice = level.price;
+                    order.quantity = level.quantity;
+                    order.pendingModifications++;
+                });
+                diff.modifications.add(new OrderModificationSpec(order.clientOrderId, level.quantity, level.price));
+            } else {
+                QuoteOrder order = new QuoteOrder(
+                        clientOrderIdSupplier.getAsLong(), instrumentId, side, level.price, level.quantity
+                );
+                diff.updates.add(() -> {
+                    orders.put(order.clientOrderId, order);
+                    current.add(order);
+                });
+                diff.placements.add(new LimitOrderSpec(
+                        order.clientOrderId, instrumentId, side, level.quantity, level.price
+                ));
+            }
+        }
+        for (QuoteOrder order : unmatchedOrders) {
+            diff.updates.add(() -> {
+                order.cancelling = true;
+                current.remove(order);
+            });
+            diff.cancellations.add(new OrderCancelSpec(order.clientOrderId));
+        }
+    }
+
+    private void remove(long clientOrderId) {
+        QuoteOrder order = orders.remove(clientOrderId);
+        if (order == null || order.cancelling) {
+            return;
+        }
+        InstrumentQuotes instrument = instruments.get(order.instrumentId);
+        (order.side == OrderSide.BUY ? instrument.bids : instrument.asks).remove(order);
+        if (instrument.isEmpty()) {
+            instruments.remove(order.instrumentId);
+        }
+    }
+
+    private List<QuoteOrder> quotes(QuoteOrder order) {
+        InstrumentQuotes instrument = instruments.get(order.instrumentId);
+        if (instrument == null) {
+            instrument = new InstrumentQuotes();
+            instruments.put(order.instrumentId, instrument);
+        }
+        return order.side == OrderSide.BUY ? instrument.bids : instrument.asks;
+    }
+
+    private static int indexOfPrice(List<Level> levels, BigDecimal price) {
+        for (int i = 0; i < levels.size(); i++) {
+            if (levels.get(i).price.compareTo(price) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void checkDistinctPrices(List<Level> levels) {
+        for (int i = 1; i < levels.size(); i++) {
+            checkArgument(
+                    indexOfPrice(levels.subList(0, i), levels.get(i).price) < 0,
+                    "More than one level with price=%s",
+                    levels.get(i).price
+            );
+        }
+    }
+
+    /**
+     * A target price level of a quote - the limit price and quantity of a single order.
+     */
+    public static final class Level {
+
+        private final BigDecimal price;
+        private final int quantity;
+
+        /**
+         * @throws IllegalArgumentException if {@code price} or {@code quantity} is not positive
+         */
+        public Level(BigDecimal price, int quantity) {
+            checkArgument(price.compareTo(BigDecimal.ZERO) > 0, "price=%s <= 0", price);
+            checkArgument(quantity > 0, "quantity=%s <= 0", quantity);
+            this.price = price;
+            this.quantity = quantity;
+        }
+
+        public BigDecimal getPrice() {
+            return price;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Level that = (Level) o;
+            return quantity == that.quantity &&
+                    Objects.equal(price, that.price);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(price, quantity);
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("price", price)
+                    .add("quantity", quantity)
+                    .toString();
+        }
+    }
+
+    /**
+     * Expected state of a managed order, after all the commands sent are processed.
+     */
+    private static final class QuoteOrder {
+
+        final long clientOrderId;
+        final int instrumentId;
+        final OrderSide side;
+        BigDecimal limitPrice;
+        int quantity;
+        int pendingModifications;
+        boolean cancelling;
+        boolean stale; // actual state unknown
+
+        QuoteOrder(long clientOrderId, int instrumentId, OrderSide side, BigDecimal limitPrice, int quantity) {
+            this.clientOrderId = clientOrderId;
+            this.instrumentId = instrumentId;
+            this.side = side;
+            this.limitPrice = limitPrice;
+            this.quantity = quantity;
+        }
+    }
+
+    /**
+     * Managed orders of a single instrument, excluding the ones being cancelled.
+     */
+    private static final class InstrumentQuotes {
+
+        final List<QuoteOrder> bids = new ArrayList<>();
+        final List<QuoteOrder> asks = new ArrayList<>();
+
+        boolean isEmpty() {
+            return bids.isEmpty() && asks.isEmpty();
+        }
+    }
+
+    private static final class Diff {
+
+        final List<OrderSpec> cancellations = new ArrayList<>();
+        final List<OrderSpec> modifications = new ArrayList<>();
+        final List<OrderSpec> placements = new ArrayList<>();
+        final List<Runnable> updates = new ArrayList<>(); // of the expected state, applied once the batch is sent
+
+        List<OrderSpec> toBatch() {
+            return ImmutableList.<OrderSpec>builder()
+                    .addAll(cancellations)
+                    .addAll(modifications)
+                    .addAll(placements)
+                    .build();
+        }
+
+        void apply() {
+            updates.forEach(Runnable::run);
+        }
+    }
+}
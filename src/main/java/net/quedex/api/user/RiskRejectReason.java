@@ -0,0 +1,39 @@
+package net.quedex.api.user;
+
+/**
+ * Reason of rejecting an order command by a {@link PreTradeRiskCheck}.
+ */
+public enum RiskRejectReason {
+    /**
+     * The order is for an instrument unknown to the check.
+     */
+    UNKNOWN_INSTRUMENT,
+    /**
+     * Quantity of the order exceeds the maximum order quantity.
+     */
+    ORDER_QUANTITY,
+    /**
+     * Notional value of the order exceeds the maximum order notional.
+     */
+    ORDER_NOTIONAL,
+    /**
+     * No reference price to check the limit price of the order against has been received.
+     */
+    NO_REFERENCE_PRICE,
+    /**
+     * Limit price of the order is outside the allowed band around the reference price.
+     */
+    PRICE_BAND,
+    /**
+     * Filling the order would make the position exceed the maximum position.
+     */
+    POSITION,
+    /**
+     * The maximum number of open orders has been reached.
+     */
+    OPEN_ORDERS,
+    /**
+     * Rejected by a custom check.
+     */
+    OTHER
+}
@@ -0,0 +1,58 @@
+package net.quedex.api.user;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A token bucket limiting the rate of order commands sent by {@link UserMessageSender}: tokens are added at a constant
+ * rate, up to the burst size, and each order takes one. The bucket may go into debt, which lets commands exempt from
+ * waiting still count against the rate. Not thread-safe.
+ */
+final class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double burst;
+
+    private double tokens;
+    private long refillNanoTime;
+
+    /**
+     * @param ratePerSecond number of tokens added per second
+     * @param burst maximum number of tokens, the bucket starts full
+     */
+    TokenBucket(double ratePerSecond, int burst, long nanoTime) {
+        checkArgument(ratePerSecond > 0, "ratePerSecond=%s <= 0", ratePerSecond);
+        checkArgument(burst > 0, "burst=%s <= 0", burst);
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.tokens = burst;
+        this.refillNanoTime = nanoTime;
+    }
+
+    /**
+     * @param permits number of tokens needed, more than the burst size is treated as the burst size
+     * @return time (in nanoseconds) until the given number of tokens is available, 0 if available now
+     */
+    long nanosUntilAvailable(int permits, long nanoTime) {
+        refill(nanoTime);
+        double missing = Math.min(permits, burst) - tokens;
+        return missing <= 0 ? 0 : (long) Math.ceil(missing / tokensPerNano);
+    }
+
+    /**
+     * Takes the given number of tokens, regardless of the number available.
+     */
+    void consume(int permits, long nanoTime) {
+        refill(nanoTime);
+        tokens -= permits;
+    }
+
+    private void refill(long nanoTime) {
+        long elapsed = nanoTime - refillNanoTime;
+        if (elapsed > 0) {
+            tokens = Math.min(burst, tokens + elapsed * tokensPerNano);
+            refillNanoTime = nanoTime;
+        }
+    }
+}
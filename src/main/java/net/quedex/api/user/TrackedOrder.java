@@ -0,0 +1,123 @@
+package net.quedex.api.user;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+import java.math.BigDecimal;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable state of a working order kept by {@link OrderTracker}.
+ */
+public final class TrackedOrder {
+
+    private final long orderId;
+    private final boolean liquidation;
+    private final int instrumentId;
+    private final OrderSide side;
+    private final BigDecimal limitPrice;
+    private final int quantity;
+    private final int initialQuantity;
+
+    TrackedOrder(
+            long orderId,
+            boolean liquidation,
+            int instrumentId,
+            OrderSide side,
+            BigDecimal limitPrice,
+            int quantity,
+            int initialQuantity
+    ) {
+        checkArgument(quantity > 0, "quantity=%s <= 0", quantity);
+        checkArgument(liquidation || limitPrice != null, "null limitPrice");
+        this.orderId = orderId;
+        this.liquidation = liquidation;
+        this.instrumentId = instrumentId;
+        this.side = checkNotNull(side, "null side");
+        this.limitPrice = limitPrice;
+        this.quantity = quantity;
+        this.initialQuantity = initialQuantity;
+    }
+
+    /**
+     * @return client order id, or system order id for a liquidation order
+     */
+    public long getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * @return true if this is a liquidation order placed by the exchange
+     */
+    public boolean isLiquidation() {
+        return liquidation;
+    }
+
+    public int getInstrumentId() {
+        return instrumentId;
+    }
+
+    public OrderSide getSide() {
+        return side;
+    }
+
+    /**
+     * @return limit price of the order, null for a liquidation order
+     */
+    public BigDecimal getLimitPrice() {
+        return limitPrice;
+    }
+
+    /**
+     * @return remaining (not filled) quantity of the order
+     */
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public int getInitialQuantity() {
+        return initialQuantity;
+    }
+
+    TrackedOrder withQuantity(int quantity) {
+        return new TrackedOrder(orderId, liquidation, instrumentId, side, limitPrice, quantity, initialQuantity);
+    }
+
+    TrackedOrder withLimitPrice(BigDecimal limitPrice) {
+        return new TrackedOrder(orderId, liquidation, instrumentId, side, limitPrice, quantity, initialQuantity);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TrackedOrder that = (TrackedOrder) o;
+        return orderId == that.orderId &&
+                liquidation == that.liquidation &&
+                instrumentId == that.instrumentId &&
+                quantity == that.quantity &&
+                initialQuantity == that.initialQuantity &&
+                side == that.side &&
+                Objects.equal(limitPrice, that.limitPrice);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(orderId, liquidation, instrumentId, side, limitPrice, quantity, initialQuantity);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("orderId", orderId)
+                .add("liquidation", liquidation)
+                .add("instrumentId", instrumentId)
+                .add("side", side)
+                .add("limitPrice", limitPrice)
+                .add("quantity", quantity)
+                .add("initialQuantity", initialQuantity)
+                .toString();
+    }
+}
@@ -15,6 +15,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 class UserMessageReceiver extends MessageReceiver {
 
@@ -22,8 +23,13 @@ class UserMessageReceiver extends MessageReceiver {
 
     private final BcDecryptor decryptor;
     private final CompletableFuture<Long> lastNonceFuture = new CompletableFuture<>();
+    private final PendingCommands pendingCommands = new PendingCommands();
+    private final PortfolioState portfolioState = new PortfolioState();
 
     private volatile OrderListener orderListener;
+    private volatile OrderTracker orderTracker;
+    private volatile OrderListener riskOrderListener;
+    private volatile OpenPositionListener riskPositionListener;
     private volatile OpenPositionListener openPositionListener;
     private volatile AccountStateListener accountStateListener;
     private volatile InternalTransferListener internalTransferListener;
@@ -37,6 +43,18 @@ class UserMessageReceiver extends MessageReceiver {
         this.orderListener = orderListener;
     }
 
+    void registerOrderTracker(OrderTracker orderTracker) {
+        this.orderTracker = orderTracker;
+    }
+
+    /**
+     * Registers listeners of a {@link PreTradeRiskCheck}, notified before all the other listeners.
+     */
+    void registerRiskListeners(OrderListener riskOrderListener, OpenPositionListener riskPositionListener) {
+        this.riskOrderListener = riskOrderListener;
+        this.riskPositionListener = riskPositionListener;
+    }
+
     void registerOpenPositionListener(OpenPositionListener openPositionListener) {
         this.openPositionListener = openPositionListener;
     }
@@ -49,6 +67,21 @@ class UserMessageReceiver extends MessageReceiver {
         internalTransferListener = listener;
     }
 
+    /**
+     * @return order commands awaiting a response, completed before the listeners are notified - so that a throwing
+     *         listener does not leave them pending
+     */
+    PendingCommands getPendingCommands() {
+        return pendingCommands;
+    }
+
+    /**
+     * @return the latest account state and positions, updated before the listeners are notified
+     */
+    PortfolioState getPortfolioState() {
+        return portfolioState;
+    }
+
     long getLastNonce() throws TimeoutException, InterruptedException {
         try {
             return lastNonceFuture.get(5, TimeUnit.SECONDS);
@@ -133,6 +166,7 @@ class UserMessageReceiver extends MessageReceiver {
     }
 
     private void onAccountState(AccountState accountState) {
+        portfolioState.onAccountState(accountState);
         AccountStateListener accountStateListener = this.accountStateListener;
         if (accountStateListener != null) {
             accountStateListener.onAccountState(accountState);
@@ -140,6 +174,11 @@ class UserMessageReceiver extends MessageReceiver {
     }
 
     private void onOpenPosition(OpenPosition openPosition) {
+        portfolioState.onOpenPosition(openPosition);
+        OpenPositionListener riskPositionListener = this.riskPositionListener;
+        if (riskPositionListener != null) {
+            riskPositionListener.onOpenPosition(openPosition);
+        }
         OpenPositionListener openPositionListener = this.openPositionListener;
         if (openPositionListener != null) {
             openPositionListener.onOpenPosition(openPosition);
@@ -147,79 +186,77 @@ class UserMessageReceiver extends MessageReceiver {
     }
 
     private void onOrderCancelled(OrderCancelled orderCancelled) {
-        OrderListener orderListener = this.orderListener;
-        if (orderListener != null) {
-            orderListener.onOrderCancelled(orderCancelled);
-        }
+        pendingCommands.complete(PendingCommands.Kind.CANCEL, orderCancelled.getClientOrderId(), orderCancelled);
+        deliverOrderEvent(orderCancelled, OrderListener::onOrderCancelled);
     }
 
     private void onOrderForcefullyCancelled(OrderForcefullyCancelled orderForcefullyCancelled) {
-        OrderListener orderListener = this.orderListener;
-        if (orderListener != null) {
-            orderListener.onOrderForcefullyCancelled(orderForcefullyCancelled);
-        }
+        OrderCommandRejectedException rejection = new OrderCommandRejectedException(orderForcefullyCancelled);
+        pendingCommands.abandon(PendingCommands.Kind.CANCEL, orderForcefullyCancelled.getClientOrderId(), rejection);
+        pendingCommands.abandon(PendingCommands.Kind.MODIFY, orderForcefullyCancelled.getClientOrderId(), rejection);
+        deliverOrderEvent(orderForcefullyCancelled, OrderListener::onOrderForcefullyCancelled);
     }
 
     private void onOrderCancelFailed(OrderCancelFailed orderCancelFailed) {
-        OrderListener orderListener = this.orderListener;
-        if (orderListener != null) {
-            orderListener.onOrderCancelFailed(orderCancelFailed);
-        }
+        pendingCommands.reject(PendingCommands.Kind.CANCEL, orderCancelFailed.getClientOrderId(), orderCancelFailed);
+        deliverOrderEvent(orderCancelFailed, OrderListener::onOrderCancelFailed);
     }
 
     private void onOrderFilled(OrderFilled orderFilled) {
-        OrderListener orderListener = this.orderListener;
-        if (orderListener != null) {
-            orderListener.onOrderFilled(orderFilled);
-        }
+        deliverOrderEvent(orderFilled, OrderListener::onOrderFilled);
     }
 
     private void onOrderModificationFailed(OrderModificationFailed orderModificationFailed) {
-        OrderListener orderListener = this.orderListener;
-        if (orderListener != null) {
-            orderListener.onOrderModificationFailed(orderModificationFailed);
-        }
+        pendingCommands.reject(
+                PendingCommands.Kind.MODIFY,
+                orderModificationFailed.getClientOrderId(),
+                orderModificationFailed
+        );
+        deliverOrderEvent(orderModificationFailed, OrderListener::onOrderModificationFailed);
     }
 
     private void onOrderModified(OrderModified orderModified) {
-        OrderListener orderListener = this.orderListener;
-        if (orderListener != null) {
-            orderListener.onOrderModified(orderModified);
-        }
+        pendingCommands.complete(PendingCommands.Kind.MODIFY, orderModified.getClientOrderId(), orderModified);
+        deliverOrderEvent(orderModified, OrderListener::onOrderModified);
     }
 
     private void onOrderPlaced(OrderPlaced orderPlaced) {
-        OrderListener orderListener = this.orderListener;
-        if (orderListener != null) {
-            orderListener.onOrderPlaced(orderPlaced);
-        }
+        pendingCommands.complete(PendingCommands.Kind.PLACE, orderPlaced.getClientOrderId(), orderPlaced);
+        deliverOrderEvent(orderPlaced, OrderListener::onOrderPlaced);
     }
 
     private void onOrderPlaceFailed(OrderPlaceFailed orderPlaceFailed) {
-        OrderListener orderListener = this.orderListener;
-        if (orderListener != null) {
-            orderListener.onOrderPlaceFailed(orderPlaceFailed);
-        }
+        pendingCommands.reject(PendingCommands.Kind.PLACE, orderPlaceFailed.getClientOrderId(), orderPlaceFailed);
+        deliverOrderEvent(orderPlaceFailed, OrderListener::onOrderPlaceFailed);
     }
 
     private void onLiquidationOrderPlaced(LiquidationOrderPlaced liquidationOrderPlaced) {
-        OrderListener orderListener = this.orderListener;
-        if (orderListener != null) {
-            orderListener.onLiquidationOrderPlaced(liquidationOrderPlaced);
-        }
+        deliverOrderEvent(liquidationOrderPlaced, OrderListener::onLiquidationOrderPlaced);
     }
 
     private void onLiquidationOrderCancelled(LiquidationOrderCancelled liquidationOrderCancelled) {
-        OrderListener orderListener = this.orderListener;
-        if (orderListener != null) {
-            orderListener.onLiquidationOrderCancelled(liquidationOrderCancelled);
-        }
+        deliverOrderEvent(liquidationOrderCancelled, OrderListener::onLiquidationOrderCancelled);
     }
 
     private void onLiquidationOrderFilled(LiquidationOrderFilled liquidationOrderFilled) {
+        deliverOrderEvent(liquidationOrderFilled, OrderListener::onLiquidationOrderFilled);
+    }
+
+    /**
+     * Passes the given order event to the risk listener, the tracker and the listener, in this order.
+     */
+    private <T> void deliverOrderEvent(T event, BiConsumer<OrderListener, T> method) {
+        OrderListener riskOrderListener = this.riskOrderListener;
+        if (riskOrderListener != null) {
+            method.accept(riskOrderListener, event);
+        }
+        OrderTracker orderTracker = this.orderTracker;
+        if (orderTracker != null) {
+            method.accept(orderTracker, event);
+        }
         OrderListener orderListener = this.orderListener;
         if (orderListener != null) {
-            orderListener.onLiquidationOrderFilled(liquidationOrderFilled);
+            method.accept(orderListener, event);
         }
     }
 
@@ -1,25 +1,28 @@
 package net.quedex.api.user;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import net.quedex.api.common.CommunicationException;
 import net.quedex.api.common.DisconnectedException;
+import net.quedex.api.common.LatencyHistogram;
 import net.quedex.api.common.MessageReceiver;
 import net.quedex.api.common.StreamFailureListener;
+import net.quedex.api.common.WebsocketTransport;
 import net.quedex.api.pgp.BcEncryptor;
 import net.quedex.api.pgp.PGPExceptionBase;
-import org.java_websocket.client.WebSocketClient;
-import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.function.Supplier;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -29,29 +32,82 @@ class UserMessageSender {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(UserMessageSender.class);
     private static final ObjectMapper OBJECT_MAPPER = MessageReceiver.OBJECT_MAPPER;
-    private static final ObjectWriter OBJECT_WRITER = OBJECT_MAPPER.writer();
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
 
-    private final WebSocketClient webSocketClient;
+    // cancellations of working orders are never coalesced, not to wait for the rate limit of other orders
+    private static final Set<OutboundQueue.Kind> ORDER_COMMANDS =
+            Collections.unmodifiableSet(EnumSet.of(OutboundQueue.Kind.ORDER_SPEC, OutboundQueue.Kind.BATCH));
+
+    static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Maximum number of cancellations in a single message sent by {@link #sendCancellations} - keeps messages small
+     * enough for the first cancellations to be encrypted and sent without waiting for all the others, while amortizing
+     * the per-message signing cost.
+     */
+    static final int CANCEL_BATCH_SIZE = 64;
+
+    private final WebsocketTransport transport;
     private final BcEncryptor encryptor;
     private final long accountId;
     private final int nonceGroup;
-    private final ExecutorService executor = Executors.newSingleThreadExecutor(); // single threaded for sequencing
+    private final OutboundQueue queue;
+    private final CommandWriter commandWriter; // used only by the sender thread
+    private final OutboundQueue.Slot[] prioritySlot = {new OutboundQueue.Slot()}; // used only by the sender thread
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private Thread senderThread; // single thread for sequencing, started by start()
 
     private volatile StreamFailureListener streamFailureListener;
     private volatile long nonce;
+    private volatile boolean running;
+    private volatile AutoBatching autoBatching;
+    private volatile EncryptionPipeline encryptionPipeline;
+    private volatile long autoBatchedCount; // written only by the sender thread
+    private volatile TokenBucket rateLimit; // used only by the sender thread once set
+    private volatile long throttledNanos; // written only by the sender thread
 
     UserMessageSender(
-            WebSocketClient webSocketClient,
+            WebsocketTransport transport,
             long accountId,
             int nonceGroup,
             BcEncryptor encryptor
+    ) {
+        this(transport, accountId, nonceGroup, encryptor, DEFAULT_QUEUE_CAPACITY, OutboundQueuePolicy.BLOCK);
+    }
+
+    /**
+     * @param queueCapacity maximum number of commands waiting to be sent
+     * @param queuePolicy what to do with a command when the queue is full
+     */
+    UserMessageSender(
+            WebsocketTransport transport,
+            long accountId,
+            int nonceGroup,
+            BcEncryptor encryptor,
+            int queueCapacity,
+            OutboundQueuePolicy queuePolicy
     ) {
         checkArgument(nonceGroup >= 0, "nonceGroup=%s < 0", nonceGroup);
         checkArgument(accountId > 0, "accountId=%s <= 0", accountId);
-        this.webSocketClient = checkNotNull(webSocketClient, "null webSocketClient");
+        this.transport = checkNotNull(transport, "null transport");
         this.encryptor = checkNotNull(encryptor);
         this.accountId = accountId;
         this.nonceGroup = nonceGroup;
+        this.queue = new OutboundQueue(queueCapacity, queuePolicy);
+        this.commandWriter = new CommandWriter(accountId, nonceGroup);
+    }
+
+    /**
+     * Starts the sender thread, which sends the queued commands (including the ones queued before). Should be called
+     * once the start nonce is set.
+     */
+    synchronized void start() {
+        checkState(senderThread == null, "Already started");
+        running = true;
+        senderThread = new Thread(this::run, "user-sender");
+        senderThread.setDaemon(true);
+        senderThread.start();
     }
 
     void registerStreamFailureListener(StreamFailureListener streamFailureListener) {
@@ -65,75 +121,421 @@ class UserMessageSender {
 
     void sendGetLastNonce() throws CommunicationException {
         try {
-            sendMessage(
+            byte[] message = OBJECT_MAPPER.writeValueAsBytes(
                 OBJECT_MAPPER.createObjectNode()
                     .put("type", "get_last_nonce")
                     .put("nonce_group", nonceGroup)
                     .put("account_id", accountId)
             );
+            sendMessage(message, message.length);
         } catch (PGPExceptionBase | JsonProcessingException e) {
             throw new CommunicationException("Error sending get_last_nonce", e);
         }
     }
 
     void sendSubscribe() {
-        sendMessageQueued(() -> addNonceAccountId(OBJECT_MAPPER.createObjectNode().put("type", "subscribe")));
+        enqueue(OutboundQueue.Kind.SUBSCRIBE, null);
     }
 
-    void sendOrderSpec(OrderSpec orderSpec) {
-        sendMessageQueued(() -> addNonceAccountId(OBJECT_MAPPER.valueToTree(orderSpec)));
+    /**
+     * @return the queued command dropped because of the given one (it will not be sent) - a modification replaced by
+     *         the given modification, or a placement removed together with the given cancellation (which will not be
+     *         sent either), null if none
+     */
+    OrderSpec sendOrderSpec(OrderSpec orderSpec) {
+        checkNotNull(orderSpec, "null orderSpec");
+        return (OrderSpec) enqueue(OutboundQueue.Kind.ORDER_SPEC, orderSpec);
     }
 
     void sendBatch(List<? extends OrderSpec> batch) {
-        sendMessageQueued(() -> {
-            JsonNode batchJson = OBJECT_MAPPER.valueToTree(batch);
-            for (final JsonNode node : batchJson) {
-                checkState(node instanceof ObjectNode, "Expected ObjectNode");
-                addNonceAccountId((ObjectNode) node);
-            }
-            return OBJECT_MAPPER.createObjectNode()
-                .put("type", "batch")
-                .put("account_id", accountId)
-                .set("batch", batchJson);
-        });
+        enqueue(OutboundQueue.Kind.BATCH, checkNotNull(batch, "null batch"));
+    }
+
+    /**
+     * Sends the given cancellations of working orders ahead of all the queued commands (except for earlier
+     * cancellations), in batches of at most {@link #CANCEL_BATCH_SIZE}.
+     */
+    void sendCancellations(List<OrderCancelSpec> cancellations) {
+        checkNotNull(cancellations, "null cancellations");
+        for (int from = 0; from < cancellations.size(); from += CANCEL_BATCH_SIZE) {
+            enqueue(
+                    OutboundQueue.Kind.CANCEL_BATCH,
+                    cancellations.subList(from, Math.min(from + CANCEL_BATCH_SIZE, cancellations.size()))
+            );
+        }
+    }
+
+    /**
+     * Removes queued order commands not yet taken by the sender, as described in
+     * {@link OutboundQueue#removeOrderCommands}.
+     *
+     * @return the removed commands, which will not be sent
+     */
+    List<OrderSpec> removeQueuedOrderCommands(Predicate<? super LimitOrderSpec> placementFilter, Set<Long> orderIds) {
+        return queue.removeOrderCommands(placementFilter, orderIds);
     }
 
     void sendInternalTransfer(InternalTransfer internalTransfer) {
-        sendMessageQueued(() -> addNonceAccountId(OBJECT_MAPPER.valueToTree(internalTransfer)));
+        enqueue(OutboundQueue.Kind.INTERNAL_TRANSFER, checkNotNull(internalTransfer, "null internalTransfer"));
+    }
+
+    /**
+     * Makes the sender coalesce order commands queued one after another into single batch messages: having taken an
+     * order command, the sender takes the order commands queued after it, waiting for them at most
+     * {@code lingerNanos}. With no linger, only commands queued while the sender was busy are coalesced and an idle
+     * sender sends immediately.
+     *
+     * @param maxBatchSize maximum number of queued commands coalesced into one message
+     * @param lingerNanos maximum time to wait for further order commands, may be 0
+     */
+    void enableAutoBatching(int maxBatchSize, long lingerNanos) {
+        checkArgument(maxBatchSize > 1, "maxBatchSize=%s <= 1", maxBatchSize);
+        checkArgument(lingerNanos >= 0, "lingerNanos=%s < 0", lingerNanos);
+        checkState(autoBatching == null, "Auto batching already enabled");
+        autoBatching = new AutoBatching(maxBatchSize, lingerNanos);
+    }
+
+    /**
+     * Moves encryption and signing of messages off the sender thread, onto a pool of worker threads. Nonces are still
+     * assigned sequentially by the sender thread and messages are written to the connection in nonce order. Has to be
+     * called before any command is sent.
+     *
+     * @param threads number of encrypting threads
+     * @param maxInFlight maximum number of messages being encrypted or waiting to be written, the sender thread waits
+     *                    when the limit is reached
+     */
+    void enableParallelEncryption(int threads, int maxInFlight) {
+        checkState(encryptionPipeline == null, "Parallel encryption already enabled");
+        encryptionPipeline = new EncryptionPipeline(
+                encryptor,
+                transport,
+                threads,
+                maxInFlight,
+                sendLatency,
+                this::onError
+        );
     }
 
-    void stop() {
-        executor.shutdown();
+    /**
+     * Makes the queue drop commands made obsolete by newer ones before they are sent: a queued modification is
+     * replaced by a newer one of the same order and a cancellation of an order whose placement is still queued
+     * removes the placement (see {@link OutboundQueue}).
+     */
+    void enableCoalescing() {
+        queue.enableCoalescing();
     }
 
-    private void sendMessageQueued(Supplier<JsonNode> supplier) {
-        executor.execute(() -> {
+    /**
+     * @return number of placements removed from the queue together with their cancellations
+     */
+    long getEliminatedPlacementCount() {
+        return queue.getEliminatedCount();
+    }
+
+    /**
+     * Limits the rate of orders sent (each order of a batch counts) with a token bucket. An order command waits, on
+     * the sender thread, until the limit allows sending it - meanwhile single cancellations, which are queued in the
+     * priority lane, are sent without waiting, though they count against the limit.
+     *
+     * @param ordersPerSecond sustained rate of orders
+     * @param burst number of orders which may be sent at once after a period of inactivity
+     */
+    void enableRateLimit(double ordersPerSecond, int burst) {
+        checkState(rateLimit == null, "Rate limit already enabled");
+        rateLimit = new TokenBucket(ordersPerSecond, burst, System.nanoTime());
+    }
+
+    /**
+     * @return total time (in nanoseconds) order commands waited for the rate limit
+     */
+    long getThrottledNanos() {
+        return throttledNanos;
+    }
+
+    /**
+     * @return number of cancellations waiting to be sent in the priority lane
+     */
+    int getPriorityQueueDepth() {
+        return queue.prioritySize();
+    }
+
+    /**
+     * @return number of commands coalesced into batch messages by auto batching
+     */
+    long getAutoBatchedCount() {
+        return autoBatchedCount;
+    }
+
+    /**
+     * Stops the sender, waiting (for a bounded time) until the commands already queued are sent. Any command sent
+     * afterwards is rejected with an {@link IllegalStateException}.
+     */
+    synchronized void stop() {
+        queue.close();
+        running = false;
+        Thread senderThread = this.senderThread;
+        if (senderThread != null) {
             try {
-                sendMessage(supplier.get());
-            } catch (WebsocketNotConnectedException e) {
-                onError(new DisconnectedException(e));
-            } catch (Exception e) {
-                onError(new CommunicationException("Error sending message", e));
+                senderThread.join(STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (senderThread.isAlive()) {
+                LOGGER.warn("Sender not stopped within {}ms, {} commands not sent", STOP_TIMEOUT_MILLIS, queue.size());
             }
-        });
+        }
+        EncryptionPipeline encryptionPipeline = this.encryptionPipeline;
+        if (encryptionPipeline != null) {
+            encryptionPipeline.stop();
+        }
+    }
+
+    /**
+     * @return number of commands waiting to be sent
+     */
+    int getQueueDepth() {
+        return queue.size();
     }
 
-    private ObjectNode addNonceAccountId(ObjectNode jsonMessage) {
-        return jsonMessage
-            .put("account_id", accountId)
-            .put("nonce", getNonce())
-            .put("nonce_group", nonceGroup);
+    /**
+     * @return number of modifications replaced by newer ones while queued
+     */
+    long getDroppedModificationCount() {
+        return queue.getDroppedCount();
+    }
+
+    long getRejectedCount() {
+        return queue.getRejectedCount();
+    }
+
+    /**
+     * @return latencies between queueing commands and writing them to the connection
+     */
+    LatencyHistogram getSendLatency() {
+        return sendLatency;
+    }
+
+    private Object enqueue(OutboundQueue.Kind kind, Object payload) {
+        try {
+            return queue.put(kind, payload);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for space in the outbound queue", e);
+        }
+    }
+
+    private void run() {
+        OutboundQueue.Slot[] polled = {new OutboundQueue.Slot()};
+        while (true) {
+            try {
+                if (!queue.poll(polled[0], POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (running) {
+                        continue;
+                    }
+                    break;
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            AutoBatching autoBatching = this.autoBatching;
+            if (autoBatching != null && ORDER_COMMANDS.contains(polled[0].kind)) {
+                sendCoalesced(polled[0], autoBatching.slots, autoBatching.lingerNanos);
+            } else {
+                send(polled);
+            }
+        }
+        LOGGER.debug("Sender stopped");
+    }
+
+    /**
+     * Takes the order commands following the given one off the queue, waiting for them at most the given time, and
+     * sends all of them in a single batch message.
+     */
+    private void sendCoalesced(OutboundQueue.Slot first, OutboundQueue.Slot[] slots, long lingerNanos) {
+        slots[0].copyFrom(first);
+        first.clear();
+        int count = 1;
+        long deadline = System.nanoTime() + lingerNanos;
+        try {
+            while (count < slots.length
+                    && queue.pollIf(ORDER_COMMANDS, slots[count], deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                count++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // send what was taken, stop on the next poll
+        }
+        if (count == 1) {
+            send(slots);
+            return;
+        }
+        try {
+            throttle(slots, count);
+            commandWriter.reset();
+            commandWriter.startBatch();
+            for (int i = 0; i < count; i++) {
+                writeOrders(slots[i]);
+            }
+            commandWriter.endBatch();
+            autoBatchedCount += count;
+            transmit(slots, count);
+        } catch (DisconnectedException e) {
+            onError(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            onError(new CommunicationException("Interrupted while sending message", e));
+        } catch (Exception e) {
+            onError(new CommunicationException("Error sending message", e));
+        } finally {
+            for (int i = 0; i < count; i++) {
+                queue.release(slots[i]);
+                slots[i].clear();
+            }
+        }
+    }
+
+    /**
+     * Sends the command of the first of the given slots.
+     */
+    private void send(OutboundQueue.Slot[] slots) {
+        try {
+            throttle(slots, 1);
+            write(slots[0]);
+            transmit(slots, 1);
+        } catch (DisconnectedException e) {
+            onError(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            onError(new CommunicationException("Interrupted while sending message", e));
+        } catch (Exception e) {
+            onError(new CommunicationException("Error sending message", e));
+        } finally {
+            queue.release(slots[0]);
+            slots[0].clear();
+        }
+    }
+
+    /**
+     * Waits until the rate limit allows sending the orders of the given number of slots, meanwhile sending
+     * cancellations from the priority lane, and takes the tokens for them. Cancellations do not wait. Has to be called
+     * before writing the given slots, since sending cancellations reuses the {@link CommandWriter}.
+     */
+    private void throttle(OutboundQueue.Slot[] slots, int count) throws InterruptedException {
+        TokenBucket rateLimit = this.rateLimit;
+        if (rateLimit == null) {
+            return;
+        }
+        int orders = 0;
+        int limited = 0;
+        for (int i = 0; i < count; i++) {
+            int slotOrders = countOrders(slots[i]);
+            orders += slotOrders;
+            if (!isCancellation(slots[i])) {
+                limited += slotOrders;
+            }
+        }
+        if (limited > 0) {
+            long start = System.nanoTime();
+            long waitNanos;
+            while ((waitNanos = rateLimit.nanosUntilAvailable(limited, System.nanoTime())) > 0) {
+                if (queue.pollPriority(prioritySlot[0], waitNanos, TimeUnit.NANOSECONDS)) {
+                    send(prioritySlot);
+                }
+            }
+            throttledNanos += System.nanoTime() - start;
+        }
+        rateLimit.consume(orders, System.nanoTime());
+    }
+
+    private static int countOrders(OutboundQueue.Slot slot) {
+        switch (slot.kind) {
+            case ORDER_SPEC:
+                return 1;
+            case BATCH:
+            case CANCEL_BATCH:
+                return ((List<?>) slot.payload).size();
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isCancellation(OutboundQueue.Slot slot) {
+        return slot.kind == OutboundQueue.Kind.CANCEL_BATCH
+                || slot.kind == OutboundQueue.Kind.ORDER_SPEC && slot.payload instanceof OrderCancelSpec;
+    }
+
+    /**
+     * Encrypts and sends the message written from the given number of slots, or hands it over to the encryption
+     * pipeline if enabled.
+     */
+    private void transmit(OutboundQueue.Slot[] slots, int count)
+            throws IOException, PGPExceptionBase, CommunicationException, InterruptedException {
+        int length = commandWriter.finish();
+        EncryptionPipeline encryptionPipeline = this.encryptionPipeline;
+        if (encryptionPipeline == null) {
+            sendMessage(commandWriter.array(), length);
+            long now = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                sendLatency.record(now - slots[i].enqueueNanoTime);
+            }
+        } else {
+            long[] enqueueNanoTimes = new long[count];
+            for (int i = 0; i < count; i++) {
+                enqueueNanoTimes[i] = slots[i].enqueueNanoTime;
+            }
+            encryptionPipeline.submit(Arrays.copyOf(commandWriter.array(), length), enqueueNanoTimes);
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("submit({})", new String(commandWriter.array(), 0, length, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private void write(OutboundQueue.Slot slot) throws IOException {
+        commandWriter.reset();
+        switch (slot.kind) {
+            case SUBSCRIBE:
+                commandWriter.writeSubscribe(getNonce());
+                break;
+            case BATCH:
+            case CANCEL_BATCH:
+                commandWriter.startBatch();
+                writeOrders(slot);
+                commandWriter.endBatch();
+                break;
+            case ORDER_SPEC:
+                commandWriter.writeOrderSpec((OrderSpec) slot.payload, getNonce());
+                break;
+            case INTERNAL_TRANSFER:
+                commandWriter.writeInternalTransfer((InternalTransfer) slot.payload, getNonce());
+                break;
+            default:
+                throw new IllegalStateException("Unexpected kind=" + slot.kind);
+        }
+    }
+
+    /**
+     * Writes the order commands of the given {@link OutboundQueue.Kind#ORDER_SPEC}, {@link OutboundQueue.Kind#BATCH}
+     * or {@link OutboundQueue.Kind#CANCEL_BATCH} slot as elements of a batch.
+     */
+    private void writeOrders(OutboundQueue.Slot slot) throws IOException {
+        if (slot.kind == OutboundQueue.Kind.ORDER_SPEC) {
+            commandWriter.writeOrderSpec((OrderSpec) slot.payload, getNonce());
+            return;
+        }
+        for (final Object orderSpec : (List<?>) slot.payload) {
+            commandWriter.writeOrderSpec((OrderSpec) orderSpec, getNonce());
+        }
     }
 
     private long getNonce() {
         return ++nonce;
     }
 
-    private void sendMessage(JsonNode jsonMessage) throws JsonProcessingException, PGPExceptionBase {
-        String messageStr = OBJECT_WRITER.writeValueAsString(jsonMessage);
-        webSocketClient.send(encryptor.encrypt(messageStr, true));
+    private void sendMessage(byte[] message, int length) throws PGPExceptionBase, CommunicationException {
+        transport.send(encryptor.encrypt(message, 0, length, true));
 
-        LOGGER.trace("sendMessage({})", messageStr);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("sendMessage({})", new String(message, 0, length, StandardCharsets.UTF_8));
+        }
     }
 
     private void onError(Exception e) {
@@ -143,4 +545,18 @@ class UserMessageSender {
             streamFailureListener.onStreamFailure(e);
         }
     }
+
+    private static final class AutoBatching {
+
+        final OutboundQueue.Slot[] slots; // used only by the sender thread
+        final long lingerNanos;
+
+        AutoBatching(int maxBatchSize, long lingerNanos) {
+            this.slots = new OutboundQueue.Slot[maxBatchSize];
+            for (int i = 0; i < maxBatchSize; i++) {
+                slots[i] = new OutboundQueue.Slot();
+            }
+            this.lingerNanos = lingerNanos;
+        }
+    }
 }
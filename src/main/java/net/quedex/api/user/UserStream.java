@@ -4,6 +4,7 @@ import net.quedex.api.common.CommunicationException;
 import net.quedex.api.common.StreamFailureListener;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Represents the stream of realtime private data streamed from and trading commands which may be sent to Quedex.
@@ -26,6 +27,16 @@ public interface UserStream {
 
     void registerOrderListener(OrderListener orderListener);
 
+    /**
+     * Registers the given {@link OrderTracker} to be fed with order events (before the registered
+     * {@link OrderListener}) and with the modifications sent via this stream.
+     *
+     * @throws UnsupportedOperationException if the implementation does not feed trackers, by default
+     */
+    default void registerOrderTracker(OrderTracker orderTracker) {
+        throw new UnsupportedOperationException("registerOrderTracker not supported by " + getClass().getName());
+    }
+
     void registerOpenPositionListener(OpenPositionListener openPositionListener);
 
     void registerAccountStateListener(AccountStateListener accountStateListener);
@@ -67,6 +78,48 @@ public interface UserStream {
      */
     void modifyOrder(OrderModificationSpec orderModificationSpec);
 
+    /**
+     * Sends the given {@link LimitOrderSpec} to the exchange, like {@link #placeOrder}, and returns a future completed
+     * with the {@link OrderPlaced} for the order, before the registered {@link OrderListener} is notified. The future
+     * is completed exceptionally with:
+     * <ul>
+     *     <li> {@link OrderCommandRejectedException} holding {@link OrderPlaceFailed} when the exchange rejects the
+     *          order </li>
+     *     <li> {@link java.util.concurrent.TimeoutException} when no response arrives within the stream's timeout </li>
+     *     <li> {@link CommunicationException} when the command could not be sent or the stream is stopped </li>
+     * </ul>
+     *
+     * @throws UnsupportedOperationException if the implementation does not track responses to commands, by default
+     */
+    default CompletableFuture<OrderPlaced> placeOrderAsync(LimitOrderSpec limitOrderSpec) {
+        throw new UnsupportedOperationException("placeOrderAsync not supported by " + getClass().getName());
+    }
+
+    /**
+     * Sends the given {@link OrderCancelSpec} to the exchange, like {@link #cancelOrder}, and returns a future
+     * completed with the {@link OrderCancelled} for the order or exceptionally, with {@link OrderCancelFailed} in
+     * {@link OrderCommandRejectedException}, as described in {@link #placeOrderAsync}. The future is also completed
+     * exceptionally, with {@link OrderForcefullyCancelled} in {@link OrderCommandRejectedException}, if the order is
+     * forcefully cancelled before the cancellation is answered.
+     *
+     * @throws UnsupportedOperationException if the implementation does not track responses to commands, by default
+     */
+    default CompletableFuture<OrderCancelled> cancelOrderAsync(OrderCancelSpec orderCancelSpec) {
+        throw new UnsupportedOperationException("cancelOrderAsync not supported by " + getClass().getName());
+    }
+
+    /**
+     * Sends the given {@link OrderModificationSpec} to the exchange, like {@link #modifyOrder}, and returns a future
+     * completed with the {@link OrderModified} for the order or exceptionally, with {@link OrderModificationFailed} in
+     * {@link OrderCommandRejectedException}, as described in {@link #placeOrderAsync}, also with
+     * {@link OrderForcefullyCancelled} as described in {@link #cancelOrderAsync}.
+     *
+     * @throws UnsupportedOperationException if the implementation does not track responses to commands, by default
+     */
+    default CompletableFuture<OrderModified> modifyOrderAsync(OrderModificationSpec orderModificationSpec) {
+        throw new UnsupportedOperationException("modifyOrderAsync not supported by " + getClass().getName());
+    }
+
     /**
      * Returns an object (not thread-safe) which may be used fluently to send a batch of {@link OrderSpec}s to the
      * exchange. Calling {@link Batch#send()} sends batched {@link OrderSpec}s to the exchange. This method is
@@ -81,6 +134,42 @@ public interface UserStream {
      */
     void batch(List<? extends OrderSpec> batch);
 
+    /**
+     * Cancels all the working orders of the account known to the registered {@link OrderTracker}, sending the
+     * cancellations ahead of all the other queued commands, in as few messages as is efficient. Placements still
+     * waiting to be sent are removed, together with the waiting modifications and cancellations of them, and so are the
+     * waiting modifications of the cancelled orders - the futures of the removed placements and modifications are
+     * completed with a {@link java.util.concurrent.CancellationException} and the ones of the removed cancellations
+     * with an {@link OrderCancelled}, but the registered {@link OrderListener} is not notified. Orders already sent,
+     * but not yet confirmed as placed, are not cancelled. This method is asynchronous - the fact that it returned does
+     * not guarantee that the commands have been received nor processed by the exchange.
+     *
+     * @return number of working orders to be cancelled
+     * @throws IllegalStateException if no {@link OrderTracker} is registered
+     * @throws UnsupportedOperationException if the implementation does not track orders, by default
+     */
+    default int cancelAll() {
+        throw new UnsupportedOperationException("cancelAll not supported by " + getClass().getName());
+    }
+
+    /**
+     * Cancels all the working orders of the given instrument, as described in {@link #cancelAll()}.
+     *
+     * @throws UnsupportedOperationException if the implementation does not track orders, by default
+     */
+    default int cancelAll(int instrumentId) {
+        throw new UnsupportedOperationException("cancelAll not supported by " + getClass().getName());
+    }
+
+    /**
+     * Cancels all the working orders of the given instrument on the given side, as described in {@link #cancelAll()}.
+     *
+     * @throws UnsupportedOperationException if the implementation does not track orders, by default
+     */
+    default int cancelAll(int instrumentId, OrderSide side) {
+        throw new UnsupportedOperationException("cancelAll not supported by " + getClass().getName());
+    }
+
     void executeInternalTransfer(InternalTransfer internalTransfer);
 
     void stop() throws CommunicationException;
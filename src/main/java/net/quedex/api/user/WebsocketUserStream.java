@@ -2,8 +2,12 @@ package net.quedex.api.user;
 
 import net.quedex.api.common.CommunicationException;
 import net.quedex.api.common.Config;
+import net.quedex.api.common.JavaWebsocketTransport;
+import net.quedex.api.common.LatencyHistogram;
+import net.quedex.api.common.NioWebsocketClient;
 import net.quedex.api.common.StreamFailureListener;
 import net.quedex.api.common.WebsocketStream;
+import net.quedex.api.common.WebsocketTransport;
 import net.quedex.api.pgp.BcEncryptor;
 import net.quedex.api.pgp.BcPrivateKey;
 import net.quedex.api.pgp.BcPublicKey;
@@ -11,17 +15,30 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 public class WebsocketUserStream extends WebsocketStream<UserMessageReceiver> implements UserStream {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(WebsocketUserStream.class);
+    private static final long DEFAULT_ASYNC_COMMAND_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
 
     private final UserMessageSender sender;
 
+    private volatile long asyncCommandTimeoutNanos = DEFAULT_ASYNC_COMMAND_TIMEOUT_NANOS;
+    private volatile OrderTracker orderTracker;
+    private volatile PreTradeRiskCheck preTradeRiskCheck;
+
     public WebsocketUserStream(
             String streamUrl,
             long accountId,
@@ -29,25 +46,259 @@ public class WebsocketUserStream extends WebsocketStream<UserMessageReceiver> im
             BcPublicKey qdxPublicKey,
             BcPrivateKey userPrivateKey
     ) {
-        super(LOGGER, streamUrl, new UserMessageReceiver(qdxPublicKey, userPrivateKey));
+        this(streamUrl, accountId, nonceGroup, qdxPublicKey, userPrivateKey, JavaWebsocketTransport::new);
+    }
+
+    /**
+     * @param transportFactory creates the connection of the stream, e.g. a shared {@link NioWebsocketClient}
+     */
+    public WebsocketUserStream(
+            String streamUrl,
+            long accountId,
+            int nonceGroup,
+            BcPublicKey qdxPublicKey,
+            BcPrivateKey userPrivateKey,
+            WebsocketTransport.Factory transportFactory
+    ) {
+        this(
+                streamUrl,
+                accountId,
+                nonceGroup,
+                qdxPublicKey,
+                userPrivateKey,
+                transportFactory,
+                UserMessageSender.DEFAULT_QUEUE_CAPACITY,
+                OutboundQueuePolicy.BLOCK
+        );
+    }
+
+    /**
+     * @param transportFactory creates the connection of the stream, e.g. a shared {@link NioWebsocketClient}
+     * @param outboundQueueCapacity maximum number of commands waiting to be sent
+     * @param outboundQueuePolicy what to do with a command when the queue of commands waiting to be sent is full
+     */
+    public WebsocketUserStream(
+            String streamUrl,
+            long accountId,
+            int nonceGroup,
+            BcPublicKey qdxPublicKey,
+            BcPrivateKey userPrivateKey,
+            WebsocketTransport.Factory transportFactory,
+            int outboundQueueCapacity,
+            OutboundQueuePolicy outboundQueuePolicy
+    ) {
+        super(LOGGER, streamUrl, new UserMessageReceiver(qdxPublicKey, userPrivateKey), transportFactory);
         this.sender = new UserMessageSender(
-            webSocketClient,
+            transport,
             accountId,
             nonceGroup,
-            new BcEncryptor(qdxPublicKey, userPrivateKey)
+            new BcEncryptor(qdxPublicKey, userPrivateKey),
+            outboundQueueCapacity,
+            outboundQueuePolicy
         );
     }
 
     public WebsocketUserStream(Config config) {
+        this(config, JavaWebsocketTransport::new);
+    }
+
+    /**
+     * @param transportFactory creates the connection of the stream, e.g. a shared {@link NioWebsocketClient}
+     */
+    public WebsocketUserStream(Config config, WebsocketTransport.Factory transportFactory) {
         this(
                 config.getUserStreamUrl(),
                 config.getAccountId(),
                 config.getNonceGroup(),
                 config.getQdxPublicKey(),
-                config.getUserPrivateKey()
+                config.getUserPrivateKey(),
+                transportFactory
         );
     }
 
+    /**
+     * @param transportFactory creates the connection of the stream, e.g. a shared {@link NioWebsocketClient}
+     * @param outboundQueueCapacity maximum number of commands waiting to be sent
+     * @param outboundQueuePolicy what to do with a command when the queue of commands waiting to be sent is full
+     */
+    public WebsocketUserStream(
+            Config config,
+            WebsocketTransport.Factory transportFactory,
+            int outboundQueueCapacity,
+            OutboundQueuePolicy outboundQueuePolicy
+    ) {
+        this(
+                config.getUserStreamUrl(),
+                config.getAccountId(),
+                config.getNonceGroup(),
+                config.getQdxPublicKey(),
+                config.getUserPrivateKey(),
+                transportFactory,
+                outboundQueueCapacity,
+                outboundQueuePolicy
+        );
+    }
+
+    /**
+     * Makes order commands ({@link #placeOrder}, {@link #cancelOrder}, {@link #modifyOrder} and {@link #batch}es)
+     * queued one after another be sent coalesced into single batch messages, so that under load fewer messages have
+     * to be encrypted and signed. Having taken an order command off the outbound queue, the sender takes the order
+     * commands queued after it, waiting for them at most the given linger time. With no linger, only the commands
+     * submitted while the sender is busy are coalesced and an idle stream sends immediately. Order of the commands is
+     * preserved.
+     *
+     * @param maxBatchSize maximum number of commands coalesced into one message, greater than 1
+     * @param linger maximum time to wait for further order commands, may be 0
+     */
+    public void enableAutoBatching(int maxBatchSize, long linger, TimeUnit unit) {
+        sender.enableAutoBatching(maxBatchSize, unit.toNanos(linger));
+    }
+
+    /**
+     * Moves encryption and signing of outgoing messages onto a pool of worker threads, so that sending is not limited
+     * by a single core. Nonces are still assigned sequentially and messages are written to the connection in nonce
+     * order. Has to be called before {@link #start}.
+     *
+     * @param threads number of encrypting threads
+     * @param maxInFlight maximum number of messages being encrypted or waiting to be written, further commands wait
+     *                    in the outbound queue when the limit is reached
+     */
+    public void enableParallelEncryption(int threads, int maxInFlight) {
+        sender.enableParallelEncryption(threads, maxInFlight);
+    }
+
+    /**
+     * Makes commands made obsolete by newer ones be dropped before being sent, saving encryption and round-trips in
+     * fast markets:
+     * <ul>
+     *     <li> a queued {@link OrderModificationSpec} is replaced by a newer one of the same order (as under
+     *          {@link OutboundQueuePolicy#DROP_SUPERSEDED_MODIFY}); the future of the replaced modification is
+     *          completed as the one of the replacing modification </li>
+     *     <li> a queued {@link OrderSpec placement} (not in a batch) is removed, together with the cancellation
+     *          ({@link #cancelOrder}) of the same order; the future of the placement is completed with a
+     *          {@link CancellationException} and the future of the cancellation with an {@link OrderCancelled}, while
+     *          the {@link OrderListener} is not notified at all </li>
+     * </ul>
+     */
+    public void enableCommandCoalescing() {
+        sender.enableCoalescing();
+    }
+
+    /**
+     * Limits the rate of orders sent (each order of a batch counts), to avoid being throttled by the exchange. Order
+     * commands exceeding the limit wait in the outbound queue - except single cancellations ({@link #cancelOrder}),
+     * which are always sent ahead of queued placements and modifications and are not delayed by the limit, though they
+     * count against it.
+     *
+     * @param ordersPerSecond sustained rate of orders
+     * @param burst number of orders which may be sent at once after a period of inactivity
+     */
+    public void enableRateLimit(double ordersPerSecond, int burst) {
+        sender.enableRateLimit(ordersPerSecond, burst);
+    }
+
+    /**
+     * @return total time (in nanoseconds) order commands waited for the {@link #enableRateLimit rate limit}
+     */
+    public long getThrottledNanos() {
+        return sender.getThrottledNanos();
+    }
+
+    /**
+     * @return number of cancellations waiting to be sent ahead of the other commands
+     */
+    public int getPriorityQueueDepth() {
+        return sender.getPriorityQueueDepth();
+    }
+
+    /**
+     * @return number of commands coalesced into batch messages by {@link #enableAutoBatching auto batching}
+     */
+    public long getAutoBatchedCommandCount() {
+        return sender.getAutoBatchedCount();
+    }
+
+    /**
+     * Sets the time after which futures returned by {@link #placeOrderAsync}, {@link #cancelOrderAsync} and
+     * {@link #modifyOrderAsync} are completed with a {@link java.util.concurrent.TimeoutException} if no response
+     * arrives, 10 seconds by default. Applies to commands sent afterwards.
+     */
+    public void setAsyncCommandTimeout(long timeout, TimeUnit unit) {
+        checkArgument(timeout > 0, "timeout=%s <= 0", timeout);
+        asyncCommandTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @return latencies (in nanoseconds) between sending commands via {@link #placeOrderAsync},
+     *         {@link #cancelOrderAsync} or {@link #modifyOrderAsync} and receiving the responses
+     */
+    public LatencyHistogram getCommandRoundTripLatency() {
+        return messageReceiver.getPendingCommands().getRoundTripLatency();
+    }
+
+    /**
+     * Makes order commands be checked by the given {@link PreTradeRiskCheck} before being queued for sending. A
+     * command rejected by the check is not sent - {@link #placeOrder}, {@link #cancelOrder}, {@link #modifyOrder} and
+     * {@link #batch} throw a {@link PreTradeRiskException} and futures of the asynchronous commands are completed
+     * exceptionally with it. A batch is rejected as a whole if any of its commands is rejected. If the check is an
+     * {@link OrderListener} or an {@link OpenPositionListener}, it is notified of the events of this stream before all
+     * the other listeners.
+     *
+     * @param preTradeRiskCheck the check, null to disable checking
+     */
+    public void registerPreTradeRiskCheck(PreTradeRiskCheck preTradeRiskCheck) {
+        messageReceiver.registerRiskListeners(
+                preTradeRiskCheck instanceof OrderListener ? (OrderListener) preTradeRiskCheck : null,
+                preTradeRiskCheck instanceof OpenPositionListener ? (OpenPositionListener) preTradeRiskCheck : null
+        );
+        this.preTradeRiskCheck = preTradeRiskCheck;
+    }
+
+    /**
+     * @return the latest {@link AccountState} and {@link OpenPosition}s received, readable by any thread without
+     *         locking
+     */
+    public PortfolioState getPortfolioState() {
+        return messageReceiver.getPortfolioState();
+    }
+
+    /**
+     * @return number of commands waiting to be sent
+     */
+    public int getOutboundQueueDepth() {
+        return sender.getQueueDepth();
+    }
+
+    /**
+     * @return latencies (in nanoseconds) between submitting commands and writing them to the connection
+     */
+    public LatencyHistogram getSendLatency() {
+        return sender.getSendLatency();
+    }
+
+    /**
+     * @return number of commands rejected due to full outbound queue under {@link OutboundQueuePolicy#REJECT}
+     */
+    public long getRejectedCommandCount() {
+        return sender.getRejectedCount();
+    }
+
+    /**
+     * @return number of modifications replaced by newer ones while queued under
+     *         {@link OutboundQueuePolicy#DROP_SUPERSEDED_MODIFY} or with {@link #enableCommandCoalescing coalescing}
+     */
+    public long getDroppedModificationCount() {
+        return sender.getDroppedModificationCount();
+    }
+
+    /**
+     * @return number of placements removed, together with their cancellations, by
+     *         {@link #enableCommandCoalescing coalescing}
+     */
+    public long getEliminatedPlacementCount() {
+        return sender.getEliminatedPlacementCount();
+    }
+
     @Override
     public void registerStreamFailureListener(StreamFailureListener streamFailureListener) {
         super.registerStreamFailureListener(streamFailureListener);
@@ -66,6 +317,7 @@ public class WebsocketUserStream extends WebsocketStream<UserMessageReceiver> im
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        sender.start();
     }
 
     @Override
@@ -73,6 +325,12 @@ public class WebsocketUserStream extends WebsocketStream<UserMessageReceiver> im
         messageReceiver.registerOrderListener(orderListener);
     }
 
+    @Override
+    public void registerOrderTracker(OrderTracker orderTracker) {
+        this.orderTracker = orderTracker;
+        messageReceiver.registerOrderTracker(orderTracker);
+    }
+
     @Override
     public void registerOpenPositionListener(OpenPositionListener openPositionListener) {
         messageReceiver.registerOpenPositionListener(openPositionListener);
@@ -95,27 +353,91 @@ public class WebsocketUserStream extends WebsocketStream<UserMessageReceiver> im
 
     @Override
     public void placeOrder(LimitOrderSpec limitOrderSpec) {
-        sender.sendOrderSpec(limitOrderSpec);
+        send(checkRisk(limitOrderSpec), limitOrderSpec, null);
+    }
+
+    @Override
+    public CompletableFuture<OrderPlaced> placeOrderAsync(LimitOrderSpec limitOrderSpec) {
+        return sendAsync(PendingCommands.Kind.PLACE, limitOrderSpec);
     }
 
     @Override
     public void cancelOrder(OrderCancelSpec orderCancelSpec) {
-        sender.sendOrderSpec(orderCancelSpec);
+        send(checkRisk(orderCancelSpec), orderCancelSpec, null);
+    }
+
+    @Override
+    public CompletableFuture<OrderCancelled> cancelOrderAsync(OrderCancelSpec orderCancelSpec) {
+        return sendAsync(PendingCommands.Kind.CANCEL, orderCancelSpec);
     }
 
     @Override
     public void modifyOrder(OrderModificationSpec orderModificationSpec) {
-        sender.sendOrderSpec(orderModificationSpec);
+        send(checkRisk(orderModificationSpec), orderModificationSpec, null);
+    }
+
+    @Override
+    public CompletableFuture<OrderModified> modifyOrderAsync(OrderModificationSpec orderModificationSpec) {
+        return sendAsync(PendingCommands.Kind.MODIFY, orderModificationSpec);
     }
 
     @Override
     public Batch batch() {
-        return new BatchImpl();
+        return new ListBatch(this);
     }
 
     @Override
     public void batch(List<? extends OrderSpec> batch) {
-        sender.sendBatch(batch);
+        PreTradeRiskCheck preTradeRiskCheck = this.preTradeRiskCheck;
+        if (preTradeRiskCheck != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                RiskRejectReason rejectReason = preTradeRiskCheck.check(batch.get(i));
+                if (rejectReason != null) {
+                    for (int j = 0; j < i; j++) {
+                        preTradeRiskCheck.onNotSent(batch.get(j));
+                    }
+                    throw new PreTradeRiskException(rejectReason, batch.get(i));
+                }
+            }
+        }
+        OrderTracker orderTracker = this.orderTracker;
+        if (orderTracker != null) {
+            for (OrderSpec orderSpec : batch) {
+                if (orderSpec instanceof OrderModificationSpec) {
+                    orderTracker.onModificationSent((OrderModificationSpec) orderSpec);
+                }
+            }
+        }
+        try {
+            sender.sendBatch(batch);
+        } catch (RuntimeException e) {
+            for (OrderSpec orderSpec : batch) {
+                onNotSent(preTradeRiskCheck, orderTracker, orderSpec);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Cancellations are not subject to the {@link #registerPreTradeRiskCheck pre-trade risk check} nor to the
+     * {@link #enableRateLimit rate limit}.
+     */
+    @Override
+    public int cancelAll() {
+        return cancelOrders(getTrackedOrders().getOrders(), null, null, null);
+    }
+
+    @Override
+    public int cancelAll(int instrumentId) {
+        return cancelOrders(getTrackedOrders().getOrders(instrumentId), instrumentId, null, null);
+    }
+
+    @Override
+    public int cancelAll(int instrumentId, OrderSide side) {
+        checkNotNull(side, "null side");
+        return cancelOrders(getTrackedOrders().getOrders(instrumentId), instrumentId, side, null);
     }
 
     @Override
@@ -125,62 +447,202 @@ public class WebsocketUserStream extends WebsocketStream<UserMessageReceiver> im
 
     @Override
     public void stop() throws CommunicationException {
-        super.stop();
         sender.stop();
+        super.stop();
+        PendingCommands pendingCommands = messageReceiver.getPendingCommands();
+        pendingCommands.failAll(new CommunicationException("Stream stopped"));
+        pendingCommands.shutdown();
     }
 
-    private class BatchImpl implements Batch {
+    private OrderTracker.Snapshot getTrackedOrders() {
+        OrderTracker orderTracker = this.orderTracker;
+        checkState(orderTracker != null, "No OrderTracker registered");
+        return orderTracker.getSnapshot();
+    }
 
-        private final List<OrderSpec> batch = new ArrayList<>();
-        private boolean sent;
+    /**
+     * Cancels the given orders and removes the matching queued commands, as described in {@link #cancelAll()}.
+     *
+     * @param instrumentId instrument of the queued placements to remove, null for all
+     * @param side side of the orders to cancel and of the queued placements to remove, null for both
+     * @param removedCommands told about each removed command once it has been accounted for, may be null
+     * @return number of orders to be cancelled
+     */
+    int cancelOrders(
+            List<TrackedOrder> orders,
+            Integer instrumentId,
+            OrderSide side,
+            Consumer<? super OrderSpec> removedCommands
+    ) {
+        List<OrderCancelSpec> cancellations = new ArrayList<>(orders.size());
+        Set<Long> orderIds = new HashSet<>();
+        for (TrackedOrder order : orders) {
+            if (side == null || order.getSide() == side) {
+                cancellations.add(new OrderCancelSpec(order.getOrderId()));
+                orderIds.add(order.getOrderId());
+            }
+        }
+        List<OrderSpec> removed = sender.removeQueuedOrderCommands(
+                placement -> (instrumentId == null || placement.getInstrumentId() == instrumentId)
+                        && (side == null || placement.getSide() == side),
+                orderIds
+        );
+        sender.sendCancellations(cancellations);
+        PreTradeRiskCheck preTradeRiskCheck = this.preTradeRiskCheck;
+        OrderTracker orderTracker = this.orderTracker;
+        for (OrderSpec orderSpec : removed) {
+            onRemoved(preTradeRiskCheck, orderTracker, orderSpec);
+            if (removedCommands != null) {
+                removedCommands.accept(orderSpec);
+            }
+        }
+        return cancellations.size();
+    }
 
-        @Override
-        public Batch placeOrder(LimitOrderSpec limitOrderSpec) {
-            checkState(!sent, "Batch already sent");
-            batch.add(limitOrderSpec);
-            return this;
+    private <T> CompletableFuture<T> sendAsync(PendingCommands.Kind kind, OrderSpec orderSpec) {
+        PreTradeRiskCheck preTradeRiskCheck;
+        try {
+            preTradeRiskCheck = checkRisk(orderSpec);
+        } catch (PreTradeRiskException e) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+        PendingCommands pendingCommands = messageReceiver.getPendingCommands();
+        long clientOrderId = orderSpec.getClientOrderId();
+        CompletableFuture<T> future =
+                pendingCommands.register(kind, clientOrderId, orderSpec, asyncCommandTimeoutNanos);
+        try {
+            send(preTradeRiskCheck, orderSpec, future);
+        } catch (RuntimeException e) {
+            pendingCommands.fail(kind, clientOrderId, future, new CommunicationException("Error sending command", e));
         }
+        return future;
+    }
 
-        @Override
-        public Batch placeOrders(List<LimitOrderSpec> limitOrderSpecs) {
-            checkState(!sent, "Batch already sent");
-            batch.addAll(limitOrderSpecs);
-            return this;
+    /**
+     * @return the check which accepted the given command, null if none registered
+     * @throws PreTradeRiskException if the command is rejected
+     */
+    private PreTradeRiskCheck checkRisk(OrderSpec orderSpec) {
+        PreTradeRiskCheck preTradeRiskCheck = this.preTradeRiskCheck;
+        if (preTradeRiskCheck != null) {
+            RiskRejectReason rejectReason = preTradeRiskCheck.check(orderSpec);
+            if (rejectReason != null) {
+                throw new PreTradeRiskException(rejectReason, orderSpec);
+            }
         }
+        return preTradeRiskCheck;
+    }
 
-        @Override
-        public Batch cancelOrder(OrderCancelSpec orderCancelSpec) {
-            checkState(!sent, "Batch already sent");
-            batch.add(orderCancelSpec);
-            return this;
+    /**
+     * @param preTradeRiskCheck the check which accepted the command, informed if it is not sent
+     * @param future future of the command if sent asynchronously, null otherwise
+     */
+    private void send(PreTradeRiskCheck preTradeRiskCheck, OrderSpec orderSpec, CompletableFuture<?> future) {
+        OrderTracker orderTracker = this.orderTracker;
+        if (orderTracker != null && orderSpec instanceof OrderModificationSpec) {
+            orderTracker.onModificationSent((OrderModificationSpec) orderSpec);
         }
+        OrderSpec dropped;
+        try {
+            dropped = sender.sendOrderSpec(orderSpec);
+        } catch (RuntimeException e) {
+            onNotSent(preTradeRiskCheck, orderTracker, orderSpec);
+            throw e;
+        }
+        if (dropped instanceof OrderModificationSpec) {
+            onSuperseded((OrderModificationSpec) dropped, future);
+        } else if (dropped instanceof LimitOrderSpec) {
+            onEliminated(preTradeRiskCheck, (LimitOrderSpec) dropped, (OrderCancelSpec) orderSpec, future);
+        }
+    }
 
-        @Override
-        public Batch cancelOrders(List<OrderCancelSpec> orderCancelSpecs) {
-            checkState(!sent, "Batch already sent");
-            batch.addAll(orderCancelSpecs);
-            return this;
+    /**
+     * Accounts for a command which was accepted by the risk check, and registered with the tracker if a modification,
+     * but could not be queued.
+     */
+    private static void onNotSent(PreTradeRiskCheck preTradeRiskCheck, OrderTracker orderTracker, OrderSpec orderSpec) {
+        if (preTradeRiskCheck != null) {
+            preTradeRiskCheck.onNotSent(orderSpec);
         }
+        if (orderTracker != null && orderSpec instanceof OrderModificationSpec) {
+            orderTracker.onModificationSuperseded((OrderModificationSpec) orderSpec);
+        }
+    }
 
-        @Override
-        public Batch modifyOrder(OrderModificationSpec orderModificationSpec) {
-            checkState(!sent, "Batch already sent");
-            batch.add(orderModificationSpec);
-            return this;
+    /**
+     * Accounts for a queued command removed by {@link #cancelOrders}, which will not be sent: the future of a placement
+     * or a modification is completed with a {@link CancellationException} and the one of a cancellation (of a removed
+     * placement) with an {@link OrderCancelled}.
+     */
+    private void onRemoved(PreTradeRiskCheck preTradeRiskCheck, OrderTracker orderTracker, OrderSpec orderSpec) {
+        onNotSent(preTradeRiskCheck, orderTracker, orderSpec);
+        long clientOrderId = orderSpec.getClientOrderId();
+        PendingCommands pendingCommands = messageReceiver.getPendingCommands();
+        if (orderSpec instanceof OrderCancelSpec) {
+            pendingCommands.completeCommand(
+                    PendingCommands.Kind.CANCEL,
+                    clientOrderId,
+                    orderSpec,
+                    new OrderCancelled(clientOrderId)
+            );
+        } else {
+            pendingCommands.failCommand(
+                    orderSpec instanceof LimitOrderSpec ? PendingCommands.Kind.PLACE : PendingCommands.Kind.MODIFY,
+                    clientOrderId,
+                    orderSpec,
+                    new CancellationException("Cancelled before being sent")
+            );
         }
+    }
 
-        @Override
-        public Batch modifyOrders(List<OrderModificationSpec> orderModificationSpec) {
-            checkState(!sent, "Batch already sent");
-            batch.addAll(orderModificationSpec);
-            return this;
+    /**
+     * Accounts for a queued modification replaced by a newer one, which will not be answered by the exchange.
+     *
+     * @param successor future of the replacing modification, null if sent synchronously
+     */
+    private void onSuperseded(OrderModificationSpec superseded, CompletableFuture<?> successor) {
+        OrderTracker orderTracker = this.orderTracker;
+        if (orderTracker != null) {
+            orderTracker.onModificationSuperseded(superseded);
         }
+        messageReceiver.getPendingCommands()
+                .supersede(PendingCommands.Kind.MODIFY, superseded.getClientOrderId(), superseded, successor);
+    }
 
-        @Override
-        public void send() {
-            checkState(!sent, "Batch already sent");
-            sent = true;
-            WebsocketUserStream.this.batch(batch);
+    /**
+     * Accounts for a queued placement removed together with its cancellation, none of which will be sent: the future
+     * of the placement is completed with a {@link CancellationException} and the one of the cancellation with an
+     * {@link OrderCancelled}, as if the order had been placed and cancelled.
+     *
+     * @param cancellationFuture future of the cancellation, null if sent synchronously
+     */
+    private void onEliminated(
+            PreTradeRiskCheck preTradeRiskCheck,
+            LimitOrderSpec placement,
+            OrderCancelSpec cancellation,
+            CompletableFuture<?> cancellationFuture
+    ) {
+        if (preTradeRiskCheck != null) {
+            preTradeRiskCheck.onNotSent(placement);
+            preTradeRiskCheck.onNotSent(cancellation);
+        }
+        long clientOrderId = placement.getClientOrderId();
+        PendingCommands pendingCommands = messageReceiver.getPendingCommands();
+        pendingCommands.failCommand(
+                PendingCommands.Kind.PLACE,
+                clientOrderId,
+                placement,
+                new CancellationException("Cancelled before being sent")
+        );
+        if (cancellationFuture != null) {
+            pendingCommands.completeCommand(
+                    PendingCommands.Kind.CANCEL,
+                    clientOrderId,
+                    cancellation,
+                    new OrderCancelled(clientOrderId)
+            );
         }
     }
 }
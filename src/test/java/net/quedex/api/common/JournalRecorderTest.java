@@ -0,0 +1,142 @@
+package net.quedex.api.common;
+
+import com.google.common.base.Strings;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static net.quedex.api.testcommons.Utils.deleteRecursively;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JournalRecorderTest {
+
+    private static final int SEGMENT_SIZE = 1 << 16;
+
+    private Path directory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        deleteRecursively(directory);
+    }
+
+    @Test
+    public void testRecordsAreReadBack() throws Exception {
+
+        // given
+        try (JournalRecorder recorder = new JournalRecorder(directory, "market", SEGMENT_SIZE, true)) {
+
+            // when
+            recorder.recordRawFrame("{\"type\":\"keepalive\"}");
+            recorder.recordVerifiedPayload("za\u017c\u00f3\u0142\u0107 \ud83d\ude00");
+        }
+
+        // then
+        try (JournalReader reader = new JournalReader(directory, "market")) {
+            assertThat(reader.next()).isTrue();
+            assertThat(reader.getType()).isEqualTo(JournalRecorder.RAW_FRAME);
+            assertThat(reader.getSequence()).isEqualTo(1);
+            assertThat(reader.getContent()).isEqualTo("{\"type\":\"keepalive\"}");
+            long firstNanoTime = reader.getNanoTime();
+
+            assertThat(reader.next()).isTrue();
+            assertThat(reader.getType()).isEqualTo(JournalRecorder.VERIFIED_PAYLOAD);
+            assertThat(reader.getSequence()).isEqualTo(2);
+            assertThat(reader.getContent()).isEqualTo("za\u017c\u00f3\u0142\u0107 \ud83d\ude00");
+            assertThat(reader.getNanoTime()).isGreaterThanOrEqualTo(firstNanoTime);
+
+            assertThat(reader.next()).isFalse();
+        }
+    }
+
+    @Test
+    public void testVerifiedPayloadsAreSkippedIfDisabled() throws Exception {
+
+        // given
+        try (JournalRecorder recorder = new JournalRecorder(directory, "market", SEGMENT_SIZE, false)) {
+
+            // when
+            recorder.recordVerifiedPayload("verified");
+            recorder.recordRawFrame("raw");
+        }
+
+        // then
+        try (JournalReader reader = new JournalReader(directory, "market")) {
+            assertThat(reader.next()).isTrue();
+            assertThat(reader.getContent()).isEqualTo("raw");
+            assertThat(reader.next()).isFalse();
+        }
+    }
+
+    @Test
+    public void testSegmentsAreRolledOver() throws Exception {
+
+        // given
+        String frame = Strings.repeat("x", 1000);
+
+        // when
+        try (JournalRecorder recorder = new JournalRecorder(directory, "market", SEGMENT_SIZE, false)) {
+            for (int i = 0; i < 200; i++) {
+                recorder.recordRawFrame(frame + i);
+            }
+            assertThat(recorder.getDroppedCount()).isZero();
+        }
+
+        // then
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.count()).isGreaterThan(1);
+        }
+        try (JournalReader reader = new JournalReader(directory, "market")) {
+            for (int i = 0; i < 200; i++) {
+                assertThat(reader.next()).isTrue();
+                assertThat(reader.getSequence()).isEqualTo(i + 1);
+                assertThat(reader.getContent()).isEqualTo(frame + i);
+            }
+            assertThat(reader.next()).isFalse();
+        }
+    }
+
+    @Test
+    public void testTooBigRecordIsDropped() throws Exception {
+
+        // given
+        try (JournalRecorder recorder = new JournalRecorder(directory, "market", SEGMENT_SIZE, false)) {
+
+            // when
+            recorder.recordRawFrame(Strings.repeat("x", SEGMENT_SIZE));
+
+            // then
+            assertThat(recorder.getDroppedCount()).isEqualTo(1);
+            assertThat(recorder.getSequence()).isZero();
+        }
+    }
+
+    @Test
+    public void testEmptyRecordIsDropped() throws Exception {
+
+        // given
+        try (JournalRecorder recorder = new JournalRecorder(directory, "market", SEGMENT_SIZE, false)) {
+
+            // when
+            recorder.recordRawFrame("");
+            recorder.recordRawFrame("{\"type\":\"keepalive\"}");
+
+            // then
+            assertThat(recorder.getDroppedCount()).isEqualTo(1);
+            assertThat(recorder.getSequence()).isEqualTo(1);
+        }
+        try (JournalReader reader = new JournalReader(directory, "market")) {
+            assertThat(reader.next()).isTrue();
+            assertThat(reader.getContent()).isEqualTo("{\"type\":\"keepalive\"}");
+            assertThat(reader.next()).isFalse();
+        }
+    }
+}
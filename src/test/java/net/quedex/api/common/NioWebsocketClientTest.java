@@ -0,0 +1,186 @@
+package net.quedex.api.common;
+
+import com.google.common.base.Strings;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class NioWebsocketClientTest {
+
+    @Mock private WebsocketTransport.Listener listener;
+
+    private WebSocketServer server;
+    private NioWebsocketClient client;
+    private URI uri;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new WebSocketServer(new InetSocketAddress("localhost", port)) {
+            @Override
+            public void onOpen(WebSocket conn, ClientHandshake handshake) {
+                conn.send("hello " + handshake.getResourceDescriptor());
+            }
+
+            @Override
+            public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onMessage(WebSocket conn, String message) {
+                if ("close".equals(message)) {
+                    conn.close(4000, "bye");
+                } else {
+                    conn.send(message);
+                }
+            }
+
+            @Override
+            public void onError(WebSocket conn, Exception ex) {
+            }
+        };
+        server.start();
+        awaitBound(port);
+
+        client = new NioWebsocketClient();
+        uri = URI.create("ws://localhost:" + port + "/market?keepalive=true");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    public void testExchangesMessages() throws Exception {
+
+        // given
+        WebsocketTransport transport = client.create(uri, listener);
+
+        // when
+        transport.connect();
+        transport.send("echo \u0105\u20ac");
+
+        // then
+        verify(listener, timeout(5000)).onMessage("hello /market?keepalive=true");
+        verify(listener, timeout(5000)).onMessage("echo \u0105\u20ac");
+
+        transport.close();
+        verify(listener, timeout(5000)).onClose(anyInt(), anyString(), eq(false));
+        verify(listener, never()).onError(any());
+    }
+
+    @Test
+    public void testExchangesMessagesLargerThanBuffers() throws Exception {
+
+        // given
+        WebsocketTransport transport = client.create(uri, listener);
+        String large = Strings.repeat("0123456789", 100_000);
+
+        // when
+        transport.connect();
+        transport.send(large);
+
+        // then
+        verify(listener, timeout(5000)).onMessage(large);
+        verify(listener, never()).onError(any());
+    }
+
+    @Test
+    public void testSharesClientBetweenConnections() throws Exception {
+
+        // given
+        WebsocketTransport transport1 = client.create(uri, listener);
+        WebsocketTransport transport2 = client.create(uri, listener);
+
+        // when
+        transport1.connect();
+        transport2.connect();
+        transport1.send("first");
+        transport2.send("second");
+
+        // then
+        verify(listener, timeout(5000)).onMessage("first");
+        verify(listener, timeout(5000)).onMessage("second");
+    }
+
+    @Test
+    public void testReportsRemoteClose() throws Exception {
+
+        // given
+        WebsocketTransport transport = client.create(uri, listener);
+        transport.connect();
+
+        // when
+        transport.send("close");
+
+        // then
+        verify(listener, timeout(5000)).onClose(4000, "bye", true);
+    }
+
+    @Test
+    public void testSendFailsWhenNotConnected() throws Exception {
+
+        // given
+        WebsocketTransport transport = client.create(uri, listener);
+
+        // when
+        try {
+            transport.send("anything");
+            fail("Expected DisconnectedException");
+        } catch (DisconnectedException e) {
+            // then
+            assertThat(e).hasMessageContaining("not open");
+        }
+    }
+
+    @Test(expectedExceptions = CommunicationException.class)
+    public void testConnectFailsWhenNoServer() throws Exception {
+
+        // given
+        server.stop();
+        WebsocketTransport transport = client.create(uri, listener);
+
+        // when
+        transport.connect();
+    }
+
+    private static void awaitBound(int port) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(10);
+            }
+        }
+        throw new IllegalStateException("Server not bound to port=" + port);
+    }
+}
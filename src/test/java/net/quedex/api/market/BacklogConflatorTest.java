@@ -0,0 +1,124 @@
+package net.quedex.api.market;
+
+import net.quedex.api.common.JournalRecorder;
+import net.quedex.api.common.StreamFailureListener;
+import net.quedex.api.pgp.BcPublicKey;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class BacklogConflatorTest {
+
+    @Mock private OrderBookListener orderBookListener;
+    @Mock private TradeListener tradeListener;
+    @Mock private StreamFailureListener streamFailureListener;
+    @Mock private JournalRecorder journalRecorder;
+
+    private BacklogConflator conflator;
+    private MarketMessageReceiver messageReceiver;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        messageReceiver = new MarketMessageReceiver(BcPublicKey.fromArmored(Fixtures.PUB_KEY));
+        messageReceiver.registerStreamFailureListener(streamFailureListener);
+        messageReceiver.registerOrderBookListener(orderBookListener).subscribe(1);
+        messageReceiver.registerTradeListener(tradeListener).subscribe(1);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if (conflator != null) {
+            conflator.stop();
+        }
+    }
+
+    @Test
+    public void testPeekConflationKey() {
+
+        // when
+        long orderBookKey = BacklogConflator.peekConflationKey(Fixtures.ORDER_BOOK_STR);
+        long quotesKey = BacklogConflator.peekConflationKey(Fixtures.QUOTES_STR);
+
+        // then
+        assertThat(orderBookKey).isNotEqualTo(-1);
+        assertThat(quotesKey).isNotEqualTo(-1).isNotEqualTo(orderBookKey);
+        assertThat(BacklogConflator.peekConflationKey(Fixtures.TRADE_STR)).isEqualTo(-1);
+        assertThat(BacklogConflator.peekConflationKey(Fixtures.SESSION_STATE_STR)).isEqualTo(-1);
+        assertThat(BacklogConflator.peekConflationKey(Fixtures.ERROR_MAINTENANCE_STR)).isEqualTo(-1);
+        assertThat(BacklogConflator.peekConflationKey("BOMBA")).isEqualTo(-1);
+    }
+
+    @Test
+    public void testSupersededOrderBooksAreDroppedUnderBacklog() throws Exception {
+
+        // given
+        conflator = new BacklogConflator(messageReceiver, 16, 0);
+        conflator.offer(Fixtures.ORDER_BOOK_STR);
+        conflator.offer(Fixtures.ORDER_BOOK_STR);
+        conflator.offer(Fixtures.TRADE_STR);
+        conflator.offer(Fixtures.ORDER_BOOK_STR);
+
+        // when
+        conflator.start("test-processing");
+
+        // then
+        verify(orderBookListener, timeout(5000)).onOrderBook(any());
+        verify(tradeListener, timeout(5000)).onTrade(any());
+        verify(streamFailureListener, never()).onStreamFailure(any());
+        assertThat(conflator.getConflatedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testDroppedFramesAreRecorded() throws Exception {
+
+        // given
+        messageReceiver.registerJournalRecorder(journalRecorder);
+        conflator = new BacklogConflator(messageReceiver, 16, 0);
+        conflator.offer(Fixtures.ORDER_BOOK_STR);
+        conflator.offer(Fixtures.TRADE_STR);
+        conflator.offer(Fixtures.ORDER_BOOK_STR);
+
+        // when
+        conflator.start("test-processing");
+
+        // then
+        verify(orderBookListener, timeout(5000)).onOrderBook(any());
+        verify(tradeListener, timeout(5000)).onTrade(any());
+        assertThat(conflator.getConflatedCount()).isEqualTo(1);
+        InOrder inOrder = inOrder(journalRecorder);
+        inOrder.verify(journalRecorder).recordRawFrame(Fixtures.ORDER_BOOK_STR);
+        inOrder.verify(journalRecorder).recordRawFrame(Fixtures.TRADE_STR);
+        inOrder.verify(journalRecorder).recordRawFrame(Fixtures.ORDER_BOOK_STR);
+        inOrder.verify(journalRecorder, never()).recordRawFrame(anyString());
+    }
+
+    @Test
+    public void testNothingIsDroppedBelowThreshold() throws Exception {
+
+        // given
+        conflator = new BacklogConflator(messageReceiver, 16, 10);
+        conflator.offer(Fixtures.ORDER_BOOK_STR);
+        conflator.offer(Fixtures.ORDER_BOOK_STR);
+        conflator.offer(Fixtures.ORDER_BOOK_STR);
+
+        // when
+        conflator.start("test-processing");
+
+        // then
+        verify(orderBookListener, timeout(5000).times(3)).onOrderBook(any());
+        assertThat(conflator.getConflatedCount()).isEqualTo(0);
+    }
+}
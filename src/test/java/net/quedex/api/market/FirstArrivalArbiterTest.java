@@ -0,0 +1,136 @@
+package net.quedex.api.market;
+
+import net.quedex.api.common.StreamFailureListener;
+import net.quedex.api.pgp.BcPublicKey;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class FirstArrivalArbiterTest {
+
+    private static final String KEEPALIVE_STR = "{\"type\":\"keepalive\",\"timestamp\":1470681720788}";
+
+    @Mock private OrderBookListener orderBookListener;
+    @Mock private TradeListener tradeListener;
+    @Mock private StreamFailureListener streamFailureListener;
+
+    private FirstArrivalArbiter arbiter;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        MarketMessageReceiver messageReceiver = new MarketMessageReceiver(BcPublicKey.fromArmored(Fixtures.PUB_KEY));
+        messageReceiver.registerStreamFailureListener(streamFailureListener);
+        messageReceiver.registerOrderBookListener(orderBookListener).subscribe(1);
+        messageReceiver.registerTradeListener(tradeListener).subscribe(1);
+        arbiter = new FirstArrivalArbiter(messageReceiver, 2, 16);
+    }
+
+    @Test
+    public void testPeekEventKey() {
+
+        // when
+        Object orderBookKey = FirstArrivalArbiter.peekEventKey(Fixtures.ORDER_BOOK_STR);
+        Object quotesKey = FirstArrivalArbiter.peekEventKey(Fixtures.QUOTES_STR);
+
+        // then
+        assertThat(FirstArrivalArbiter.peekEventKey(Fixtures.TRADE_STR)).isEqualTo(70L);
+        assertThat(orderBookKey).isNotNull().isEqualTo(FirstArrivalArbiter.peekEventKey(Fixtures.ORDER_BOOK_STR));
+        assertThat(quotesKey).isNotNull().isNotEqualTo(orderBookKey);
+        assertThat(FirstArrivalArbiter.peekEventKey(Fixtures.ERROR_MAINTENANCE_STR)).isNotNull();
+        assertThat(FirstArrivalArbiter.peekEventKey(KEEPALIVE_STR)).isNull();
+        assertThat(FirstArrivalArbiter.peekEventKey("BOMBA")).isNull();
+    }
+
+    @Test
+    public void testPassesOnFirstCopyOnly() {
+
+        // when
+        arbiter.process(0, Fixtures.ORDER_BOOK_STR);
+        arbiter.process(1, Fixtures.TRADE_STR);
+        arbiter.process(1, Fixtures.ORDER_BOOK_STR);
+        arbiter.process(0, Fixtures.TRADE_STR);
+
+        // then
+        verify(orderBookListener).onOrderBook(any());
+        verify(tradeListener).onTrade(any());
+        verify(streamFailureListener, never()).onStreamFailure(any());
+        assertThat(arbiter.getFirstArrivalCounts()).containsExactly(1, 1);
+        assertThat(arbiter.getDuplicateCount()).isEqualTo(2);
+        assertThat(arbiter.getTrackedEventCount()).isZero();
+    }
+
+    @Test
+    public void testPassesOnRepeatedEventOncePerRepetition() {
+
+        // when
+        arbiter.process(0, Fixtures.ORDER_BOOK_STR);
+        arbiter.process(0, Fixtures.ORDER_BOOK_STR);
+        arbiter.process(1, Fixtures.ORDER_BOOK_STR);
+        arbiter.process(1, Fixtures.ORDER_BOOK_STR);
+        arbiter.process(1, Fixtures.ORDER_BOOK_STR);
+
+        // then
+        verify(orderBookListener, times(3)).onOrderBook(any());
+        assertThat(arbiter.getFirstArrivalCounts()).containsExactly(2, 1);
+        assertThat(arbiter.getTrackedEventCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testTamperedCopyDoesNotSuppressGenuineOne() {
+
+        // given
+        String tampered = Fixtures.TRADE_STR.replace("0.00166666", "0.00166667");
+        assertThat(FirstArrivalArbiter.peekEventKey(tampered)).isEqualTo(70L);
+
+        // when
+        arbiter.process(0, tampered);
+        arbiter.process(1, Fixtures.TRADE_STR);
+
+        // then
+        verify(streamFailureListener).onStreamFailure(any());
+        verify(tradeListener).onTrade(any());
+        assertThat(arbiter.getFirstArrivalCounts()).containsExactly(0, 1);
+    }
+
+    @Test
+    public void testDoesNotPassOnAgainCopyWhoseListenerThrew() {
+
+        // given
+        doThrow(new IllegalStateException("listener failure")).when(tradeListener).onTrade(any());
+
+        // when
+        arbiter.process(0, Fixtures.TRADE_STR);
+        arbiter.process(1, Fixtures.TRADE_STR);
+
+        // then
+        verify(tradeListener).onTrade(any());
+        verify(streamFailureListener).onStreamFailure(any());
+        assertThat(arbiter.getDuplicateCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testForgetsEventsOfLostConnection() {
+
+        // given
+        arbiter.removeConnection(1);
+
+        // when
+        arbiter.process(0, Fixtures.ORDER_BOOK_STR);
+        arbiter.process(0, Fixtures.TRADE_STR);
+
+        // then
+        verify(orderBookListener).onOrderBook(any());
+        verify(tradeListener).onTrade(any());
+        assertThat(arbiter.getTrackedEventCount()).isZero();
+    }
+}
@@ -0,0 +1,91 @@
+package net.quedex.api.market;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static net.quedex.api.testcommons.Utils.$;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InstrumentCatalogueTest {
+
+    private static final long ISSUE = 1509667200000L;
+    private static final long EXPIRY_1 = 1511481600000L;
+    private static final long EXPIRY_2 = 1512086400000L;
+
+    private final Instrument future1 = futures(1, "F.BTCUSD.24NOV17", EXPIRY_1);
+    private final Instrument future2 = futures(2, "F.BTCUSD.01DEC17", EXPIRY_2);
+    private final Instrument call6300 = option(3, "O.BTCUSD.24NOV17:C6300", EXPIRY_1, Instrument.OptionType.CALL_EUROPEAN, 6300);
+    private final Instrument call6500 = option(4, "O.BTCUSD.24NOV17:C6500", EXPIRY_1, Instrument.OptionType.CALL_EUROPEAN, 6500);
+    private final Instrument put6400 = option(5, "O.BTCUSD.24NOV17:P6400", EXPIRY_1, Instrument.OptionType.PUT_EUROPEAN, 6400);
+
+    private InstrumentCatalogue catalogue;
+
+    @BeforeMethod
+    public void setUp() {
+        Map<Integer, Instrument> instruments = ImmutableList.of(future1, future2, call6300, call6500, put6400).stream()
+                .collect(Collectors.toMap(Instrument::getInstrumentId, Function.identity()));
+        catalogue = InstrumentCatalogue.of(instruments);
+    }
+
+    @Test
+    public void testLookupByIdAndSymbol() {
+        assertThat(catalogue.size()).isEqualTo(5);
+        assertThat(catalogue.getInstrument(3)).isSameAs(call6300);
+        assertThat(catalogue.getInstrument("O.BTCUSD.24NOV17:P6400")).isSameAs(put6400);
+        assertThat(catalogue.getInstrument(42)).isNull();
+        assertThat(catalogue.getInstruments("USD")).hasSize(5);
+        assertThat(catalogue.getInstruments("EUR")).isEmpty();
+    }
+
+    @Test
+    public void testExpirations() {
+        assertThat(catalogue.getExpirations("USD").keySet()).containsExactly(EXPIRY_1, EXPIRY_2);
+        assertThat(catalogue.getExpiry("USD", EXPIRY_2).getFuture()).isSameAs(future2);
+        assertThat(catalogue.getNextExpiry("USD", EXPIRY_1 + 1).getExpirationDate()).isEqualTo(EXPIRY_2);
+        assertThat(catalogue.getNextExpiry("USD", EXPIRY_2 + 1)).isNull();
+    }
+
+    @Test
+    public void testStrikeLookups() {
+
+        // given
+        InstrumentCatalogue.Expiry expiry = catalogue.getExpiry("USD", EXPIRY_1);
+
+        // then
+        assertThat(expiry.getFuture()).isSameAs(future1);
+        assertThat(expiry.getOptions(Instrument.OptionType.CALL_EUROPEAN).values()).containsExactly(call6300, call6500);
+        assertThat(expiry.getOptions(Instrument.OptionType.PUT_EUROPEAN).values()).containsExactly(put6400);
+        assertThat(expiry.getOption(Instrument.OptionType.CALL_EUROPEAN, new BigDecimal("6300.00"))).isSameAs(call6300);
+        assertThat(expiry.getOptionAtOrBelow(Instrument.OptionType.CALL_EUROPEAN, $(6400))).isSameAs(call6300);
+        assertThat(expiry.getOptionAtOrAbove(Instrument.OptionType.CALL_EUROPEAN, $(6400))).isSameAs(call6500);
+        assertThat(expiry.getNearestOption(Instrument.OptionType.CALL_EUROPEAN, $(6450))).isSameAs(call6500);
+        assertThat(expiry.getNearestOption(Instrument.OptionType.CALL_EUROPEAN, $(6400))).isSameAs(call6300);
+        assertThat(expiry.getNearestOption(Instrument.OptionType.PUT_EUROPEAN, $(1))).isSameAs(put6400);
+    }
+
+    private static Instrument futures(int instrumentId, String symbol, long expirationDate) {
+        return new Instrument(
+                symbol, instrumentId, Instrument.Type.INVERSE_FUTURES, null, $("0.01"), ISSUE, expirationDate, "USD", 1,
+                $(0), $(0), $("0.04"), $("0.03"), null
+        );
+    }
+
+    private static Instrument option(
+            int instrumentId,
+            String symbol,
+            long expirationDate,
+            Instrument.OptionType optionType,
+            int strike
+    ) {
+        return new Instrument(
+                symbol, instrumentId, Instrument.Type.INVERSE_OPTION, optionType, $("0.0001"), ISSUE, expirationDate,
+                "USD", 1, $(0), $(0), $("0.04"), $("0.03"), $(strike)
+        );
+    }
+}
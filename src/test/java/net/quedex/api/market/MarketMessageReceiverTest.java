@@ -23,6 +23,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 public class MarketMessageReceiverTest {
@@ -35,6 +36,8 @@ public class MarketMessageReceiverTest {
     @Mock private TradeListener tradeListener;
     @Mock private StreamFailureListener streamFailureListener;
     @Mock private InstrumentsListener instrumentsListener;
+    @Mock private InstrumentCatalogueListener instrumentCatalogueListener;
+    @Mock private InstrumentsDeltaListener instrumentsDeltaListener;
 
     private MarketMessageReceiver messageReceiver;
 
@@ -187,6 +190,95 @@ public class MarketMessageReceiverTest {
         ));
     }
 
+    @Test
+    public void testInstrumentCatalogueProcessing() throws Exception {
+
+        // given
+        messageReceiver.registerInstrumentCatalogueListener(instrumentCatalogueListener);
+
+        // when
+        messageReceiver.processMessage(Fixtures.INSTRUMENT_DATA_STR);
+
+        // then
+        verify(streamFailureListener, never()).onStreamFailure(any());
+
+        final ArgumentCaptor<InstrumentCatalogue> captor = ArgumentCaptor.forClass(InstrumentCatalogue.class);
+        verify(instrumentCatalogueListener).onInstrumentCatalogue(captor.capture());
+        InstrumentCatalogue catalogue = captor.getValue();
+        assertThat(catalogue.getInstrument("F.BTCUSD.24NOV17").getInstrumentId()).isEqualTo(795);
+        assertThat(catalogue.getExpiry("USD", 1511481600000L).getFuture().getInstrumentId()).isEqualTo(795);
+    }
+
+    @Test
+    public void testInstrumentsDeltaProcessing() throws Exception {
+
+        // given
+        messageReceiver.registerInstrumentsDeltaListener(instrumentsDeltaListener);
+
+        // when
+        messageReceiver.processMessage(Fixtures.INSTRUMENT_DATA_STR);
+
+        // then
+        verify(streamFailureListener, never()).onStreamFailure(any());
+
+        final ArgumentCaptor<InstrumentsDelta> captor = ArgumentCaptor.forClass(InstrumentsDelta.class);
+        verify(instrumentsDeltaListener).onInstrumentsDelta(captor.capture());
+        InstrumentsDelta delta = captor.getValue();
+        assertThat(delta.getAdded()).isEqualTo(delta.getInstruments()).containsKey(795);
+        assertThat(delta.getRemoved()).isEmpty();
+        assertThat(delta.getChanged()).isEmpty();
+    }
+
+    @Test
+    public void testUnchangedInstrumentDataIsNotDeliveredAgain() throws Exception {
+
+        // given
+        messageReceiver.registerInstrumentsListener(instrumentsListener);
+        messageReceiver.registerInstrumentsDeltaListener(instrumentsDeltaListener);
+
+        // when
+        messageReceiver.processMessage(Fixtures.INSTRUMENT_DATA_STR);
+        messageReceiver.processMessage(Fixtures.INSTRUMENT_DATA_STR);
+
+        // then
+        verify(streamFailureListener, never()).onStreamFailure(any());
+        verify(instrumentsListener).onInstruments(any());
+        verify(instrumentsDeltaListener).onInstrumentsDelta(any());
+    }
+
+    @Test
+    public void testRepeatedFrameIsServedFromVerificationCache() throws Exception {
+
+        // given
+        Registration reg = messageReceiver.registerQuotesListener(quotesListener);
+        reg.subscribe(1);
+
+        // when
+        messageReceiver.processMessage(Fixtures.QUOTES_STR);
+        messageReceiver.processMessage(Fixtures.QUOTES_STR);
+
+        // then
+        verify(streamFailureListener, never()).onStreamFailure(any());
+        verify(quotesListener, times(2))
+                .onQuotes(new Quotes(1, $("0.00142858"), 1, null, null, $("0.00166944"), 3, 2, 0));
+        assertThat(messageReceiver.getVerifiedPayloadCache().getHitCount()).isEqualTo(1);
+        assertThat(messageReceiver.getVerifiedPayloadCache().getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFramesWhichAreNotCachedAreNotLookedUp() throws Exception {
+
+        // when
+        messageReceiver.processMessage(Fixtures.TRADE_STR);
+        messageReceiver.processMessage(Fixtures.SESSION_STATE_STR);
+        messageReceiver.processMessage(Fixtures.INSTRUMENT_DATA_STR);
+
+        // then
+        verify(streamFailureListener, never()).onStreamFailure(any());
+        assertThat(messageReceiver.getVerifiedPayloadCache().getMissCount()).isZero();
+        assertThat(messageReceiver.getVerifiedPayloadCache().getHitCount()).isZero();
+    }
+
     @Test
     public void testStreamFailureJsonProcessingError() throws Exception {
 
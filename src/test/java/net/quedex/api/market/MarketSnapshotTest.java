@@ -0,0 +1,176 @@
+package net.quedex.api.market;
+
+import com.google.common.collect.ImmutableSet;
+import net.quedex.api.common.StreamFailureListener;
+import net.quedex.api.pgp.BcPublicKey;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class MarketSnapshotTest {
+
+    @Mock private OrderBookListener orderBookListener;
+    @Mock private QuotesListener quotesListener;
+    @Mock private SessionStateListener sessionStateListener;
+    @Mock private InstrumentsListener instrumentsListener;
+    @Mock private StreamFailureListener streamFailureListener;
+
+    private Path file;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        file = Files.createTempFile("market", ".snapshot");
+        Files.delete(file);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testCachesAreRestoredFromSnapshot() throws Exception {
+
+        // given
+        MarketMessageReceiver liveReceiver = newReceiver();
+        liveReceiver.enableSnapshot(new MarketSnapshot(file));
+        liveReceiver.processMessage(Fixtures.INSTRUMENT_DATA_STR);
+        liveReceiver.processMessage(Fixtures.ORDER_BOOK_STR);
+        liveReceiver.processMessage(Fixtures.QUOTES_STR);
+        liveReceiver.processMessage(Fixtures.SESSION_STATE_STR);
+        liveReceiver.getSnapshot().write();
+
+        // when
+        MarketMessageReceiver restoredReceiver = newReceiver();
+        restoredReceiver.enableSnapshot(new MarketSnapshot(file));
+        restoredReceiver.registerInstrumentsListener(instrumentsListener);
+        restoredReceiver.registerAndSubscribeSessionStateListener(sessionStateListener);
+        restoredReceiver.registerOrderBookListener(orderBookListener).subscribe(1);
+        restoredReceiver.registerQuotesListener(quotesListener).subscribe(1);
+
+        // then
+        verify(streamFailureListener, never()).onStreamFailure(any());
+        verify(instrumentsListener).onInstruments(any());
+        verify(sessionStateListener).onSessionState(SessionState.AUCTION);
+
+        ArgumentCaptor<OrderBook> orderBookCaptor = ArgumentCaptor.forClass(OrderBook.class);
+        verify(orderBookListener).onOrderBook(orderBookCaptor.capture());
+        assertThat(orderBookCaptor.getValue().getInstrumentId()).isEqualTo(1);
+        assertThat(orderBookCaptor.getValue().isStale()).isTrue();
+
+        ArgumentCaptor<Quotes> quotesCaptor = ArgumentCaptor.forClass(Quotes.class);
+        verify(quotesListener).onQuotes(quotesCaptor.capture());
+        assertThat(quotesCaptor.getValue().isStale()).isTrue();
+
+        assertThat(restoredReceiver.isInstrumentDataStale()).isTrue();
+        assertThat(restoredReceiver.isSessionStateStale()).isTrue();
+
+        // when
+        restoredReceiver.processMessage(Fixtures.INSTRUMENT_DATA_STR);
+        restoredReceiver.processMessage(Fixtures.SESSION_STATE_STR);
+
+        // then
+        assertThat(restoredReceiver.isInstrumentDataStale()).isFalse();
+        assertThat(restoredReceiver.isSessionStateStale()).isFalse();
+    }
+
+    @Test
+    public void testStartsColdAndReplacesSnapshotWhichCannotBeRestored() throws Exception {
+
+        // given
+        MarketMessageReceiver liveReceiver = newReceiver();
+        liveReceiver.enableSnapshot(new MarketSnapshot(file));
+        liveReceiver.processMessage(Fixtures.SESSION_STATE_STR);
+        liveReceiver.processMessage(Fixtures.ORDER_BOOK_STR);
+        liveReceiver.getSnapshot().onQuotes(1, "BOMBA"); // restored after the session state and the order book
+        liveReceiver.getSnapshot().write();
+
+        // when
+        MarketMessageReceiver restoredReceiver = newReceiver();
+        try {
+            restoredReceiver.enableSnapshot(new MarketSnapshot(file));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        restoredReceiver.registerAndSubscribeSessionStateListener(sessionStateListener);
+        restoredReceiver.registerOrderBookListener(orderBookListener).subscribe(1);
+
+        // then
+        verify(sessionStateListener, never()).onSessionState(any());
+        verify(orderBookListener, never()).onOrderBook(any());
+        assertThat(restoredReceiver.isSessionStateStale()).isFalse();
+        assertThat(restoredReceiver.getSnapshot()).isNotNull();
+
+        // when
+        restoredReceiver.getSnapshot().write();
+
+        // then
+        assertThat(new MarketSnapshot(file).load()).isEmpty();
+    }
+
+    @Test
+    public void testLiveDataOverwritesRestoredData() throws Exception {
+
+        // given
+        MarketMessageReceiver liveReceiver = newReceiver();
+        liveReceiver.enableSnapshot(new MarketSnapshot(file));
+        liveReceiver.processMessage(Fixtures.ORDER_BOOK_STR);
+        liveReceiver.getSnapshot().write();
+
+        MarketMessageReceiver restoredReceiver = newReceiver();
+        restoredReceiver.enableSnapshot(new MarketSnapshot(file));
+
+        // when
+        restoredReceiver.processMessage(Fixtures.ORDER_BOOK_STR);
+        restoredReceiver.registerOrderBookListener(orderBookListener).subscribe(1);
+
+        // then
+        ArgumentCaptor<OrderBook> orderBookCaptor = ArgumentCaptor.forClass(OrderBook.class);
+        verify(orderBookListener).onOrderBook(orderBookCaptor.capture());
+        assertThat(orderBookCaptor.getValue().isStale()).isFalse();
+    }
+
+    @Test
+    public void testForgetsInstrumentsNoLongerListed() throws Exception {
+
+        // given
+        MarketSnapshot snapshot = new MarketSnapshot(file);
+        snapshot.onOrderBook(1, "book1");
+        snapshot.onOrderBook(2, "book2");
+        snapshot.onQuotes(2, "quotes2");
+        snapshot.onTrade(2, "trade2");
+
+        // when
+        snapshot.retainInstruments(ImmutableSet.of(1));
+        snapshot.write();
+
+        // then
+        assertThat(snapshot.load()).containsExactly("book1");
+    }
+
+    @Test
+    public void testMissingSnapshotFileIsEmpty() throws Exception {
+        assertThat(new MarketSnapshot(file).load()).isEmpty();
+    }
+
+    private MarketMessageReceiver newReceiver() throws Exception {
+        MarketMessageReceiver receiver = new MarketMessageReceiver(BcPublicKey.fromArmored(Fixtures.PUB_KEY));
+        receiver.registerStreamFailureListener(streamFailureListener);
+        return receiver;
+    }
+}
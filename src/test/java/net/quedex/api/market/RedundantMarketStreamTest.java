@@ -0,0 +1,104 @@
+package net.quedex.api.market;
+
+import com.google.common.collect.ImmutableList;
+import net.quedex.api.common.CommunicationException;
+import net.quedex.api.common.DisconnectedException;
+import net.quedex.api.common.StreamFailureListener;
+import net.quedex.api.common.WebsocketTransport;
+import net.quedex.api.pgp.BcPublicKey;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class RedundantMarketStreamTest {
+
+    private static final String URL = "wss://localhost/market";
+
+    @Mock private TradeListener tradeListener;
+    @Mock private StreamFailureListener streamFailureListener;
+
+    private final List<WebsocketTransport> transports = new ArrayList<>();
+    private final List<WebsocketTransport.Listener> listeners = new ArrayList<>();
+    private RedundantMarketStream stream;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        transports.clear();
+        listeners.clear();
+
+        stream = new RedundantMarketStream(
+                ImmutableList.of(URL, URL),
+                BcPublicKey.fromArmored(Fixtures.PUB_KEY),
+                (uri, listener) -> {
+                    WebsocketTransport transport = mock(WebsocketTransport.class);
+                    transports.add(transport);
+                    listeners.add(listener);
+                    return transport;
+                }
+        );
+        stream.registerStreamFailureListener(streamFailureListener);
+        stream.registerTradeListener(tradeListener).subscribe(1);
+    }
+
+    @Test
+    public void testKeepsDeliveringUntilLastConnectionLost() throws Exception {
+
+        // given
+        stream.start();
+
+        // when
+        listeners.get(0).onClose(1006, "lost", true);
+        listeners.get(1).onMessage(Fixtures.TRADE_STR);
+
+        // then
+        verify(tradeListener).onTrade(any());
+        verify(streamFailureListener, never()).onStreamFailure(any());
+        assertThat(stream.getOpenConnectionCount()).isEqualTo(1);
+        assertThat(stream.getFirstArrivalCounts()).containsExactly(0, 1);
+
+        // when
+        listeners.get(1).onError(new IOException("reset"));
+
+        // then
+        verify(streamFailureListener).onStreamFailure(isA(DisconnectedException.class));
+        assertThat(stream.getOpenConnectionCount()).isZero();
+    }
+
+    @Test
+    public void testStartsWithSomeConnectionsOpen() throws Exception {
+
+        // given
+        doThrow(new CommunicationException("refused")).when(transports.get(1)).connect();
+
+        // when
+        stream.start();
+
+        // then
+        assertThat(stream.getOpenConnectionCount()).isEqualTo(1);
+    }
+
+    @Test(expectedExceptions = CommunicationException.class)
+    public void testFailsToStartWithoutAnyConnection() throws Exception {
+
+        // given
+        doThrow(new CommunicationException("refused")).when(transports.get(0)).connect();
+        doThrow(new CommunicationException("refused")).when(transports.get(1)).connect();
+
+        // when
+        stream.start();
+    }
+}
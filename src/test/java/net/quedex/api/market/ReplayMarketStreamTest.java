@@ -0,0 +1,95 @@
+package net.quedex.api.market;
+
+import com.google.common.collect.ImmutableList;
+import net.quedex.api.common.JournalRecorder;
+import net.quedex.api.common.StreamFailureListener;
+import net.quedex.api.pgp.BcPublicKey;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static net.quedex.api.testcommons.Utils.$;
+import static net.quedex.api.testcommons.Utils.deleteRecursively;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class ReplayMarketStreamTest {
+
+    @Mock private OrderBookListener orderBookListener;
+    @Mock private QuotesListener quotesListener;
+    @Mock private SessionStateListener sessionStateListener;
+    @Mock private InstrumentsListener instrumentsListener;
+    @Mock private StreamFailureListener streamFailureListener;
+
+    private Path directory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        directory = Files.createTempDirectory("replay");
+
+        try (JournalRecorder recorder = new JournalRecorder(directory, "market", 1 << 20, true)) {
+            recorder.recordRawFrame(Fixtures.INSTRUMENT_DATA_STR);
+            recorder.recordRawFrame(Fixtures.ORDER_BOOK_STR);
+            recorder.recordVerifiedPayload("{\"type\":\"garbage\"}");
+            recorder.recordRawFrame(Fixtures.QUOTES_STR);
+            recorder.recordRawFrame(Fixtures.SESSION_STATE_STR);
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        deleteRecursively(directory);
+    }
+
+    @Test
+    public void testReplaysRecordedFrames() throws Exception {
+        testReplay(true);
+    }
+
+    @Test
+    public void testReplaysRecordedFramesWithoutVerification() throws Exception {
+        testReplay(false);
+    }
+
+    private void testReplay(boolean verifySignatures) throws Exception {
+
+        // given
+        ReplayMarketStream stream = new ReplayMarketStream(
+                directory,
+                "market",
+                BcPublicKey.fromArmored(Fixtures.PUB_KEY),
+                ReplayMarketStream.MAX_SPEED,
+                verifySignatures
+        );
+        stream.registerStreamFailureListener(streamFailureListener);
+        stream.registerInstrumentsListener(instrumentsListener);
+        stream.registerAndSubscribeSessionStateListener(sessionStateListener);
+        stream.registerOrderBookListener(orderBookListener).subscribe(1);
+        stream.registerQuotesListener(quotesListener).subscribe(1);
+
+        // when
+        stream.start();
+        assertThat(stream.awaitCompletion(5, TimeUnit.SECONDS)).isTrue();
+        stream.stop();
+
+        // then
+        verify(streamFailureListener, never()).onStreamFailure(any());
+        verify(instrumentsListener).onInstruments(any());
+        verify(orderBookListener).onOrderBook(new OrderBook(
+                1,
+                ImmutableList.of(new PriceQuantity($("0.00142858"), 1)),
+                ImmutableList.of(new PriceQuantity($("0.00166666"), 1), new PriceQuantity($("0.00166944"), 3))
+        ));
+        verify(quotesListener).onQuotes(new Quotes(1, $("0.00142858"), 1, null, null, $("0.00166944"), 3, 2, 0));
+        verify(sessionStateListener).onSessionState(SessionState.AUCTION);
+    }
+}
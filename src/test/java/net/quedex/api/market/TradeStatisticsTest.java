@@ -0,0 +1,142 @@
+package net.quedex.api.market;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static net.quedex.api.testcommons.Utils.$;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class TradeStatisticsTest {
+
+    private static final double EPS = 1e-9;
+
+    private TradeStatistics tradeStatistics;
+
+    @BeforeMethod
+    public void setUp() {
+        tradeStatistics = new TradeStatistics(1000, 1000);
+    }
+
+    @Test
+    public void testWindowStatistics() {
+
+        // when
+        tradeStatistics.onTrade(trade(1, 1, 0, "10", 1, Trade.LiquidityProvider.SELLER));
+        tradeStatistics.onTrade(trade(1, 2, 500, "20", 3, Trade.LiquidityProvider.BUYER));
+
+        // then
+        assertThat(tradeStatistics.getTradeCount(1)).isEqualTo(2);
+        assertThat(tradeStatistics.getVolume(1)).isEqualTo(4);
+        assertThat(tradeStatistics.getSignedVolume(1)).isEqualTo(-2);
+        assertThat(tradeStatistics.getVwap(1)).isCloseTo(70.0 / 4, within(EPS));
+        assertThat(tradeStatistics.getVolumeImbalance(1)).isCloseTo(-0.5, within(EPS));
+        assertThat(tradeStatistics.getVolatility(1)).isCloseTo(Math.log(2), within(EPS));
+    }
+
+    @Test
+    public void testTradesOutsideWindowAreEvicted() {
+
+        // when
+        tradeStatistics.onTrade(trade(1, 1, 0, "10", 1, Trade.LiquidityProvider.SELLER));
+        tradeStatistics.onTrade(trade(1, 2, 500, "20", 3, Trade.LiquidityProvider.BUYER));
+        tradeStatistics.onTrade(trade(1, 3, 1200, "20", 2, Trade.LiquidityProvider.AUCTION));
+
+        // then
+        assertThat(tradeStatistics.getTradeCount(1)).isEqualTo(2);
+        assertThat(tradeStatistics.getVolume(1)).isEqualTo(5);
+        assertThat(tradeStatistics.getSignedVolume(1)).isEqualTo(-3);
+        assertThat(tradeStatistics.getVwap(1)).isCloseTo(20, within(EPS));
+        assertThat(tradeStatistics.getVolatility(1)).isCloseTo(Math.log(2), within(EPS));
+    }
+
+    @Test
+    public void testWindowSurvivesBufferGrowth() {
+
+        // when
+        for (int i = 0; i < 1000; i++) {
+            tradeStatistics.onTrade(trade(1, i, i * 10, "10", 1, Trade.LiquidityProvider.SELLER));
+        }
+
+        // then
+        assertThat(tradeStatistics.getTradeCount(1)).isEqualTo(100);
+        assertThat(tradeStatistics.getVolume(1)).isEqualTo(100);
+        assertThat(tradeStatistics.getVwap(1)).isCloseTo(10, within(EPS));
+    }
+
+    @Test
+    public void testDecayedStatistics() {
+
+        // when
+        tradeStatistics.onTrade(trade(1, 1, 0, "10", 1, Trade.LiquidityProvider.SELLER));
+        tradeStatistics.onTrade(trade(1, 2, 1000, "20", 1, Trade.LiquidityProvider.BUYER));
+
+        // then
+        double decay = Math.exp(-1);
+        assertThat(tradeStatistics.getDecayedTradeCount(1)).isCloseTo(1 + decay, within(EPS));
+        assertThat(tradeStatistics.getDecayedVwap(1)).isCloseTo((10 * decay + 20) / (decay + 1), within(EPS));
+        assertThat(tradeStatistics.getDecayedVolumeImbalance(1)).isCloseTo((decay - 1) / (decay + 1), within(EPS));
+    }
+
+    @Test
+    public void testLateTradeIsEvictedByTimestamp() {
+
+        // when
+        tradeStatistics.onTrade(trade(1, 1, 0, "10", 1, Trade.LiquidityProvider.SELLER));
+        tradeStatistics.onTrade(trade(1, 3, 900, "20", 2, Trade.LiquidityProvider.SELLER));
+        tradeStatistics.onTrade(trade(1, 2, 40, "10", 4, Trade.LiquidityProvider.SELLER));
+        tradeStatistics.onTrade(trade(1, 4, 1050, "20", 8, Trade.LiquidityProvider.SELLER));
+
+        // then
+        assertThat(tradeStatistics.getTradeCount(1)).isEqualTo(2);
+        assertThat(tradeStatistics.getVolume(1)).isEqualTo(10);
+        assertThat(tradeStatistics.getVwap(1)).isCloseTo(20, within(EPS));
+    }
+
+    @Test
+    public void testLateTradeIsWeightedByItsAge() {
+
+        // when
+        tradeStatistics.onTrade(trade(1, 2, 1000, "20", 1, Trade.LiquidityProvider.BUYER));
+        tradeStatistics.onTrade(trade(1, 1, 0, "10", 1, Trade.LiquidityProvider.SELLER));
+
+        // then
+        double decay = Math.exp(-1);
+        assertThat(tradeStatistics.getDecayedTradeCount(1)).isCloseTo(1 + decay, within(EPS));
+        assertThat(tradeStatistics.getDecayedVwap(1)).isCloseTo((10 * decay + 20) / (decay + 1), within(EPS));
+        assertThat(tradeStatistics.getTradeCount(1)).isEqualTo(1);
+    }
+
+    @Test
+    public void testStaleTradesAreIgnored() {
+
+        // when
+        tradeStatistics.onTrade(trade(1, 1, 0, "10", 1, Trade.LiquidityProvider.SELLER).asStale());
+
+        // then
+        assertThat(tradeStatistics.getTradeCount(1)).isEqualTo(0);
+        assertThat(tradeStatistics.getDecayedVwap(1)).isNaN();
+    }
+
+    @Test
+    public void testInstrumentsAreIndependent() {
+
+        // when
+        tradeStatistics.onTrade(trade(1, 1, 0, "10", 1, Trade.LiquidityProvider.SELLER));
+
+        // then
+        assertThat(tradeStatistics.getTradeCount(2)).isEqualTo(0);
+        assertThat(tradeStatistics.getVwap(2)).isNaN();
+    }
+
+    private static Trade trade(
+            int instrumentId,
+            long tradeId,
+            long timestamp,
+            String price,
+            int quantity,
+            Trade.LiquidityProvider liquidityProvider
+    ) {
+        return new Trade(instrumentId, tradeId, timestamp, $(price), quantity, liquidityProvider);
+    }
+}
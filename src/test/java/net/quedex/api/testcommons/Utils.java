@@ -4,7 +4,11 @@ import com.google.common.io.Resources;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
 import java.util.Properties;
+import java.util.stream.Stream;
 
 public class Utils {
     private Utils() {}
@@ -27,4 +31,18 @@ public class Utils {
     public static BigDecimal $(int price) {
         return BigDecimal.valueOf(price);
     }
+
+    public static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(Utils::delete);
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error deleting " + path, e);
+        }
+    }
 }
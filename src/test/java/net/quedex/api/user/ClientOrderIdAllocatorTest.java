@@ -0,0 +1,86 @@
+package net.quedex.api.user;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClientOrderIdAllocatorTest {
+
+    @Test
+    public void testAllocatesConsecutiveIdsSeededFromTimeAndNonceGroup() {
+
+        // given
+        ClientOrderIdAllocator allocator = new ClientOrderIdAllocator(3, 2, 1000);
+
+        // when
+        long first = allocator.nextClientOrderId();
+        long second = allocator.nextClientOrderId();
+        long third = allocator.getAsLong();
+
+        // then
+        long start = (3L << 59) + 1000L * ClientOrderIdAllocator.IDS_PER_MILLISECOND;
+        assertThat(first).isEqualTo(start);
+        assertThat(second).isEqualTo(start + 1);
+        assertThat(third).isEqualTo(start + 2);
+    }
+
+    @Test
+    public void testIdsDoNotCollideAcrossNonceGroupsAndRestarts() {
+
+        // given
+        ClientOrderIdAllocator group0 = new ClientOrderIdAllocator(0, 16, 1000);
+        ClientOrderIdAllocator group1 = new ClientOrderIdAllocator(1, 16, 1000);
+        ClientOrderIdAllocator group0Restarted = new ClientOrderIdAllocator(0, 16, 1001);
+        Set<Long> ids = new HashSet<>();
+
+        // when
+        for (int i = 0; i < ClientOrderIdAllocator.IDS_PER_MILLISECOND; i++) {
+            ids.add(group0.nextClientOrderId());
+            ids.add(group1.nextClientOrderId());
+        }
+        long afterRestart = group0Restarted.nextClientOrderId();
+
+        // then
+        assertThat(ids).hasSize(2 * ClientOrderIdAllocator.IDS_PER_MILLISECOND);
+        assertThat(ids).doesNotContain(afterRestart);
+        assertThat(ids).allMatch(id -> id > 0);
+    }
+
+    @Test
+    public void testAllocatesUniqueIdsConcurrently() throws Exception {
+
+        // given
+        ClientOrderIdAllocator allocator = new ClientOrderIdAllocator(9, 100);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<List<Long>>> futures = new ArrayList<>();
+
+        // when
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(() -> {
+                List<Long> ids = new ArrayList<>();
+                for (int j = 0; j < 10_000; j++) {
+                    ids.add(allocator.nextClientOrderId());
+                }
+                return ids;
+            }));
+        }
+        Set<Long> ids = new HashSet<>();
+        for (Future<List<Long>> future : futures) {
+            List<Long> threadIds = future.get();
+            assertThat(threadIds).isSorted();
+            ids.addAll(threadIds);
+        }
+        executor.shutdown();
+
+        // then
+        assertThat(ids).hasSize(40_000);
+    }
+}
@@ -0,0 +1,119 @@
+package net.quedex.api.user;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static net.quedex.api.testcommons.Utils.$;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CommandWriterTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+        .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+
+    private CommandWriter writer;
+
+    @BeforeMethod
+    public void setUp() {
+        writer = new CommandWriter(1234, 5);
+    }
+
+    @Test
+    public void testWritesOrderSpecsAsDataBindingDoes() throws Exception {
+        for (OrderSpec orderSpec : new OrderSpec[]{
+            new LimitOrderSpec(1, 2, OrderSide.SELL, 3, $("0.00001234")),
+            new OrderCancelSpec(4),
+            new OrderModificationSpec(5, 6, $(7)),
+            new OrderModificationSpec(8, 9),
+            new OrderModificationSpec(10, $("11.5"))
+        }) {
+            // when
+            writer.reset();
+            writer.writeOrderSpec(orderSpec, 77);
+
+            // then
+            assertThat(written()).isEqualTo(withNonceAccountId(OBJECT_MAPPER.valueToTree(orderSpec), 77));
+        }
+    }
+
+    @Test
+    public void testWritesBatch() throws Exception {
+
+        // given
+        OrderCancelSpec cancel = new OrderCancelSpec(1);
+        OrderModificationSpec modification = new OrderModificationSpec(2, 3);
+
+        // when
+        writer.reset();
+        writer.startBatch();
+        writer.writeOrderSpec(cancel, 10);
+        writer.writeOrderSpec(modification, 11);
+        writer.endBatch();
+
+        // then
+        ObjectNode expected = OBJECT_MAPPER.createObjectNode()
+            .put("type", "batch")
+            .put("account_id", 1234);
+        expected.putArray("batch")
+            .add(withNonceAccountId(OBJECT_MAPPER.valueToTree(cancel), 10))
+            .add(withNonceAccountId(OBJECT_MAPPER.valueToTree(modification), 11));
+        assertThat(written()).isEqualTo(normalized(expected));
+    }
+
+    @Test
+    public void testReusesBufferForConsecutiveMessages() throws Exception {
+
+        // given
+        writer.reset();
+        writer.writeOrderSpec(new LimitOrderSpec(1, 2, OrderSide.BUY, 3, $(4)), 1);
+        writer.finish();
+        byte[] array = writer.array();
+
+        // when
+        writer.reset();
+        writer.writeSubscribe(2);
+
+        // then
+        assertThat(writer.array()).isSameAs(array);
+        assertThat(written()).isEqualTo(withNonceAccountId(
+            OBJECT_MAPPER.createObjectNode().put("type", "subscribe"), 2
+        ));
+    }
+
+    @Test
+    public void testRecoversFromUnfinishedMessage() throws Exception {
+
+        // given
+        writer.reset();
+        writer.startBatch();
+
+        // when
+        writer.reset();
+        writer.writeOrderSpec(new OrderCancelSpec(1), 1);
+
+        // then
+        assertThat(written()).isEqualTo(withNonceAccountId(OBJECT_MAPPER.valueToTree(new OrderCancelSpec(1)), 1));
+    }
+
+    private JsonNode written() throws Exception {
+        int length = writer.finish();
+        return OBJECT_MAPPER.readTree(new String(writer.array(), 0, length, StandardCharsets.UTF_8));
+    }
+
+    private static JsonNode withNonceAccountId(ObjectNode json, long nonce) throws Exception {
+        return normalized(json
+            .put("account_id", 1234)
+            .put("nonce", nonce)
+            .put("nonce_group", 5));
+    }
+
+    private static JsonNode normalized(JsonNode json) throws Exception {
+        return OBJECT_MAPPER.readTree(OBJECT_MAPPER.writeValueAsString(json));
+    }
+}
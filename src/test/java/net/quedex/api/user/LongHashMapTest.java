@@ -0,0 +1,62 @@
+package net.quedex.api.user;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LongHashMapTest {
+
+    @Test
+    public void testBehavesLikeHashMap() {
+
+        // given
+        LongHashMap<String> map = new LongHashMap<>();
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(0);
+
+        // when
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(500) - 250; // small key space to exercise collisions and removals
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(key)).isEqualTo(expected.remove(key));
+            } else {
+                String value = "v" + i;
+                assertThat(map.put(key, value)).isEqualTo(expected.put(key, value));
+            }
+        }
+
+        // then
+        assertThat(map.size()).isEqualTo(expected.size());
+        for (long key = -300; key < 300; key++) {
+            assertThat(map.get(key)).isEqualTo(expected.get(key));
+        }
+        List<String> values = new ArrayList<>();
+        map.forEachValue(values::add);
+        assertThat(values).containsOnlyElementsOf(expected.values()).hasSize(expected.size());
+    }
+
+    @Test
+    public void testHandlesExtremeKeys() {
+
+        // given
+        LongHashMap<String> map = new LongHashMap<>(1);
+
+        // when
+        map.put(0, "zero");
+        map.put(Long.MIN_VALUE, "min");
+        map.put(Long.MAX_VALUE, "max");
+
+        // then
+        assertThat(map.get(0)).isEqualTo("zero");
+        assertThat(map.get(Long.MIN_VALUE)).isEqualTo("min");
+        assertThat(map.remove(Long.MAX_VALUE)).isEqualTo("max");
+        assertThat(map.containsKey(Long.MAX_VALUE)).isFalse();
+        assertThat(map.size()).isEqualTo(2);
+    }
+}
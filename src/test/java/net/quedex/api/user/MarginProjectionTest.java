@@ -0,0 +1,86 @@
+package net.quedex.api.user;
+
+import com.google.common.collect.ImmutableList;
+import net.quedex.api.market.Instrument;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static net.quedex.api.testcommons.Utils.$;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+public class MarginProjectionTest {
+
+    private static final int FUTURES_ID = 7;
+    private static final int OPTION_ID = 9;
+
+    private OrderTracker orderTracker;
+    private PortfolioState portfolioState;
+    private MarginProjection marginProjection;
+
+    @BeforeMethod
+    public void setUp() {
+        Instrument futures = new Instrument(
+                "FUT", FUTURES_ID, Instrument.Type.INVERSE_FUTURES, null, $("0.01"), 1, 2, "USD", 1,
+                $(0), $(0), $("0.04"), $("0.03"), null
+        );
+        Instrument option = new Instrument(
+                "OPT", OPTION_ID, Instrument.Type.INVERSE_OPTION, Instrument.OptionType.CALL_EUROPEAN, $("0.0001"),
+                1, 2, "USD", 1, $(0), $(0), $("0.04"), $("0.03"), $(200)
+        );
+        orderTracker = new OrderTracker();
+        portfolioState = new PortfolioState();
+        marginProjection = new MarginProjection(ImmutableList.of(futures, option), orderTracker, portfolioState);
+    }
+
+    @Test
+    public void testMaintainsLockedForOrdersIncrementally() {
+
+        // when
+        orderTracker.onOrderPlaced(new OrderPlaced(1, FUTURES_ID, $(100), OrderSide.BUY, 10, 10));
+        orderTracker.onOrderPlaced(new OrderPlaced(2, OPTION_ID, $("0.01"), OrderSide.SELL, 5, 5));
+
+        // then
+        assertThat(marginProjection.getLockedForOrders()).isCloseTo(10 * 0.0004 + 5 * 0.0102, offset(1e-12));
+
+        // when
+        orderTracker.onOrderFilled(new OrderFilled(1, FUTURES_ID, $(100), OrderSide.BUY, 10, 4, $(100), 6));
+        orderTracker.onModificationSent(new OrderModificationSpec(2, $("0.02")));
+        orderTracker.onOrderModified(new OrderModified(2));
+
+        // then
+        assertThat(marginProjection.getLockedForOrders()).isCloseTo(4 * 0.0004 + 5 * 0.0202, offset(1e-12));
+
+        // when
+        orderTracker.onOrderCancelled(new OrderCancelled(1));
+        orderTracker.onOrderCancelled(new OrderCancelled(2));
+
+        // then
+        assertThat(marginProjection.getLockedForOrders()).isZero();
+    }
+
+    @Test
+    public void testProjectsFreeBalanceImpactOfBatch() {
+
+        // given
+        orderTracker.onOrderPlaced(new OrderPlaced(1, FUTURES_ID, $(100), OrderSide.BUY, 10, 10));
+        orderTracker.onOrderPlaced(new OrderPlaced(2, FUTURES_ID, $(50), OrderSide.SELL, 10, 10));
+        portfolioState.onAccountState(new AccountState(
+                $(2), $(1), $(0), $(0), $(0), $("0.012"), $(0), AccountState.Status.ACTIVE
+        ));
+
+        // when
+        double impact = marginProjection.getFreeBalanceImpact(ImmutableList.of(
+                new LimitOrderSpec(3, OPTION_ID, OrderSide.BUY, 2, $("0.01")),
+                new OrderCancelSpec(1),
+                new OrderModificationSpec(2, 5),
+                new OrderCancelSpec(4)
+        ));
+
+        // then
+        assertThat(impact).isCloseTo(-2 * 0.01 + 10 * 0.0004 + 5 * 0.0008, offset(1e-12));
+        assertThat(marginProjection.getFreeBalance()).isCloseTo(1 + 0.012 - 10 * 0.0004 - 10 * 0.0008, offset(1e-12));
+        assertThat(marginProjection.getProjectedFreeBalance(ImmutableList.of(new OrderCancelSpec(2))))
+                .isCloseTo(1 + 0.012 - 10 * 0.0004, offset(1e-12));
+    }
+}
@@ -0,0 +1,144 @@
+package net.quedex.api.user;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static net.quedex.api.testcommons.Utils.$;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OrderTrackerTest {
+
+    private OrderTracker tracker;
+
+    @BeforeMethod
+    public void setUp() {
+        tracker = new OrderTracker();
+    }
+
+    @Test
+    public void testIndexesOrdersByPriceLevel() {
+
+        // when
+        tracker.onOrderPlaced(new OrderPlaced(1, 7, $(100), OrderSide.BUY, 5, 5));
+        tracker.onOrderPlaced(new OrderPlaced(2, 7, $(101), OrderSide.BUY, 3, 3));
+        tracker.onOrderPlaced(new OrderPlaced(3, 7, $(101), OrderSide.BUY, 2, 4));
+        tracker.onOrderPlaced(new OrderPlaced(4, 7, $(103), OrderSide.SELL, 1, 1));
+        tracker.onOrderPlaced(new OrderPlaced(5, 8, $(50), OrderSide.SELL, 1, 1));
+
+        // then
+        OrderTracker.Snapshot snapshot = tracker.getSnapshot();
+        assertThat(snapshot.getVersion()).isEqualTo(5);
+        assertThat(snapshot.getInstrumentIds()).containsOnly(7, 8);
+        assertThat(snapshot.getBids(7)).extracting(OrderTracker.PriceLevel::getPrice).containsExactly($(101), $(100));
+        assertThat(snapshot.getBids(7).get(0).getQuantity()).isEqualTo(5);
+        assertThat(snapshot.getBids(7).get(0).getOrders()).extracting(TrackedOrder::getOrderId).containsExactly(2L, 3L);
+        assertThat(snapshot.getAsks(7)).extracting(OrderTracker.PriceLevel::getPrice).containsExactly($(103));
+        assertThat(snapshot.getOrder(3))
+            .isEqualTo(new TrackedOrder(3, false, 7, OrderSide.BUY, $(101), 2, 4));
+        assertThat(snapshot.getOrders()).hasSize(5);
+        assertThat(snapshot.getOrders(9)).isEmpty();
+    }
+
+    @Test
+    public void testAppliesFillsAndCancellations() {
+
+        // given
+        tracker.onOrderPlaced(new OrderPlaced(1, 7, $(100), OrderSide.BUY, 5, 5));
+        tracker.onOrderPlaced(new OrderPlaced(2, 7, $(100), OrderSide.BUY, 5, 5));
+
+        // when
+        tracker.onOrderFilled(new OrderFilled(1, 7, $(100), OrderSide.BUY, 5, 3, $(100), 2));
+        tracker.onOrderFilled(new OrderFilled(2, 7, $(100), OrderSide.BUY, 5, 0, $(100), 5));
+
+        // then
+        assertThat(tracker.getSnapshot().getOrder(1).getQuantity()).isEqualTo(3);
+        assertThat(tracker.getSnapshot().getOrder(2)).isNull();
+
+        // when
+        tracker.onOrderCancelled(new OrderCancelled(1));
+
+        // then
+        assertThat(tracker.getSnapshot().getOrder(1)).isNull();
+        assertThat(tracker.getSnapshot().getInstrumentIds()).isEmpty();
+    }
+
+    @Test
+    public void testAppliesConfirmedModificationsInOrder() {
+
+        // given
+        tracker.onOrderPlaced(new OrderPlaced(1, 7, $(100), OrderSide.SELL, 5, 5));
+        tracker.onModificationSent(new OrderModificationSpec(1, 4, $(102)));
+        tracker.onModificationSent(new OrderModificationSpec(1, $(103)));
+        tracker.onModificationSent(new OrderModificationSpec(1, 9));
+
+        // when
+        tracker.onOrderModified(new OrderModified(1));
+        tracker.onOrderModificationFailed(
+            new OrderModificationFailed(1, OrderModificationFailed.Cause.INVALID_TICK_SIZE)
+        );
+
+        // then
+        OrderTracker.Snapshot snapshot = tracker.getSnapshot();
+        assertThat(snapshot.getOrder(1)).isEqualTo(new TrackedOrder(1, false, 7, OrderSide.SELL, $(102), 4, 5));
+        assertThat(snapshot.getAsks(7)).extracting(OrderTracker.PriceLevel::getPrice).containsExactly($(102));
+
+        // when
+        tracker.onOrderModified(new OrderModified(1));
+
+        // then
+        assertThat(tracker.getSnapshot().getOrder(1).getQuantity()).isEqualTo(9);
+        assertThat(tracker.getSnapshot().getOrder(1).getLimitPrice()).isEqualTo($(102));
+    }
+
+    @Test
+    public void testSkipsSupersededModification() {
+
+        // given
+        tracker.onOrderPlaced(new OrderPlaced(1, 7, $(100), OrderSide.SELL, 5, 5));
+        OrderModificationSpec superseded = new OrderModificationSpec(1, $(101));
+        tracker.onModificationSent(superseded);
+        tracker.onModificationSent(new OrderModificationSpec(1, $(102)));
+
+        // when
+        tracker.onModificationSuperseded(superseded);
+        tracker.onOrderModified(new OrderModified(1));
+
+        // then
+        assertThat(tracker.getSnapshot().getOrder(1).getLimitPrice()).isEqualTo($(102));
+    }
+
+    @Test
+    public void testTracksLiquidationOrders() {
+
+        // when
+        tracker.onLiquidationOrderPlaced(new LiquidationOrderPlaced(10, 7, OrderSide.SELL, 5, 5));
+        tracker.onLiquidationOrderFilled(new LiquidationOrderFilled(10, 7, OrderSide.SELL, 5, 2, $(99), 3));
+
+        // then
+        assertThat(tracker.getSnapshot().getLiquidationOrders(7))
+            .containsExactly(new TrackedOrder(10, true, 7, OrderSide.SELL, null, 2, 5));
+        assertThat(tracker.getSnapshot().getOrders(7)).isEmpty();
+
+        // when
+        tracker.onLiquidationOrderCancelled(new LiquidationOrderCancelled(10));
+
+        // then
+        assertThat(tracker.getSnapshot().getLiquidationOrders(7)).isEmpty();
+    }
+
+    @Test
+    public void testSnapshotsAreImmutable() {
+
+        // given
+        tracker.onOrderPlaced(new OrderPlaced(1, 7, $(100), OrderSide.BUY, 5, 5));
+        OrderTracker.Snapshot before = tracker.getSnapshot();
+
+        // when
+        tracker.onOrderCancelled(new OrderCancelled(1));
+
+        // then
+        assertThat(before.getOrder(1)).isNotNull();
+        assertThat(before.getBids(7)).hasSize(1);
+        assertThat(tracker.getSnapshot().getOrder(1)).isNull();
+    }
+}
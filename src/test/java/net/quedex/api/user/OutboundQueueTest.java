@@ -0,0 +1,384 @@
+package net.quedex.api.user;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static net.quedex.api.testcommons.Utils.$;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class OutboundQueueTest {
+
+    @Test
+    public void testIsFifo() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueuePolicy.BLOCK);
+        OrderCancelSpec first = new OrderCancelSpec(1);
+        OrderCancelSpec second = new OrderCancelSpec(2);
+        OrderCancelSpec third = new OrderCancelSpec(3);
+        OutboundQueue.Slot slot = new OutboundQueue.Slot();
+
+        // when
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, first);
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, second);
+        queue.poll(slot, 0, TimeUnit.MILLISECONDS);
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, third);
+
+        // then
+        assertThat(slot.payload).isSameAs(first);
+        assertThat(queue.poll(slot, 0, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(slot.payload).isSameAs(second);
+        assertThat(queue.poll(slot, 0, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(slot.payload).isSameAs(third);
+        assertThat(queue.poll(slot, 0, TimeUnit.MILLISECONDS)).isFalse();
+    }
+
+    @Test
+    public void testRejectsWhenFull() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueuePolicy.REJECT);
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, new OrderCancelSpec(1));
+
+        // when
+        try {
+            queue.put(OutboundQueue.Kind.ORDER_SPEC, new OrderCancelSpec(2));
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            // then
+            assertThat(queue.getRejectedCount()).isEqualTo(1);
+            assertThat(queue.size()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testBlocksWhenFullUntilPolled() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueuePolicy.BLOCK);
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, new OrderCancelSpec(1));
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(OutboundQueue.Kind.ORDER_SPEC, new OrderCancelSpec(2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        // when
+        producer.start();
+        producer.join(100);
+
+        // then
+        assertThat(producer.isAlive()).isTrue();
+        queue.poll(new OutboundQueue.Slot(), 0, TimeUnit.MILLISECONDS);
+        producer.join(5000);
+        assertThat(producer.isAlive()).isFalse();
+        assertThat(queue.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testReplacesQueuedModificationInPlace() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueuePolicy.DROP_SUPERSEDED_MODIFY);
+        OrderModificationSpec stale = new OrderModificationSpec(1, 10, $(100));
+        OrderModificationSpec fresh = new OrderModificationSpec(1, 20, $(101));
+        LimitOrderSpec placement = new LimitOrderSpec(2, 7, OrderSide.BUY, 1, $(100));
+        OutboundQueue.Slot slot = new OutboundQueue.Slot();
+
+        // when
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, stale);
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, placement);
+        Object superseded = queue.put(OutboundQueue.Kind.ORDER_SPEC, fresh);
+
+        // then
+        assertThat(superseded).isSameAs(stale);
+        assertThat(queue.size()).isEqualTo(2);
+        assertThat(queue.getDroppedCount()).isEqualTo(1);
+        queue.poll(slot, 0, TimeUnit.MILLISECONDS);
+        assertThat(slot.payload).isSameAs(fresh);
+        queue.poll(slot, 0, TimeUnit.MILLISECONDS);
+        assertThat(slot.payload).isSameAs(placement);
+    }
+
+    @Test
+    public void testCloseReleasesProducersWaitingForSpace() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueuePolicy.BLOCK);
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, new OrderModificationSpec(1, 10));
+        CompletableFuture<Object> blocked = CompletableFuture.supplyAsync(() -> {
+            try {
+                return queue.put(OutboundQueue.Kind.ORDER_SPEC, new OrderModificationSpec(2, 10));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        // when
+        queue.close();
+
+        // then
+        try {
+            blocked.get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+        assertThat(queue.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDoesNotReplaceModificationSettingFieldsNotSetByNewerOne() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueuePolicy.DROP_SUPERSEDED_MODIFY);
+        OrderModificationSpec quantity = new OrderModificationSpec(1, 10);
+        OrderModificationSpec price = new OrderModificationSpec(1, $(101));
+        OrderModificationSpec both = new OrderModificationSpec(1, 20, $(102));
+        OutboundQueue.Slot slot = new OutboundQueue.Slot();
+
+        // when
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, quantity);
+        Object superseded = queue.put(OutboundQueue.Kind.ORDER_SPEC, price);
+
+        // then
+        assertThat(superseded).isNull();
+        assertThat(queue.size()).isEqualTo(2);
+        assertThat(queue.getDroppedCount()).isZero();
+
+        // when
+        superseded = queue.put(OutboundQueue.Kind.ORDER_SPEC, both);
+
+        // then
+        assertThat(superseded).isSameAs(price);
+        queue.poll(slot, 0, TimeUnit.MILLISECONDS);
+        assertThat(slot.payload).isSameAs(quantity);
+        queue.poll(slot, 0, TimeUnit.MILLISECONDS);
+        assertThat(slot.payload).isSameAs(both);
+    }
+
+    @Test
+    public void testDoesNotReplaceModificationAlreadyTaken() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueuePolicy.DROP_SUPERSEDED_MODIFY);
+        OrderModificationSpec first = new OrderModificationSpec(1, 10);
+        OrderModificationSpec second = new OrderModificationSpec(1, 20);
+        OutboundQueue.Slot slot = new OutboundQueue.Slot();
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, first);
+        queue.poll(slot, 0, TimeUnit.MILLISECONDS);
+
+        // when
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, second);
+
+        // then
+        assertThat(queue.getDroppedCount()).isZero();
+        queue.poll(slot, 0, TimeUnit.MILLISECONDS);
+        assertThat(slot.payload).isSameAs(second);
+    }
+
+    @Test
+    public void testTakesCancellationsFirst() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueuePolicy.BLOCK);
+        LimitOrderSpec placement = new LimitOrderSpec(1, 7, OrderSide.BUY, 1, $(100));
+        OrderModificationSpec modification = new OrderModificationSpec(2, 10);
+        OrderCancelSpec cancel = new OrderCancelSpec(3);
+        OutboundQueue.Slot slot = new OutboundQueue.Slot();
+
+        // when
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, placement);
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, modification);
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, cancel);
+
+        // then
+        assertThat(queue.prioritySize()).isEqualTo(1);
+        assertThat(queue.size()).isEqualTo(3);
+        queue.poll(slot, 0, TimeUnit.MILLISECONDS);
+        assertThat(slot.payload).isSameAs(cancel);
+        queue.poll(slot, 0, TimeUnit.MILLISECONDS);
+        assertThat(slot.payload).isSameAs(placement);
+        queue.poll(slot, 0, TimeUnit.MILLISECONDS);
+        assertThat(slot.payload).isSameAs(modification);
+    }
+
+    @Test
+    public void testDoesNotMoveCancellationAheadOfQueuedPlacement() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueuePolicy.BLOCK);
+        LimitOrderSpec placement = new LimitOrderSpec(1, 7, OrderSide.BUY, 1, $(100));
+        OrderCancelSpec cancel = new OrderCancelSpec(1);
+        OutboundQueue.Slot slot = new OutboundQueue.Slot();
+
+        // when
+        queue.put(OutboundQueue.Kind.BATCH, ImmutableList.of(placement));
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, cancel);
+
+        // then
+        assertThat(queue.prioritySize()).isZero();
+        queue.poll(slot, 0, TimeUnit.MILLISECONDS);
+        assertThat(slot.payload).isEqualTo(ImmutableList.of(placement));
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, cancel); // placement taken, but not sent yet
+        assertThat(queue.prioritySize()).isZero();
+        queue.release(slot);
+        queue.poll(slot, 0, TimeUnit.MILLISECONDS);
+        assertThat(slot.payload).isSameAs(cancel);
+
+        // when
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, cancel); // placement already sent
+
+        // then
+        assertThat(queue.prioritySize()).isEqualTo(1);
+    }
+
+    @Test
+    public void testEliminatesQueuedPlacementWithItsCancellation() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueuePolicy.BLOCK);
+        queue.enableCoalescing();
+        LimitOrderSpec placement = new LimitOrderSpec(1, 7, OrderSide.BUY, 1, $(100));
+        LimitOrderSpec other = new LimitOrderSpec(2, 7, OrderSide.BUY, 1, $(100));
+        OutboundQueue.Slot slot = new OutboundQueue.Slot();
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, placement);
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, other);
+
+        // when
+        Object eliminated = queue.put(OutboundQueue.Kind.ORDER_SPEC, new OrderCancelSpec(1));
+
+        // then
+        assertThat(eliminated).isSameAs(placement);
+        assertThat(queue.size()).isEqualTo(1);
+        assertThat(queue.getEliminatedCount()).isEqualTo(1);
+        assertThat(queue.poll(slot, 0, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(slot.payload).isSameAs(other);
+        assertThat(queue.poll(slot, 0, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(queue.size()).isZero();
+    }
+
+    @Test
+    public void testReplacesQueuedModificationWhenCoalescing() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueuePolicy.BLOCK);
+        queue.enableCoalescing();
+        OrderModificationSpec stale = new OrderModificationSpec(1, 10);
+        OrderModificationSpec fresh = new OrderModificationSpec(1, 20);
+        OutboundQueue.Slot slot = new OutboundQueue.Slot();
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, stale);
+
+        // when
+        Object superseded = queue.put(OutboundQueue.Kind.ORDER_SPEC, fresh);
+
+        // then
+        assertThat(superseded).isSameAs(stale);
+        assertThat(queue.size()).isEqualTo(1);
+        queue.poll(slot, 0, TimeUnit.MILLISECONDS);
+        assertThat(slot.payload).isSameAs(fresh);
+    }
+
+    @Test
+    public void testDoesNotEliminatePlacementInBatchOrWithQueuedModification() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(8, OutboundQueuePolicy.BLOCK);
+        queue.enableCoalescing();
+        queue.put(OutboundQueue.Kind.BATCH, ImmutableList.of(new LimitOrderSpec(1, 7, OrderSide.BUY, 1, $(100))));
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, new LimitOrderSpec(2, 7, OrderSide.BUY, 1, $(100)));
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, new OrderModificationSpec(2, 10));
+
+        // when
+        Object first = queue.put(OutboundQueue.Kind.ORDER_SPEC, new OrderCancelSpec(1));
+        Object second = queue.put(OutboundQueue.Kind.ORDER_SPEC, new OrderCancelSpec(2));
+
+        // then
+        assertThat(first).isNull();
+        assertThat(second).isNull();
+        assertThat(queue.getEliminatedCount()).isZero();
+        assertThat(queue.size()).isEqualTo(5);
+    }
+
+    @Test
+    public void testTakesCancelBatchesFirst() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueuePolicy.BLOCK);
+        List<OrderCancelSpec> cancellations = ImmutableList.of(new OrderCancelSpec(1), new OrderCancelSpec(2));
+        OutboundQueue.Slot slot = new OutboundQueue.Slot();
+
+        // when
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, new LimitOrderSpec(3, 7, OrderSide.BUY, 1, $(100)));
+        queue.put(OutboundQueue.Kind.CANCEL_BATCH, cancellations);
+
+        // then
+        assertThat(queue.prioritySize()).isEqualTo(1);
+        queue.poll(slot, 0, TimeUnit.MILLISECONDS);
+        assertThat(slot.kind).isEqualTo(OutboundQueue.Kind.CANCEL_BATCH);
+        assertThat(slot.payload).isSameAs(cancellations);
+    }
+
+    @Test
+    public void testRemovesQueuedCommandsOfCancelledOrders() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(8, OutboundQueuePolicy.BLOCK);
+        LimitOrderSpec buy = new LimitOrderSpec(1, 7, OrderSide.BUY, 1, $(100));
+        LimitOrderSpec sell = new LimitOrderSpec(2, 7, OrderSide.SELL, 1, $(101));
+        LimitOrderSpec otherInstrument = new LimitOrderSpec(3, 8, OrderSide.BUY, 1, $(100));
+        OrderModificationSpec buyModification = new OrderModificationSpec(1, 2);
+        OrderCancelSpec buyCancellation = new OrderCancelSpec(1);
+        OrderModificationSpec workingModification = new OrderModificationSpec(4, 2);
+        OrderModificationSpec otherModification = new OrderModificationSpec(5, 2);
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, buy);
+        queue.put(OutboundQueue.Kind.BATCH, ImmutableList.of(sell, otherInstrument, workingModification));
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, buyModification);
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, buyCancellation);
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, otherModification);
+        OutboundQueue.Slot slot = new OutboundQueue.Slot();
+
+        // when
+        List<OrderSpec> removed = queue.removeOrderCommands(
+                placement -> placement.getInstrumentId() == 7,
+                ImmutableSet.of(4L)
+        );
+
+        // then
+        assertThat(removed).containsExactly(buy, sell, workingModification, buyModification, buyCancellation);
+        assertThat(queue.size()).isEqualTo(2);
+        assertThat(queue.poll(slot, 0, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(slot.payload).isEqualTo(ImmutableList.of(otherInstrument));
+        assertThat(queue.poll(slot, 0, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(slot.payload).isSameAs(otherModification);
+        assertThat(queue.poll(slot, 0, TimeUnit.MILLISECONDS)).isFalse();
+    }
+
+    @Test
+    public void testDoesNotRemoveTakenPlacement() throws Exception {
+
+        // given
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueuePolicy.BLOCK);
+        LimitOrderSpec taken = new LimitOrderSpec(1, 7, OrderSide.BUY, 1, $(100));
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, taken);
+        queue.poll(new OutboundQueue.Slot(), 0, TimeUnit.MILLISECONDS);
+        queue.put(OutboundQueue.Kind.ORDER_SPEC, new OrderCancelSpec(1));
+
+        // when
+        List<OrderSpec> removed = queue.removeOrderCommands(placement -> true, ImmutableSet.of());
+
+        // then
+        assertThat(removed).isEmpty();
+        assertThat(queue.size()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,209 @@
+package net.quedex.api.user;
+
+import net.quedex.api.common.CommunicationException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static net.quedex.api.user.PendingCommands.Kind.CANCEL;
+import static net.quedex.api.user.PendingCommands.Kind.MODIFY;
+import static net.quedex.api.user.PendingCommands.Kind.PLACE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.fail;
+
+public class PendingCommandsTest {
+
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private PendingCommands pendingCommands;
+
+    @BeforeMethod
+    public void setUp() {
+        pendingCommands = new PendingCommands();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        pendingCommands.shutdown();
+    }
+
+    @Test
+    public void testCompletesCommandsOfTheSameOrderOldestFirst() {
+
+        // given
+        CompletableFuture<OrderModified> first = pendingCommands.register(MODIFY, 1, TIMEOUT_NANOS);
+        CompletableFuture<OrderModified> second = pendingCommands.register(MODIFY, 1, TIMEOUT_NANOS);
+        CompletableFuture<OrderCancelled> cancel = pendingCommands.register(CANCEL, 1, TIMEOUT_NANOS);
+
+        // when
+        pendingCommands.complete(MODIFY, 1, new OrderModified(1));
+
+        // then
+        assertThat(first).isCompletedWithValue(new OrderModified(1));
+        assertThat(second).isNotDone();
+        assertThat(cancel).isNotDone();
+        assertThat(pendingCommands.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testIgnoresResponsesOfCommandsNotPending() {
+
+        // given
+        CompletableFuture<OrderPlaced> placed = pendingCommands.register(PLACE, 1, TIMEOUT_NANOS);
+
+        // when
+        pendingCommands.complete(PLACE, 2, new OrderCancelled(2));
+        pendingCommands.complete(CANCEL, 1, new OrderCancelled(1));
+
+        // then
+        assertThat(placed).isNotDone();
+        assertThat(pendingCommands.getRoundTripLatency().getCount()).isZero();
+    }
+
+    @Test
+    public void testTimesOut() throws Exception {
+
+        // given
+        CompletableFuture<OrderPlaced> placed = pendingCommands.register(PLACE, 1, TimeUnit.MILLISECONDS.toNanos(10));
+
+        // when
+        try {
+            placed.get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            // then
+            assertThat(e.getCause()).isInstanceOf(TimeoutException.class);
+            assertThat(pendingCommands.size()).isZero();
+        }
+    }
+
+    @Test
+    public void testDiscardsLateResponseOfTimedOutCommand() throws Exception {
+
+        // given
+        CompletableFuture<OrderModified> first = pendingCommands.register(MODIFY, 1, TimeUnit.MILLISECONDS.toNanos(10));
+        CompletableFuture<OrderModified> second = pendingCommands.register(MODIFY, 1, TIMEOUT_NANOS);
+        try {
+            first.get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(TimeoutException.class);
+        }
+
+        // when
+        pendingCommands.complete(MODIFY, 1, new OrderModified(1));
+        pendingCommands.reject(
+                MODIFY, 1, new OrderModificationFailed(1, OrderModificationFailed.Cause.INVALID_ORDER_ID)
+        );
+
+        // then
+        assertThat(second).isCompletedExceptionally();
+        try {
+            second.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(OrderCommandRejectedException.class);
+        }
+        assertThat(pendingCommands.size()).isZero();
+        assertThat(pendingCommands.getRoundTripLatency().getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDropsTimedOutCommandAfterGracePeriod() throws Exception {
+
+        // given
+        pendingCommands.shutdown();
+        pendingCommands = new PendingCommands(TimeUnit.MILLISECONDS.toNanos(10));
+        CompletableFuture<OrderModified> first = pendingCommands.register(MODIFY, 1, TimeUnit.MILLISECONDS.toNanos(10));
+        CompletableFuture<OrderModified> second = pendingCommands.register(MODIFY, 1, TIMEOUT_NANOS);
+        CompletableFuture<OrderModified> third = pendingCommands.register(MODIFY, 1, TIMEOUT_NANOS);
+        assertThat(catchThrowable(() -> first.get(5, TimeUnit.SECONDS))).hasCauseInstanceOf(TimeoutException.class);
+        pendingCommands.abandon(MODIFY, 1, new CommunicationException("gone"));
+
+        // when
+        Thread.sleep(200); // grace periods elapse
+        CompletableFuture<OrderModified> fourth = pendingCommands.register(MODIFY, 1, TIMEOUT_NANOS);
+        pendingCommands.complete(MODIFY, 1, new OrderModified(1));
+
+        // then
+        assertThat(catchThrowable(second::get)).hasCauseInstanceOf(CommunicationException.class);
+        assertThat(catchThrowable(third::get)).hasCauseInstanceOf(CommunicationException.class);
+        assertThat(fourth).isCompletedWithValue(new OrderModified(1));
+        assertThat(pendingCommands.size()).isZero();
+    }
+
+    @Test
+    public void testAbandonedCommandsDiscardTheirResponses() throws Exception {
+
+        // given
+        CompletableFuture<OrderCancelled> cancelled = pendingCommands.register(CANCEL, 1, TIMEOUT_NANOS);
+        pendingCommands.abandon(CANCEL, 1, new CommunicationException("gone"));
+        CompletableFuture<OrderCancelled> next = pendingCommands.register(CANCEL, 1, TIMEOUT_NANOS);
+
+        // when
+        pendingCommands.reject(CANCEL, 1, new OrderCancelFailed(1, OrderCancelFailed.Cause.NOT_FOUND));
+
+        // then
+        assertThat(catchThrowable(cancelled::get)).hasCauseInstanceOf(CommunicationException.class);
+        assertThat(next).isNotDone();
+        assertThat(pendingCommands.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFailsSingleCommand() {
+
+        // given
+        CompletableFuture<OrderModified> first = pendingCommands.register(MODIFY, 1, TIMEOUT_NANOS);
+        CompletableFuture<OrderModified> second = pendingCommands.register(MODIFY, 1, TIMEOUT_NANOS);
+
+        // when
+        pendingCommands.fail(MODIFY, 1, second, new CommunicationException("not sent"));
+        pendingCommands.complete(MODIFY, 1, new OrderModified(1));
+
+        // then
+        assertThat(first).isCompletedWithValue(new OrderModified(1));
+        assertThat(second).isCompletedExceptionally();
+        assertThat(pendingCommands.size()).isZero();
+    }
+
+    @Test
+    public void testFailsAll() {
+
+        // given
+        CompletableFuture<OrderPlaced> placed = pendingCommands.register(PLACE, 1, TIMEOUT_NANOS);
+        CompletableFuture<OrderCancelled> cancelled = pendingCommands.register(CANCEL, 2, TIMEOUT_NANOS);
+
+        // when
+        pendingCommands.failAll(new CommunicationException("Stream stopped"));
+
+        // then
+        assertThat(placed).isCompletedExceptionally();
+        assertThat(cancelled).isCompletedExceptionally();
+        assertThat(pendingCommands.size()).isZero();
+    }
+
+    @Test
+    public void testCompletesSupersededCommandAsItsSuccessor() {
+
+        // given
+        OrderModificationSpec superseded = new OrderModificationSpec(1, 5);
+        OrderModificationSpec successor = new OrderModificationSpec(1, 6);
+        CompletableFuture<OrderModified> first = pendingCommands.register(MODIFY, 1, superseded, TIMEOUT_NANOS);
+        CompletableFuture<OrderModified> second = pendingCommands.register(MODIFY, 1, successor, TIMEOUT_NANOS);
+
+        // when
+        pendingCommands.supersede(MODIFY, 1, superseded, second);
+        pendingCommands.complete(MODIFY, 1, new OrderModified(1));
+
+        // then
+        assertThat(second).isCompletedWithValue(new OrderModified(1));
+        assertThat(first).isCompletedWithValue(new OrderModified(1));
+        assertThat(pendingCommands.size()).isZero();
+    }
+}
@@ -0,0 +1,218 @@
+package net.quedex.api.user;
+
+import com.google.common.collect.ImmutableList;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static net.quedex.api.testcommons.Utils.$;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class PooledUserStreamTest {
+
+    @Mock private WebsocketUserStream first;
+    @Mock private WebsocketUserStream second;
+    @Mock private OrderListener orderListener;
+    @Mock private AccountStateListener accountStateListener;
+
+    private PooledUserStream pooledUserStream;
+    private OrderListener firstListener;
+    private OrderListener secondListener;
+
+    @BeforeMethod
+    public void setUp() {
+        initMocks(this);
+        pooledUserStream = new PooledUserStream(ImmutableList.of(first, second));
+        pooledUserStream.registerOrderListener(orderListener);
+        pooledUserStream.registerAccountStateListener(accountStateListener);
+        ArgumentCaptor<OrderListener> captor = ArgumentCaptor.forClass(OrderListener.class);
+        verify(first).registerOrderListener(captor.capture());
+        firstListener = captor.getValue();
+        verify(second).registerOrderListener(captor.capture());
+        secondListener = captor.getValue();
+    }
+
+    @Test
+    public void testRoutesCommandsStickyPerInstrument() {
+
+        // given
+        LimitOrderSpec evenInstrument = new LimitOrderSpec(1, 8, OrderSide.BUY, 1, $(100));
+        LimitOrderSpec oddInstrument = new LimitOrderSpec(2, 7, OrderSide.BUY, 1, $(100));
+
+        // when
+        pooledUserStream.placeOrder(evenInstrument);
+        pooledUserStream.placeOrder(oddInstrument);
+        pooledUserStream.modifyOrder(new OrderModificationSpec(2, 5));
+        pooledUserStream.cancelOrder(new OrderCancelSpec(1));
+        pooledUserStream.cancelOrder(new OrderCancelSpec(3)); // unknown order
+
+        // then
+        verify(first).placeOrder(evenInstrument);
+        verify(second).placeOrder(oddInstrument);
+        verify(second).modifyOrder(new OrderModificationSpec(2, 5));
+        verify(first).cancelOrder(new OrderCancelSpec(1));
+        verify(first).cancelOrder(new OrderCancelSpec(3));
+    }
+
+    @Test
+    public void testSplitsBatchPerConnection() {
+
+        // given
+        pooledUserStream.placeOrder(new LimitOrderSpec(1, 7, OrderSide.BUY, 1, $(100)));
+
+        // when
+        pooledUserStream.batch()
+                .placeOrder(new LimitOrderSpec(2, 8, OrderSide.SELL, 1, $(100)))
+                .cancelOrder(new OrderCancelSpec(1))
+                .placeOrder(new LimitOrderSpec(3, 7, OrderSide.SELL, 1, $(101)))
+                .send();
+
+        // then
+        verify(first).batch(ImmutableList.of(new LimitOrderSpec(2, 8, OrderSide.SELL, 1, $(100))));
+        verify(second).batch(ImmutableList.of(
+                new OrderCancelSpec(1),
+                new LimitOrderSpec(3, 7, OrderSide.SELL, 1, $(101))
+        ));
+    }
+
+    @Test
+    public void testUndoesRoutingAndTrackingOfCommandsNotSent() {
+
+        // given
+        OrderTracker orderTracker = new OrderTracker();
+        pooledUserStream.registerOrderTracker(orderTracker);
+        secondListener.onOrderPlaced(new OrderPlaced(1, 7, $(100), OrderSide.BUY, 5, 5));
+        LimitOrderSpec placement = new LimitOrderSpec(2, 7, OrderSide.BUY, 1, $(99));
+        OrderModificationSpec modification = new OrderModificationSpec(1, 3);
+        doThrow(new PreTradeRiskException(RiskRejectReason.ORDER_QUANTITY, placement))
+                .when(second).placeOrder(placement);
+        doThrow(new IllegalStateException("Outbound queue closed")).when(second).modifyOrder(modification);
+
+        // when
+        Throwable placeFailure = catchThrowable(() -> pooledUserStream.placeOrder(placement));
+        Throwable modifyFailure = catchThrowable(() -> pooledUserStream.modifyOrder(modification));
+        secondListener.onOrderModified(new OrderModified(1)); // confirming a modification sent some other way
+        pooledUserStream.cancelOrder(new OrderCancelSpec(2));
+
+        // then
+        assertThat(placeFailure).isInstanceOf(PreTradeRiskException.class);
+        assertThat(modifyFailure).isInstanceOf(IllegalStateException.class);
+        assertThat(orderTracker.getSnapshot().getOrder(1).getQuantity()).isEqualTo(5);
+        verify(first).cancelOrder(new OrderCancelSpec(2)); // not routed as an order placed via the second connection
+    }
+
+    @Test
+    public void testUndoesTrackingOfAsyncModificationNotSent() {
+
+        // given
+        OrderTracker orderTracker = new OrderTracker();
+        pooledUserStream.registerOrderTracker(orderTracker);
+        secondListener.onOrderPlaced(new OrderPlaced(1, 7, $(100), OrderSide.BUY, 5, 5));
+        OrderModificationSpec modification = new OrderModificationSpec(1, 3);
+        CompletableFuture<OrderModified> rejected = new CompletableFuture<>();
+        rejected.completeExceptionally(new PreTradeRiskException(RiskRejectReason.ORDER_QUANTITY, modification));
+        when(second.modifyOrderAsync(modification)).thenReturn(rejected);
+
+        // when
+        CompletableFuture<OrderModified> future = pooledUserStream.modifyOrderAsync(modification);
+        secondListener.onOrderModified(new OrderModified(1));
+
+        // then
+        assertThat(future).isCompletedExceptionally();
+        assertThat(orderTracker.getSnapshot().getOrder(1).getQuantity()).isEqualTo(5);
+    }
+
+    @Test
+    public void testPassesOnFirstCopyOfEachEvent() {
+
+        // given
+        OrderModified modified = new OrderModified(1);
+        OrderCancelled cancelled = new OrderCancelled(1);
+
+        // when
+        firstListener.onOrderModified(modified);
+        secondListener.onOrderModified(modified);
+        secondListener.onOrderModified(modified); // second modification, first seen by the second connection
+        secondListener.onOrderCancelled(cancelled);
+        firstListener.onOrderModified(modified);
+        firstListener.onOrderCancelled(cancelled);
+
+        // then
+        InOrder inOrder = inOrder(orderListener);
+        inOrder.verify(orderListener, times(2)).onOrderModified(modified);
+        inOrder.verify(orderListener).onOrderCancelled(cancelled);
+        assertThat(pooledUserStream.getFirstArrivalCounts()).containsExactly(1, 2);
+    }
+
+    @Test
+    public void testMergesOtherEvents() {
+
+        // given
+        ArgumentCaptor<AccountStateListener> captor = ArgumentCaptor.forClass(AccountStateListener.class);
+        verify(first).registerAccountStateListener(captor.capture());
+        verify(second).registerAccountStateListener(captor.capture());
+        AccountState accountState =
+                new AccountState($(1), $(1), $(0), $(0), $(0), $(0), $(0), AccountState.Status.ACTIVE);
+
+        // when
+        captor.getAllValues().get(1).onAccountState(accountState);
+        captor.getAllValues().get(0).onAccountState(accountState);
+
+        // then
+        verify(accountStateListener).onAccountState(accountState);
+    }
+
+    @Test
+    public void testCancelsAllViaConnectionOfEachInstrument() {
+
+        // given
+        OrderTracker orderTracker = new OrderTracker();
+        pooledUserStream.registerOrderTracker(orderTracker);
+        firstListener.onOrderPlaced(new OrderPlaced(1, 7, $(100), OrderSide.BUY, 1, 1));
+        firstListener.onOrderPlaced(new OrderPlaced(2, 8, $(100), OrderSide.SELL, 1, 1));
+        when(first.cancelOrders(any(), any(), any(), any())).thenReturn(1);
+        when(second.cancelOrders(any(), any(), any(), any())).thenReturn(1);
+
+        // when
+        int cancelled = pooledUserStream.cancelAll();
+
+        // then
+        assertThat(cancelled).isEqualTo(2);
+        verify(second).cancelOrders(
+                eq(orderTracker.getSnapshot().getOrders(7)), isNull(Integer.class), isNull(OrderSide.class), any());
+        verify(first).cancelOrders(
+                eq(orderTracker.getSnapshot().getOrders(8)), isNull(Integer.class), isNull(OrderSide.class), any());
+    }
+
+    @Test
+    public void testForgetsEventsReceivedByAllConnections() {
+
+        // given
+        PooledUserStream.EventDeduplicator deduplicator = new PooledUserStream.EventDeduplicator(2, 2);
+
+        // then
+        assertThat(deduplicator.isFirst(0, "a")).isTrue();
+        assertThat(deduplicator.isFirst(0, "b")).isTrue();
+        assertThat(deduplicator.isFirst(1, "a")).isFalse();
+        assertThat(deduplicator.trackedEvents()).isEqualTo(1);
+        assertThat(deduplicator.isFirst(0, "c")).isTrue();
+        assertThat(deduplicator.isFirst(0, "d")).isTrue(); // evicts b
+        assertThat(deduplicator.trackedEvents()).isEqualTo(2);
+        assertThat(deduplicator.isFirst(1, "a")).isTrue(); // received again, e.g. equal event
+    }
+}
@@ -0,0 +1,81 @@
+package net.quedex.api.user;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+
+import static net.quedex.api.testcommons.Utils.$;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PortfolioStateTest {
+
+    private PortfolioState portfolioState;
+
+    @BeforeMethod
+    public void setUp() {
+        portfolioState = new PortfolioState();
+    }
+
+    @Test
+    public void testIsEmptyInitially() {
+
+        // then
+        assertThat(portfolioState.getVersion()).isEqualTo(0);
+        assertThat(portfolioState.getAccountState()).isNull();
+        assertThat(portfolioState.getPosition(1)).isNull();
+        assertThat(portfolioState.getPositions()).isEmpty();
+    }
+
+    @Test
+    public void testKeepsLatestStatePerInstrument() {
+
+        // given
+        OpenPosition first = position(7, OpenPosition.PositionSide.LONG, 5);
+        OpenPosition second = position(8, OpenPosition.PositionSide.SHORT, 2);
+        OpenPosition firstUpdated = position(7, OpenPosition.PositionSide.LONG, 0);
+        AccountState accountState = accountState($(10));
+
+        // when
+        portfolioState.onOpenPosition(first);
+        portfolioState.onOpenPosition(second);
+        portfolioState.onOpenPosition(firstUpdated);
+        portfolioState.onAccountState(accountState);
+
+        // then
+        assertThat(portfolioState.getVersion()).isEqualTo(4);
+        assertThat(portfolioState.getPosition(7)).isEqualTo(firstUpdated);
+        assertThat(portfolioState.getPosition(8)).isEqualTo(second);
+        assertThat(portfolioState.getPositions()).containsOnlyKeys(7, 8);
+        assertThat(portfolioState.getAccountState()).isEqualTo(accountState);
+    }
+
+    @Test
+    public void testSnapshotIsNotAffectedByLaterEvents() {
+
+        // given
+        OpenPosition position = position(7, OpenPosition.PositionSide.LONG, 5);
+        AccountState accountState = accountState($(10));
+        portfolioState.onOpenPosition(position);
+        portfolioState.onAccountState(accountState);
+        PortfolioState.Snapshot snapshot = portfolioState.getSnapshot();
+
+        // when
+        portfolioState.onOpenPosition(position(7, OpenPosition.PositionSide.SHORT, 1));
+        portfolioState.onAccountState(accountState($(9)));
+
+        // then
+        assertThat(snapshot.getVersion()).isEqualTo(2);
+        assertThat(snapshot.getPosition(7)).isEqualTo(position);
+        assertThat(snapshot.getAccountState()).isEqualTo(accountState);
+        assertThat(portfolioState.getVersion()).isEqualTo(4);
+    }
+
+    private static OpenPosition position(int instrumentId, OpenPosition.PositionSide side, int quantity) {
+        return new OpenPosition(instrumentId, $(0), $(1), $(2), side, quantity, $(100));
+    }
+
+    private static AccountState accountState(BigDecimal freeBalance) {
+        return new AccountState($(10), freeBalance, $(0), $(0), $(0), $(0), $(0), AccountState.Status.ACTIVE);
+    }
+}
@@ -0,0 +1,119 @@
+package net.quedex.api.user;
+
+import com.google.common.collect.ImmutableList;
+import net.quedex.api.market.Instrument;
+import net.quedex.api.market.Quotes;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+
+import static net.quedex.api.testcommons.Utils.$;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PreTradeRiskCheckerTest {
+
+    private static final int INSTRUMENT_ID = 7;
+
+    private PreTradeRiskChecker checker;
+
+    @BeforeMethod
+    public void setUp() {
+        Instrument instrument = new Instrument(
+                "FUT", INSTRUMENT_ID, Instrument.Type.INVERSE_FUTURES, null, $("0.01"), 1, 2, "USD", 2,
+                $(0), $(0), $("0.04"), $("0.03"), null
+        );
+        checker = new PreTradeRiskChecker(ImmutableList.of(instrument), 80, 100, $("0.1"), 50, 2);
+        checker.onQuotes(new Quotes(INSTRUMENT_ID, $(100), 1, $(99), 1, $(101), 1, 10, 10));
+    }
+
+    @Test
+    public void testAcceptsOrderWithinLimits() {
+
+        // when
+        RiskRejectReason rejectReason = checker.check(buy(1, 40, $(95)));
+
+        // then
+        assertThat(rejectReason).isNull();
+        assertThat(checker.getOpenOrderCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRejectsOrdersBreachingLimits() {
+
+        // then
+        assertThat(checker.check(new LimitOrderSpec(1, 8, OrderSide.BUY, 1, $(100))))
+                .isEqualTo(RiskRejectReason.UNKNOWN_INSTRUMENT);
+        assertThat(checker.check(buy(1, 90, $(100)))).isEqualTo(RiskRejectReason.ORDER_QUANTITY);
+        assertThat(checker.check(buy(1, 60, $(100)))).isEqualTo(RiskRejectReason.ORDER_NOTIONAL);
+        assertThat(checker.check(buy(1, 1, $("110.01")))).isEqualTo(RiskRejectReason.PRICE_BAND);
+        assertThat(checker.check(buy(1, 1, $("89.99")))).isEqualTo(RiskRejectReason.PRICE_BAND);
+        assertThat(checker.getOpenOrderCount()).isZero();
+    }
+
+    @Test
+    public void testRejectsWithoutReferencePrice() {
+
+        // given
+        checker = new PreTradeRiskChecker(ImmutableList.of(new Instrument(
+                "FUT", INSTRUMENT_ID, Instrument.Type.INVERSE_FUTURES, null, $("0.01"), 1, 2, "USD", 1,
+                $(0), $(0), $("0.04"), $("0.03"), null
+        )), 80, 100, $("0.1"), 50, 2);
+
+        // then
+        assertThat(checker.check(buy(1, 1, $(100)))).isEqualTo(RiskRejectReason.NO_REFERENCE_PRICE);
+    }
+
+    @Test
+    public void testLimitsPositionExceptWhenReducing() {
+
+        // given
+        checker.onOpenPosition(new OpenPosition(
+                INSTRUMENT_ID, $(0), $(0), $(0), OpenPosition.PositionSide.LONG, 40, $(100)
+        ));
+
+        // then
+        assertThat(checker.check(buy(1, 20, $(100)))).isEqualTo(RiskRejectReason.POSITION);
+        assertThat(checker.check(new LimitOrderSpec(2, INSTRUMENT_ID, OrderSide.SELL, 45, $(100)))).isNull();
+    }
+
+    @Test
+    public void testLimitsOpenOrdersUntilCompleted() {
+
+        // given
+        checker.onOrderPlaced(new OrderPlaced(1, INSTRUMENT_ID, $(100), OrderSide.BUY, 1, 1)); // welcome package
+        assertThat(checker.check(buy(2, 1, $(100)))).isNull();
+
+        // when
+        RiskRejectReason rejectReason = checker.check(buy(3, 1, $(100)));
+
+        // then
+        assertThat(rejectReason).isEqualTo(RiskRejectReason.OPEN_ORDERS);
+
+        // when
+        checker.onOrderFilled(new OrderFilled(1, INSTRUMENT_ID, $(100), OrderSide.BUY, 1, 0, $(100), 1));
+        checker.onNotSent(buy(2, 1, $(100)));
+
+        // then
+        assertThat(checker.getOpenOrderCount()).isZero();
+        assertThat(checker.check(buy(3, 1, $(100)))).isNull();
+    }
+
+    @Test
+    public void testChecksModificationsOfKnownOrders() {
+
+        // given
+        checker.check(buy(1, 1, $(100)));
+
+        // then
+        assertThat(checker.check(new OrderModificationSpec(1, 60))).isEqualTo(RiskRejectReason.ORDER_NOTIONAL);
+        assertThat(checker.check(new OrderModificationSpec(1, $(120)))).isEqualTo(RiskRejectReason.PRICE_BAND);
+        assertThat(checker.check(new OrderModificationSpec(1, 10, $(105)))).isNull();
+        assertThat(checker.check(new OrderModificationSpec(2, 90))).isEqualTo(RiskRejectReason.ORDER_QUANTITY);
+        assertThat(checker.check(new OrderCancelSpec(1))).isNull();
+    }
+
+    private static LimitOrderSpec buy(long clientOrderId, int quantity, BigDecimal limitPrice) {
+        return new LimitOrderSpec(clientOrderId, INSTRUMENT_ID, OrderSide.BUY, quantity, limitPrice);
+    }
+}
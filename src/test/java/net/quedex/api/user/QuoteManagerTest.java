@@ -0,0 +1,216 @@
+package net.quedex.api.user;
+
+import com.google.common.collect.ImmutableList;
+import org.mockito.Mock;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static net.quedex.api.testcommons.Utils.$;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class QuoteManagerTest {
+
+    private static final int INSTRUMENT_ID = 7;
+
+    @Mock private UserStream userStream;
+
+    private long nextClientOrderId;
+    private QuoteManager quoteManager;
+
+    @BeforeMethod
+    public void setUp() {
+        initMocks(this);
+        nextClientOrderId = 1;
+        quoteManager = new QuoteManager(userStream, () -> nextClientOrderId++);
+    }
+
+    @Test
+    public void testPlacesLadderInSingleBatch() {
+
+        // when
+        List<OrderSpec> batch = quoteManager.updateQuotes(
+                INSTRUMENT_ID,
+                ImmutableList.of(level($(99), 1), level($(98), 2)),
+                ImmutableList.of(level($(101), 3))
+        );
+
+        // then
+        assertThat(batch).containsExactly(
+                new LimitOrderSpec(1, INSTRUMENT_ID, OrderSide.BUY, 1, $(99)),
+                new LimitOrderSpec(2, INSTRUMENT_ID, OrderSide.BUY, 2, $(98)),
+                new LimitOrderSpec(3, INSTRUMENT_ID, OrderSide.SELL, 3, $(101))
+        );
+        verify(userStream).batch(batch);
+        assertThat(quoteManager.getQuoteOrderCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testSendsNothingWhenLadderUnchanged() {
+
+        // given
+        quoteManager.updateQuotes(INSTRUMENT_ID, ImmutableList.of(level($(99), 1)), ImmutableList.of());
+
+        // when
+        List<OrderSpec> batch = quoteManager.updateQuotes(
+                INSTRUMENT_ID, ImmutableList.of(level($("99.00"), 1)), ImmutableList.of()
+        );
+
+        // then
+        assertThat(batch).isEmpty();
+    }
+
+    @Test
+    public void testSendsMinimalDiff() {
+
+        // given
+        quoteManager.updateQuotes(
+                INSTRUMENT_ID,
+                ImmutableList.of(level($(99), 1), level($(98), 1)),
+                ImmutableList.of(level($(101), 1), level($(102), 1))
+        );
+
+        // when
+        List<OrderSpec> batch = quoteManager.updateQuotes(
+                INSTRUMENT_ID,
+                ImmutableList.of(level($(100), 1), level($(99), 2), level($(97), 1)),
+                ImmutableList.of(level($(102), 1))
+        );
+
+        // then
+        assertThat(batch).containsExactly(
+                new OrderCancelSpec(3),
+                new OrderModificationSpec(1, 2),
+                new OrderModificationSpec(2, 1, $(100)),
+                new LimitOrderSpec(5, INSTRUMENT_ID, OrderSide.BUY, 1, $(97))
+        );
+        assertThat(quoteManager.getQuoteOrderCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void testFollowsOrderEvents() {
+
+        // given
+        quoteManager.updateQuotes(
+                INSTRUMENT_ID,
+                ImmutableList.of(level($(99), 5), level($(98), 5)),
+                ImmutableList.of(level($(101), 5))
+        );
+
+        // when
+        quoteManager.onOrderPlaceFailed(new OrderPlaceFailed(2, OrderPlaceFailed.Cause.SESSION_NOT_ACTIVE));
+        quoteManager.onOrderFilled(new OrderFilled(1, INSTRUMENT_ID, $(99), OrderSide.BUY, 5, 3, $(99), 2));
+        quoteManager.onOrderFilled(new OrderFilled(3, INSTRUMENT_ID, $(101), OrderSide.SELL, 5, 0, $(101), 5));
+        List<OrderSpec> batch = quoteManager.updateQuotes(
+                INSTRUMENT_ID,
+                ImmutableList.of(level($(99), 3), level($(98), 5)),
+                ImmutableList.of(level($(101), 5))
+        );
+
+        // then
+        assertThat(batch).containsExactly(
+                new LimitOrderSpec(4, INSTRUMENT_ID, OrderSide.BUY, 5, $(98)),
+                new LimitOrderSpec(5, INSTRUMENT_ID, OrderSide.SELL, 5, $(101))
+        );
+    }
+
+    @Test
+    public void testReplacesOrderWithFailedModification() {
+
+        // given
+        quoteManager.updateQuotes(INSTRUMENT_ID, ImmutableList.of(level($(99), 1)), ImmutableList.of());
+        quoteManager.updateQuotes(INSTRUMENT_ID, ImmutableList.of(level($(99), 2)), ImmutableList.of());
+
+        // when
+        quoteManager.onOrderModificationFailed(
+                new OrderModificationFailed(1, OrderModificationFailed.Cause.INVALID_ORDER_ID)
+        );
+        List<OrderSpec> batch = quoteManager.updateQuotes(
+                INSTRUMENT_ID, ImmutableList.of(level($(99), 2)), ImmutableList.of()
+        );
+
+        // then
+        assertThat(batch).containsExactly(
+                new OrderCancelSpec(1),
+                new LimitOrderSpec(2, INSTRUMENT_ID, OrderSide.BUY, 2, $(99))
+        );
+    }
+
+    @Test
+    public void testDoesNotReuseOrdersBeingCancelled() {
+
+        // given
+        quoteManager.updateQuotes(INSTRUMENT_ID, ImmutableList.of(level($(99), 1)), ImmutableList.of());
+        quoteManager.cancelQuotes(INSTRUMENT_ID);
+
+        // when
+        List<OrderSpec> batch = quoteManager.updateQuotes(
+                INSTRUMENT_ID, ImmutableList.of(level($(99), 1)), ImmutableList.of()
+        );
+        quoteManager.onOrderCancelled(new OrderCancelled(1));
+
+        // then
+        assertThat(batch).containsExactly(new LimitOrderSpec(2, INSTRUMENT_ID, OrderSide.BUY, 1, $(99)));
+        assertThat(quoteManager.getQuoteOrderCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testKeepsOrdersUnchangedWhenBatchFails() {
+
+        // given
+        quoteManager.updateQuotes(INSTRUMENT_ID, ImmutableList.of(level($(99), 1)), ImmutableList.of());
+        doThrow(new IllegalStateException("Outbound queue closed")).doNothing().when(userStream).batch(any());
+
+        // when
+        Throwable failure = catchThrowable(() -> quoteManager.updateQuotes(
+                INSTRUMENT_ID, ImmutableList.of(level($(98), 2)), ImmutableList.of(level($(101), 1))
+        ));
+        int quoteOrderCount = quoteManager.getQuoteOrderCount();
+        List<OrderSpec> batch = quoteManager.cancelQuotes(INSTRUMENT_ID);
+
+        // then
+        assertThat(failure).isInstanceOf(IllegalStateException.class);
+        assertThat(quoteOrderCount).isEqualTo(1);
+        assertThat(batch).containsExactly(new OrderCancelSpec(1));
+        assertThat(quoteManager.getQuoteOrderCount()).isZero();
+    }
+
+    @Test
+    public void testRetriesCancellationWhichFailedToBeSent() {
+
+        // given
+        quoteManager.updateQuotes(INSTRUMENT_ID, ImmutableList.of(level($(99), 1)), ImmutableList.of());
+        doThrow(new IllegalStateException("Outbound queue closed")).doNothing().when(userStream).batch(any());
+
+        // when
+        Throwable failure = catchThrowable(() -> quoteManager.cancelQuotes(INSTRUMENT_ID));
+        List<OrderSpec> batch = quoteManager.cancelQuotes(INSTRUMENT_ID);
+
+        // then
+        assertThat(failure).isInstanceOf(IllegalStateException.class);
+        assertThat(batch).containsExactly(new OrderCancelSpec(1));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRejectsDuplicatePrices() {
+        try {
+            quoteManager.updateQuotes(
+                    INSTRUMENT_ID, ImmutableList.of(level($(99), 1), level($("99.0"), 2)), ImmutableList.of()
+            );
+        } finally {
+            verify(userStream, never()).batch(any());
+        }
+    }
+
+    private static QuoteManager.Level level(BigDecimal price, int quantity) {
+        return new QuoteManager.Level(price, quantity);
+    }
+}
@@ -0,0 +1,56 @@
+package net.quedex.api.user;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testAllowsBurstThenLimitsRate() {
+
+        // given
+        TokenBucket bucket = new TokenBucket(10, 3, 0);
+
+        // when
+        bucket.consume(3, 0);
+
+        // then
+        assertThat(bucket.nanosUntilAvailable(1, 0)).isEqualTo(SECOND / 10);
+        assertThat(bucket.nanosUntilAvailable(1, SECOND / 10)).isZero();
+        assertThat(bucket.nanosUntilAvailable(2, SECOND / 10)).isEqualTo(SECOND / 10);
+    }
+
+    @Test
+    public void testRefillsUpToBurst() {
+
+        // given
+        TokenBucket bucket = new TokenBucket(10, 3, 0);
+        bucket.consume(3, 0);
+
+        // when
+        long waitNanos = bucket.nanosUntilAvailable(3, 10 * SECOND);
+
+        // then
+        assertThat(waitNanos).isZero();
+        bucket.consume(3, 10 * SECOND);
+        assertThat(bucket.nanosUntilAvailable(1, 10 * SECOND)).isEqualTo(SECOND / 10);
+    }
+
+    @Test
+    public void testCapsPermitsAtBurstAndRepaysDebt() {
+
+        // given
+        TokenBucket bucket = new TokenBucket(10, 2, 0);
+
+        // when
+        bucket.consume(4, 0); // e.g. cancellations, which do not wait
+
+        // then
+        assertThat(bucket.nanosUntilAvailable(5, 0)).isEqualTo(4 * SECOND / 10);
+    }
+}
@@ -16,9 +16,13 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import static net.quedex.api.testcommons.Utils.$;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.doThrow;
@@ -161,6 +165,51 @@ public class UserMessageReceiverTest {
         verify(streamFailureListener, never()).onStreamFailure(any());
     }
 
+    @Test
+    public void testCompletesPendingPlacement() throws Exception {
+        // given
+        CompletableFuture<OrderPlaced> placed = userMessageReceiver.getPendingCommands()
+            .register(PendingCommands.Kind.PLACE, 1470843412276L, TimeUnit.SECONDS.toNanos(10));
+        JsonNode placedJson = MAPPER.getNodeFactory().objectNode()
+            .put("type", "order_placed")
+            .put("client_order_id", 1470843412276L)
+            .put("instrument_id", "47")
+            .put("side", "sell")
+            .put("limit_price", "0.01")
+            .put("initial_quantity", 5)
+            .put("quantity", 5);
+
+        // when
+        userMessageReceiver.processMessage(encryptToTrader(placedJson));
+
+        // then
+        assertThat(placed.getNow(null)).isEqualTo(new OrderPlaced(1470843412276L, 47, $("0.01"), OrderSide.SELL, 5, 5));
+        assertThat(userMessageReceiver.getPendingCommands().getRoundTripLatency().getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRejectsPendingPlacement() throws Exception {
+        // given
+        CompletableFuture<OrderPlaced> placed = userMessageReceiver.getPendingCommands()
+            .register(PendingCommands.Kind.PLACE, 1470843409796L, TimeUnit.SECONDS.toNanos(10));
+        JsonNode placeFailedJson = MAPPER.getNodeFactory().objectNode()
+            .put("type", "order_place_failed")
+            .put("client_order_id", 1470843409796L)
+            .put("cause", "insufficient_funds");
+
+        // when
+        userMessageReceiver.processMessage(encryptToTrader(placeFailedJson));
+
+        // then
+        assertThat(placed).isCompletedExceptionally();
+        try {
+            placed.join();
+        } catch (CompletionException e) {
+            assertThat(((OrderCommandRejectedException) e.getCause()).getRejection())
+                .isEqualTo(new OrderPlaceFailed(1470843409796L, OrderPlaceFailed.Cause.INSUFFICIENT_FUNDS));
+        }
+    }
+
     @Test
     public void testOrderModifiedProcessing() throws Exception {
         // given
@@ -212,6 +261,51 @@ public class UserMessageReceiverTest {
         verify(streamFailureListener, never()).onStreamFailure(any());
     }
 
+    @Test
+    public void testFailsPendingCommandsOfForcefullyCancelledOrder() throws Exception {
+        // given
+        PendingCommands pendingCommands = userMessageReceiver.getPendingCommands();
+        CompletableFuture<OrderModified> modified =
+            pendingCommands.register(PendingCommands.Kind.MODIFY, 1470843412276L, TimeUnit.SECONDS.toNanos(10));
+        CompletableFuture<OrderCancelled> cancelled =
+            pendingCommands.register(PendingCommands.Kind.CANCEL, 1470843412276L, TimeUnit.SECONDS.toNanos(10));
+        JsonNode cancelledJson = MAPPER.getNodeFactory().objectNode()
+            .put("type", "order_forcefully_cancelled")
+            .put("client_order_id", 1470843412276L)
+            .put("cause", "liquidation");
+
+        // when
+        userMessageReceiver.processMessage(encryptToTrader(cancelledJson));
+
+        // then
+        OrderForcefullyCancelled forcefullyCancelled =
+            new OrderForcefullyCancelled(1470843412276L, OrderForcefullyCancelled.Cause.LIQUIDATION);
+        assertThat(catchThrowable(modified::join)).hasCauseInstanceOf(OrderCommandRejectedException.class);
+        assertThat(catchThrowable(cancelled::join)).hasCauseInstanceOf(OrderCommandRejectedException.class);
+        assertThat(((OrderCommandRejectedException) catchThrowable(cancelled::join).getCause()).getRejection())
+            .isEqualTo(forcefullyCancelled);
+        assertThat(pendingCommands.size()).isZero();
+    }
+
+    @Test
+    public void testCompletesPendingCommandBeforeThrowingListener() throws Exception {
+        // given
+        CompletableFuture<OrderCancelled> cancelled = userMessageReceiver.getPendingCommands()
+            .register(PendingCommands.Kind.CANCEL, 1470843412276L, TimeUnit.SECONDS.toNanos(10));
+        doThrow(new IllegalStateException("listener failure")).when(orderListener).onOrderCancelled(any());
+        userMessageReceiver.registerOrderListener(orderListener);
+        JsonNode cancelledJson = MAPPER.getNodeFactory().objectNode()
+            .put("type", "order_cancelled")
+            .put("client_order_id", 1470843412276L);
+
+        // when
+        userMessageReceiver.processMessage(encryptToTrader(cancelledJson));
+
+        // then
+        assertThat(cancelled.getNow(null)).isEqualTo(new OrderCancelled(1470843412276L));
+        verify(streamFailureListener).onStreamFailure(isA(CommunicationException.class));
+    }
+
     @Test
     public void testOrderCancelFailedProcessing() throws Exception {
         // given
@@ -349,7 +443,7 @@ public class UserMessageReceiverTest {
         userMessageReceiver.processMessage(encryptToTrader(openPositionJson));
 
         // then
-        verify(openPositionListener).onOpenPosition(new OpenPosition(
+        OpenPosition openPosition = new OpenPosition(
                 47,
                 $("0.070676"),
                 $("0.155476"),
@@ -357,7 +451,9 @@ public class UserMessageReceiverTest {
                 OpenPosition.PositionSide.LONG,
                 4,
                 $("0.00176678")
-        ));
+        );
+        verify(openPositionListener).onOpenPosition(openPosition);
+        assertThat(userMessageReceiver.getPortfolioState().getPosition(47)).isEqualTo(openPosition);
         verify(streamFailureListener, never()).onStreamFailure(any());
     }
 
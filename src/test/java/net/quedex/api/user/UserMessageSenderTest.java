@@ -1,22 +1,35 @@
 package net.quedex.api.user;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import net.quedex.api.common.WebsocketTransport;
 import net.quedex.api.pgp.BcEncryptor;
-import org.java_websocket.client.WebSocketClient;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 public class UserMessageSenderTest {
-    private @Mock WebSocketClient wsClient;
+    private @Mock WebsocketTransport transport;
     private @Mock BcEncryptor encryptor;
 
     private UserMessageSender sender;
@@ -24,9 +37,15 @@ public class UserMessageSenderTest {
     @BeforeMethod
     public void setUp() throws Exception {
         initMocks(this);
-        sender = new UserMessageSender(wsClient, 1234, 5, encryptor);
-        when(encryptor.encrypt(any(), anyBoolean()))
-            .thenAnswer(invocation -> invocation.getArgumentAt(0, String.class));
+        sender = new UserMessageSender(transport, 1234, 5, encryptor);
+        sender.start();
+        when(encryptor.encrypt(any(byte[].class), anyInt(), anyInt(), anyBoolean()))
+            .thenAnswer(invocation -> new String(
+                invocation.getArgumentAt(0, byte[].class),
+                invocation.getArgumentAt(1, Integer.class),
+                invocation.getArgumentAt(2, Integer.class),
+                StandardCharsets.UTF_8
+            ));
     }
 
     @Test
@@ -38,7 +57,7 @@ public class UserMessageSenderTest {
         sender.sendInternalTransfer(message);
 
         // then
-        verify(wsClient, timeout(100)).send(
+        verify(transport, timeout(100)).send(
             "{\"destination_account_id\":5678," +
                 "\"amount\":3.1416," +
                 "\"type\":\"internal_transfer\"," +
@@ -47,4 +66,166 @@ public class UserMessageSenderTest {
                 "\"nonce_group\":5}"
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    public void coalescesOrderCommandsWhenAutoBatching() throws Exception {
+        // given
+        sender.enableAutoBatching(10, TimeUnit.SECONDS.toNanos(1));
+
+        // when
+        sender.sendOrderSpec(new OrderCancelSpec(1));
+        sender.sendOrderSpec(new OrderCancelSpec(2));
+        sender.sendBatch(ImmutableList.of(new OrderCancelSpec(3), new OrderCancelSpec(4)));
+
+        // then
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(transport, timeout(2000)).send(captor.capture());
+        JsonNode message = new ObjectMapper().readTree(captor.getValue());
+        assertThat(message.get("type").asText()).isEqualTo("batch");
+        assertThat(message.get("account_id").asLong()).isEqualTo(1234);
+        assertThat(message.get("batch")).hasSize(4);
+        for (int i = 0; i < 4; i++) {
+            JsonNode order = message.get("batch").get(i);
+            assertThat(order.get("client_order_id").asLong()).isEqualTo(i + 1);
+            assertThat(order.get("nonce").asLong()).isEqualTo(i + 1);
+            assertThat(order.get("nonce_group").asInt()).isEqualTo(5);
+        }
+        sender.stop();
+        assertThat(sender.getAutoBatchedCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void splitsCancellationsIntoBatches() throws Exception {
+        // given
+        List<OrderCancelSpec> cancellations = new ArrayList<>();
+        for (int i = 1; i <= UserMessageSender.CANCEL_BATCH_SIZE + 1; i++) {
+            cancellations.add(new OrderCancelSpec(i));
+        }
+
+        // when
+        sender.sendCancellations(cancellations);
+
+        // then
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(transport, timeout(2000).times(2)).send(captor.capture());
+        JsonNode first = new ObjectMapper().readTree(captor.getAllValues().get(0));
+        JsonNode second = new ObjectMapper().readTree(captor.getAllValues().get(1));
+        assertThat(first.get("type").asText()).isEqualTo("batch");
+        assertThat(first.get("batch")).hasSize(UserMessageSender.CANCEL_BATCH_SIZE);
+        assertThat(second.get("batch")).hasSize(1);
+        assertThat(second.get("batch").get(0).get("client_order_id").asLong())
+            .isEqualTo(UserMessageSender.CANCEL_BATCH_SIZE + 1);
+    }
+
+    @Test
+    public void sendsSingleOrderCommandAloneWhenAutoBatching() throws Exception {
+        // given
+        sender.enableAutoBatching(10, 0);
+
+        // when
+        sender.sendOrderSpec(new OrderCancelSpec(1));
+
+        // then
+        verify(transport, timeout(1000)).send(
+            "{\"client_order_id\":1," +
+                "\"type\":\"cancel_order\"," +
+                "\"account_id\":1234," +
+                "\"nonce\":1," +
+                "\"nonce_group\":5}"
+        );
+        assertThat(sender.getAutoBatchedCount()).isZero();
+    }
+
+    @Test
+    public void sendsInNonceOrderWhenEncryptingInParallel() throws Exception {
+        // given
+        Random random = new Random(0);
+        doAnswer(invocation -> {
+            Thread.sleep(random.nextInt(5)); // completes out of order
+            return new String(
+                invocation.getArgumentAt(0, byte[].class),
+                invocation.getArgumentAt(1, Integer.class),
+                invocation.getArgumentAt(2, Integer.class),
+                StandardCharsets.UTF_8
+            );
+        }).when(encryptor).encrypt(any(byte[].class), anyInt(), anyInt(), anyBoolean());
+        sender.enableParallelEncryption(4, 8);
+
+        // when
+        for (int i = 1; i <= 50; i++) {
+            sender.sendOrderSpec(new OrderCancelSpec(i));
+        }
+
+        // then
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(transport, timeout(5000).times(50)).send(captor.capture());
+        for (int i = 0; i < 50; i++) {
+            JsonNode message = new ObjectMapper().readTree(captor.getAllValues().get(i));
+            assertThat(message.get("nonce").asLong()).isEqualTo(i + 1);
+            assertThat(message.get("client_order_id").asLong()).isEqualTo(i + 1);
+        }
+        sender.stop();
+        assertThat(sender.getSendLatency().getCount()).isEqualTo(50);
+    }
+
+    @Test
+    public void sendsCancellationsAheadOfOrdersWaitingForRateLimit() throws Exception {
+        // given
+        sender.enableRateLimit(10, 1);
+        sender.sendOrderSpec(new LimitOrderSpec(1, 7, OrderSide.BUY, 1, BigDecimal.ONE));
+        verify(transport, timeout(1000)).send(anyString()); // takes the only token
+
+        // when
+        sender.sendOrderSpec(new LimitOrderSpec(2, 7, OrderSide.BUY, 1, BigDecimal.ONE));
+        sender.sendOrderSpec(new OrderCancelSpec(3));
+
+        // then
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(transport, timeout(2000).times(3)).send(captor.capture());
+        ObjectMapper mapper = new ObjectMapper();
+        for (int i = 0; i < 3; i++) {
+            JsonNode message = mapper.readTree(captor.getAllValues().get(i));
+            assertThat(message.get("client_order_id").asLong()).isEqualTo(new long[] {1, 3, 2}[i]);
+            assertThat(message.get("nonce").asLong()).isEqualTo(i + 1);
+        }
+        sender.stop();
+        assertThat(sender.getThrottledNanos()).isGreaterThan(0);
+        assertThat(sender.getPriorityQueueDepth()).isZero();
+    }
+
+    @Test
+    public void doesNotSendCancellationAheadOfItsPlacementWaitingForRateLimit() throws Exception {
+        // given
+        sender.enableRateLimit(10, 1);
+        sender.sendOrderSpec(new LimitOrderSpec(1, 7, OrderSide.BUY, 1, BigDecimal.ONE));
+        verify(transport, timeout(1000)).send(anyString()); // takes the only token
+        sender.sendOrderSpec(new LimitOrderSpec(2, 7, OrderSide.BUY, 1, BigDecimal.ONE));
+        while (sender.getQueueDepth() > 0) {
+            Thread.sleep(1); // until the placement waits for the rate limit
+        }
+
+        // when
+        sender.sendOrderSpec(new OrderCancelSpec(2));
+
+        // then
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(transport, timeout(2000).times(3)).send(captor.capture());
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode placement = mapper.readTree(captor.getAllValues().get(1));
+        JsonNode cancellation = mapper.readTree(captor.getAllValues().get(2));
+        assertThat(placement.get("type").asText()).isEqualTo("place_order");
+        assertThat(placement.get("client_order_id").asLong()).isEqualTo(2);
+        assertThat(cancellation.get("type").asText()).isEqualTo("cancel_order");
+        assertThat(cancellation.get("client_order_id").asLong()).isEqualTo(2);
+        sender.stop();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void rejectsCommandsAfterStop() throws Exception {
+        // given
+        sender.stop();
+
+        // when
+        sender.sendOrderSpec(new OrderCancelSpec(1));
+    }
+}
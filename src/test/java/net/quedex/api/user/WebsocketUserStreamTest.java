@@ -0,0 +1,94 @@
+package net.quedex.api.user;
+
+import com.google.common.collect.ImmutableList;
+import net.quedex.api.common.WebsocketTransport;
+import net.quedex.api.pgp.BcPrivateKey;
+import net.quedex.api.pgp.BcPublicKey;
+import net.quedex.api.testcommons.Keys;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+import static net.quedex.api.testcommons.Utils.$;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.mock;
+
+public class WebsocketUserStreamTest {
+
+    private OrderTracker orderTracker;
+    private WebsocketUserStream stream;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        orderTracker = new OrderTracker();
+        stream = new WebsocketUserStream(
+                "wss://localhost/user",
+                1234,
+                5,
+                BcPublicKey.fromArmored(Keys.QUEDEX_PUBLIC),
+                BcPrivateKey.fromArmored(Keys.TRADER_PRIVATE),
+                (uri, listener) -> mock(WebsocketTransport.class)
+        );
+        stream.registerOrderTracker(orderTracker);
+        orderTracker.onOrderPlaced(new OrderPlaced(1, 7, $(100), OrderSide.BUY, 5, 5));
+    }
+
+    @Test
+    public void testForgetsModificationWhichCouldNotBeSent() throws Exception {
+
+        // given
+        stream.stop();
+
+        // when
+        Throwable failure = catchThrowable(() -> stream.modifyOrder(new OrderModificationSpec(1, 3, $(99))));
+        orderTracker.onOrderModified(new OrderModified(1)); // confirming a modification sent some other way
+
+        // then
+        assertThat(failure).isInstanceOf(IllegalStateException.class);
+        assertThat(orderTracker.getSnapshot().getOrder(1).getQuantity()).isEqualTo(5);
+        assertThat(orderTracker.getSnapshot().getOrder(1).getLimitPrice()).isEqualTo($(100));
+    }
+
+    @Test
+    public void testForgetsModificationsOfBatchWhichCouldNotBeSent() throws Exception {
+
+        // given
+        stream.stop();
+
+        // when
+        Throwable failure = catchThrowable(() -> stream.batch(ImmutableList.of(
+                new OrderModificationSpec(1, 3),
+                new LimitOrderSpec(2, 7, OrderSide.BUY, 1, $(99))
+        )));
+        orderTracker.onOrderModified(new OrderModified(1));
+
+        // then
+        assertThat(failure).isInstanceOf(IllegalStateException.class);
+        assertThat(orderTracker.getSnapshot().getOrder(1).getQuantity()).isEqualTo(5);
+    }
+
+    @Test
+    public void testCancelAllRemovesQueuedCommandsOfInstrument() throws Exception {
+
+        // given
+        CompletableFuture<OrderPlaced> placed =
+                stream.placeOrderAsync(new LimitOrderSpec(2, 7, OrderSide.BUY, 1, $(99)));
+        CompletableFuture<OrderPlaced> otherPlaced =
+                stream.placeOrderAsync(new LimitOrderSpec(3, 8, OrderSide.BUY, 1, $(99)));
+        stream.modifyOrder(new OrderModificationSpec(1, 3));
+
+        // when
+        int cancelled = stream.cancelAll(7);
+        orderTracker.onOrderModified(new OrderModified(1)); // confirming a modification sent some other way
+
+        // then
+        assertThat(cancelled).isEqualTo(1);
+        assertThat(placed).isCompletedExceptionally();
+        assertThat(catchThrowable(placed::join)).isInstanceOf(CancellationException.class);
+        assertThat(otherPlaced).isNotDone();
+        assertThat(orderTracker.getSnapshot().getOrder(1).getQuantity()).isEqualTo(5);
+    }
+}